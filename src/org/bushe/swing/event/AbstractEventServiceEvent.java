@@ -27,6 +27,8 @@ public abstract class AbstractEventServiceEvent implements EventServiceEvent, Pu
    private Object source = null;
    protected final Object stateLock = new Object();
    private PublicationStatus publicationStatus = PublicationStatus.Unpublished;
+   private EventPool pool;
+   private volatile boolean released;
 
    /**
     * Default constructor
@@ -39,9 +41,79 @@ public abstract class AbstractEventServiceEvent implements EventServiceEvent, Pu
 
    /** @return the source of this event */
    public Object getSource() {
+      checkNotReleased();
       return source;
    }
 
+   /** @param source the source of the event, for events reused from an {@link EventPool} */
+   protected void setSource(Object source) {
+      this.source = source;
+   }
+
+   /**
+    * Keeps a pooled event out of its {@link EventPool}, call this from a subscriber that keeps the event after its
+    * onEvent() returns.  Does nothing for events that are not pooled.
+    */
+   public void retain() {
+      synchronized (stateLock) {
+         pool = null;
+      }
+   }
+
+   /** @return true if this event came from an {@link EventPool} and will be returned to it after publication */
+   public boolean isPooled() {
+      synchronized (stateLock) {
+         return pool != null;
+      }
+   }
+
+   /**
+    * Called when an event from an {@link EventPool} is released, clears its references so they can be garbage
+    * collected.  Subclasses with state should clear it and call super.
+    */
+   protected void recycle() {
+      source = null;
+   }
+
+   /**
+    * Throws if this event was released to an {@link EventPool} in debug mode, subclasses should call this from their
+    * getters.
+    *
+    * @throws IllegalStateException if a subscriber kept the event past its publication without retaining it
+    */
+   protected void checkNotReleased() {
+      if (released) {
+         throw new IllegalStateException("A pooled " + getClass().getName() + " was used after its publication "
+                 + "completed, subscribers that keep pooled events must call retain().");
+      }
+   }
+
+   /** Called by the EventPool when acquired. */
+   void acquired(EventPool pool) {
+      synchronized (stateLock) {
+         this.pool = pool;
+         this.publicationStatus = PublicationStatus.Unpublished;
+      }
+      released = false;
+   }
+
+   /** Called by the EventPool in debug mode. */
+   void markReleased() {
+      released = true;
+   }
+
+   /** Called by the EventService when its publication is over, returns the event to its pool unless retained. */
+   void releaseToPool() {
+      EventPool eventPool;
+      synchronized (stateLock) {
+         eventPool = pool;
+         pool = null;
+      }
+      if (eventPool != null) {
+         eventPool.release(this);
+      }
+   }
+
    public PublicationStatus getPublicationStatus() {
       synchronized (stateLock) {
          return publicationStatus;
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+/**
+ * How a {@link ThreadSafeEventService} records where a publication was made when the publication is delivered on
+ * another thread, such as the Swing Event Dispatch Thread by the {@link SwingEventService} or a no-wait
+ * {@link FanOut}.  A subscriber exception on that thread then carries the publisher's stack as the calling stack of
+ * its {@link org.bushe.swing.exception.SwingException}.
+ * <p/>
+ * Recording a call site only records the stack, which is cheap compared to <code>Thread.getStackTrace()</code>.  The
+ * StackTraceElements are not created unless a subscriber throws, and then only up to the maximum depth.  Publications
+ * delivered on the publishing thread need no call site, since the subscriber's exception already has the publisher on
+ * its stack.
+ * <ul>
+ * <li>{@link #NONE} records nothing, the default.
+ * <li>{@link #sampled(int)} records every Nth publication, to debug production failures at a fraction of the cost.
+ * <li>{@link #always()} records every publication.
+ * </ul>
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see ThreadSafeEventService#setCallSiteCapture(CallSiteCapture)
+ */
+public final class CallSiteCapture {
+   /** The maximum number of stack frames kept by {@link #always()} and {@link #sampled(int)}, {@value} */
+   public static final int DEFAULT_MAX_DEPTH = 32;
+
+   /** Records no call sites */
+   public static final CallSiteCapture NONE = new CallSiteCapture(0, 0);
+
+   private static final String[] EVENT_BUS_CLASSES = {CallSiteCapture.class.getName(),
+           ThreadSafeEventService.class.getName(), SwingEventService.class.getName(), ParallelDelivery.class.getName(),
+           EventBus.class.getName(), TopicHandle.class.getName()};
+
+   private final int sampleRate;
+   private final int maxDepth;
+   //Deliberately not synchronized, sampling only needs to be approximately 1/N
+   private int publicationCount;
+
+   private CallSiteCapture(int sampleRate, int maxDepth) {
+      this.sampleRate = sampleRate;
+      this.maxDepth = maxDepth;
+   }
+
+   /** @return a capture mode that records every publication's call site, {@link #DEFAULT_MAX_DEPTH} frames deep */
+   public static CallSiteCapture always() {
+      return always(DEFAULT_MAX_DEPTH);
+   }
+
+   /**
+    * @param maxDepth the maximum number of stack frames to keep, counted from the call into the EventBus
+    * @return a capture mode that records every publication's call site
+    */
+   public static CallSiteCapture always(int maxDepth) {
+      return sampled(1, maxDepth);
+   }
+
+   /**
+    * @param oneIn records the call site of one in this many publications
+    * @return a capture mode that samples call sites, {@link #DEFAULT_MAX_DEPTH} frames deep
+    */
+   public static CallSiteCapture sampled(int oneIn) {
+      return sampled(oneIn, DEFAULT_MAX_DEPTH);
+   }
+
+   /**
+    * @param oneIn records the call site of one in this many publications
+    * @param maxDepth the maximum number of stack frames to keep, counted from the call into the EventBus
+    * @return a capture mode that samples call sites
+    */
+   public static CallSiteCapture sampled(int oneIn, int maxDepth) {
+      if (oneIn < 1) {
+         throw new IllegalArgumentException("Sample rate must be at least 1, was " + oneIn);
+      }
+      if (maxDepth < 1) {
+         throw new IllegalArgumentException("Maximum depth must be at least 1, was " + maxDepth);
+      }
+      return new CallSiteCapture(oneIn, maxDepth);
+   }
+
+   /** @return records one in this many call sites, 0 if none */
+   public int getSampleRate() {
+      return sampleRate;
+   }
+
+   /** @return the maximum number of stack frames kept, 0 if no call sites are recorded */
+   public int getMaxDepth() {
+      return maxDepth;
+   }
+
+   /** @return the current call site if this publication is sampled, otherwise null */
+   CallSite capture() {
+      if (sampleRate == 0) {
+         return null;
+      }
+      if (sampleRate > 1 && ++publicationCount % sampleRate != 0) {
+         return null;
+      }
+      return new CallSite(new Throwable(), maxDepth);
+   }
+
+   public String toString() {
+      return sampleRate == 0 ? "CallSiteCapture{none}"
+              : "CallSiteCapture{oneIn=" + sampleRate + ", maxDepth=" + maxDepth + "}";
+   }
+
+   /**
+    * A recorded call site.  The Throwable holds the stack without creating StackTraceElements, they are created, with
+    * the EventBus's own frames removed, the first time the stack is asked for.
+    */
+   static final class CallSite {
+      private final Throwable recorded;
+      private final int maxDepth;
+      private StackTraceElement[] stackTrace;
+
+      CallSite(Throwable recorded, int maxDepth) {
+         this.recorded = recorded;
+         this.maxDepth = maxDepth;
+      }
+
+      synchronized StackTraceElement[] getStackTrace() {
+         if (stackTrace == null) {
+            StackTraceElement[] full = recorded.getStackTrace();
+            int start = 0;
+            while (start < full.length - 1 && isEventBusFrame(full[start])) {
+               start++;
+            }
+            stackTrace = new StackTraceElement[Math.min(maxDepth, full.length - start)];
+            System.arraycopy(full, start, stackTrace, 0, stackTrace.length);
+         }
+         return stackTrace;
+      }
+
+      private static boolean isEventBusFrame(StackTraceElement frame) {
+         String className = frame.getClassName();
+         for (int i = 0; i < EVENT_BUS_CLASSES.length; i++) {
+            if (className.equals(EVENT_BUS_CLASSES[i]) || className.startsWith(EVENT_BUS_CLASSES[i] + "$")) {
+               return true;
+            }
+         }
+         return false;
+      }
+   }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+/**
+ * A named group of competing subscribers.  Every publication to the class, topic or pattern the group is subscribed
+ * to is delivered to exactly one member of the group, so a CPU heavy subscriber can be scaled across several
+ * instances, each publication being handled once.  Join a group with the <code>subscribeToGroup()</code> methods of
+ * {@link ThreadSafeEventService}, or with the group attributes of the subscriber annotations.
+ * <ul>
+ * <li>{@link #roundRobin(String)} takes turns among the members.
+ * <li>{@link #leastOutstanding(String)} picks the member with the fewest publications being delivered to it, for
+ * groups published to from several threads or delivered on several threads by a {@link FanOut}.
+ * <li>{@link #keyAffinity(String, EventAttribute)} always picks the same member for publications with equal keys,
+ * as long as the members don't change.
+ * </ul>
+ * A group is one subscriber of its class, topic or pattern, and is called in its place among the other subscribers
+ * like any subscriber is.  Broadcast subscribers of the same class, topic or pattern still get every publication.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public final class ConsumerGroup {
+
+   /** How a ConsumerGroup picks the member that gets a publication. */
+   public enum Strategy {
+      /** Takes turns among the members. */
+      ROUND_ROBIN,
+      /** Picks the member with the fewest publications being delivered to it. */
+      LEAST_OUTSTANDING,
+      /** Picks a member by the hash of a key of the publication. */
+      KEY_AFFINITY
+   }
+
+   private final String name;
+   private final Strategy strategy;
+   private final EventAttribute key;
+
+   private ConsumerGroup(String name, Strategy strategy, EventAttribute key) {
+      if (name == null || name.length() == 0) {
+         throw new IllegalArgumentException("Consumer group name must not be null or empty");
+      }
+      this.name = name;
+      this.strategy = strategy;
+      this.key = key;
+   }
+
+   /**
+    * @param name the name of the group, unique per class, topic or pattern
+    *
+    * @return a group whose members take turns
+    */
+   public static ConsumerGroup roundRobin(String name) {
+      return new ConsumerGroup(name, Strategy.ROUND_ROBIN, null);
+   }
+
+   /**
+    * @param name the name of the group, unique per class, topic or pattern
+    *
+    * @return a group that delivers to the member with the fewest publications being delivered to it
+    */
+   public static ConsumerGroup leastOutstanding(String name) {
+      return new ConsumerGroup(name, Strategy.LEAST_OUTSTANDING, null);
+   }
+
+   /**
+    * @param name the name of the group, unique per class, topic or pattern
+    * @param key the attribute of the event or topic data that picks the member, or null to use the event or topic
+    * data itself
+    *
+    * @return a group that delivers publications with equal keys to the same member
+    */
+   public static ConsumerGroup keyAffinity(String name, EventAttribute key) {
+      return new ConsumerGroup(name, Strategy.KEY_AFFINITY, key);
+   }
+
+   /** @return the name of the group */
+   public String getName() {
+      return name;
+   }
+
+   /** @return how the group picks the member that gets a publication */
+   public Strategy getStrategy() {
+      return strategy;
+   }
+
+   /** @return the attribute that keys a {@link Strategy#KEY_AFFINITY} group, null if the event itself is the key */
+   public EventAttribute getKey() {
+      return key;
+   }
+
+   public boolean equals(Object obj) {
+      if (!(obj instanceof ConsumerGroup)) {
+         return false;
+      }
+      ConsumerGroup other = (ConsumerGroup) obj;
+      return name.equals(other.name) && strategy == other.strategy
+              && (key == null ? other.key == null : key.equals(other.key));
+   }
+
+   public int hashCode() {
+      return name.hashCode() * 31 + strategy.hashCode();
+   }
+
+   public String toString() {
+      return "ConsumerGroup{name='" + name + "', strategy=" + strategy + (key == null ? "" : ", key=" + key) + "}";
+   }
+}
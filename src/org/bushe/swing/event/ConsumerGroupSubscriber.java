@@ -0,0 +1,245 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+/**
+ * The entry subscribed for a {@link ConsumerGroup} by the <code>subscribeToGroup()</code> methods of
+ * {@link ThreadSafeEventService}.  Delivers each publication to one of its members, which are held in a copy on write
+ * array, so joining or leaving the group does not change the subscribers of its class, topic or pattern.
+ * <p/>
+ * Members are held weakly or strongly as they were subscribed, ProxySubscribers are always held strongly.  Members
+ * that were garbage collected are dropped when they are picked, and the group unsubscribes itself once it has no
+ * members left.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class ConsumerGroupSubscriber implements EventSubscriber, EventTopicSubscriber {
+   private static final Member[] NO_MEMBERS = new Member[0];
+
+   private final ConsumerGroup group;
+   private final ThreadSafeEventService eventService;
+   private final Object key;
+   private final Map subscriberMap;
+   private final AtomicInteger turn = new AtomicInteger();
+   //written while holding this
+   private volatile Member[] members = NO_MEMBERS;
+
+   ConsumerGroupSubscriber(ConsumerGroup group, ThreadSafeEventService eventService, Object key, Map subscriberMap) {
+      this.group = group;
+      this.eventService = eventService;
+      this.key = key;
+      this.subscriberMap = subscriberMap;
+   }
+
+   ConsumerGroup getGroup() {
+      return group;
+   }
+
+   /** @return the class, topic or PatternWrapper the group is subscribed to */
+   Object getKey() {
+      return key;
+   }
+
+   Map getSubscriberMap() {
+      return subscriberMap;
+   }
+
+   /** @return the number of members, including those that were garbage collected but not dropped yet */
+   int size() {
+      return members.length;
+   }
+
+   /**
+    * Adds a member, or returns the membership of a subscriber that is already a member.
+    *
+    * @return the member, the entry of the member's Subscription handle
+    */
+   synchronized Member add(Object subscriber, ReferenceStrength referenceStrength) {
+      Member[] current = members;
+      for (int i = 0; i < current.length; i++) {
+         if (current[i].get() == subscriber) {
+            return current[i];
+         }
+      }
+      Object held = referenceStrength == ReferenceStrength.WEAK ? new WeakReference<Object>(subscriber) : subscriber;
+      Member member = new Member(this, held);
+      Member[] added = new Member[current.length + 1];
+      System.arraycopy(current, 0, added, 0, current.length);
+      added[current.length] = member;
+      members = added;
+      return member;
+   }
+
+   /** @return true if the member was still in the group */
+   synchronized boolean remove(Member member) {
+      Member[] current = members;
+      for (int i = 0; i < current.length; i++) {
+         if (current[i] == member) {
+            Member[] removed = new Member[current.length - 1];
+            System.arraycopy(current, 0, removed, 0, i);
+            System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+            members = removed;
+            if (member.subscriber instanceof ProxySubscriber) {
+               ((ProxySubscriber) member.subscriber).proxyUnsubscribed();
+            }
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Removes the members that are a subscriber or proxy it, for quarantining the subscriber.
+    *
+    * @return true if the subscriber was a member
+    */
+   synchronized boolean removeSubscriber(Object subscriber) {
+      Member[] current = members;
+      boolean removed = false;
+      for (int i = 0; i < current.length; i++) {
+         Object member = current[i].get();
+         if (member == subscriber || (member instanceof ProxySubscriber
+                 && ((ProxySubscriber) member).getProxiedSubscriber() == subscriber)) {
+            removed |= remove(current[i]);
+         }
+      }
+      return removed;
+   }
+
+   /** Removes all members, telling ProxySubscribers they are unsubscribed, when the group is cleared out. */
+   synchronized void clear() {
+      Member[] current = members;
+      members = NO_MEMBERS;
+      for (int i = 0; i < current.length; i++) {
+         if (current[i].subscriber instanceof ProxySubscriber) {
+            ((ProxySubscriber) current[i].subscriber).proxyUnsubscribed();
+         }
+      }
+   }
+
+   public void onEvent(Object event) {
+      deliver(event, null, null);
+   }
+
+   public void onEvent(String topic, Object data) {
+      deliver(null, topic, data);
+   }
+
+   private void deliver(Object event, String topic, Object eventObj) {
+      Member[] current = members;
+      while (current.length > 0) {
+         Member member = pick(current, event != null ? event : eventObj);
+         Object subscriber = member.get();
+         if (subscriber == null) {
+            drop(member);
+            current = members;
+            continue;
+         }
+         member.outstanding.incrementAndGet();
+         try {
+            if (event != null) {
+               ((EventSubscriber) subscriber).onEvent(event);
+            } else {
+               ((EventTopicSubscriber) subscriber).onEvent(topic, eventObj);
+            }
+         } catch (Throwable e) {
+            //Reported against the member that threw, not the group
+            if (event != null) {
+               eventService.handleException(event, e, null, (EventSubscriber) subscriber);
+            } else {
+               eventService.onEventException(topic, eventObj, e, null, (EventTopicSubscriber) subscriber);
+            }
+         } finally {
+            member.outstanding.decrementAndGet();
+         }
+         return;
+      }
+   }
+
+   private Member pick(Member[] current, Object item) {
+      if (current.length == 1) {
+         return current[0];
+      }
+      switch (group.getStrategy()) {
+         case KEY_AFFINITY:
+            EventAttribute attribute = group.getKey();
+            Object value = attribute == null || item == null ? item : attribute.getValue(item);
+            int hash = value == null ? 0 : value.hashCode();
+            hash ^= hash >>> 16;
+            return current[(hash & Integer.MAX_VALUE) % current.length];
+         case LEAST_OUTSTANDING:
+            //Start where round robin would, so that idle members take turns
+            int start = (turn.getAndIncrement() & Integer.MAX_VALUE) % current.length;
+            Member least = current[start];
+            int leastOutstanding = least.outstanding.get();
+            for (int i = 1; i < current.length && leastOutstanding > 0; i++) {
+               Member member = current[(start + i) % current.length];
+               int outstanding = member.outstanding.get();
+               if (outstanding < leastOutstanding) {
+                  least = member;
+                  leastOutstanding = outstanding;
+               }
+            }
+            return least;
+         default:
+            return current[(turn.getAndIncrement() & Integer.MAX_VALUE) % current.length];
+      }
+   }
+
+   /** Drops a garbage collected member, and unsubscribes the group if it was the last one. */
+   private void drop(Member member) {
+      if (remove(member) && members.length == 0) {
+         eventService.removeEmptyConsumerGroup(this);
+      }
+   }
+
+   public String toString() {
+      return "ConsumerGroupSubscriber{" + group + ", members=" + members.length + "}";
+   }
+
+   /** A member of a group, held by the group for as long as it is a member. */
+   static final class Member {
+      private final ConsumerGroupSubscriber groupSubscriber;
+      private final Object subscriber;
+      private final AtomicInteger outstanding = new AtomicInteger();
+
+      Member(ConsumerGroupSubscriber groupSubscriber, Object subscriber) {
+         this.groupSubscriber = groupSubscriber;
+         this.subscriber = subscriber;
+      }
+
+      ConsumerGroupSubscriber getGroupSubscriber() {
+         return groupSubscriber;
+      }
+
+      /** @return the subscriber, or null if it was garbage collected */
+      Object get() {
+         Object resolved = subscriber;
+         if (resolved instanceof WeakReference) {
+            resolved = ((WeakReference) resolved).get();
+         } else if (resolved instanceof ProxySubscriber && ((ProxySubscriber) resolved).getProxiedSubscriber() == null) {
+            resolved = null;
+         }
+         return resolved;
+      }
+   }
+}
@@ -16,6 +16,8 @@
 package org.bushe.swing.event;
 
 import java.awt.Component;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import javax.swing.JComponent;
 import javax.swing.JPopupMenu;
 import javax.swing.RootPaneContainer;
@@ -35,6 +37,10 @@ import javax.swing.RootPaneContainer;
  * If it find one, it returns it.  If it doesn't find one, the top level JComponent (specifically, the highest parent in
  * the hierarchy, typically a JRootPane) has a client property added to it (if not already set) that has the value of a
  * new SwingEventService, which is then returned.  The EventBus is never returned.
+ * <p/>
+ * Where a JComponent's EventService was found, the supplier or the top level JComponent, is cached in one of its client
+ * properties, so that finding it again does not walk the hierarchy.  The cache is cleared when the component or any of
+ * its parents is added to or removed from a container, as reported by a HierarchyEvent.
  *
  * @author Michael Bushe michael@bushe.com
  */
@@ -42,6 +48,8 @@ public class ContainerEventServiceFinder {
    /** The client property used to put a new SwingEventService on top-level components. */
    public static final String CLIENT_PROPERTY_KEY_TOP_LEVEL_EVENT_SERVICE = "ContainerEventServiceFinder.createdService";
 
+   private static final Object CLIENT_PROPERTY_KEY_RESOLUTION = new Object();
+
    /**
     * Walks the component's parents until it find an ContainerEventServiceSupplier and returns the supplier's
     * EventService.  If the component in the tree is a JPopupMenu, then the menu's invoker is walked.
@@ -51,12 +59,67 @@ public class ContainerEventServiceFinder {
     * @return the ContainerEventService of the nearest parent
     */
    public static EventService getEventService(Component component) {
+      Object source = getSource(component);
+      if (source == null) {
+         return null;
+      }
+      if (source instanceof ContainerEventServiceSupplier) {
+         return ((ContainerEventServiceSupplier) source).getContainerEventService();
+      }
+      JComponent jComp = ((JComponent) source);
+      SwingEventService eventService = (SwingEventService) jComp.getClientProperty(CLIENT_PROPERTY_KEY_TOP_LEVEL_EVENT_SERVICE);
+      if (eventService == null) {
+         eventService = new SwingEventService();
+         jComp.putClientProperty(CLIENT_PROPERTY_KEY_TOP_LEVEL_EVENT_SERVICE, eventService);
+      }
+      return eventService;
+   }
+
+   /**
+    * Clears where a component's EventService was found, for when its hierarchy changed and the HierarchyEvent may not
+    * have reached the finder yet.
+    */
+   static void invalidate(JComponent jComp) {
+      Resolution resolution = (Resolution) jComp.getClientProperty(CLIENT_PROPERTY_KEY_RESOLUTION);
+      if (resolution != null) {
+         resolution.clear();
+      }
+   }
+
+   /**
+    * @return the ContainerEventServiceSupplier or the top level JComponent that supplies the component's EventService,
+    * cached on JComponents
+    */
+   private static Object getSource(Component component) {
+      if (!(component instanceof JComponent)) {
+         return findSource(component, null);
+      }
+      JComponent jComp = (JComponent) component;
+      Resolution resolution = (Resolution) jComp.getClientProperty(CLIENT_PROPERTY_KEY_RESOLUTION);
+      if (resolution == null) {
+         resolution = new Resolution();
+         jComp.putClientProperty(CLIENT_PROPERTY_KEY_RESOLUTION, resolution);
+         jComp.addHierarchyListener(resolution);
+      }
+      return resolution.getSource(jComp);
+   }
+
+   /**
+    * Walks the component's parents.  If the walk reaches a JPopupMenu, it continues with the menu's invoker, which is
+    * recorded in the resolution since changing the invoker does not cause a HierarchyEvent.
+    */
+   private static Object findSource(Component component, Resolution resolution) {
       while (component != null) {
          if (component instanceof ContainerEventServiceSupplier) {
-            return ((ContainerEventServiceSupplier) component).getContainerEventService();
+            return component;
          }
          if (component instanceof JPopupMenu) {
-            component = ((JPopupMenu) component).getInvoker();
+            JPopupMenu popup = (JPopupMenu) component;
+            Component invoker = popup.getInvoker();
+            if (resolution != null) {
+               resolution.setPopup(popup, invoker);
+            }
+            return getSource(invoker);
          } else {
             if (component.getParent() == null) {
                //There is no supplier.  Instead of returning null, make an event service
@@ -67,13 +130,7 @@ public class ContainerEventServiceFinder {
                if (!(component instanceof JComponent)) {
                   return null;
                }
-               JComponent jComp = ((JComponent) component);
-               SwingEventService eventService = (SwingEventService) jComp.getClientProperty(CLIENT_PROPERTY_KEY_TOP_LEVEL_EVENT_SERVICE);
-               if (eventService == null) {
-                  eventService = new SwingEventService();
-                  jComp.putClientProperty(CLIENT_PROPERTY_KEY_TOP_LEVEL_EVENT_SERVICE, eventService);
-               }
-               return eventService;
+               return component;
             } else {
                component = component.getParent();
             }
@@ -81,4 +138,48 @@ public class ContainerEventServiceFinder {
       }
       return null;
    }
+
+   /** Where a JComponent's EventService was found, cleared when the component's hierarchy changes */
+   private static class Resolution implements HierarchyListener {
+      private volatile Object source;
+      private volatile JPopupMenu popup;
+      private volatile Component invoker;
+
+      Object getSource(JComponent jComp) {
+         JPopupMenu cachedPopup = popup;
+         if (cachedPopup != null) {
+            Component cachedInvoker = invoker;
+            if (cachedPopup.getInvoker() == cachedInvoker) {
+               //the invoker caches its own source
+               return ContainerEventServiceFinder.getSource(cachedInvoker);
+            }
+            clear();
+         }
+         Object cached = source;
+         if (cached == null) {
+            cached = findSource(jComp, this);
+            if (popup == null) {
+               source = cached;
+            }
+         }
+         return cached;
+      }
+
+      void setPopup(JPopupMenu popup, Component invoker) {
+         this.invoker = invoker;
+         this.popup = popup;
+      }
+
+      void clear() {
+         popup = null;
+         invoker = null;
+         source = null;
+      }
+
+      public void hierarchyChanged(HierarchyEvent e) {
+         if ((e.getChangeFlags() & HierarchyEvent.PARENT_CHANGED) != 0) {
+            clear();
+         }
+      }
+   }
 }
@@ -16,12 +16,14 @@
 package org.bushe.swing.event;
 
 import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
 import javax.swing.event.AncestorEvent;
 import javax.swing.event.AncestorListener;
 import java.awt.event.ContainerEvent;
 import java.awt.event.ContainerListener;
 import java.awt.event.HierarchyEvent;
 import java.awt.event.HierarchyListener;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -32,6 +34,11 @@ import java.awt.event.HierarchyListener;
  * container event service.  If it is unavailable, the registrar waits until the component's Container becomes available
  * and subscribes at that time.  If the component changes Containers, the registrar unsubscribes the component from its
  * old container and subscribes it to the new one.
+ * <p/>
+ * Hierarchy, container and ancestor changes are coalesced into a single update on the Swing Event Dispatch Thread, so
+ * building a large form does not re-register the component once per change.  The update only unsubscribes and
+ * resubscribes when the container event service actually changed, and when that service is a ThreadSafeEventService
+ * the unsubscribes and the resubscribes are each applied as one {@link RegistrationBatch}.
  *
  * @author Michael Bushe michael@bushe.com
  */
@@ -44,6 +51,14 @@ public class ContainerEventServiceRegistrar {
    private VetoTopicEventListener vetoTopicSubscriber;
    private String[] topics;
    private EventService containerEventService;
+   private final AtomicBoolean updatePending = new AtomicBoolean();
+   private final Runnable pendingUpdate = new Runnable() {
+      public void run() {
+         if (updatePending.compareAndSet(true, false)) {
+            updateContainerEventService();
+         }
+      }
+   };
 
    /**
     * Create a registrar that will keep track of the container event service, typically used in the publish-only cases
@@ -130,7 +145,7 @@ public class ContainerEventServiceRegistrar {
     * @param vetoTopicSubscriber a veto subscriber for the topics
     * @param topics the event topic names to register for
     */
-   public ContainerEventServiceRegistrar(JComponent jComp, EventSubscriber eventSubscriber, VetoEventListener vetoSubscriber,
+   public ContainerEventServiceRegistrar(final JComponent jComp, EventSubscriber eventSubscriber, VetoEventListener vetoSubscriber,
            Class[] eventClasses, EventTopicSubscriber eventTopicSubscriber, VetoTopicEventListener vetoTopicSubscriber,
            String[] topics) {
       this.jComp = jComp;
@@ -147,21 +162,25 @@ public class ContainerEventServiceRegistrar {
       updateContainerEventService();
       jComp.addHierarchyListener(new HierarchyListener() {
          public void hierarchyChanged(HierarchyEvent e) {
-            updateContainerEventService();
+            if ((e.getChangeFlags() & HierarchyEvent.PARENT_CHANGED) != 0) {
+               ContainerEventServiceFinder.invalidate(jComp);
+            }
+            scheduleUpdate();
          }
       });
       jComp.addContainerListener(new ContainerListener() {
          public void componentAdded(ContainerEvent e) {
-            updateContainerEventService();
+            scheduleUpdate();
          }
 
          public void componentRemoved(ContainerEvent e) {
-            updateContainerEventService();
+            scheduleUpdate();
          }
       });
       jComp.addAncestorListener(new AncestorListener() {
          public void ancestorAdded(AncestorEvent event) {
-            updateContainerEventService();
+            ContainerEventServiceFinder.invalidate(jComp);
+            scheduleUpdate();
          }
 
          public void ancestorMoved(AncestorEvent event) {
@@ -169,76 +188,150 @@ public class ContainerEventServiceRegistrar {
          }
 
          public void ancestorRemoved(AncestorEvent event) {
-            updateContainerEventService();
+            ContainerEventServiceFinder.invalidate(jComp);
+            scheduleUpdate();
          }
       });
    }
 
+   /** Runs updateContainerEventService() once on the EDT for any number of changes made before it runs. */
+   private void scheduleUpdate() {
+      if (updatePending.compareAndSet(false, true)) {
+         SwingUtilities.invokeLater(pendingUpdate);
+      }
+   }
+
    /**
     * Called by this class when the container may have changed.
     * <p/>
     * Override this method and call super if your class wants to be notified when the container changes (compare the
-    * references of getContainerEventService() around the calls to super.updateContainerEventService()).
+    * references of getContainerEventService() around the calls to super.updateContainerEventService()).  Nothing is
+    * unsubscribed or resubscribed if the container event service is the same as before.
     */
    protected void updateContainerEventService() {
+      EventService newContainerEventService = ContainerEventServiceFinder.getEventService(jComp);
+      if (newContainerEventService == containerEventService) {
+         return;
+      }
+      if (containerEventService != null) {
+         unsubscribeFrom(containerEventService);
+      }
+      containerEventService = newContainerEventService;
       if (containerEventService != null) {
-         if (eventClasses != null) {
-            for (int i = 0; i < eventClasses.length; i++) {
-               Class eventClass = eventClasses[i];
-               if (eventSubscriber != null) {
-                  containerEventService.unsubscribe(eventClass, eventSubscriber);
+         subscribeTo(containerEventService);
+      }
+   }
+
+   /**
+    * Unsubscribes everything this registrar subscribed from the event service, applying the unsubscribes as one
+    * RegistrationBatch when the service is a ThreadSafeEventService.
+    */
+   private void unsubscribeFrom(EventService eventService) {
+      RegistrationBatch batch = null;
+      if (eventService instanceof ThreadSafeEventService) {
+         batch = ((ThreadSafeEventService) eventService).registrationBatch();
+      }
+      if (eventClasses != null) {
+         for (int i = 0; i < eventClasses.length; i++) {
+            Class eventClass = eventClasses[i];
+            if (eventSubscriber != null) {
+               if (batch != null) {
+                  batch.unsubscribe(eventClass, eventSubscriber);
+               } else {
+                  eventService.unsubscribe(eventClass, eventSubscriber);
                }
-               if (vetoSubscriber != null) {
-                  containerEventService.unsubscribeVeto(eventClass, vetoSubscriber);
+            }
+            if (vetoSubscriber != null) {
+               if (batch != null) {
+                  batch.unsubscribeVetoListener(eventClass, vetoSubscriber);
+               } else {
+                  eventService.unsubscribeVetoListener(eventClass, vetoSubscriber);
                }
             }
          }
-         if (topics != null) {
-            for (int i = 0; i < topics.length; i++) {
-               String topic = topics[i];
-               if (eventTopicSubscriber != null) {
-                  containerEventService.unsubscribe(topic, eventTopicSubscriber);
+      }
+      if (topics != null) {
+         for (int i = 0; i < topics.length; i++) {
+            String topic = topics[i];
+            if (eventTopicSubscriber != null) {
+               if (batch != null) {
+                  batch.unsubscribe(topic, eventTopicSubscriber);
+               } else {
+                  eventService.unsubscribe(topic, eventTopicSubscriber);
                }
-               if (vetoTopicSubscriber != null) {
-                  containerEventService.unsubscribeVeto(topic, vetoTopicSubscriber);
+            }
+            if (vetoTopicSubscriber != null) {
+               if (batch != null) {
+                  batch.unsubscribeVetoListener(topic, vetoTopicSubscriber);
+               } else {
+                  eventService.unsubscribeVetoListener(topic, vetoTopicSubscriber);
                }
             }
          }
       }
+      if (batch != null) {
+         batch.apply();
+      }
+   }
 
-      containerEventService = ContainerEventServiceFinder.getEventService(jComp);
-      if (containerEventService != null) {
-         if (eventClasses != null) {
-            for (int i = 0; i < eventClasses.length; i++) {
-               Class eventClass = eventClasses[i];
-                if (eventSubscriber != null) {
-                    containerEventService.subscribe(eventClass, eventSubscriber);
-                }
-                if (vetoSubscriber != null) {
-                    containerEventService.subscribeVetoListener(eventClass, vetoSubscriber);
-                }
+   /**
+    * Subscribes everything this registrar manages to the event service, applying the subscribes as one
+    * RegistrationBatch when the service is a ThreadSafeEventService.
+    */
+   private void subscribeTo(EventService eventService) {
+      RegistrationBatch batch = null;
+      if (eventService instanceof ThreadSafeEventService) {
+         batch = ((ThreadSafeEventService) eventService).registrationBatch();
+      }
+      if (eventClasses != null) {
+         for (int i = 0; i < eventClasses.length; i++) {
+            Class eventClass = eventClasses[i];
+            if (eventSubscriber != null) {
+               if (batch != null) {
+                  batch.subscribe(eventClass, eventSubscriber);
+               } else {
+                  eventService.subscribe(eventClass, eventSubscriber);
+               }
+            }
+            if (vetoSubscriber != null) {
+               if (batch != null) {
+                  batch.subscribeVetoListener(eventClass, vetoSubscriber);
+               } else {
+                  eventService.subscribeVetoListener(eventClass, vetoSubscriber);
+               }
             }
          }
-         if (topics != null) {
-            for (int i = 0; i < topics.length; i++) {
-               String topic = topics[i];
-                if (eventTopicSubscriber != null) {
-                    containerEventService.subscribe(topic, eventTopicSubscriber);
-                }
-                if (vetoTopicSubscriber != null) {
-                    containerEventService.subscribeVetoListener(topic, vetoTopicSubscriber);
-                }
+      }
+      if (topics != null) {
+         for (int i = 0; i < topics.length; i++) {
+            String topic = topics[i];
+            if (eventTopicSubscriber != null) {
+               if (batch != null) {
+                  batch.subscribe(topic, eventTopicSubscriber);
+               } else {
+                  eventService.subscribe(topic, eventTopicSubscriber);
+               }
+            }
+            if (vetoTopicSubscriber != null) {
+               if (batch != null) {
+                  batch.subscribeVetoListener(topic, vetoTopicSubscriber);
+               } else {
+                  eventService.subscribeVetoListener(topic, vetoTopicSubscriber);
+               }
             }
          }
       }
+      if (batch != null) {
+         batch.apply();
+      }
    }
 
    /**
-    * @return the container event service, if null, it tries to find it, but it still may be null if this object is not
-    *         in a container.
+    * @return the container event service, if null or if the component's hierarchy changed since the last update, it
+    *         tries to find it, but it still may be null if this object is not in a container.
     */
    public EventService getContainerEventService() {
-      if (containerEventService != null) {
+      if (containerEventService != null && !updatePending.compareAndSet(true, false)) {
          return containerEventService;
       } else {
          updateContainerEventService();
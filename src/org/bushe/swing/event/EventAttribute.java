@@ -0,0 +1,138 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extracts an attribute from an event or topic data object, for {@link EventFilter}s.  The EventService indexes
+ * filters by attribute, filters on equal attributes share an index, so reuse an attribute instance or use
+ * {@link #property(String)}, whose attributes are equal when their property names are.
+ * <pre>
+ * EventAttribute SYMBOL = new EventAttribute("symbol") {
+ *    public Object getValue(Object event) {
+ *       return ((PriceEvent) event).getSymbol();
+ *    }
+ * };
+ * </pre>
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public abstract class EventAttribute {
+   private final String name;
+
+   /** @param name the attribute's name, for debugging */
+   protected EventAttribute(String name) {
+      if (name == null) {
+         throw new IllegalArgumentException("Attribute name must not be null");
+      }
+      this.name = name;
+   }
+
+   /**
+    * Creates an attribute read by calling the JavaBean getter of a property, getXxx() or isXxx().  Events without the
+    * getter have a null value.
+    *
+    * @param propertyName the name of the property, such as "symbol" for getSymbol()
+    *
+    * @return an attribute equal to all other property attributes of the same name
+    */
+   public static EventAttribute property(String propertyName) {
+      return new PropertyAttribute(propertyName);
+   }
+
+   /** @return the attribute's name */
+   public String getName() {
+      return name;
+   }
+
+   /**
+    * @param event an event published to a filtered class, or data published on a filtered topic
+    *
+    * @return the value of the attribute for the event, may be null
+    */
+   public abstract Object getValue(Object event);
+
+   public String toString() {
+      return "EventAttribute{" + name + "}";
+   }
+
+   private static final class PropertyAttribute extends EventAttribute {
+      private static final Method NO_GETTER;
+      static {
+         try {
+            NO_GETTER = Object.class.getMethod("toString");
+         } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e.getMessage());
+         }
+      }
+      private final Map<Class, Method> getters = new ConcurrentHashMap<Class, Method>();
+
+      PropertyAttribute(String propertyName) {
+         super(propertyName);
+         if (propertyName.length() == 0) {
+            throw new IllegalArgumentException("Property name must not be empty");
+         }
+      }
+
+      public Object getValue(Object event) {
+         if (event == null) {
+            return null;
+         }
+         Class eventClass = event.getClass();
+         Method getter = getters.get(eventClass);
+         if (getter == null) {
+            getter = findGetter(eventClass);
+            getters.put(eventClass, getter);
+         }
+         if (getter == NO_GETTER) {
+            return null;
+         }
+         try {
+            return getter.invoke(event);
+         } catch (Exception e) {
+            throw new IllegalStateException("Could not read property " + getName() + " of " + event + ": " + e);
+         }
+      }
+
+      private Method findGetter(Class eventClass) {
+         String suffix = Character.toUpperCase(getName().charAt(0)) + getName().substring(1);
+         String[] names = {"get" + suffix, "is" + suffix};
+         for (int i = 0; i < names.length; i++) {
+            try {
+               Method getter = eventClass.getMethod(names[i]);
+               getter.setAccessible(true);
+               return getter;
+            } catch (NoSuchMethodException e) {
+               //try the next
+            } catch (SecurityException e) {
+               //try the next
+            }
+         }
+         return NO_GETTER;
+      }
+
+      public boolean equals(Object obj) {
+         return obj instanceof PropertyAttribute && getName().equals(((PropertyAttribute) obj).getName());
+      }
+
+      public int hashCode() {
+         return getName().hashCode();
+      }
+   }
+}
@@ -16,6 +16,7 @@
 package org.bushe.swing.event;
 
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.lang.reflect.Type;
 
@@ -65,6 +66,22 @@ public class EventBus {
       EventServiceLocator.getEventBusService().publish(topic, o);
    }
 
+   /** @see EventService#request(String, Object, long) */
+   public static Future<Object> request(String topic, Object payload, long timeoutMS) {
+      if (topic == null) {
+         throw new IllegalArgumentException("Can't publish a request to a null topic.");
+      }
+      return EventServiceLocator.getEventBusService().request(topic, payload, timeoutMS);
+   }
+
+   /** @see EventService#scatterGather(String, Object, long) */
+   public static Future<List<Object>> scatterGather(String topic, Object payload, long timeoutMS) {
+      if (topic == null) {
+         throw new IllegalArgumentException("Can't publish a request to a null topic.");
+      }
+      return EventServiceLocator.getEventBusService().scatterGather(topic, payload, timeoutMS);
+   }
+
    /** @see EventService#publish(java.lang.reflect.Type, Object)  */
    public static void publish(Type genericType, Object o) {
       if (genericType == null) {
@@ -119,6 +136,36 @@ public class EventBus {
       return EventServiceLocator.getEventBusService().subscribeStrongly(topicPattern, subscriber);
    }
 
+   /** @see EventService#subscribe(Class,EventSubscriber,RateLimit) */
+   public static boolean subscribe(Class eventClass, EventSubscriber subscriber, RateLimit rateLimit) {
+      return EventServiceLocator.getEventBusService().subscribe(eventClass, subscriber, rateLimit);
+   }
+
+   /** @see EventService#subscribeExactly(Class,EventSubscriber,RateLimit) */
+   public static boolean subscribeExactly(Class eventClass, EventSubscriber subscriber, RateLimit rateLimit) {
+      return EventServiceLocator.getEventBusService().subscribeExactly(eventClass, subscriber, rateLimit);
+   }
+
+   /** @see EventService#subscribe(String,EventTopicSubscriber,RateLimit) */
+   public static boolean subscribe(String topic, EventTopicSubscriber subscriber, RateLimit rateLimit) {
+      return EventServiceLocator.getEventBusService().subscribe(topic, subscriber, rateLimit);
+   }
+
+   /** @see EventService#subscribe(Pattern,EventTopicSubscriber,RateLimit) */
+   public static boolean subscribe(Pattern topicPattern, EventTopicSubscriber subscriber, RateLimit rateLimit) {
+      return EventServiceLocator.getEventBusService().subscribe(topicPattern, subscriber, rateLimit);
+   }
+
+   /** @see EventService#subscribe(Class,EventSubscriber,EventFilter) */
+   public static boolean subscribe(Class eventClass, EventSubscriber subscriber, EventFilter filter) {
+      return EventServiceLocator.getEventBusService().subscribe(eventClass, subscriber, filter);
+   }
+
+   /** @see EventService#subscribe(String,EventTopicSubscriber,EventFilter) */
+   public static boolean subscribe(String topic, EventTopicSubscriber subscriber, EventFilter filter) {
+      return EventServiceLocator.getEventBusService().subscribe(topic, subscriber, filter);
+   }
+
    /** @see EventService#unsubscribe(Class,EventSubscriber) */
    public static boolean unsubscribe(Class eventClass, EventSubscriber subscriber) {
       return EventServiceLocator.getEventBusService().unsubscribe(eventClass, subscriber);
@@ -381,6 +428,26 @@ public class EventBus {
       return EventServiceLocator.getEventBusService().getCacheSizeForTopic(topic);
    }
 
+   /** @see EventService#setFanOutForEventClass(Class,FanOut) */
+   public static void setFanOutForEventClass(Class eventClass, FanOut fanOut) {
+      EventServiceLocator.getEventBusService().setFanOutForEventClass(eventClass, fanOut);
+   }
+
+   /** @see EventService#getFanOutForEventClass(Class) */
+   public static FanOut getFanOutForEventClass(Class eventClass) {
+      return EventServiceLocator.getEventBusService().getFanOutForEventClass(eventClass);
+   }
+
+   /** @see EventService#setFanOutForTopic(String,FanOut) */
+   public static void setFanOutForTopic(String topic, FanOut fanOut) {
+      EventServiceLocator.getEventBusService().setFanOutForTopic(topic, fanOut);
+   }
+
+   /** @see EventService#getFanOutForTopic(String) */
+   public static FanOut getFanOutForTopic(String topic) {
+      return EventServiceLocator.getEventBusService().getFanOutForTopic(topic);
+   }
+
    /** @see EventService#getLastEvent(Class) */
    public static <T> T getLastEvent(Class<T> eventClass) {
       return EventServiceLocator.getEventBusService().getLastEvent(eventClass);
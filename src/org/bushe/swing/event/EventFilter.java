@@ -0,0 +1,193 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A declarative condition on an {@link EventAttribute} of events, used to subscribe to only the events a subscriber
+ * is interested in with {@link EventService#subscribe(Class, EventSubscriber, EventFilter)} and
+ * {@link EventService#subscribe(String, EventTopicSubscriber, EventFilter)}:
+ * <pre>
+ * EventBus.subscribe(PriceEvent.class, ibmTicker, EventFilter.equalTo(EventAttribute.property("symbol"), "IBM"));
+ * </pre>
+ * Because the filters are declarative rather than code in the subscriber, the EventService indexes them and calls
+ * only the subscribers whose filters match, instead of calling every subscriber so they can discard the events that
+ * are not for them.  Equality and set membership filters are looked up in a hash index per attribute and range
+ * filters in an interval index per attribute.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public final class EventFilter {
+
+   /** The kinds of conditions, which are indexed differently. */
+   enum Kind {
+      EQUAL, IN, RANGE
+   }
+
+   private final EventAttribute attribute;
+   private final Kind kind;
+   private final Object value;
+   private final Set values;
+   private final Comparable min;
+   private final Comparable max;
+
+   private EventFilter(EventAttribute attribute, Kind kind, Object value, Set values, Comparable min, Comparable max) {
+      if (attribute == null) {
+         throw new IllegalArgumentException("Attribute must not be null");
+      }
+      this.attribute = attribute;
+      this.kind = kind;
+      this.value = value;
+      this.values = values;
+      this.min = min;
+      this.max = max;
+   }
+
+   /**
+    * @param attribute the attribute to test
+    * @param value the value to match, may be null
+    *
+    * @return a filter that matches events whose attribute equals the value
+    */
+   public static EventFilter equalTo(EventAttribute attribute, Object value) {
+      return new EventFilter(attribute, Kind.EQUAL, value, null, null, null);
+   }
+
+   /**
+    * @param attribute the attribute to test
+    * @param values the values to match, may contain null
+    *
+    * @return a filter that matches events whose attribute equals any of the values
+    */
+   public static EventFilter in(EventAttribute attribute, Collection values) {
+      if (values == null) {
+         throw new IllegalArgumentException("Values must not be null");
+      }
+      return new EventFilter(attribute, Kind.IN, null, Collections.unmodifiableSet(new HashSet(values)), null, null);
+   }
+
+   /**
+    * @param attribute the attribute to test
+    * @param min the lowest value to match
+    * @param max the highest value to match
+    *
+    * @return a filter that matches events whose attribute is between min and max, inclusive
+    */
+   public static EventFilter between(EventAttribute attribute, Comparable min, Comparable max) {
+      if (min == null || max == null) {
+         throw new IllegalArgumentException("Range bounds must not be null");
+      }
+      if (min.compareTo(max) > 0) {
+         throw new IllegalArgumentException("Range minimum " + min + " is greater than its maximum " + max);
+      }
+      return new EventFilter(attribute, Kind.RANGE, null, null, min, max);
+   }
+
+   /** @return the attribute this filter tests */
+   public EventAttribute getAttribute() {
+      return attribute;
+   }
+
+   Kind getKind() {
+      return kind;
+   }
+
+   /** @return the values an equality or set membership filter matches */
+   List getValues() {
+      if (kind == Kind.EQUAL) {
+         return Collections.singletonList(value);
+      }
+      return new ArrayList(values);
+   }
+
+   Comparable getMin() {
+      return min;
+   }
+
+   Comparable getMax() {
+      return max;
+   }
+
+   /**
+    * Evaluates the filter without an index.
+    *
+    * @param event the event or topic data
+    *
+    * @return true if the event's attribute satisfies this filter
+    */
+   public boolean matches(Object event) {
+      return matchesValue(attribute.getValue(event));
+   }
+
+   boolean matchesValue(Object attributeValue) {
+      switch (kind) {
+         case EQUAL:
+            return value == null ? attributeValue == null : value.equals(attributeValue);
+         case IN:
+            return values.contains(attributeValue);
+         default:
+            return inRange(attributeValue);
+      }
+   }
+
+   private boolean inRange(Object attributeValue) {
+      if (attributeValue == null) {
+         return false;
+      }
+      try {
+         return min.compareTo(attributeValue) <= 0 && max.compareTo(attributeValue) >= 0;
+      } catch (ClassCastException e) {
+         return false;
+      }
+   }
+
+   public boolean equals(Object obj) {
+      if (!(obj instanceof EventFilter)) {
+         return false;
+      }
+      EventFilter other = (EventFilter) obj;
+      return kind == other.kind && attribute.equals(other.attribute) && equal(value, other.value)
+              && equal(values, other.values) && equal(min, other.min) && equal(max, other.max);
+   }
+
+   private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+   }
+
+   public int hashCode() {
+      int hash = attribute.hashCode() * 31 + kind.hashCode();
+      hash = hash * 31 + (value == null ? 0 : value.hashCode());
+      hash = hash * 31 + (values == null ? 0 : values.hashCode());
+      return hash * 31 + (min == null ? 0 : min.hashCode());
+   }
+
+   public String toString() {
+      switch (kind) {
+         case EQUAL:
+            return "EventFilter{" + attribute.getName() + " == " + value + "}";
+         case IN:
+            return "EventFilter{" + attribute.getName() + " in " + values + "}";
+         default:
+            return "EventFilter{" + min + " <= " + attribute.getName() + " <= " + max + "}";
+      }
+   }
+}
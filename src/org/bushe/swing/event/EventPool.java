@@ -0,0 +1,106 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+
+/**
+ * A per-thread pool of reusable events for high frequency publishing, to avoid allocating an event per publication.
+ * <pre>
+ * ObjectEventPool ticks = new ObjectEventPool();
+ * ...
+ * EventBus.publish(ticks.acquire(this, tick));
+ * </pre>
+ * An acquired event is returned to the pool by the ThreadSafeEventService when its publication is Completed or
+ * Vetoed, and is reused by a later acquire() on the same thread.  Pool only events that are published once,
+ * synchronously, and never touched by the publisher after publish() returns.  Subscribers must not keep a pooled
+ * event after their onEvent() returns unless they call {@link AbstractEventServiceEvent#retain()}, which keeps it out
+ * of the pool.  The EventService retains the events it keeps itself: events that are cached, journaled, held by a
+ * debounced or sampled subscriber, or buffered for a replaying subscriber.
+ * <p/>
+ * Turn on {@link #setDebug(boolean) debug mode} while testing to find subscribers that keep pooled events without
+ * retaining them: released events are then never reused, and reading them throws an IllegalStateException.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see ObjectEventPool
+ */
+public abstract class EventPool<T extends AbstractEventServiceEvent> {
+   /** The default number of released events kept per thread. */
+   public static final int DEFAULT_MAX_POOLED_PER_THREAD = 64;
+
+   private final int maxPooledPerThread;
+   private volatile boolean debug;
+   private final ThreadLocal<ArrayList<T>> pools = new ThreadLocal<ArrayList<T>>() {
+      protected ArrayList<T> initialValue() {
+         return new ArrayList<T>();
+      }
+   };
+
+   /** Creates a pool that keeps up to {@link #DEFAULT_MAX_POOLED_PER_THREAD} released events per thread. */
+   protected EventPool() {
+      this(DEFAULT_MAX_POOLED_PER_THREAD);
+   }
+
+   /** @param maxPooledPerThread the number of released events kept per thread, others are left to the GC */
+   protected EventPool(int maxPooledPerThread) {
+      if (maxPooledPerThread < 0) {
+         throw new IllegalArgumentException("Max pooled events per thread must not be negative, was " + maxPooledPerThread);
+      }
+      this.maxPooledPerThread = maxPooledPerThread;
+   }
+
+   /** @return a new event for the pool, its state is set by the caller of {@link #acquire()} */
+   protected abstract T newEvent();
+
+   /**
+    * @return an unpublished event from this thread's pool, or a new one if the pool is empty.  Set its state before
+    * publishing it.
+    */
+   public T acquire() {
+      ArrayList<T> pool = pools.get();
+      T event = pool.isEmpty() ? newEvent() : pool.remove(pool.size() - 1);
+      event.acquired(this);
+      return event;
+   }
+
+   /** Called by the event when the EventService releases it, on the thread that completed its publication. */
+   void release(T event) {
+      event.recycle();
+      if (debug) {
+         event.markReleased();
+         return;
+      }
+      ArrayList<T> pool = pools.get();
+      if (pool.size() < maxPooledPerThread) {
+         pool.add(event);
+      }
+   }
+
+   /**
+    * In debug mode released events are not reused and throw an IllegalStateException when read, to find subscribers
+    * that keep pooled events past their delivery.
+    *
+    * @param debug true to turn debug mode on
+    */
+   public void setDebug(boolean debug) {
+      this.debug = debug;
+   }
+
+   /** @return true if debug mode is on */
+   public boolean isDebug() {
+      return debug;
+   }
+}
@@ -16,6 +16,7 @@
 package org.bushe.swing.event;
 
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.lang.reflect.Type;
 
@@ -158,6 +159,38 @@ public interface EventService {
     */
    public void publish(String topic, Object o);
 
+   /**
+    * Publishes a {@link Request} wrapping the payload on a topic and returns a Future completed by the first
+    * subscriber that calls {@link Request#reply(Object)}.  Replies are routed to the Future by the request's
+    * correlation id, the request does not subscribe to anything.
+    * <p/>
+    * The Future's get() throws an ExecutionException caused by a java.util.concurrent.TimeoutException if no
+    * subscriber replies within the timeout, by an IllegalStateException if there are no subscribers to the topic or
+    * a veto listener vetoed the request, or by the exception a subscriber passed to {@link Request#fail(Throwable)}.
+    *
+    * @param topic The name of the topic to publish the request on
+    * @param payload the object to send to the subscribers, available from {@link Request#getPayload()}
+    * @param timeoutMS how long to wait for a reply, in milliseconds
+    *
+    * @return the Future reply
+    */
+   public Future<Object> request(String topic, Object payload, long timeoutMS);
+
+   /**
+    * Publishes a {@link Request} wrapping the payload on a topic and returns a Future that gathers a reply from each
+    * subscriber the request was published to.  The Future completes when every subscriber has replied, or when the
+    * timeout elapses, with the replies received so far, in the order they were received.  Failures passed to
+    * {@link Request#fail(Throwable)} are gathered as replies.  If there are no subscribers or a veto listener vetoed
+    * the request, the Future completes immediately with an empty list.
+    *
+    * @param topic The name of the topic to publish the request on
+    * @param payload the object to send to the subscribers, available from {@link Request#getPayload()}
+    * @param timeoutMS how long to wait for all replies, in milliseconds
+    *
+    * @return the Future list of replies
+    */
+   public Future<List<Object>> scatterGather(String topic, Object payload, long timeoutMS);
+
    /**
     * Subscribes an EventSubscriber to the publication of objects matching a type.  Only a <b>WeakReference</b> to
     * the subscriber is held by the EventService.
@@ -329,6 +362,92 @@ public interface EventService {
     */
    public boolean subscribeStrongly(Pattern topicPattern, EventTopicSubscriber subscriber);
 
+   /**
+    * Subscribes an EventSubscriber to the publication of objects matching a type, like {@link #subscribe(Class,
+    * EventSubscriber)}, limiting how often it is called.  See {@link RateLimit} for the ways the events are
+    * debounced, throttled or sampled.
+    * <p/>
+    * The subscriber is subscribed weakly, unless it is a {@link ProxySubscriber}, which is held strongly and
+    * holds its proxied subscriber as it says.
+    *
+    * @param eventClass the class of published objects to subscribe listen to
+    * @param subscriber The subscriber that will accept the events of the event class when published.
+    * @param rateLimit how often the subscriber can be called
+    *
+    * @return true if the subscriber was subscribed successfully, false otherwise
+    */
+   public boolean subscribe(Class eventClass, EventSubscriber subscriber, RateLimit rateLimit);
+
+   /**
+    * Subscribes an EventSubscriber to the publication of objects exactly matching a type, like {@link
+    * #subscribeExactly(Class, EventSubscriber)}, limiting how often it is called.  See {@link #subscribe(Class,
+    * EventSubscriber, RateLimit)}.
+    *
+    * @param eventClass the class of published objects to listen to
+    * @param subscriber The subscriber that will accept the events when published.
+    * @param rateLimit how often the subscriber can be called
+    *
+    * @return true if the subscriber was subscribed successfully, false otherwise
+    */
+   public boolean subscribeExactly(Class eventClass, EventSubscriber subscriber, RateLimit rateLimit);
+
+   /**
+    * Subscribes an EventTopicSubscriber to the publication of a topic name, like {@link #subscribe(String,
+    * EventTopicSubscriber)}, limiting how often it is called.  See {@link #subscribe(Class, EventSubscriber,
+    * RateLimit)}.
+    *
+    * @param topic the name of the topic listened to
+    * @param subscriber The topic subscriber that will accept the events when published.
+    * @param rateLimit how often the subscriber can be called
+    *
+    * @return true if the subscriber was subscribed successfully, false otherwise
+    */
+   public boolean subscribe(String topic, EventTopicSubscriber subscriber, RateLimit rateLimit);
+
+   /**
+    * Subscribes an EventTopicSubscriber to the publication of all the topic names that match a RegEx Pattern, like
+    * {@link #subscribe(Pattern, EventTopicSubscriber)}, limiting how often it is called.  The latest data published
+    * on any of the matching topics is delivered, with its topic.  See {@link #subscribe(Class, EventSubscriber,
+    * RateLimit)}.
+    *
+    * @param topicPattern pattern that matches to the name of the topic published to
+    * @param subscriber The topic subscriber that will accept the events when published.
+    * @param rateLimit how often the subscriber can be called
+    *
+    * @return true if the subscriber was subscribed successfully, false otherwise
+    */
+   public boolean subscribe(Pattern topicPattern, EventTopicSubscriber subscriber, RateLimit rateLimit);
+
+   /**
+    * Subscribes an EventSubscriber to the objects of a class and its subclasses that match a filter.  Unlike a
+    * subscriber that tests each event itself, the subscriber is only called for the events that match, the
+    * EventService looks the matching filtered subscribers up in indexes per attribute, see {@link EventFilter}.
+    * <p/>
+    * The subscriber is subscribed weakly and has one filter per event class, subscribing it again replaces its
+    * filter.  Unsubscribe it with {@link #unsubscribe(Class, EventSubscriber)}.  Filtered subscribers are not
+    * returned by the getSubscribers methods.
+    *
+    * @param eventClass the class of published objects to listen to
+    * @param subscriber The subscriber that will accept the matching events when published.
+    * @param filter the condition on an attribute of the events
+    *
+    * @return true if the subscriber was not already subscribed with a filter to the class
+    */
+   public boolean subscribe(Class eventClass, EventSubscriber subscriber, EventFilter filter);
+
+   /**
+    * Subscribes an EventTopicSubscriber to the data published on a topic that matches a filter, see {@link
+    * #subscribe(Class, EventSubscriber, EventFilter)}.  The filter's attribute is read from the published data.
+    * Unsubscribe it with {@link #unsubscribe(String, EventTopicSubscriber)}.
+    *
+    * @param topic the name of the topic listened to
+    * @param subscriber The topic subscriber that will accept the matching data when published.
+    * @param filter the condition on an attribute of the published data
+    *
+    * @return true if the subscriber was not already subscribed with a filter to the topic
+    */
+   public boolean subscribe(String topic, EventTopicSubscriber subscriber, EventFilter filter);
+
    /**
     * Stop the subscription for a subscriber that is subscribed to a class.
     *
@@ -775,6 +894,48 @@ public interface EventService {
     */
    public int getCacheSizeForTopic(String topic);
 
+   /**
+    * Delivers the publications of an event class and its subclasses to their subscribers in parallel, for classes with
+    * many independent, thread safe subscribers.  Subscribers of different priorities are still called in priority
+    * order, see {@link FanOut}.  By default, subscribers are called one after another on the publishing thread.
+    * <p/>
+    * Like cache sizes, a setting for a class applies to its subclasses unless they have their own, and settings for
+    * interfaces apply to the classes that directly implement them.
+    *
+    * @param eventClass the class of event
+    * @param fanOut how to deliver the events in parallel, or null to deliver them sequentially again
+    */
+   public void setFanOutForEventClass(Class eventClass, FanOut fanOut);
+
+   /**
+    * @param eventClass the class of event
+    *
+    * @return how publications of the class are delivered in parallel, respecting the class hierarchy, or null if they
+    * are delivered sequentially
+    *
+    * @see #setFanOutForEventClass(Class,FanOut)
+    */
+   public FanOut getFanOutForEventClass(Class eventClass);
+
+   /**
+    * Delivers the publications on a topic to its subscribers, including those subscribed by pattern, in parallel.
+    *
+    * @param topic the topic name
+    * @param fanOut how to deliver the publications in parallel, or null to deliver them sequentially again
+    *
+    * @see #setFanOutForEventClass(Class,FanOut)
+    */
+   public void setFanOutForTopic(String topic, FanOut fanOut);
+
+   /**
+    * @param topic the topic name
+    *
+    * @return how publications on the topic are delivered in parallel, or null if they are delivered sequentially
+    *
+    * @see #setFanOutForTopic(String,FanOut)
+    */
+   public FanOut getFanOutForTopic(String topic);
+
    /**
     * When caching, returns the last event publish for the type supplied.
     * @param eventClass an index into the cache
@@ -0,0 +1,630 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * A pipeline of operators over the publications of an event class, topic or topic pattern, run in the EventService
+ * on the thread that delivers the publication.
+ * <p/>
+ * Subscribers that compute derived values, such as rolling aggregates, and republish them pay for a second dispatch
+ * of every intermediate result.  An EventStream fuses its operators into one chain that is subscribed once, and only
+ * what reaches the end of the chain leaves it:
+ * <pre>
+ * EventStream.fromClass(eventService, Trade.class)
+ *       .filter(new EventStream.Predicate&lt;Trade&gt;() {
+ *          public boolean test(Trade trade) { return trade.getQuantity() &gt; 0; }
+ *       })
+ *       .keyBy(new EventStream.Function&lt;Trade, String&gt;() {
+ *          public String apply(Trade trade) { return trade.getSymbol(); }
+ *       })
+ *       .window(1000)
+ *       .aggregate(new VwapAggregator())
+ *       .publishOn("VWAP");
+ * </pre>
+ * Streams are immutable, every operator returns a new stream, and nothing is subscribed until a terminal method,
+ * {@link #to(Sink)} or {@link #publishOn(String)}, is called.  Each terminal call subscribes its own chain strongly
+ * and returns a {@link Handle} that unsubscribes it.
+ * <p/>
+ * {@link #keyBy(Function)} partitions the stateful operators that follow it, {@link #reduce(Reducer)} and windows,
+ * by key.  The key is computed once and carried along through later filter and map operators.
+ * <p/>
+ * Windows are timed by wall clock time in milliseconds, aligned to multiples of their slide from the start of the
+ * stream, and emit when they close, one result per key that had publications in the window.  All the windows of an
+ * EventService share its timer wheel, so they close within a tick, 10 milliseconds, of their end.  Results of closed
+ * windows are delivered the way rate limited events are, on the timer's thread or, for a {@link SwingEventService},
+ * on the Swing Event Dispatch Thread.  Operators are called concurrently when publications are, so they should be
+ * stateless or thread safe, the state of reduce and windows is synchronized by the stream.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public final class EventStream<T> {
+   private static final Logger LOG = Logger.getLogger(EventStream.class.getName());
+   /** The key of items in streams that are not keyed */
+   private static final Object NO_KEY = new Object();
+   private static final Object NO_VALUE = new Object();
+   private static TimerWheel sharedTimerWheel;
+
+   /** Decides which items pass a {@link EventStream#filter(Predicate)}. */
+   public interface Predicate<T> {
+      /**
+       * @param item an item in the stream
+       * @return true to pass the item on, false to drop it
+       */
+      public boolean test(T item);
+   }
+
+   /** Transforms items in {@link EventStream#map(Function)} and computes keys in {@link EventStream#keyBy(Function)}. */
+   public interface Function<T, R> {
+      /**
+       * @param item an item in the stream
+       * @return the item's transformation
+       */
+      public R apply(T item);
+   }
+
+   /** Combines two items into one of the same type, for {@link EventStream#reduce(Reducer)}. */
+   public interface Reducer<T> {
+      /**
+       * @param accumulated the reduction of the previous items
+       * @param item the next item
+       * @return the reduction including the item
+       */
+      public T reduce(T accumulated, T item);
+   }
+
+   /**
+    * Aggregates the items of a window into a result, through an intermediate accumulator.  For a volume weighted
+    * average price, the accumulator holds the sums of price times volume and of volume, and the result is their
+    * ratio.
+    */
+   public interface Aggregator<T, A, R> {
+      /** @return a new accumulator, for the first item of a window and key */
+      public A create();
+
+      /**
+       * @param accumulator the accumulator of the window and key
+       * @param item the next item
+       * @return the accumulator including the item, which may be the same object
+       */
+      public A add(A accumulator, T item);
+
+      /**
+       * @param accumulator the accumulator of a window and key that closed
+       * @return the result to pass on
+       */
+      public R result(A accumulator);
+   }
+
+   /** Receives the items that reach the end of a stream. */
+   public interface Sink<T> {
+      /** @param item an item that reached the end of the stream */
+      public void accept(T item);
+   }
+
+   /** A subscribed stream, returned by the terminal methods. */
+   public interface Handle {
+      /** Unsubscribes the stream from the EventService and drops the state of its open windows. */
+      public void cancel();
+
+      /** @return true once cancelled */
+      public boolean isCancelled();
+   }
+
+   private final EventService eventService;
+   private final Object source;
+   private final EventStream<?> upstream;
+   private final Operator operator;
+
+   private EventStream(EventService eventService, Object source, EventStream<?> upstream, Operator operator) {
+      this.eventService = eventService;
+      this.source = source;
+      this.upstream = upstream;
+      this.operator = operator;
+   }
+
+   private <R> EventStream<R> then(Operator operator) {
+      return new EventStream<R>(eventService, source, this, operator);
+   }
+
+   /**
+    * @param eventService the EventService to subscribe to
+    * @param eventClass the class of the events to stream, subclasses included
+    * @return a stream of the events of the class
+    */
+   public static <T> EventStream<T> fromClass(EventService eventService, Class<T> eventClass) {
+      checkSource(eventService, eventClass);
+      return new EventStream<T>(eventService, eventClass, null, null);
+   }
+
+   /**
+    * @param eventService the EventService to subscribe to
+    * @param topic the topic to stream the data of
+    * @return a stream of the data published on the topic
+    */
+   public static EventStream<Object> fromTopic(EventService eventService, String topic) {
+      checkSource(eventService, topic);
+      return new EventStream<Object>(eventService, topic, null, null);
+   }
+
+   /**
+    * @param eventService the EventService to subscribe to
+    * @param topicPattern the pattern of the topics to stream the data of
+    * @return a stream of the data published on all topics that match the pattern
+    */
+   public static EventStream<Object> fromTopicPattern(EventService eventService, Pattern topicPattern) {
+      checkSource(eventService, topicPattern);
+      return new EventStream<Object>(eventService, topicPattern, null, null);
+   }
+
+   private static void checkSource(EventService eventService, Object classTopicOrPattern) {
+      if (eventService == null) {
+         throw new IllegalArgumentException("EventService must not be null");
+      }
+      if (classTopicOrPattern == null) {
+         throw new IllegalArgumentException("Event class, topic or pattern must not be null");
+      }
+   }
+
+   /**
+    * @param predicate decides which items pass
+    * @return a stream of the items the predicate passes
+    */
+   public EventStream<T> filter(final Predicate<? super T> predicate) {
+      checkArgument(predicate, "Predicate");
+      return then(new Operator() {
+         Stage link(final Stage next, Pipeline pipeline) {
+            return new Stage() {
+               @SuppressWarnings("unchecked")
+               void push(Object key, Object item) {
+                  if (predicate.test((T) item)) {
+                     next.push(key, item);
+                  }
+               }
+            };
+         }
+      });
+   }
+
+   /**
+    * @param function transforms each item, returning null drops the item
+    * @return a stream of the transformed items, with the same keys
+    */
+   public <R> EventStream<R> map(final Function<? super T, ? extends R> function) {
+      checkArgument(function, "Function");
+      return then(new Operator() {
+         Stage link(final Stage next, Pipeline pipeline) {
+            return new Stage() {
+               @SuppressWarnings("unchecked")
+               void push(Object key, Object item) {
+                  Object mapped = function.apply((T) item);
+                  if (mapped != null) {
+                     next.push(key, mapped);
+                  }
+               }
+            };
+         }
+      });
+   }
+
+   /**
+    * Partitions the state of the reduce and window operators that follow by the item's key.
+    *
+    * @param keyFunction computes the key of each item, keys are compared with equals()
+    * @return a keyed stream of the same items
+    */
+   public EventStream<T> keyBy(final Function<? super T, ?> keyFunction) {
+      checkArgument(keyFunction, "Key function");
+      return then(new Operator() {
+         Stage link(final Stage next, Pipeline pipeline) {
+            return new Stage() {
+               @SuppressWarnings("unchecked")
+               void push(Object key, Object item) {
+                  next.push(keyFunction.apply((T) item), item);
+               }
+            };
+         }
+      });
+   }
+
+   /**
+    * A rolling reduction, per key if the stream is keyed.
+    *
+    * @param reducer combines the reduction so far with each item
+    * @return a stream of the reduction after each item
+    */
+   public EventStream<T> reduce(final Reducer<T> reducer) {
+      checkArgument(reducer, "Reducer");
+      return then(new Operator() {
+         Stage link(final Stage next, Pipeline pipeline) {
+            return new Stage() {
+               private final Map<Object, Object> reductions = new HashMap<Object, Object>();
+
+               @SuppressWarnings("unchecked")
+               void push(Object key, Object item) {
+                  Object reduction;
+                  synchronized (this) {
+                     Object accumulated = reductions.get(key);
+                     reduction = accumulated == null ? item : reducer.reduce((T) accumulated, (T) item);
+                     retain(reduction);
+                     reductions.put(key, reduction);
+                  }
+                  next.push(key, reduction);
+               }
+            };
+         }
+      });
+   }
+
+   /**
+    * Groups the stream into tumbling windows, consecutive windows that do not overlap.
+    *
+    * @param sizeMS the length of each window, in milliseconds
+    * @return the windowed stream, to aggregate
+    */
+   public Windowed<T> window(long sizeMS) {
+      return window(sizeMS, sizeMS);
+   }
+
+   /**
+    * Groups the stream into sliding windows, which overlap when the slide is shorter than the size, so each item is
+    * aggregated into every window that contains it.
+    *
+    * @param sizeMS the length of each window, in milliseconds
+    * @param slideMS the time between the starts of consecutive windows, in milliseconds
+    * @return the windowed stream, to aggregate
+    */
+   public Windowed<T> window(long sizeMS, long slideMS) {
+      if (sizeMS <= 0) {
+         throw new IllegalArgumentException("Window size must be positive, was " + sizeMS);
+      }
+      if (slideMS <= 0) {
+         throw new IllegalArgumentException("Window slide must be positive, was " + slideMS);
+      }
+      return new Windowed<T>(this, sizeMS, slideMS);
+   }
+
+   /**
+    * Subscribes the stream, passing the items that reach its end to a sink.
+    *
+    * @param sink receives the items
+    * @return the handle to cancel the subscription with
+    */
+   public Handle to(final Sink<? super T> sink) {
+      checkArgument(sink, "Sink");
+      return subscribe(new Stage() {
+         @SuppressWarnings("unchecked")
+         void push(Object key, Object item) {
+            sink.accept((T) item);
+         }
+      });
+   }
+
+   /**
+    * Subscribes the stream, publishing the items that reach its end on a topic of the same EventService.
+    *
+    * @param topic the topic to publish the results on
+    * @return the handle to cancel the subscription with
+    */
+   public Handle publishOn(final String topic) {
+      checkArgument(topic, "Topic");
+      return subscribe(new Stage() {
+         void push(Object key, Object item) {
+            eventService.publish(topic, item);
+         }
+      });
+   }
+
+   private Handle subscribe(Stage sink) {
+      Pipeline pipeline = new Pipeline(eventService, source);
+      Stage head = sink;
+      for (EventStream<?> stream = this; stream.operator != null; stream = stream.upstream) {
+         head = stream.operator.link(head, pipeline);
+      }
+      pipeline.head = head;
+      pipeline.subscribe();
+      return pipeline;
+   }
+
+   private static void checkArgument(Object argument, String name) {
+      if (argument == null) {
+         throw new IllegalArgumentException(name + " must not be null");
+      }
+   }
+
+   /** Keeps a pooled event out of its pool when a stream holds on to it */
+   private static void retain(Object item) {
+      if (item instanceof AbstractEventServiceEvent) {
+         ((AbstractEventServiceEvent) item).retain();
+      }
+   }
+
+   public String toString() {
+      return "EventStream{" + source + "}";
+   }
+
+   /**
+    * A stream grouped into time windows, aggregating each window into a result when it closes.
+    *
+    * @see EventStream#window(long, long)
+    */
+   public static final class Windowed<T> {
+      private final EventStream<T> stream;
+      private final long sizeMS;
+      private final long slideMS;
+
+      private Windowed(EventStream<T> stream, long sizeMS, long slideMS) {
+         this.stream = stream;
+         this.sizeMS = sizeMS;
+         this.slideMS = slideMS;
+      }
+
+      /**
+       * @param aggregator aggregates the items of each window and key
+       * @return a stream of the result of each window and key, emitted when the window closes
+       */
+      public <A, R> EventStream<R> aggregate(final Aggregator<? super T, A, R> aggregator) {
+         checkArgument(aggregator, "Aggregator");
+         return stream.then(new Operator() {
+            Stage link(Stage next, Pipeline pipeline) {
+               return new WindowStage(next, pipeline, sizeMS, slideMS, aggregator);
+            }
+         });
+      }
+
+      /**
+       * @param reducer reduces the items of each window and key
+       * @return a stream of the reduction of each window and key, emitted when the window closes
+       */
+      public EventStream<T> reduce(final Reducer<T> reducer) {
+         checkArgument(reducer, "Reducer");
+         return aggregate(new Aggregator<T, Object, T>() {
+            public Object create() {
+               return NO_VALUE;
+            }
+
+            @SuppressWarnings("unchecked")
+            public Object add(Object accumulator, T item) {
+               Object reduction = accumulator == NO_VALUE ? item : reducer.reduce((T) accumulator, item);
+               retain(reduction);
+               return reduction;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T result(Object accumulator) {
+               return (T) accumulator;
+            }
+         });
+      }
+
+      public String toString() {
+         return stream + ".window(" + sizeMS + ", " + slideMS + ")";
+      }
+   }
+
+   /** One operator of a stream, linked into a chain of stages when the stream is subscribed */
+   private abstract static class Operator {
+      abstract Stage link(Stage next, Pipeline pipeline);
+   }
+
+   /** A running operator, passing items and their keys on to the next stage */
+   private abstract static class Stage {
+      abstract void push(Object key, Object item);
+   }
+
+   /**
+    * The subscribed chain of stages, the one subscriber of a stream on its EventService.  Keeps the window stages to
+    * stop when cancelled.
+    */
+   private static final class Pipeline implements EventSubscriber, EventTopicSubscriber, Handle {
+      private final EventService eventService;
+      private final Object source;
+      private final List<WindowStage> windows = new ArrayList<WindowStage>();
+      private Stage head;
+      private volatile boolean cancelled;
+
+      Pipeline(EventService eventService, Object source) {
+         this.eventService = eventService;
+         this.source = source;
+      }
+
+      void subscribe() {
+         if (source instanceof Class) {
+            eventService.subscribeStrongly((Class) source, (EventSubscriber) this);
+         } else if (source instanceof String) {
+            eventService.subscribeStrongly((String) source, this);
+         } else {
+            eventService.subscribeStrongly((Pattern) source, this);
+         }
+      }
+
+      public void onEvent(Object event) {
+         if (!cancelled) {
+            head.push(NO_KEY, event);
+         }
+      }
+
+      public void onEvent(String topic, Object data) {
+         if (!cancelled) {
+            head.push(NO_KEY, data);
+         }
+      }
+
+      public void cancel() {
+         synchronized (this) {
+            if (cancelled) {
+               return;
+            }
+            cancelled = true;
+         }
+         if (source instanceof Class) {
+            eventService.unsubscribe((Class) source, (EventSubscriber) this);
+         } else if (source instanceof String) {
+            eventService.unsubscribe((String) source, (EventTopicSubscriber) this);
+         } else {
+            eventService.unsubscribe((Pattern) source, (EventTopicSubscriber) this);
+         }
+         for (WindowStage window : windows) {
+            window.stop();
+         }
+      }
+
+      public boolean isCancelled() {
+         return cancelled;
+      }
+
+      /** @return the EventService's timer wheel, or one shared by all other EventServices */
+      TimerWheel getTimerWheel() {
+         if (eventService instanceof ThreadSafeEventService) {
+            return ((ThreadSafeEventService) eventService).getTimerWheel();
+         }
+         synchronized (EventStream.class) {
+            if (sharedTimerWheel == null) {
+               sharedTimerWheel = new TimerWheel("EventStream timer wheel", 10, 512);
+            }
+            return sharedTimerWheel;
+         }
+      }
+
+      /** Pushes the results of closed windows on to the next stage, the way the EventService delivers timed events */
+      void deliver(final Stage next, final List<Object> keysAndResults) {
+         Runnable delivery = new Runnable() {
+            public void run() {
+               for (int i = 0; i < keysAndResults.size() && !cancelled; i += 2) {
+                  Object result = keysAndResults.get(i + 1);
+                  try {
+                     next.push(keysAndResults.get(i), result);
+                  } catch (Throwable e) {
+                     if (eventService instanceof ThreadSafeEventService) {
+                        ((ThreadSafeEventService) eventService).handleException(result, e, null, Pipeline.this);
+                     } else {
+                        LOG.log(Level.ERROR, "Exception passing on the window result " + result, e);
+                     }
+                  }
+               }
+            }
+         };
+         if (eventService instanceof ThreadSafeEventService) {
+            ((ThreadSafeEventService) eventService).deliverTimed(delivery);
+         } else {
+            delivery.run();
+         }
+      }
+   }
+
+   /**
+    * Aggregates time windows.  The open windows are kept by start time, each with an accumulator per key, and one
+    * timeout on the timer wheel closes the oldest.
+    */
+   private static final class WindowStage extends Stage implements Runnable {
+      private final Stage next;
+      private final Pipeline pipeline;
+      private final long sizeMS;
+      private final long slideMS;
+      private final Aggregator aggregator;
+      private final long originNanos = System.nanoTime();
+      //guarded by this
+      private final TreeMap<Long, Map<Object, Object>> openWindows = new TreeMap<Long, Map<Object, Object>>();
+      private TimerWheel.Timeout timeout;
+      private boolean stopped;
+
+      WindowStage(Stage next, Pipeline pipeline, long sizeMS, long slideMS, Aggregator aggregator) {
+         this.next = next;
+         this.pipeline = pipeline;
+         this.sizeMS = sizeMS;
+         this.slideMS = slideMS;
+         this.aggregator = aggregator;
+         pipeline.windows.add(this);
+      }
+
+      private long now() {
+         return (System.nanoTime() - originNanos) / 1000000;
+      }
+
+      @SuppressWarnings("unchecked")
+      void push(Object key, Object item) {
+         long now = now();
+         synchronized (this) {
+            if (stopped) {
+               return;
+            }
+            for (long start = now - now % slideMS; start > now - sizeMS; start -= slideMS) {
+               Long windowStart = new Long(start);
+               Map<Object, Object> accumulators = openWindows.get(windowStart);
+               if (accumulators == null) {
+                  accumulators = new LinkedHashMap<Object, Object>();
+                  openWindows.put(windowStart, accumulators);
+               }
+               Object accumulator = accumulators.containsKey(key) ? accumulators.get(key) : aggregator.create();
+               accumulators.put(key, aggregator.add(accumulator, item));
+            }
+            scheduleClose(now);
+         }
+      }
+
+      /** Closes the windows that ended */
+      @SuppressWarnings("unchecked")
+      public void run() {
+         List<Object> keysAndResults = new ArrayList<Object>();
+         synchronized (this) {
+            timeout = null;
+            if (stopped) {
+               return;
+            }
+            long now = now();
+            while (!openWindows.isEmpty() && openWindows.firstKey().longValue() + sizeMS <= now) {
+               Map<Object, Object> accumulators = openWindows.remove(openWindows.firstKey());
+               for (Iterator<Map.Entry<Object, Object>> iterator = accumulators.entrySet().iterator();
+                    iterator.hasNext();) {
+                  Map.Entry<Object, Object> entry = iterator.next();
+                  keysAndResults.add(entry.getKey());
+                  keysAndResults.add(aggregator.result(entry.getValue()));
+               }
+            }
+            scheduleClose(now);
+         }
+         if (!keysAndResults.isEmpty()) {
+            pipeline.deliver(next, keysAndResults);
+         }
+      }
+
+      private void scheduleClose(long now) {
+         if (timeout == null && !openWindows.isEmpty()) {
+            long end = openWindows.firstKey().longValue() + sizeMS;
+            timeout = pipeline.getTimerWheel().schedule(this, Math.max(0, end - now));
+         }
+      }
+
+      synchronized void stop() {
+         stopped = true;
+         if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+         }
+         openWindows.clear();
+      }
+   }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the publications of an event class or topic with many independent subscribers in parallel.  Set one with
+ * {@link EventService#setFanOutForEventClass(Class, FanOut)} or {@link EventService#setFanOutForTopic(String,
+ * FanOut)}.
+ * <p/>
+ * The subscribers are split into chunks of up to chunkSize subscribers, which are delivered on an Executor.
+ * Subscribers of different priorities (see {@link Prioritized}) are still called in priority order: all the chunks of
+ * one priority complete before the first chunk of the next starts, so parallelism is only among subscribers of the
+ * same priority.  Exceptions thrown by subscribers are collected and passed to the EventService's exception handling
+ * once the delivery is over.
+ * <ul>
+ * <li>{@link #parallel(int)} and {@link #parallel(Executor, int)} make the publisher wait until every subscriber has
+ * been called.  While it waits, the publisher delivers chunks that no executor thread has started yet, so it does not
+ * deadlock when publishing from a thread of the executor.
+ * <li>{@link #parallelNoWait(Executor, int)} returns to the publisher as soon as the first chunks are submitted.  The
+ * publication status is Completed when publish() returns, before the subscribers are called.
+ * </ul>
+ * Subscribers delivered in parallel must be thread safe, and must not touch Swing components.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public final class FanOut {
+   private static Executor sharedExecutor;
+
+   private final Executor executor;
+   private final int chunkSize;
+   private final boolean waitForCompletion;
+
+   private FanOut(Executor executor, int chunkSize, boolean waitForCompletion) {
+      if (executor == null) {
+         throw new IllegalArgumentException("Executor must not be null");
+      }
+      if (chunkSize <= 0) {
+         throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+      }
+      this.executor = executor;
+      this.chunkSize = chunkSize;
+      this.waitForCompletion = waitForCompletion;
+   }
+
+   /**
+    * @param chunkSize the most subscribers called one after another by one task
+    *
+    * @return a FanOut on a shared pool of daemon threads, one per processor, that the publisher waits for
+    */
+   public static FanOut parallel(int chunkSize) {
+      return new FanOut(getSharedExecutor(), chunkSize, true);
+   }
+
+   /**
+    * @param executor runs the chunks
+    * @param chunkSize the most subscribers called one after another by one task
+    *
+    * @return a FanOut on the executor that the publisher waits for
+    */
+   public static FanOut parallel(Executor executor, int chunkSize) {
+      return new FanOut(executor, chunkSize, true);
+   }
+
+   /**
+    * @param executor runs the chunks
+    * @param chunkSize the most subscribers called one after another by one task
+    *
+    * @return a FanOut on the executor that the publisher does not wait for
+    */
+   public static FanOut parallelNoWait(Executor executor, int chunkSize) {
+      return new FanOut(executor, chunkSize, false);
+   }
+
+   private static synchronized Executor getSharedExecutor() {
+      if (sharedExecutor == null) {
+         sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                 new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                       Thread thread = new Thread(runnable, "EventService fan-out " + count.incrementAndGet());
+                       thread.setDaemon(true);
+                       return thread;
+                    }
+                 });
+      }
+      return sharedExecutor;
+   }
+
+   /** @return the executor the chunks run on */
+   public Executor getExecutor() {
+      return executor;
+   }
+
+   /** @return the most subscribers called one after another by one task */
+   public int getChunkSize() {
+      return chunkSize;
+   }
+
+   /** @return true if the publisher waits until every subscriber has been called */
+   public boolean isWaitForCompletion() {
+      return waitForCompletion;
+   }
+
+   public String toString() {
+      return "FanOut{chunkSize=" + chunkSize + ", waitForCompletion=" + waitForCompletion + ", executor=" + executor
+              + "}";
+   }
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The filtered subscriptions to one event class or topic, indexed by attribute so that a publication only visits
+ * the subscriptions whose filters match.  Equality and set membership filters are kept in a hash map from attribute
+ * value to subscriptions.  Range filters are kept sorted by their minimum with a max-heap shaped tree of their
+ * maximums over them, so a lookup binary searches the ranges starting at or below the value and only descends into
+ * subtrees that contain a range ending at or above it.
+ * <p/>
+ * The indexes are an immutable snapshot rebuilt on the first publication after the subscriptions change, so
+ * subscribing many filtered subscribers costs one rebuild and publications don't lock.  Subscribers are held weakly,
+ * garbage collected subscribers are pruned on the next rebuild.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class FilterIndex {
+   private static final Comparator<Entry> SUBSCRIPTION_ORDER = new Comparator<Entry>() {
+      public int compare(Entry e1, Entry e2) {
+         return e1.order < e2.order ? -1 : (e1.order == e2.order ? 0 : 1);
+      }
+   };
+
+   private final List<Entry> entries = new ArrayList<Entry>();
+   private long nextOrder;
+   private volatile Snapshot snapshot;
+
+   /**
+    * Adds a filtered subscriber, replacing the subscriber's previous filter if it was already subscribed.
+    *
+    * @return true if the subscriber was not already subscribed
+    */
+   synchronized boolean add(Object subscriber, EventFilter filter) {
+      boolean existed = removeEntries(subscriber);
+      entries.add(new Entry(subscriber, filter, nextOrder++));
+      snapshot = null;
+      return !existed;
+   }
+
+   /** @return true if the subscriber was subscribed */
+   synchronized boolean remove(Object subscriber) {
+      if (removeEntries(subscriber)) {
+         snapshot = null;
+         return true;
+      }
+      return false;
+   }
+
+   private boolean removeEntries(Object subscriber) {
+      boolean removed = false;
+      for (Iterator<Entry> iter = entries.iterator(); iter.hasNext();) {
+         Object existing = iter.next().get();
+         if (existing == subscriber || existing == null) {
+            iter.remove();
+            removed |= existing == subscriber;
+         }
+      }
+      return removed;
+   }
+
+   /** @return true if there are no subscriptions left, after pruning garbage collected subscribers */
+   synchronized boolean isEmpty() {
+      removeEntries(null);
+      return entries.isEmpty();
+   }
+
+   /** @return the live subscribers, in subscription order */
+   synchronized List getSubscribers() {
+      List result = new ArrayList(entries.size());
+      for (Entry entry : entries) {
+         Object subscriber = entry.get();
+         if (subscriber != null) {
+            result.add(subscriber);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Adds the subscribers whose filters match an event or topic data object to a list, in subscription order.
+    *
+    * @param item the event or topic data
+    * @param result the list to add the matching subscribers to
+    */
+   void collectMatches(Object item, List result) {
+      Snapshot current = snapshot;
+      if (current == null) {
+         current = rebuild();
+      }
+      List<Entry> matched = current.match(item);
+      if (matched.size() > 1) {
+         Collections.sort(matched, SUBSCRIPTION_ORDER);
+      }
+      boolean stale = false;
+      for (int i = 0; i < matched.size(); i++) {
+         Object subscriber = matched.get(i).get();
+         if (subscriber == null) {
+            stale = true;
+         } else {
+            result.add(subscriber);
+         }
+      }
+      if (stale) {
+         synchronized (this) {
+            removeEntries(null);
+            snapshot = null;
+         }
+      }
+   }
+
+   private synchronized Snapshot rebuild() {
+      Snapshot current = snapshot;
+      if (current == null) {
+         removeEntries(null);
+         current = new Snapshot(entries);
+         snapshot = current;
+      }
+      return current;
+   }
+
+   private static final class Entry extends WeakReference {
+      final EventFilter filter;
+      final long order;
+
+      Entry(Object subscriber, EventFilter filter, long order) {
+         super(subscriber);
+         this.filter = filter;
+         this.order = order;
+      }
+   }
+
+   /** The immutable indexes of all the attributes filtered on. */
+   private static final class Snapshot {
+      private final AttributeIndex[] attributes;
+
+      Snapshot(List<Entry> entries) {
+         Map<EventAttribute, List<Entry>> byAttribute = new LinkedHashMap<EventAttribute, List<Entry>>();
+         for (Entry entry : entries) {
+            EventAttribute attribute = entry.filter.getAttribute();
+            List<Entry> list = byAttribute.get(attribute);
+            if (list == null) {
+               list = new ArrayList<Entry>();
+               byAttribute.put(attribute, list);
+            }
+            list.add(entry);
+         }
+         attributes = new AttributeIndex[byAttribute.size()];
+         int i = 0;
+         for (Map.Entry<EventAttribute, List<Entry>> attributeEntries : byAttribute.entrySet()) {
+            attributes[i++] = new AttributeIndex(attributeEntries.getKey(), attributeEntries.getValue());
+         }
+      }
+
+      List<Entry> match(Object item) {
+         List<Entry> matched = new ArrayList<Entry>();
+         for (int i = 0; i < attributes.length; i++) {
+            attributes[i].match(item, matched);
+         }
+         return matched;
+      }
+   }
+
+   /** The hash and interval indexes of the filters on one attribute. */
+   private static final class AttributeIndex {
+      private final EventAttribute attribute;
+      private final Map<Object, Entry[]> byValue;
+      private final RangeIndex ranges;
+
+      AttributeIndex(EventAttribute attribute, List<Entry> entries) {
+         this.attribute = attribute;
+         Map<Object, List<Entry>> values = new HashMap<Object, List<Entry>>();
+         List<Entry> rangeEntries = new ArrayList<Entry>();
+         for (Entry entry : entries) {
+            if (entry.filter.getKind() == EventFilter.Kind.RANGE) {
+               rangeEntries.add(entry);
+               continue;
+            }
+            List filterValues = entry.filter.getValues();
+            for (int i = 0; i < filterValues.size(); i++) {
+               Object value = filterValues.get(i);
+               List<Entry> list = values.get(value);
+               if (list == null) {
+                  list = new ArrayList<Entry>(1);
+                  values.put(value, list);
+               }
+               list.add(entry);
+            }
+         }
+         byValue = new HashMap<Object, Entry[]>(values.size() * 4 / 3 + 1);
+         for (Map.Entry<Object, List<Entry>> valueEntries : values.entrySet()) {
+            byValue.put(valueEntries.getKey(), valueEntries.getValue().toArray(new Entry[valueEntries.getValue().size()]));
+         }
+         ranges = rangeEntries.isEmpty() ? null : new RangeIndex(rangeEntries);
+      }
+
+      void match(Object item, List<Entry> matched) {
+         Object value = attribute.getValue(item);
+         Entry[] equal = byValue.get(value);
+         if (equal != null) {
+            matched.addAll(Arrays.asList(equal));
+         }
+         if (ranges != null) {
+            ranges.match(value, matched);
+         }
+      }
+   }
+
+   /** Range filters sorted by minimum, with a tree of the largest maximum in each subtree. */
+   private static final class RangeIndex {
+      private final Entry[] byMin;
+      private final Comparable[] maxTree;
+      private final int leaves;
+      private final boolean sorted;
+
+      RangeIndex(List<Entry> entries) {
+         Entry[] array = entries.toArray(new Entry[entries.size()]);
+         boolean comparable = true;
+         try {
+            Arrays.sort(array, new Comparator<Entry>() {
+               public int compare(Entry e1, Entry e2) {
+                  return e1.filter.getMin().compareTo(e2.filter.getMin());
+               }
+            });
+         } catch (ClassCastException e) {
+            //bounds of different types, fall back to testing every range
+            comparable = false;
+         }
+         byMin = array;
+         sorted = comparable;
+         int size = 1;
+         while (size < array.length) {
+            size <<= 1;
+         }
+         leaves = size;
+         maxTree = sorted ? new Comparable[size * 2] : null;
+         if (sorted) {
+            for (int i = 0; i < array.length; i++) {
+               maxTree[size + i] = array[i].filter.getMax();
+            }
+            for (int node = size - 1; node > 0; node--) {
+               maxTree[node] = larger(maxTree[node * 2], maxTree[node * 2 + 1]);
+            }
+         }
+      }
+
+      private static Comparable larger(Comparable c1, Comparable c2) {
+         if (c1 == null) {
+            return c2;
+         }
+         if (c2 == null) {
+            return c1;
+         }
+         return c1.compareTo(c2) >= 0 ? c1 : c2;
+      }
+
+      void match(Object value, List<Entry> matched) {
+         if (value == null) {
+            return;
+         }
+         if (sorted) {
+            int size = matched.size();
+            try {
+               collect(1, 0, leaves, startingAtOrBelow(value), value, matched);
+               return;
+            } catch (ClassCastException e) {
+               //a value of another type than the bounds, test every range
+               while (matched.size() > size) {
+                  matched.remove(matched.size() - 1);
+               }
+            }
+         }
+         for (int i = 0; i < byMin.length; i++) {
+            if (byMin[i].filter.matchesValue(value)) {
+               matched.add(byMin[i]);
+            }
+         }
+      }
+
+      /** @return the number of ranges whose minimum is at or below the value */
+      private int startingAtOrBelow(Object value) {
+         int low = 0;
+         int high = byMin.length;
+         while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (byMin[mid].filter.getMin().compareTo(value) <= 0) {
+               low = mid + 1;
+            } else {
+               high = mid;
+            }
+         }
+         return low;
+      }
+
+      private void collect(int node, int from, int to, int limit, Object value, List<Entry> matched) {
+         if (from >= limit || maxTree[node] == null || maxTree[node].compareTo(value) < 0) {
+            return;
+         }
+         if (node >= leaves) {
+            matched.add(byMin[from]);
+            return;
+         }
+         int middle = (from + to) >>> 1;
+         collect(node * 2, from, middle, limit, value, matched);
+         collect(node * 2 + 1, middle, to, limit, value, matched);
+      }
+   }
+}
@@ -1,45 +1,60 @@
 package org.bushe.swing.event;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 
 /**
  * Central Logging class.  Shields code from Logging implementation.
  * <p/>
- * The EventBus allows operation in two modes - using java.util.logging so that
+ * The EventBus allows operation in three modes - using java.util.logging so that
  * the EventBus can be deployed in its own jar or using any logging system supported
- * by apache commons logging, which of course requires other jars.
+ * by apache commons logging or SLF4J, which of course requires other jars.  Other logging systems can be
+ * plugged in by implementing a {@link Backend} and setting a {@link BackendFactory}.
  * <p/>
  * The EventBus logging uses the names of its classes as the log, primarily
  * "org.bushe.swing.event.EventService".  This aids in debugging which subscription and publication issues.
  * <p/>
+ * Which levels are enabled is asked of the logging system once and cached, so that a check for a disabled level,
+ * such as <code>LOG.isLoggable(Level.DEBUG)</code> on every publication, is a single field read.  The cached levels
+ * of all Loggers are refreshed every {@link #DEFAULT_LEVEL_REFRESH_INTERVAL_MS} milliseconds by a daemon timer (see
+ * {@link #setLevelRefreshInterval(long)}), and immediately by {@link #refreshLevels()}, which should be called after
+ * changing the logging configuration at runtime.
+ * <p/>
  * Implementation note: There are no imports in this class to make things
  * explicit.  There is also no explicit use of classes outside java.util,
- * anything else is used by reflection to avoid NoClassDefFound errors on class load.
+ * anything else is used by reflection to avoid NoClassDefFound errors on class load.  The reflective methods are
+ * resolved once per logging system, not per call.
  */
 public class Logger {
-   private java.util.logging.Logger utilLogger;
-   private /*Untyped to avoid java.lang.NoClassDefFoundError
-   org.apache.commons.logging.Log*/ Object commonsLogger;
-   private Map<String, Method> METHOD_CACHE_NO_PARAMS;
-   private Map<String, Method> METHOD_CACHE_ONE_PARAM;
-   private Map<String, Method> METHOD_CACHE_TWO_PARAMS;
-   private static Class<?> logFactoryClass;
-   private static Class<?> logClass;
+   /** The default interval at which cached levels are refreshed, {@value} milliseconds */
+   public static final long DEFAULT_LEVEL_REFRESH_INTERVAL_MS = 5000;
+
+   private static final List<WeakReference<Logger>> LOGGERS = new ArrayList<WeakReference<Logger>>();
+   private static volatile BackendFactory backendFactory;
+   private static long levelRefreshIntervalMS = DEFAULT_LEVEL_REFRESH_INTERVAL_MS;
+   private static Timer refreshTimer;
    private static Method getLogMethod;
-   private static final Object[] EMPTY_ARGS = new Object[0];
-   private static final Class[] CLASS_ARGS_EMPTY = new Class[0];
-   private static final Class[] CLASS_ARGS_ONE = new Class[]{Object.class};
-   private static final Class[] CLASS_ARGS_TWO = new Class[]{Object.class, Throwable.class};
+   private static ReflectiveBackend.Methods commonsMethods;
+   private static Method getSlf4jLoggerMethod;
+   private static ReflectiveBackend.Methods slf4jMethods;
 
-   /** Allows switching between Java and Commons logging.*/
+   private final Backend backend;
+   private volatile int enabledLevels;
+
+   /** Allows switching between Java, Commons and SLF4J logging.*/
    public static enum LoggerType {
       /*java.util.logging*/
       JAVA,
       /*org.apache.commons.logging*/
-      COMMONS
+      COMMONS,
+      /*org.slf4j*/
+      SLF4J
    }
 
    /** Standardized logging levels. */
@@ -49,86 +64,229 @@ public class Logger {
       WARN,
       INFO,
       DEBUG,
-      TRACE
+      TRACE;
+
+      final int mask = 1 << ordinal();
+   }
+
+   /**
+    * The logging system a Logger writes to.  Implement this, and a {@link BackendFactory}, to bind the EventBus
+    * directly to a logging system.
+    */
+   public static interface Backend {
+      /**
+       * Asked once per level when a Logger is created and whenever its levels are refreshed, not on every check.
+       * @param level the EventBus Logger level
+       * @return whether this level is loggable
+       */
+      boolean isLoggable(Level level);
+
+      /**
+       * @param level the EventBus Logger level, which was loggable at the last refresh
+       * @param message the message
+       * @param throwable the Throwable to log, may be null
+       */
+      void log(Level level, String message, Throwable throwable);
+   }
+
+   /** Creates the Backend for each named Logger. */
+   public static interface BackendFactory {
+      /**
+       * @param name the name of the log, usually a class name
+       * @return the Backend to log to
+       */
+      Backend getBackend(String name);
    }
 
    public static LoggerType LOGGER_TYPE= null;
 
    public static Logger getLogger(String name) {
+      BackendFactory factory = backendFactory;
+      if (factory != null) {
+         return new Logger(factory.getBackend(name));
+      }
       if (LOGGER_TYPE == null) {
          LOGGER_TYPE = getLoggerType();
       }
-      if (LOGGER_TYPE == LoggerType.COMMONS) {
-            try {
-               Object logger = getLogMethod.invoke(null, name);
-               return new Logger(logger);
-            } catch (IllegalAccessException e) {
-               e.printStackTrace();
-            } catch (InvocationTargetException e) {
-               e.printStackTrace();
-            }
+      if (LOGGER_TYPE == LoggerType.COMMONS && commonsMethods != null) {
+         Object logger = invokeFactory(getLogMethod, name);
+         if (logger != null) {
+            return new Logger(logger);
+         }
+      } else if (LOGGER_TYPE == LoggerType.SLF4J && slf4jMethods != null) {
+         Object logger = invokeFactory(getSlf4jLoggerMethod, name);
+         if (logger != null) {
+            return new Logger(new ReflectiveBackend(logger, slf4jMethods));
+         }
       }
       return new Logger(java.util.logging.Logger.getLogger(name));
    }
 
+   /**
+    * Sets the factory that creates the Backend of Loggers created after this call, overriding {@link #LOGGER_TYPE}.
+    * Since the EventBus's Loggers are created when its classes are loaded, this should be called early.
+    * @param factory the factory, or null to use {@link #LOGGER_TYPE}
+    */
+   public static void setBackendFactory(BackendFactory factory) {
+      backendFactory = factory;
+   }
+
+   /** @return the factory set by {@link #setBackendFactory(BackendFactory)}, or null */
+   public static BackendFactory getBackendFactory() {
+      return backendFactory;
+   }
+
+   /**
+    * Sets how often the cached levels of all Loggers are refreshed from the logging system.
+    * @param intervalMS the interval in milliseconds, 0 to only refresh when {@link #refreshLevels()} is called
+    */
+   public static void setLevelRefreshInterval(long intervalMS) {
+      if (intervalMS < 0) {
+         throw new IllegalArgumentException("Level refresh interval must not be negative, was " + intervalMS);
+      }
+      synchronized (LOGGERS) {
+         levelRefreshIntervalMS = intervalMS;
+         if (refreshTimer != null) {
+            refreshTimer.cancel();
+            refreshTimer = null;
+         }
+         scheduleRefresh();
+      }
+   }
+
+   /** @return how often the cached levels of all Loggers are refreshed, in milliseconds, 0 if never */
+   public static long getLevelRefreshInterval() {
+      synchronized (LOGGERS) {
+         return levelRefreshIntervalMS;
+      }
+   }
+
+   /** Refreshes the cached levels of all Loggers from the logging system, call after reconfiguring logging. */
+   public static void refreshLevels() {
+      List<Logger> loggers = new ArrayList<Logger>();
+      synchronized (LOGGERS) {
+         for (Iterator<WeakReference<Logger>> iterator = LOGGERS.iterator(); iterator.hasNext();) {
+            Logger logger = iterator.next().get();
+            if (logger == null) {
+               iterator.remove();
+            } else {
+               loggers.add(logger);
+            }
+         }
+      }
+      for (Logger logger : loggers) {
+         logger.refresh();
+      }
+   }
+
+   private static void register(Logger logger) {
+      synchronized (LOGGERS) {
+         LOGGERS.add(new WeakReference<Logger>(logger));
+         scheduleRefresh();
+      }
+   }
+
+   /** Must be called holding the LOGGERS lock. */
+   private static void scheduleRefresh() {
+      if (refreshTimer != null || levelRefreshIntervalMS == 0 || LOGGERS.isEmpty()) {
+         return;
+      }
+      refreshTimer = new Timer("EventBus Logger level refresh", true);
+      refreshTimer.schedule(new TimerTask() {
+         public void run() {
+            refreshLevels();
+         }
+      }, levelRefreshIntervalMS, levelRefreshIntervalMS);
+   }
+
    /**
     * This method should only be called once in a JVM run.
     * @return
     */
    private static LoggerType getLoggerType() {
-      LoggerType result = null;
       //See if apache commons is available
       try {
-         logFactoryClass = Class.forName("org.apache.commons.logging.LogFactory");
+         Class<?> logFactoryClass = Class.forName("org.apache.commons.logging.LogFactory");
          getLogMethod = logFactoryClass.getMethod("getLog", new Class[]{String.class});
-         logClass = Class.forName("org.apache.commons.logging.Log");
+         commonsMethods = new ReflectiveBackend.Methods(Class.forName("org.apache.commons.logging.Log"),
+                 new String[]{"fatal", "error", "warn", "info", "debug", "trace"}, Object.class);
          return LoggerType.COMMONS;
       } catch (Throwable e) {
       }
+      //Then SLF4J, which has no fatal level
+      try {
+         Class<?> loggerFactoryClass = Class.forName("org.slf4j.LoggerFactory");
+         getSlf4jLoggerMethod = loggerFactoryClass.getMethod("getLogger", new Class[]{String.class});
+         slf4jMethods = new ReflectiveBackend.Methods(Class.forName("org.slf4j.Logger"),
+                 new String[]{"error", "error", "warn", "info", "debug", "trace"}, String.class);
+         return LoggerType.SLF4J;
+      } catch (Throwable e) {
+      }
       return LoggerType.JAVA;
    }
 
+   private static Object invokeFactory(Method factoryMethod, String name) {
+      try {
+         return factoryMethod.invoke(null, name);
+      } catch (IllegalAccessException e) {
+         e.printStackTrace();
+      } catch (InvocationTargetException e) {
+         e.printStackTrace();
+      }
+      return null;
+   }
+
    public Logger(java.util.logging.Logger utilLogger) {
-      this.utilLogger = utilLogger;
+      this(new JavaBackend(utilLogger));
    }
 
    public Logger(Object commonsLogger) {
-      this.commonsLogger = commonsLogger;
+      this(commonsMethodsOrNull() == null ? null : new ReflectiveBackend(commonsLogger, commonsMethods));
    }
 
    /**
-    * Returns whether this level is loggable.  If there is
-    * a misconfiguration, this will always return false.
-    * @param level the EventBus Logger level
-    * @return whether this level is loggable.
+    * @param backend the logging system to write to, a null backend logs nothing
     */
-   public boolean isLoggable(Level level) {
-      if (utilLogger != null) {
-         java.util.logging.Level javaLevel = getJavaLevelFor(level);
-         return javaLevel != null && utilLogger.isLoggable(javaLevel);
-      } else if (commonsLogger != null) {
-         switch (level) {
-            case ERROR: return (Boolean)callCommonsLogger("isErrorEnabled");
-            case FATAL: return (Boolean)callCommonsLogger("isFatalEnabled");
-            case WARN: return (Boolean)callCommonsLogger("isWarnEnabled");
-            case INFO: return (Boolean)callCommonsLogger("isInfoEnabled");
-            case DEBUG: return (Boolean)callCommonsLogger("isDebugEnabled");
-            case TRACE: return (Boolean)callCommonsLogger("isTraceEnabled");
-         }
+   public Logger(Backend backend) {
+      this.backend = backend;
+      refresh();
+      register(this);
+   }
+
+   private static ReflectiveBackend.Methods commonsMethodsOrNull() {
+      if (LOGGER_TYPE == null) {
+         LOGGER_TYPE = getLoggerType();
       }
-      return false;
+      return commonsMethods;
    }
 
-   private java.util.logging.Level getJavaLevelFor(Level level) {
-      switch (level) {
-         case FATAL: return java.util.logging.Level.SEVERE;
-         case ERROR: return java.util.logging.Level.SEVERE;
-         case WARN: return java.util.logging.Level.WARNING;
-         case INFO: return java.util.logging.Level.INFO;
-         case DEBUG: return java.util.logging.Level.FINE;
-         case TRACE: return java.util.logging.Level.FINEST;
+   /** @return the logging system this Logger writes to, null if there is none */
+   public Backend getBackend() {
+      return backend;
+   }
+
+   /** Refreshes this Logger's cached levels from the logging system. */
+   public void refresh() {
+      int enabled = 0;
+      if (backend != null) {
+         Level[] levels = Level.values();
+         for (int i = 0; i < levels.length; i++) {
+            if (backend.isLoggable(levels[i])) {
+               enabled |= levels[i].mask;
+            }
+         }
       }
-      return null;
+      enabledLevels = enabled;
+   }
+
+   /**
+    * Returns whether this level is loggable, as of the last refresh of the cached levels.  If there is
+    * a misconfiguration, this will always return false.
+    * @param level the EventBus Logger level
+    * @return whether this level is loggable.
+    */
+   public boolean isLoggable(Level level) {
+      return (enabledLevels & level.mask) != 0;
    }
 
    public void debug(String message) {
@@ -143,76 +301,95 @@ public class Logger {
       if (!isLoggable(level)) {
          return;
       }
-      if (utilLogger != null) {
+      backend.log(level, message, throwable);
+   }
+
+   private static class JavaBackend implements Backend {
+      private final java.util.logging.Logger utilLogger;
+
+      JavaBackend(java.util.logging.Logger utilLogger) {
+         this.utilLogger = utilLogger;
+      }
+
+      public boolean isLoggable(Level level) {
+         return utilLogger.isLoggable(getJavaLevelFor(level));
+      }
+
+      public void log(Level level, String message, Throwable throwable) {
          java.util.logging.Level javaLevel = getJavaLevelFor(level);
          if (throwable == null) {
             utilLogger.log(javaLevel, message);
          } else {
             utilLogger.log(javaLevel, message, throwable);
          }
-      } else if (commonsLogger != null) {
-         if (throwable == null) {
-            switch (level) {
-               case ERROR: callCommonsLogger("error", message); break;
-               case FATAL: callCommonsLogger("fatal", message); break;
-               case WARN: callCommonsLogger("warn", message); break;
-               case INFO: callCommonsLogger("info", message); break;
-               case DEBUG: callCommonsLogger("debug", message); break;
-               case TRACE: callCommonsLogger("trace", message); break;
-            }
-         } else {
-            switch (level) {
-               case ERROR: callCommonsLogger("error", message, throwable); break;
-               case FATAL: callCommonsLogger("fatal", message, throwable); break;
-               case WARN: callCommonsLogger("warn", message, throwable); break;
-               case INFO: callCommonsLogger("info", message, throwable); break;
-               case DEBUG: callCommonsLogger("debug", message, throwable); break;
-               case TRACE: callCommonsLogger("trace", message, throwable); break;
-            }
+      }
+
+      private static java.util.logging.Level getJavaLevelFor(Level level) {
+         switch (level) {
+            case FATAL: return java.util.logging.Level.SEVERE;
+            case ERROR: return java.util.logging.Level.SEVERE;
+            case WARN: return java.util.logging.Level.WARNING;
+            case INFO: return java.util.logging.Level.INFO;
+            case DEBUG: return java.util.logging.Level.FINE;
+            case TRACE: return java.util.logging.Level.FINEST;
          }
+         return java.util.logging.Level.OFF;
       }
    }
 
-   private Object callCommonsLogger(String methodName) {
-      if (METHOD_CACHE_NO_PARAMS == null) {
-         METHOD_CACHE_NO_PARAMS = new HashMap<String, Method>();
+   /**
+    * Logs to commons-logging or SLF4J through methods resolved once, indexed by Level, so that neither is needed
+    * to compile or load the EventBus.
+    */
+   private static class ReflectiveBackend implements Backend {
+      private final Object logger;
+      private final Methods methods;
+
+      ReflectiveBackend(Object logger, Methods methods) {
+         this.logger = logger;
+         this.methods = methods;
       }
-      return callCommonsLogger(METHOD_CACHE_NO_PARAMS, methodName, CLASS_ARGS_EMPTY, EMPTY_ARGS);
-   }
 
-   private Object callCommonsLogger(String methodName, String message) {
-      if (METHOD_CACHE_ONE_PARAM == null) {
-         METHOD_CACHE_ONE_PARAM = new HashMap<String, Method>();
+      public boolean isLoggable(Level level) {
+         return Boolean.TRUE.equals(invoke(methods.isEnabled[level.ordinal()], new Object[0]));
       }
-      return callCommonsLogger(METHOD_CACHE_ONE_PARAM, methodName, CLASS_ARGS_ONE, new Object[]{message});
-   }
 
-   private Object callCommonsLogger(String methodName, String message, Throwable throwable) {
-      if (METHOD_CACHE_TWO_PARAMS == null) {
-         METHOD_CACHE_TWO_PARAMS = new HashMap<String, Method>();
+      public void log(Level level, String message, Throwable throwable) {
+         if (throwable == null) {
+            invoke(methods.log[level.ordinal()], new Object[]{message});
+         } else {
+            invoke(methods.logThrowable[level.ordinal()], new Object[]{message, throwable});
+         }
       }
-      return callCommonsLogger(METHOD_CACHE_TWO_PARAMS, methodName, CLASS_ARGS_TWO, new Object[]{message, throwable});
-   }
 
-   private Object callCommonsLogger(Map<String, Method> cache, String methodName, Class[] classOfArgs, Object[] args) {
-      Method method = cache.get(methodName);
-      if (method == null) {
+      private Object invoke(Method method, Object[] args) {
          try {
-            method = logClass.getMethod(methodName, classOfArgs);
-            cache.put(methodName, method);
-         } catch (NoSuchMethodException e) {
-            e.printStackTrace();  
+            return method.invoke(logger, args);
+         } catch (IllegalAccessException e) {
+            return null;
+         } catch (InvocationTargetException e) {
+            return null;
          }
       }
-      if (method == null) {
-         return null;
-      }
-      try {
-         return method.invoke(commonsLogger, args);
-      } catch (IllegalAccessException e) {
-         return null;
-      } catch (InvocationTargetException e) {
-         return null;
+
+      /** The isXxxEnabled(), xxx(message) and xxx(message, Throwable) methods of a log class, by Level ordinal. */
+      static class Methods {
+         final Method[] isEnabled;
+         final Method[] log;
+         final Method[] logThrowable;
+
+         Methods(Class<?> logClass, String[] namesByLevel, Class<?> messageClass) throws NoSuchMethodException {
+            isEnabled = new Method[namesByLevel.length];
+            log = new Method[namesByLevel.length];
+            logThrowable = new Method[namesByLevel.length];
+            for (int i = 0; i < namesByLevel.length; i++) {
+               String name = namesByLevel[i];
+               isEnabled[i] = logClass.getMethod("is" + Character.toUpperCase(name.charAt(0)) + name.substring(1)
+                       + "Enabled", new Class[0]);
+               log[i] = logClass.getMethod(name, new Class[]{messageClass});
+               logThrowable[i] = logClass.getMethod(name, new Class[]{messageClass, Throwable.class});
+            }
+         }
       }
    }
 }
@@ -37,6 +37,17 @@ public class ObjectEvent extends AbstractEventServiceEvent {
    }
 
    public Object getEventObject() {
+      checkNotReleased();
       return eventObject;
    }
+
+   /** @param payload the payload of the event, for events reused from an {@link ObjectEventPool} */
+   protected void setEventObject(Object payload) {
+      this.eventObject = payload;
+   }
+
+   protected void recycle() {
+      super.recycle();
+      eventObject = null;
+   }
 }
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+/**
+ * A per-thread pool of {@link ObjectEvent}s, see {@link EventPool}.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class ObjectEventPool extends EventPool<ObjectEvent> {
+
+   public ObjectEventPool() {
+   }
+
+   /** @param maxPooledPerThread the number of released events kept per thread */
+   public ObjectEventPool(int maxPooledPerThread) {
+      super(maxPooledPerThread);
+   }
+
+   protected ObjectEvent newEvent() {
+      return new ObjectEvent(null, null);
+   }
+
+   /**
+    * @param sourceObject the source of the event
+    * @param payload the payload or eventObject of the event
+    *
+    * @return a pooled ObjectEvent, returned to the pool when its publication completes
+    */
+   public ObjectEvent acquire(Object sourceObject, Object payload) {
+      ObjectEvent event = acquire();
+      event.setSource(sourceObject);
+      event.setEventObject(payload);
+      return event;
+   }
+}
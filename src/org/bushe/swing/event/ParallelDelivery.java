@@ -0,0 +1,216 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers one publication to its subscribers in parallel, as configured by a {@link FanOut}.  The sorted subscribers
+ * are split into groups of equal priority and each group into chunks.  The chunks of a group are submitted to the
+ * executor together, and the chunk that completes a group starts the next one, so groups run strictly one after
+ * another without any thread blocking between them.  A waiting publisher helps by running chunks that have not been
+ * started yet, then waits for the last group.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class ParallelDelivery {
+   private final ThreadSafeEventService eventService;
+   private final Object event;
+   private final String topic;
+   private final Object eventObj;
+   private final FanOut fanOut;
+   private final StackTraceElement[] callingStack;
+   private final CallSiteCapture.CallSite callSite;
+   private final List<Group> groups = new ArrayList<Group>();
+   private final ConcurrentLinkedQueue<Object[]> failures = new ConcurrentLinkedQueue<Object[]>();
+
+   ParallelDelivery(ThreadSafeEventService eventService, Object event, String topic, Object eventObj,
+           List subscribers, FanOut fanOut, StackTraceElement[] callingStack) {
+      this.eventService = eventService;
+      this.event = event;
+      this.topic = topic;
+      this.eventObj = eventObj;
+      this.fanOut = fanOut;
+      this.callingStack = callingStack;
+      //Failures are reported on another thread if the publisher does not wait
+      this.callSite = callingStack == null && !fanOut.isWaitForCompletion() ? eventService.captureCallSite() : null;
+      int start = 0;
+      for (int i = 1; i <= subscribers.size(); i++) {
+         if (i == subscribers.size() || priorityOf(subscribers.get(i)) != priorityOf(subscribers.get(start))) {
+            groups.add(new Group(subscribers, start, i));
+            start = i;
+         }
+      }
+   }
+
+   private static int priorityOf(Object subscriber) {
+      return subscriber instanceof Prioritized ? ((Prioritized) subscriber).getPriority() : 0;
+   }
+
+   /** Delivers the publication, returning when it is over if the FanOut waits for completion */
+   void deliver() {
+      if (groups.isEmpty()) {
+         return;
+      }
+      start(0);
+      if (!fanOut.isWaitForCompletion()) {
+         return;
+      }
+      boolean interrupted = false;
+      for (int i = 0; i < groups.size(); i++) {
+         Group group = groups.get(i);
+         group.help();
+         while (true) {
+            try {
+               group.completed.await();
+               break;
+            } catch (InterruptedException e) {
+               interrupted = true;
+            }
+         }
+      }
+      reportFailures();
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private void start(int groupIndex) {
+      if (groupIndex == groups.size()) {
+         if (!fanOut.isWaitForCompletion()) {
+            reportFailures();
+         }
+         return;
+      }
+      groups.get(groupIndex).submit(groupIndex);
+   }
+
+   /**
+    * Passes the collected subscriber exceptions to the EventService's exception handling, in no particular order, on
+    * the publishing thread if it waits, otherwise on the thread that completed the delivery
+    */
+   private void reportFailures() {
+      if (failures.isEmpty()) {
+         return;
+      }
+      CallSiteCapture.CallSite previous = callSite == null ? null : ThreadSafeEventService.enterCallSite(callSite);
+      try {
+         for (Object[] failure; (failure = failures.poll()) != null;) {
+            if (event != null) {
+               eventService.handleException(event, (Throwable) failure[1], callingStack,
+                       (EventSubscriber) failure[0]);
+            } else {
+               eventService.onEventException(topic, eventObj, (Throwable) failure[1], callingStack,
+                       (EventTopicSubscriber) failure[0]);
+            }
+         }
+      } finally {
+         if (callSite != null) {
+            ThreadSafeEventService.exitCallSite(previous);
+         }
+      }
+   }
+
+   /** The subscribers of one priority */
+   private final class Group {
+      private final List<Chunk> chunks = new ArrayList<Chunk>();
+      private final AtomicInteger remaining;
+      private final CountDownLatch completed = new CountDownLatch(1);
+      private int index;
+
+      Group(List subscribers, int from, int to) {
+         for (int start = from; start < to; start += fanOut.getChunkSize()) {
+            chunks.add(new Chunk(this, subscribers, start, Math.min(to, start + fanOut.getChunkSize())));
+         }
+         remaining = new AtomicInteger(chunks.size());
+      }
+
+      void submit(int index) {
+         this.index = index;
+         //A waiting publisher runs the first chunk itself
+         int first = fanOut.isWaitForCompletion() ? 1 : 0;
+         for (int i = first; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            try {
+               fanOut.getExecutor().execute(chunk);
+            } catch (RejectedExecutionException e) {
+               chunk.run();
+            }
+         }
+      }
+
+      /** Runs the chunks no executor thread has started */
+      void help() {
+         for (int i = 0; i < chunks.size(); i++) {
+            chunks.get(i).run();
+         }
+      }
+
+      void chunkDone() {
+         if (remaining.decrementAndGet() == 0) {
+            //Start the next group before waking a waiting publisher, so it can help with it
+            start(index + 1);
+            completed.countDown();
+         }
+      }
+   }
+
+   /** A run of subscribers called one after another, by whichever thread claims it first */
+   private final class Chunk implements Runnable {
+      private final Group group;
+      private final List subscribers;
+      private final int from;
+      private final int to;
+      private final AtomicBoolean claimed = new AtomicBoolean();
+
+      Chunk(Group group, List subscribers, int from, int to) {
+         this.group = group;
+         this.subscribers = subscribers;
+         this.from = from;
+         this.to = to;
+      }
+
+      public void run() {
+         if (!claimed.compareAndSet(false, true)) {
+            return;
+         }
+         try {
+            for (int i = from; i < to; i++) {
+               Object subscriber = subscribers.get(i);
+               try {
+                  if (event != null) {
+                     long start = System.currentTimeMillis();
+                     ((EventSubscriber) subscriber).onEvent(event);
+                     eventService.checkTimeLimit(start, event, (EventSubscriber) subscriber, null);
+                  } else {
+                     ((EventTopicSubscriber) subscriber).onEvent(topic, eventObj);
+                  }
+               } catch (Throwable e) {
+                  failures.add(new Object[]{subscriber, e});
+               }
+            }
+         } finally {
+            group.chunkDone();
+         }
+      }
+   }
+}
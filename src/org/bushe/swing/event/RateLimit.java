@@ -0,0 +1,109 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+/**
+ * Limits how often a subscriber is called, for subscribers that only need the latest event, like UI updates and
+ * telemetry.  Pass one to {@link EventService#subscribe(Class, EventSubscriber, RateLimit)} and the other rate
+ * limited subscribe methods, or set the debounceMS, throttleMS or sampleMS attribute of a subscriber annotation.
+ * <ul>
+ * <li>{@link #debounce(long)} delivers the latest event once no events have been published for the period.
+ * <li>{@link #throttle(long)} delivers the first event immediately and then at most one event per period, the latest
+ * event published during the period is delivered when it ends.
+ * <li>{@link #sample(long)} delivers the latest event published during each period when the period ends.
+ * </ul>
+ * Events that are not delivered are dropped.  Delayed deliveries are timed by one timer wheel per EventService, not
+ * one timer per subscriber, and have the resolution of its tick, 10 milliseconds.  They happen on the timer wheel's
+ * thread for a ThreadSafeEventService and on the Swing Event Dispatch Thread for a SwingEventService.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public final class RateLimit {
+
+   /** How a RateLimit limits delivery. */
+   public enum Mode {
+      /** Delivers the latest event after a quiet period. */
+      DEBOUNCE,
+      /** Delivers the first event immediately, then the latest event at most once per period. */
+      THROTTLE,
+      /** Delivers the latest event at the end of each period. */
+      SAMPLE
+   }
+
+   private final Mode mode;
+   private final long periodMS;
+
+   private RateLimit(Mode mode, long periodMS) {
+      if (periodMS <= 0) {
+         throw new IllegalArgumentException("Rate limit period must be positive, was " + periodMS);
+      }
+      this.mode = mode;
+      this.periodMS = periodMS;
+   }
+
+   /**
+    * @param quietPeriodMS how long no events must be published before the latest is delivered
+    *
+    * @return a RateLimit that delivers the latest event after a quiet period
+    */
+   public static RateLimit debounce(long quietPeriodMS) {
+      return new RateLimit(Mode.DEBOUNCE, quietPeriodMS);
+   }
+
+   /**
+    * @param periodMS the minimum time between deliveries
+    *
+    * @return a RateLimit that delivers the first event immediately, then the latest event at most once per period
+    */
+   public static RateLimit throttle(long periodMS) {
+      return new RateLimit(Mode.THROTTLE, periodMS);
+   }
+
+   /**
+    * @param periodMS the sampling period
+    *
+    * @return a RateLimit that delivers the latest event at the end of each period in which events were published
+    */
+   public static RateLimit sample(long periodMS) {
+      return new RateLimit(Mode.SAMPLE, periodMS);
+   }
+
+   /** @return how this limits delivery */
+   public Mode getMode() {
+      return mode;
+   }
+
+   /** @return the quiet period, throttle period or sampling period, in milliseconds */
+   public long getPeriodMS() {
+      return periodMS;
+   }
+
+   public boolean equals(Object obj) {
+      if (!(obj instanceof RateLimit)) {
+         return false;
+      }
+      RateLimit other = (RateLimit) obj;
+      return mode == other.mode && periodMS == other.periodMS;
+   }
+
+   public int hashCode() {
+      return mode.hashCode() * 31 + (int) (periodMS ^ (periodMS >>> 32));
+   }
+
+   public String toString() {
+      return "RateLimit{mode=" + mode + ", periodMS=" + periodMS + "}";
+   }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+/**
+ * The proxy subscribed by the rate limited subscribe methods of {@link ThreadSafeEventService}.  Holds the latest
+ * event that is waiting for delivery and a timeout on the service's {@link TimerWheel}.  Rather than rescheduling on
+ * every event, a debounce only moves its deadline and the timeout reschedules itself for the rest of the quiet
+ * period when it fires early.
+ * <p/>
+ * A ProxySubscriber, such as an annotation proxy, is held strongly and its proxied subscriber and reference strength
+ * are reported as this proxy's, so unsubscribing the annotated object unsubscribes this proxy.  Other subscribers are
+ * held weakly.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class RateLimitedSubscriber implements ProxySubscriber, EventSubscriber, EventTopicSubscriber, Prioritized {
+   private final RateLimit rateLimit;
+   private final long periodNanos;
+   private final ThreadSafeEventService eventService;
+   private final boolean topicSubscriber;
+   private volatile Object subscriber;
+   private final Runnable fire = new Runnable() {
+      public void run() {
+         fire();
+      }
+   };
+   //guarded by this
+   private TimerWheel.Timeout timeout;
+   private boolean hasPending;
+   private String pendingTopic;
+   private Object pendingItem;
+   private long deadline;
+
+   RateLimitedSubscriber(Object subscriber, RateLimit rateLimit, ThreadSafeEventService eventService,
+           boolean topicSubscriber) {
+      this.subscriber = subscriber instanceof ProxySubscriber ? subscriber : new WeakReference(subscriber);
+      this.rateLimit = rateLimit;
+      this.periodNanos = rateLimit.getPeriodMS() * 1000000L;
+      this.eventService = eventService;
+      this.topicSubscriber = topicSubscriber;
+   }
+
+   /** @return the subscriber to call, the ProxySubscriber itself for proxies, or null once collected */
+   private Object getDelegate() {
+      Object delegate = subscriber;
+      if (delegate instanceof WeakReference) {
+         delegate = ((WeakReference) delegate).get();
+      }
+      return delegate;
+   }
+
+   public Object getProxiedSubscriber() {
+      Object delegate = getDelegate();
+      return delegate instanceof ProxySubscriber ? ((ProxySubscriber) delegate).getProxiedSubscriber() : delegate;
+   }
+
+   public void proxyUnsubscribed() {
+      Object delegate = getDelegate();
+      synchronized (this) {
+         if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+         }
+         hasPending = false;
+         pendingTopic = null;
+         pendingItem = null;
+      }
+      subscriber = null;
+      if (delegate instanceof ProxySubscriber) {
+         ((ProxySubscriber) delegate).proxyUnsubscribed();
+      }
+   }
+
+   public ReferenceStrength getReferenceStrength() {
+      Object delegate = subscriber;
+      return delegate instanceof ProxySubscriber ? ((ProxySubscriber) delegate).getReferenceStrength()
+              : ReferenceStrength.WEAK;
+   }
+
+   public int getPriority() {
+      Object delegate = getDelegate();
+      return delegate instanceof Prioritized ? ((Prioritized) delegate).getPriority() : 0;
+   }
+
+   public void onEvent(Object event) {
+      if (offer(null, event)) {
+         EventSubscriber delegate = (EventSubscriber) getDelegate();
+         if (delegate != null) {
+            delegate.onEvent(event);
+         }
+      }
+   }
+
+   public void onEvent(String topic, Object data) {
+      if (offer(topic, data)) {
+         EventTopicSubscriber delegate = (EventTopicSubscriber) getDelegate();
+         if (delegate != null) {
+            delegate.onEvent(topic, data);
+         }
+      }
+   }
+
+   /** @return true if the item should be delivered right away, on the publishing thread */
+   private synchronized boolean offer(String topic, Object item) {
+      if (subscriber == null) {
+         return false;
+      }
+      if (rateLimit.getMode() == RateLimit.Mode.THROTTLE && timeout == null) {
+         //Leading edge, open the throttle period
+         timeout = eventService.getTimerWheel().schedule(fire, rateLimit.getPeriodMS());
+         return true;
+      }
+      if (item instanceof AbstractEventServiceEvent) {
+         //Kept past this publication, keep it out of its EventPool
+         ((AbstractEventServiceEvent) item).retain();
+      }
+      hasPending = true;
+      pendingTopic = topic;
+      pendingItem = item;
+      if (rateLimit.getMode() == RateLimit.Mode.DEBOUNCE) {
+         deadline = System.nanoTime() + periodNanos;
+      }
+      if (timeout == null) {
+         timeout = eventService.getTimerWheel().schedule(fire, rateLimit.getPeriodMS());
+      }
+      return false;
+   }
+
+   private void fire() {
+      final String topic;
+      final Object item;
+      synchronized (this) {
+         if (rateLimit.getMode() == RateLimit.Mode.DEBOUNCE) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos > 0) {
+               timeout = eventService.getTimerWheel().schedule(fire, (remainingNanos + 999999) / 1000000);
+               return;
+            }
+         }
+         if (!hasPending) {
+            timeout = null;
+            return;
+         }
+         topic = pendingTopic;
+         item = pendingItem;
+         hasPending = false;
+         pendingTopic = null;
+         pendingItem = null;
+         if (rateLimit.getMode() == RateLimit.Mode.DEBOUNCE) {
+            timeout = null;
+         } else {
+            //The delivery starts a new period
+            timeout = eventService.getTimerWheel().schedule(fire, rateLimit.getPeriodMS());
+         }
+      }
+      eventService.deliverTimed(new Runnable() {
+         public void run() {
+            deliver(topic, item);
+         }
+      });
+   }
+
+   private void deliver(String topic, Object item) {
+      Object delegate = getDelegate();
+      if (delegate == null) {
+         return;
+      }
+      if (topicSubscriber) {
+         try {
+            ((EventTopicSubscriber) delegate).onEvent(topic, item);
+         } catch (Throwable e) {
+            eventService.onEventException(topic, item, e, null, (EventTopicSubscriber) delegate);
+         }
+      } else {
+         try {
+            ((EventSubscriber) delegate).onEvent(item);
+         } catch (Throwable e) {
+            eventService.handleException(item, e, null, (EventSubscriber) delegate);
+         }
+      }
+   }
+
+   public String toString() {
+      return "RateLimitedSubscriber{rateLimit=" + rateLimit + ", realSubscriber=" + getProxiedSubscriber() + "}";
+   }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A batch of subscribes and unsubscribes that a {@link ThreadSafeEventService} applies all at once, returned by
+ * {@link ThreadSafeEventService#registrationBatch()}.
+ * <p/>
+ * Subscribing thousands of subscribers one by one takes the EventService's listener lock once per subscription, and
+ * every subscription outdates the dispatch plans that publications use, so publishers on other threads may rebuild
+ * them between any two subscriptions.  A batch records the operations and {@link #apply()} performs them under one
+ * acquisition of the lock.  Publications keep using the subscriptions from before the batch until it is applied,
+ * then see all of its changes at once.
+ * <pre>
+ * eventService.registrationBatch()
+ *       .subscribeStrongly(Order.class, orderView)
+ *       .subscribeStrongly("Price.IBM", priceView)
+ *       .unsubscribe(Order.class, oldOrderView)
+ *       .apply();
+ * </pre>
+ * The operations are applied in the order they were added and behave exactly like the EventService methods of the
+ * same name, including calling any subscribe and unsubscribe methods a subclass overrides.  Arguments are checked when
+ * an operation is added.  A batch is not thread safe, and is emptied when applied so it can be reused.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public final class RegistrationBatch {
+   private enum Kind {
+      SUBSCRIBE, SUBSCRIBE_STRONGLY, SUBSCRIBE_EXACTLY, SUBSCRIBE_EXACTLY_STRONGLY, SUBSCRIBE_VETO,
+      SUBSCRIBE_VETO_STRONGLY, UNSUBSCRIBE, UNSUBSCRIBE_EXACTLY, UNSUBSCRIBE_VETO
+   }
+
+   private final ThreadSafeEventService eventService;
+   private final List<Operation> operations = new ArrayList<Operation>();
+
+   RegistrationBatch(ThreadSafeEventService eventService) {
+      this.eventService = eventService;
+   }
+
+   /** @see EventService#subscribe(Class,EventSubscriber) */
+   public RegistrationBatch subscribe(Class eventClass, EventSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE, eventClass, subscriber);
+   }
+
+   /** @see EventService#subscribeStrongly(Class,EventSubscriber) */
+   public RegistrationBatch subscribeStrongly(Class eventClass, EventSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE_STRONGLY, eventClass, subscriber);
+   }
+
+   /** @see EventService#subscribeExactly(Class,EventSubscriber) */
+   public RegistrationBatch subscribeExactly(Class eventClass, EventSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE_EXACTLY, eventClass, subscriber);
+   }
+
+   /** @see EventService#subscribeExactlyStrongly(Class,EventSubscriber) */
+   public RegistrationBatch subscribeExactlyStrongly(Class eventClass, EventSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE_EXACTLY_STRONGLY, eventClass, subscriber);
+   }
+
+   /** @see EventService#subscribe(String,EventTopicSubscriber) */
+   public RegistrationBatch subscribe(String topic, EventTopicSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE, topic, subscriber);
+   }
+
+   /** @see EventService#subscribeStrongly(String,EventTopicSubscriber) */
+   public RegistrationBatch subscribeStrongly(String topic, EventTopicSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE_STRONGLY, topic, subscriber);
+   }
+
+   /** @see EventService#subscribe(Pattern,EventTopicSubscriber) */
+   public RegistrationBatch subscribe(Pattern topicPattern, EventTopicSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE, topicPattern, subscriber);
+   }
+
+   /** @see EventService#subscribeStrongly(Pattern,EventTopicSubscriber) */
+   public RegistrationBatch subscribeStrongly(Pattern topicPattern, EventTopicSubscriber subscriber) {
+      return add(Kind.SUBSCRIBE_STRONGLY, topicPattern, subscriber);
+   }
+
+   /** @see EventService#subscribeVetoListener(Class,VetoEventListener) */
+   public RegistrationBatch subscribeVetoListener(Class eventClass, VetoEventListener vetoListener) {
+      return add(Kind.SUBSCRIBE_VETO, eventClass, vetoListener);
+   }
+
+   /** @see EventService#subscribeVetoListenerStrongly(Class,VetoEventListener) */
+   public RegistrationBatch subscribeVetoListenerStrongly(Class eventClass, VetoEventListener vetoListener) {
+      return add(Kind.SUBSCRIBE_VETO_STRONGLY, eventClass, vetoListener);
+   }
+
+   /** @see EventService#subscribeVetoListener(String,VetoTopicEventListener) */
+   public RegistrationBatch subscribeVetoListener(String topic, VetoTopicEventListener vetoListener) {
+      return add(Kind.SUBSCRIBE_VETO, topic, vetoListener);
+   }
+
+   /** @see EventService#subscribeVetoListenerStrongly(String,VetoTopicEventListener) */
+   public RegistrationBatch subscribeVetoListenerStrongly(String topic, VetoTopicEventListener vetoListener) {
+      return add(Kind.SUBSCRIBE_VETO_STRONGLY, topic, vetoListener);
+   }
+
+   /** @see EventService#unsubscribe(Class,EventSubscriber) */
+   public RegistrationBatch unsubscribe(Class eventClass, EventSubscriber subscriber) {
+      return add(Kind.UNSUBSCRIBE, eventClass, subscriber);
+   }
+
+   /** @see EventService#unsubscribeExactly(Class,EventSubscriber) */
+   public RegistrationBatch unsubscribeExactly(Class eventClass, EventSubscriber subscriber) {
+      return add(Kind.UNSUBSCRIBE_EXACTLY, eventClass, subscriber);
+   }
+
+   /** @see EventService#unsubscribe(String,EventTopicSubscriber) */
+   public RegistrationBatch unsubscribe(String topic, EventTopicSubscriber subscriber) {
+      return add(Kind.UNSUBSCRIBE, topic, subscriber);
+   }
+
+   /** @see EventService#unsubscribe(Pattern,EventTopicSubscriber) */
+   public RegistrationBatch unsubscribe(Pattern topicPattern, EventTopicSubscriber subscriber) {
+      return add(Kind.UNSUBSCRIBE, topicPattern, subscriber);
+   }
+
+   /** @see EventService#unsubscribeVetoListener(Class,VetoEventListener) */
+   public RegistrationBatch unsubscribeVetoListener(Class eventClass, VetoEventListener vetoListener) {
+      return add(Kind.UNSUBSCRIBE_VETO, eventClass, vetoListener);
+   }
+
+   /** @see EventService#unsubscribeVetoListener(String,VetoTopicEventListener) */
+   public RegistrationBatch unsubscribeVetoListener(String topic, VetoTopicEventListener vetoListener) {
+      return add(Kind.UNSUBSCRIBE_VETO, topic, vetoListener);
+   }
+
+   /** @return the number of operations waiting to be applied */
+   public int size() {
+      return operations.size();
+   }
+
+   /**
+    * Applies the operations under one acquisition of the EventService's listener lock and empties the batch.  If an
+    * operation throws, the operations before it stay applied and the rest are discarded.
+    *
+    * @return the number of operations that changed a subscription, the subscribes of subscribers that were not
+    * already subscribed and the unsubscribes of subscribers that were
+    */
+   public int apply() {
+      Operation[] toApply = operations.toArray(new Operation[operations.size()]);
+      operations.clear();
+      return eventService.applyRegistrationBatch(toApply);
+   }
+
+   private RegistrationBatch add(Kind kind, Object classTopicOrPattern, Object subscriber) {
+      if (classTopicOrPattern == null) {
+         throw new IllegalArgumentException("Event class, topic or pattern must not be null");
+      }
+      if (subscriber == null) {
+         throw new IllegalArgumentException("Subscriber must not be null");
+      }
+      operations.add(new Operation(kind, classTopicOrPattern, subscriber));
+      return this;
+   }
+
+   /** One recorded subscribe or unsubscribe. */
+   static final class Operation {
+      private final Kind kind;
+      private final Object classTopicOrPattern;
+      private final Object subscriber;
+
+      Operation(Kind kind, Object classTopicOrPattern, Object subscriber) {
+         this.kind = kind;
+         this.classTopicOrPattern = classTopicOrPattern;
+         this.subscriber = subscriber;
+      }
+
+      boolean applyTo(ThreadSafeEventService eventService) {
+         if (classTopicOrPattern instanceof Class) {
+            Class eventClass = (Class) classTopicOrPattern;
+            switch (kind) {
+               case SUBSCRIBE:
+                  return eventService.subscribe(eventClass, (EventSubscriber) subscriber);
+               case SUBSCRIBE_STRONGLY:
+                  return eventService.subscribeStrongly(eventClass, (EventSubscriber) subscriber);
+               case SUBSCRIBE_EXACTLY:
+                  return eventService.subscribeExactly(eventClass, (EventSubscriber) subscriber);
+               case SUBSCRIBE_EXACTLY_STRONGLY:
+                  return eventService.subscribeExactlyStrongly(eventClass, (EventSubscriber) subscriber);
+               case SUBSCRIBE_VETO:
+                  return eventService.subscribeVetoListener(eventClass, (VetoEventListener) subscriber);
+               case SUBSCRIBE_VETO_STRONGLY:
+                  return eventService.subscribeVetoListenerStrongly(eventClass, (VetoEventListener) subscriber);
+               case UNSUBSCRIBE:
+                  return eventService.unsubscribe(eventClass, (EventSubscriber) subscriber);
+               case UNSUBSCRIBE_EXACTLY:
+                  return eventService.unsubscribeExactly(eventClass, (EventSubscriber) subscriber);
+               default:
+                  return eventService.unsubscribeVetoListener(eventClass, (VetoEventListener) subscriber);
+            }
+         } else if (classTopicOrPattern instanceof String) {
+            String topic = (String) classTopicOrPattern;
+            switch (kind) {
+               case SUBSCRIBE:
+                  return eventService.subscribe(topic, (EventTopicSubscriber) subscriber);
+               case SUBSCRIBE_STRONGLY:
+                  return eventService.subscribeStrongly(topic, (EventTopicSubscriber) subscriber);
+               case SUBSCRIBE_VETO:
+                  return eventService.subscribeVetoListener(topic, (VetoTopicEventListener) subscriber);
+               case SUBSCRIBE_VETO_STRONGLY:
+                  return eventService.subscribeVetoListenerStrongly(topic, (VetoTopicEventListener) subscriber);
+               case UNSUBSCRIBE:
+                  return eventService.unsubscribe(topic, (EventTopicSubscriber) subscriber);
+               default:
+                  return eventService.unsubscribeVetoListener(topic, (VetoTopicEventListener) subscriber);
+            }
+         } else {
+            Pattern topicPattern = (Pattern) classTopicOrPattern;
+            switch (kind) {
+               case SUBSCRIBE:
+                  return eventService.subscribe(topicPattern, (EventTopicSubscriber) subscriber);
+               case SUBSCRIBE_STRONGLY:
+                  return eventService.subscribeStrongly(topicPattern, (EventTopicSubscriber) subscriber);
+               default:
+                  return eventService.unsubscribe(topicPattern, (EventTopicSubscriber) subscriber);
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+/**
+ * The proxy subscribed by the subscribeWithReplay methods of {@link ThreadSafeEventService}.  Live events that arrive
+ * while the replayed events are being delivered are buffered and delivered after the replayed events, so the
+ * subscriber sees the replay followed by the live events in order.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class ReplayingSubscriber implements ProxySubscriber, EventSubscriber, EventTopicSubscriber, Prioritized {
+   private final Object classOrTopic;
+   private final ThreadSafeEventService eventService;
+   private WeakReference proxiedSubscriber;
+   private List buffer = new ArrayList();
+   private boolean replaying = true;
+
+   ReplayingSubscriber(Object classOrTopic, Object subscriber, ThreadSafeEventService eventService) {
+      this.classOrTopic = classOrTopic;
+      this.proxiedSubscriber = new WeakReference(subscriber);
+      this.eventService = eventService;
+   }
+
+   /** @return the event class or topic subscribed to */
+   Object getClassOrTopic() {
+      return classOrTopic;
+   }
+
+   /** @return true if an event or topic publication is delivered to this subscriber */
+   boolean matches(Object event, String topic) {
+      if (event != null) {
+         return classOrTopic instanceof Class && ((Class) classOrTopic).isInstance(event);
+      } else {
+         return classOrTopic.equals(topic);
+      }
+   }
+
+   public Object getProxiedSubscriber() {
+      WeakReference ref = proxiedSubscriber;
+      return ref == null ? null : ref.get();
+   }
+
+   public void proxyUnsubscribed() {
+      proxiedSubscriber = null;
+   }
+
+   public ReferenceStrength getReferenceStrength() {
+      return ReferenceStrength.WEAK;
+   }
+
+   public int getPriority() {
+      Object subscriber = getProxiedSubscriber();
+      return subscriber instanceof Prioritized ? ((Prioritized) subscriber).getPriority() : 0;
+   }
+
+   public void onEvent(Object event) {
+      synchronized (this) {
+         if (replaying) {
+            retain(event);
+            buffer.add(event);
+            return;
+         }
+      }
+      EventSubscriber subscriber = (EventSubscriber) getProxiedSubscriber();
+      if (subscriber != null) {
+         subscriber.onEvent(event);
+      }
+   }
+
+   public void onEvent(String topic, Object data) {
+      synchronized (this) {
+         if (replaying) {
+            retain(data);
+            buffer.add(data);
+            return;
+         }
+      }
+      EventTopicSubscriber subscriber = (EventTopicSubscriber) getProxiedSubscriber();
+      if (subscriber != null) {
+         subscriber.onEvent(topic, data);
+      }
+   }
+
+   /** Keeps a buffered pooled event out of its EventPool. */
+   private static void retain(Object item) {
+      if (item instanceof AbstractEventServiceEvent) {
+         ((AbstractEventServiceEvent) item).retain();
+      }
+   }
+
+   /**
+    * Delivers the replayed events or topic data, oldest first, then the live events that arrived meanwhile, then
+    * switches to delivering live events directly.
+    */
+   void replay(List replayed) {
+      for (int i = 0; i < replayed.size(); i++) {
+         deliverReplayed(replayed.get(i));
+      }
+      finishReplay();
+   }
+
+   /** Delivers one replayed event or topic data object to the real subscriber, handling its exceptions. */
+   void deliverReplayed(Object item) {
+      Object subscriber = getProxiedSubscriber();
+      if (subscriber == null) {
+         return;
+      }
+      if (classOrTopic instanceof Class) {
+         try {
+            ((EventSubscriber) subscriber).onEvent(item);
+         } catch (Throwable e) {
+            eventService.handleException(item, e, null, (EventSubscriber) subscriber);
+         }
+      } else {
+         String topic = (String) classOrTopic;
+         try {
+            ((EventTopicSubscriber) subscriber).onEvent(topic, item);
+         } catch (Throwable e) {
+            eventService.onEventException(topic, item, e, null, (EventTopicSubscriber) subscriber);
+         }
+      }
+   }
+
+   /** @return true until the replayed events and the live events buffered meanwhile have been delivered */
+   synchronized boolean isReplaying() {
+      return replaying;
+   }
+
+   /** Delivers the live events buffered during the replay, then switches to delivering live events directly. */
+   void finishReplay() {
+      while (true) {
+         List live;
+         synchronized (this) {
+            if (buffer.isEmpty()) {
+               replaying = false;
+               buffer = null;
+               return;
+            }
+            live = buffer;
+            buffer = new ArrayList();
+         }
+         for (int i = 0; i < live.size(); i++) {
+            deliverReplayed(live.get(i));
+         }
+      }
+   }
+
+   public String toString() {
+      return "ReplayingSubscriber{classOrTopic=" + classOrTopic + ", realSubscriber=" + getProxiedSubscriber() + "}";
+   }
+}
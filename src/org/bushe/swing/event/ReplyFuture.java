@@ -0,0 +1,112 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The Future returned for a {@link Request}, completed by the {@link RequestCorrelator}.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class ReplyFuture<V> implements Future<V> {
+   private final RequestCorrelator correlator;
+   private final long correlationId;
+   private V value;
+   private Throwable failure;
+   private boolean done;
+   private boolean cancelled;
+
+   ReplyFuture(RequestCorrelator correlator, long correlationId) {
+      this.correlator = correlator;
+      this.correlationId = correlationId;
+   }
+
+   synchronized boolean complete(V value) {
+      if (done) {
+         return false;
+      }
+      this.value = value;
+      done = true;
+      notifyAll();
+      return true;
+   }
+
+   synchronized boolean completeExceptionally(Throwable failure) {
+      if (done) {
+         return false;
+      }
+      this.failure = failure;
+      done = true;
+      notifyAll();
+      return true;
+   }
+
+   public boolean cancel(boolean mayInterruptIfRunning) {
+      synchronized (this) {
+         if (done) {
+            return false;
+         }
+         cancelled = true;
+         done = true;
+         notifyAll();
+      }
+      correlator.remove(correlationId);
+      return true;
+   }
+
+   public synchronized boolean isCancelled() {
+      return cancelled;
+   }
+
+   public synchronized boolean isDone() {
+      return done;
+   }
+
+   public synchronized V get() throws InterruptedException, ExecutionException {
+      while (!done) {
+         wait();
+      }
+      return result();
+   }
+
+   public synchronized V get(long timeout, TimeUnit unit)
+           throws InterruptedException, ExecutionException, TimeoutException {
+      long end = System.nanoTime() + unit.toNanos(timeout);
+      while (!done) {
+         long remaining = end - System.nanoTime();
+         if (remaining <= 0) {
+            throw new TimeoutException("No reply within " + timeout + " " + unit);
+         }
+         TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return result();
+   }
+
+   private V result() throws ExecutionException {
+      if (cancelled) {
+         throw new CancellationException();
+      }
+      if (failure != null) {
+         throw new ExecutionException(failure.getMessage(), failure);
+      }
+      return value;
+   }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+/**
+ * The object published on a topic by {@link EventService#request(String, Object, long)} and
+ * {@link EventService#scatterGather(String, Object, long)}.  Subscribers to the topic answer the request by calling
+ * {@link #reply(Object)}, on any thread, now or later:
+ * <pre>
+ * EventBus.subscribeStrongly("Quote", new EventTopicSubscriber() {
+ *    public void onEvent(String topic, Object data) {
+ *       Request request = (Request) data;
+ *       request.reply(quoteService.getQuote((String) request.getPayload()));
+ *    }
+ * });
+ * ...
+ * Future quote = EventBus.request("Quote", "IBM", 1000);
+ * </pre>
+ * Replies are routed to the requester by the request's correlation id, so requests do not subscribe or unsubscribe
+ * anything.  A request is a PublicationStatusTracker so that a request vetoed by a veto listener completes as soon as
+ * it is vetoed, the same way as a request to a topic without subscribers, instead of waiting for its timeout.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public final class Request implements PublicationStatusTracker {
+   private final long correlationId;
+   private final Object payload;
+   private final RequestCorrelator correlator;
+   private final ReplyFuture future;
+   private volatile PublicationStatus publicationStatus = PublicationStatus.Unpublished;
+
+   Request(long correlationId, Object payload, RequestCorrelator correlator, ReplyFuture future) {
+      this.correlationId = correlationId;
+      this.payload = payload;
+      this.correlator = correlator;
+      this.future = future;
+   }
+
+   ReplyFuture getFuture() {
+      return future;
+   }
+
+   /** @return the id that routes replies to the requester, unique per EventService */
+   public long getCorrelationId() {
+      return correlationId;
+   }
+
+   /** @return the object the requester sent */
+   public Object getPayload() {
+      return payload;
+   }
+
+   /**
+    * Answers the request.  A request made with request() is completed by the first reply, a scatter-gather request
+    * collects a reply from each subscriber.
+    *
+    * @param reply the answer, may be null
+    *
+    * @return false if the request already completed, timed out or was cancelled, so the reply was dropped
+    */
+   public boolean reply(Object reply) {
+      return correlator.reply(correlationId, reply);
+   }
+
+   /**
+    * Answers the request with a failure.  A request made with request() fails with an ExecutionException caused by
+    * the exception.  For a scatter-gather request, the exception is collected as the subscriber's reply.
+    *
+    * @param exception the cause of the failure
+    *
+    * @return false if the request already completed, timed out or was cancelled, so the failure was dropped
+    */
+   public boolean fail(Throwable exception) {
+      return correlator.fail(correlationId, exception);
+   }
+
+   /** @return true if the request is still waiting for replies */
+   public boolean isPending() {
+      return correlator.isPending(correlationId);
+   }
+
+   public PublicationStatus getPublicationStatus() {
+      return publicationStatus;
+   }
+
+   /**
+    * Set by the EventService as the request is published.  Setting PublicationStatus.Vetoed completes the request:
+    * a request fails with an IllegalStateException and a scatter-gather request completes with no replies.
+    *
+    * @param status the status of the request's publication
+    */
+   public void setPublicationStatus(PublicationStatus status) {
+      publicationStatus = status;
+      if (status == PublicationStatus.Vetoed) {
+         correlator.vetoed(correlationId);
+      }
+   }
+
+   public String toString() {
+      return "Request{correlationId=" + correlationId + ", payload=" + payload + "}";
+   }
+}
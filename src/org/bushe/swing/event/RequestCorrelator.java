@@ -0,0 +1,211 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes replies to pending requests by correlation id, and times requests out.  One per EventService.  Requests
+ * never touch the EventService's subscriptions, a reply is a lookup in a concurrent map.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class RequestCorrelator {
+   private static ScheduledExecutorService timeoutScheduler;
+
+   private final AtomicLong nextCorrelationId = new AtomicLong();
+   private final Map<Long, Pending> pendingRequests = new ConcurrentHashMap<Long, Pending>();
+
+   /** All EventServices share one daemon thread for timeouts, created on the first request. */
+   private static synchronized ScheduledExecutorService getTimeoutScheduler() {
+      if (timeoutScheduler == null) {
+         timeoutScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread thread = new Thread(r, "EventService request timeouts");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return timeoutScheduler;
+   }
+
+   /**
+    * Creates a pending request.  Start its timeout with {@link #startTimeout(Request, long)} once it is published.
+    *
+    * @param payload the requester's object
+    * @param gather true to collect replies from all subscribers, false to complete with the first
+    * @param expectedReplies the number of subscribers the request is published to
+    */
+   Request newRequest(Object payload, boolean gather, int expectedReplies) {
+      long correlationId = nextCorrelationId.incrementAndGet();
+      ReplyFuture future = new ReplyFuture(this, correlationId);
+      pendingRequests.put(new Long(correlationId), new Pending(future, gather, expectedReplies));
+      return new Request(correlationId, payload, this, future);
+   }
+
+   /** Times the request out after timeoutMS, unless it has already completed. */
+   void startTimeout(Request request, long timeoutMS) {
+      final long correlationId = request.getCorrelationId();
+      Pending pending = pendingRequests.get(new Long(correlationId));
+      if (pending == null) {
+         return;
+      }
+      pending.timeout = getTimeoutScheduler().schedule(new Runnable() {
+         public void run() {
+            timeout(correlationId);
+         }
+      }, timeoutMS, TimeUnit.MILLISECONDS);
+   }
+
+   /** Completes a request with no subscribers, right away. */
+   void noSubscribers(Request request, String topic) {
+      notDelivered(request.getCorrelationId(), "No subscribers to request topic " + topic);
+   }
+
+   /** Completes a request that a veto listener kept from its subscribers, right away. */
+   void vetoed(long correlationId) {
+      notDelivered(correlationId, "Request " + correlationId + " was vetoed");
+   }
+
+   /** A scatter-gather request completes with no replies, a request fails with an IllegalStateException. */
+   private void notDelivered(long correlationId, String reason) {
+      Pending pending = pendingRequests.get(new Long(correlationId));
+      if (pending != null && pending.gather) {
+         complete(correlationId, pending);
+      } else {
+         fail(correlationId, new IllegalStateException(reason));
+      }
+   }
+
+   boolean reply(long correlationId, Object reply) {
+      Pending pending = pendingRequests.get(new Long(correlationId));
+      if (pending == null) {
+         return false;
+      }
+      if (!pending.gather) {
+         return complete(correlationId, pending, reply);
+      }
+      synchronized (pending) {
+         if (pending.replies == null) {
+            return false;
+         }
+         pending.replies.add(reply);
+         if (pending.replies.size() < pending.expectedReplies) {
+            return true;
+         }
+      }
+      complete(correlationId, pending);
+      return true;
+   }
+
+   boolean fail(long correlationId, Throwable exception) {
+      Pending pending = pendingRequests.get(new Long(correlationId));
+      if (pending == null) {
+         return false;
+      }
+      if (pending.gather) {
+         return reply(correlationId, exception);
+      }
+      if (pendingRequests.remove(new Long(correlationId)) == null) {
+         return false;
+      }
+      cancelTimeout(pending);
+      return pending.future.completeExceptionally(exception);
+   }
+
+   boolean isPending(long correlationId) {
+      return pendingRequests.containsKey(new Long(correlationId));
+   }
+
+   /** Called when a request's future is cancelled. */
+   void remove(long correlationId) {
+      Pending pending = pendingRequests.remove(new Long(correlationId));
+      if (pending != null) {
+         cancelTimeout(pending);
+      }
+   }
+
+   private void timeout(long correlationId) {
+      Pending pending = pendingRequests.get(new Long(correlationId));
+      if (pending == null) {
+         return;
+      }
+      if (pending.gather) {
+         //A scatter-gather request completes with the replies received in time
+         complete(correlationId, pending);
+      } else if (pendingRequests.remove(new Long(correlationId)) != null) {
+         pending.future.completeExceptionally(new TimeoutException("No reply to request " + correlationId
+                 + " in time."));
+      }
+   }
+
+   private boolean complete(long correlationId, Pending pending, Object reply) {
+      if (pendingRequests.remove(new Long(correlationId)) == null) {
+         return false;
+      }
+      cancelTimeout(pending);
+      return pending.future.complete(reply);
+   }
+
+   private void complete(long correlationId, Pending pending) {
+      if (pendingRequests.remove(new Long(correlationId)) == null) {
+         return;
+      }
+      cancelTimeout(pending);
+      List replies;
+      synchronized (pending) {
+         replies = Collections.unmodifiableList(new ArrayList(pending.replies));
+         pending.replies = null;
+      }
+      pending.future.complete(replies);
+   }
+
+   private static void cancelTimeout(Pending pending) {
+      Future timeout = pending.timeout;
+      if (timeout != null) {
+         timeout.cancel(false);
+      }
+   }
+
+   private static class Pending {
+      final ReplyFuture future;
+      final boolean gather;
+      final int expectedReplies;
+      List replies;
+      volatile Future timeout;
+
+      Pending(ReplyFuture future, boolean gather, int expectedReplies) {
+         this.future = future;
+         this.gather = gather;
+         this.expectedReplies = expectedReplies;
+         if (gather) {
+            replies = new ArrayList(expectedReplies);
+         }
+      }
+   }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+
+import org.bushe.swing.event.annotation.BaseProxySubscriber;
+import org.bushe.swing.event.annotation.ProxyTopicSubscriber;
+
+/**
+ * The superclass of the dispatchers a {@link ThreadSafeEventService} generates for its busiest event classes and
+ * topics.  Applications don't use or extend this class, it is public only because the generated classes are defined
+ * by their own class loader.
+ * <p/>
+ * Delivering through the dispatch plan of a class or topic calls every subscriber from the same
+ * <code>onEvent()</code> call site, which sees so many subscriber classes that the JIT can't inline any of them.
+ * When enabled with a threshold, once a route has been published to that often without its subscriptions changing,
+ * the EventService generates a subclass whose dispatch method calls each subscriber of that route, in priority order,
+ * from its own call site in straight-line code.  Annotated subscribers whose class and method are public are called
+ * directly, without their proxy and without reflection, and their exceptions are wrapped as their proxy would have
+ * wrapped them.  The dispatcher is dropped with its plan when the subscriptions change.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see ThreadSafeEventService#setRouteDispatcherThreshold(int)
+ */
+public abstract class RouteDispatcher {
+   /** The objects the generated code calls, by subscriber index. */
+   protected Object[] targets;
+   private Object[] subscribers;
+   private ThreadSafeEventService eventService;
+   private volatile boolean stale;
+
+   protected RouteDispatcher() {
+   }
+
+   void init(ThreadSafeEventService eventService, Object[] subscribers, Object[] targets) {
+      this.eventService = eventService;
+      this.subscribers = subscribers;
+      this.targets = targets;
+   }
+
+   /**
+    * Calls every subscriber of the route, reporting exceptions through {@link #failed}.
+    *
+    * @param event the event published, null for topic publications
+    * @param topic the topic published on, null for event publications
+    * @param eventObj the topic payload, null for event publications
+    */
+   protected abstract void dispatch(Object event, String topic, Object eventObj);
+
+   /** @return true if a garbage collected subscriber was found and the plan should be rebuilt */
+   boolean publish(Object event, String topic, Object eventObj) {
+      dispatch(event, topic, eventObj);
+      return stale;
+   }
+
+   /**
+    * @return the weakly referenced subscriber or proxy at the index, or null if it was garbage collected
+    */
+   protected final Object live(int index) {
+      Object target = targets[index];
+      if (target instanceof WeakReference) {
+         target = ((WeakReference) target).get();
+         if (target == null) {
+            stale = true;
+         }
+      } else if (target instanceof ProxySubscriber && ((ProxySubscriber) target).getProxiedSubscriber() == null) {
+         stale = true;
+         target = null;
+      }
+      return target;
+   }
+
+   /** Reports an exception thrown by the subscriber at the index, as the EventService would. */
+   protected final void failed(int index, Object event, String topic, Object eventObj, Throwable e) {
+      Object subscriber = subscribers[index];
+      if (subscriber instanceof WeakReference) {
+         subscriber = ((WeakReference) subscriber).get();
+      } else if (targets[index] != subscriber) {
+         //An annotated method called without its proxy, the handler gets what the proxy's reflective call throws
+         if (event != null) {
+            e = ((BaseProxySubscriber) subscriber).createInvocationException(event, new InvocationTargetException(e));
+         } else {
+            e = ((ProxyTopicSubscriber) subscriber).createInvocationException(topic, eventObj,
+                    new InvocationTargetException(e));
+         }
+      }
+      if (event != null) {
+         eventService.handleException(event, e, null, (EventSubscriber) subscriber);
+      } else {
+         eventService.onEventException(topic, eventObj, e, null, (EventTopicSubscriber) subscriber);
+      }
+   }
+}
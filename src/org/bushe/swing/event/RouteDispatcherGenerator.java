@@ -0,0 +1,446 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bushe.swing.event.annotation.AbstractProxySubscriber;
+import org.bushe.swing.event.annotation.BaseProxySubscriber;
+import org.bushe.swing.event.annotation.ProxyTopicPatternSubscriber;
+import org.bushe.swing.event.annotation.ProxyTopicSubscriber;
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+/**
+ * Generates the class files of {@link RouteDispatcher}s.  A generated dispatch method has, for each subscriber, a call
+ * site of its own wrapped in a handler that catches Throwable and calls {@link RouteDispatcher#failed}:
+ * <pre>
+ * try {
+ *    ((EventSubscriber) targets[0]).onEvent(event);
+ * } catch (Throwable t) {
+ *    failed(0, event, topic, eventObj, t);
+ * }
+ * Object target = live(1);
+ * if (target != null) {
+ *    try {
+ *       ((EventSubscriber) target).onEvent(event);
+ *    } ...
+ * }
+ * try {
+ *    ((PriceView) targets[2]).onPrice((Price) event);
+ * } ...
+ * </pre>
+ * The class files are version 49 (Java 5), which the JVM verifies by type inference, so no stack map frames are
+ * written.  Each class is defined by a class loader of its own so it can be unloaded with its dispatch plan.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+final class RouteDispatcherGenerator {
+   private static final Logger LOG = Logger.getLogger(RouteDispatcherGenerator.class.getName());
+   /** Keeps the generated method well below the 32K that branch offsets can span. */
+   static final int MAX_SUBSCRIBERS = 256;
+   private static final AtomicInteger CLASS_COUNT = new AtomicInteger();
+   private static final String SUPER_CLASS = "org/bushe/swing/event/RouteDispatcher";
+   private static final String OBJECT = "java/lang/Object";
+   private static final String DISPATCH_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/Object;)V";
+   private static final String FAILED_DESCRIPTOR =
+           "(ILjava/lang/Object;Ljava/lang/String;Ljava/lang/Object;Ljava/lang/Throwable;)V";
+   private static final int TARGET_LOCAL = 4;
+
+   private RouteDispatcherGenerator() {
+   }
+
+   /**
+    * @param subscribers the entries of a dispatch plan, subscribers, WeakReferences or ProxySubscribers
+    * @param topicRoute true if the plan is for a topic, false if it is for an event class
+    *
+    * @return a dispatcher for the subscribers, or null if there are too many or the class could not be defined
+    */
+   static RouteDispatcher generate(ThreadSafeEventService eventService, Object[] subscribers, boolean topicRoute) {
+      if (subscribers.length == 0 || subscribers.length > MAX_SUBSCRIBERS) {
+         return null;
+      }
+      ClassLoader parent = RouteDispatcher.class.getClassLoader();
+      Object[] targets = new Object[subscribers.length];
+      Method[] directMethods = new Method[subscribers.length];
+      for (int i = 0; i < subscribers.length; i++) {
+         Method method = getDirectlyCallableMethod(subscribers[i], topicRoute, parent);
+         if (method != null) {
+            directMethods[i] = method;
+            targets[i] = ((ProxySubscriber) subscribers[i]).getProxiedSubscriber();
+         }
+         if (targets[i] == null) {
+            directMethods[i] = null;
+            targets[i] = subscribers[i];
+         }
+      }
+      String className = "org/bushe/swing/event/generated/RouteDispatcher" + CLASS_COUNT.incrementAndGet();
+      try {
+         byte[] classFile = writeClass(className, subscribers, directMethods, topicRoute);
+         Class dispatcherClass = new DispatcherClassLoader(parent).define(className.replace('/', '.'), classFile);
+         RouteDispatcher dispatcher = (RouteDispatcher) dispatcherClass.newInstance();
+         dispatcher.init(eventService, subscribers, targets);
+         return dispatcher;
+      } catch (Throwable e) {
+         //A security manager, or a JVM that won't verify it, keeps the route on the dispatch plan
+         if (LOG.isLoggable(Logger.Level.DEBUG)) {
+            LOG.debug("Could not generate a route dispatcher: " + e);
+         }
+         return null;
+      }
+   }
+
+   /**
+    * @return the public annotated method a strongly referenced annotation proxy calls by reflection, if the
+    * generated class can call it directly
+    */
+   private static Method getDirectlyCallableMethod(Object subscriber, boolean topicRoute, ClassLoader loader) {
+      Class proxyClass = subscriber.getClass();
+      boolean annotationProxy = topicRoute ? proxyClass == ProxyTopicSubscriber.class
+              || proxyClass == ProxyTopicPatternSubscriber.class : proxyClass == BaseProxySubscriber.class;
+      if (!annotationProxy || ((ProxySubscriber) subscriber).getReferenceStrength() != ReferenceStrength.STRONG) {
+         return null;
+      }
+      Method method = ((AbstractProxySubscriber) subscriber).getSubscriptionMethod();
+      if (method == null) {
+         return null;
+      }
+      Class[] parameterTypes = method.getParameterTypes();
+      if (parameterTypes.length != (topicRoute ? 2 : 1)
+              || !Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())
+              || method.getDeclaringClass().isInterface() || !isVisible(method.getDeclaringClass(), loader)) {
+         return null;
+      }
+      for (int i = 0; i < parameterTypes.length; i++) {
+         if (parameterTypes[i].isPrimitive() || !isVisible(parameterTypes[i], loader)) {
+            return null;
+         }
+      }
+      return method;
+   }
+
+   private static boolean isVisible(Class cl, ClassLoader loader) {
+      while (cl.isArray()) {
+         cl = cl.getComponentType();
+      }
+      if (cl.isPrimitive()) {
+         return true;
+      }
+      for (Class outer = cl; outer != null; outer = outer.getDeclaringClass()) {
+         if (!Modifier.isPublic(outer.getModifiers())) {
+            return false;
+         }
+      }
+      try {
+         return Class.forName(cl.getName(), false, loader) == cl;
+      } catch (ClassNotFoundException e) {
+         return false;
+      }
+   }
+
+   private static byte[] writeClass(String className, Object[] subscribers, Method[] directMethods,
+           boolean topicRoute) throws IOException {
+      ConstantPool pool = new ConstantPool();
+      int thisClass = pool.classRef(className);
+      int superClass = pool.classRef(SUPER_CLASS);
+      int codeName = pool.utf8("Code");
+
+      Bytes constructor = new Bytes();
+      constructor.u1(0x2a); //aload_0
+      constructor.u1(0xb7).u2(pool.methodRef(SUPER_CLASS, "<init>", "()V")); //invokespecial
+      constructor.u1(0xb1); //return
+
+      Bytes dispatch = new Bytes();
+      Bytes handlers = new Bytes();
+      int handlerCount = 0;
+      int targetsField = pool.fieldRef(SUPER_CLASS, "targets", "[Ljava/lang/Object;");
+      int liveMethod = pool.methodRef(SUPER_CLASS, "live", "(I)Ljava/lang/Object;");
+      int failedMethod = pool.methodRef(SUPER_CLASS, "failed", FAILED_DESCRIPTOR);
+      int throwableClass = pool.classRef("java/lang/Throwable");
+      for (int i = 0; i < subscribers.length; i++) {
+         Method method = directMethods[i];
+         int skipBranch = -1;
+         int start;
+         if (method == null && (subscribers[i] instanceof WeakReference || subscribers[i] instanceof ProxySubscriber)) {
+            dispatch.u1(0x2a).u1(0x11).u2(i); //aload_0, sipush i
+            dispatch.u1(0xb6).u2(liveMethod); //invokevirtual live
+            dispatch.u1(0x3a).u1(TARGET_LOCAL); //astore
+            dispatch.u1(0x19).u1(TARGET_LOCAL); //aload
+            skipBranch = dispatch.length();
+            dispatch.u1(0xc6).u2(0); //ifnull, patched below
+            start = dispatch.length();
+            dispatch.u1(0x19).u1(TARGET_LOCAL); //aload
+         } else {
+            start = dispatch.length();
+            dispatch.u1(0x2a).u1(0xb4).u2(targetsField); //aload_0, getfield targets
+            dispatch.u1(0x11).u2(i).u1(0x32); //sipush i, aaload
+         }
+         if (method != null) {
+            Class[] parameterTypes = method.getParameterTypes();
+            dispatch.u1(0xc0).u2(pool.classRef(internalName(method.getDeclaringClass()))); //checkcast
+            for (int p = 0; p < parameterTypes.length; p++) {
+               //event for an event class, topic and payload for a topic
+               dispatch.u1(topicRoute ? 0x2c + p : 0x2b); //aload_2 + p or aload_1
+               dispatch.u1(0xc0).u2(pool.classRef(internalName(parameterTypes[p]))); //checkcast
+            }
+            dispatch.u1(0xb6).u2(pool.methodRef(internalName(method.getDeclaringClass()), method.getName(),
+                    methodDescriptor(method))); //invokevirtual
+            Class returnType = method.getReturnType();
+            if (returnType == Long.TYPE || returnType == Double.TYPE) {
+               dispatch.u1(0x58); //pop2
+            } else if (returnType != Void.TYPE) {
+               dispatch.u1(0x57); //pop
+            }
+         } else if (topicRoute) {
+            dispatch.u1(0xc0).u2(pool.classRef("org/bushe/swing/event/EventTopicSubscriber"));
+            dispatch.u1(0x2c).u1(0x2d); //aload_2, aload_3
+            dispatch.u1(0xb9).u2(pool.interfaceMethodRef("org/bushe/swing/event/EventTopicSubscriber", "onEvent",
+                    "(Ljava/lang/String;Ljava/lang/Object;)V")).u1(3).u1(0); //invokeinterface
+         } else {
+            dispatch.u1(0xc0).u2(pool.classRef("org/bushe/swing/event/EventSubscriber"));
+            dispatch.u1(0x2b); //aload_1
+            dispatch.u1(0xb9).u2(pool.interfaceMethodRef("org/bushe/swing/event/EventSubscriber", "onEvent",
+                    "(Ljava/lang/Object;)V")).u1(2).u1(0); //invokeinterface
+         }
+         int end = dispatch.length();
+         int skipHandler = dispatch.length();
+         dispatch.u1(0xa7).u2(0); //goto, patched below
+         int handler = dispatch.length();
+         dispatch.u1(0x3a).u1(TARGET_LOCAL); //astore the Throwable
+         dispatch.u1(0x2a).u1(0x11).u2(i); //aload_0, sipush i
+         dispatch.u1(0x2b).u1(0x2c).u1(0x2d).u1(0x19).u1(TARGET_LOCAL); //aload_1, aload_2, aload_3, aload
+         dispatch.u1(0xb6).u2(failedMethod); //invokevirtual failed
+         int next = dispatch.length();
+         dispatch.patch(skipHandler + 1, next - skipHandler);
+         if (skipBranch >= 0) {
+            dispatch.patch(skipBranch + 1, next - skipBranch);
+         }
+         handlers.u2(start).u2(end).u2(handler).u2(throwableClass);
+         handlerCount++;
+      }
+      dispatch.u1(0xb1); //return
+
+      int constructorName = pool.utf8("<init>");
+      int constructorDescriptor = pool.utf8("()V");
+      int dispatchName = pool.utf8("dispatch");
+      int dispatchDescriptor = pool.utf8(DISPATCH_DESCRIPTOR);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(49);
+      pool.writeTo(out);
+      out.writeShort(0x0001 | 0x0010 | 0x0020); //public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); //interfaces
+      out.writeShort(0); //fields
+      out.writeShort(2); //methods
+      writeMethod(out, 0x0001, constructorName, constructorDescriptor, codeName, 1, 1, constructor, new Bytes(), 0);
+      writeMethod(out, 0x0004, dispatchName, dispatchDescriptor, codeName, 6, TARGET_LOCAL + 1, dispatch, handlers,
+              handlerCount);
+      out.writeShort(0); //attributes
+      out.flush();
+      return bytes.toByteArray();
+   }
+
+   private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeName,
+           int maxStack, int maxLocals, Bytes code, Bytes handlers, int handlerCount) throws IOException {
+      out.writeShort(access);
+      out.writeShort(name);
+      out.writeShort(descriptor);
+      out.writeShort(1); //attributes
+      out.writeShort(codeName);
+      out.writeInt(2 + 2 + 4 + code.length() + 2 + handlers.length() + 2);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(code.length());
+      code.writeTo(out);
+      out.writeShort(handlerCount);
+      handlers.writeTo(out);
+      out.writeShort(0); //code attributes
+   }
+
+   private static String internalName(Class cl) {
+      return cl.getName().replace('.', '/');
+   }
+
+   private static String descriptor(Class cl) {
+      if (cl.isArray()) {
+         return internalName(cl);
+      } else if (cl == Void.TYPE) {
+         return "V";
+      } else if (cl == Boolean.TYPE) {
+         return "Z";
+      } else if (cl == Byte.TYPE) {
+         return "B";
+      } else if (cl == Character.TYPE) {
+         return "C";
+      } else if (cl == Short.TYPE) {
+         return "S";
+      } else if (cl == Integer.TYPE) {
+         return "I";
+      } else if (cl == Long.TYPE) {
+         return "J";
+      } else if (cl == Float.TYPE) {
+         return "F";
+      } else if (cl == Double.TYPE) {
+         return "D";
+      }
+      return "L" + internalName(cl) + ";";
+   }
+
+   private static String methodDescriptor(Method method) {
+      StringBuilder result = new StringBuilder("(");
+      Class[] parameterTypes = method.getParameterTypes();
+      for (int i = 0; i < parameterTypes.length; i++) {
+         result.append(descriptor(parameterTypes[i]));
+      }
+      return result.append(')').append(descriptor(method.getReturnType())).toString();
+   }
+
+   /** A growable byte array for method bodies, with back patching of branch offsets. */
+   private static final class Bytes {
+      private byte[] data = new byte[256];
+      private int length;
+
+      Bytes u1(int value) {
+         if (length == data.length) {
+            byte[] grown = new byte[data.length * 2];
+            System.arraycopy(data, 0, grown, 0, length);
+            data = grown;
+         }
+         data[length++] = (byte) value;
+         return this;
+      }
+
+      Bytes u2(int value) {
+         return u1(value >> 8).u1(value);
+      }
+
+      void patch(int index, int value) {
+         data[index] = (byte) (value >> 8);
+         data[index + 1] = (byte) value;
+      }
+
+      int length() {
+         return length;
+      }
+
+      void writeTo(DataOutputStream out) throws IOException {
+         out.write(data, 0, length);
+      }
+   }
+
+   /** The constant pool of a class file, each constant is written once. */
+   private static final class ConstantPool {
+      private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+      private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      private final DataOutputStream out = new DataOutputStream(bytes);
+      private int count = 1;
+
+      int utf8(String value) throws IOException {
+         Integer index = indexes.get("U" + value);
+         if (index == null) {
+            out.writeByte(1);
+            out.writeUTF(value);
+            index = add("U" + value);
+         }
+         return index.intValue();
+      }
+
+      int classRef(String internalName) throws IOException {
+         Integer index = indexes.get("C" + internalName);
+         if (index == null) {
+            int name = utf8(internalName);
+            out.writeByte(7);
+            out.writeShort(name);
+            index = add("C" + internalName);
+         }
+         return index.intValue();
+      }
+
+      int fieldRef(String owner, String name, String descriptor) throws IOException {
+         return memberRef(9, owner, name, descriptor);
+      }
+
+      int methodRef(String owner, String name, String descriptor) throws IOException {
+         return memberRef(10, owner, name, descriptor);
+      }
+
+      int interfaceMethodRef(String owner, String name, String descriptor) throws IOException {
+         return memberRef(11, owner, name, descriptor);
+      }
+
+      private int memberRef(int tag, String owner, String name, String descriptor) throws IOException {
+         String key = tag + owner + "." + name + descriptor;
+         Integer index = indexes.get(key);
+         if (index == null) {
+            int ownerIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+            index = add(key);
+         }
+         return index.intValue();
+      }
+
+      private int nameAndType(String name, String descriptor) throws IOException {
+         String key = "N" + name + ":" + descriptor;
+         Integer index = indexes.get(key);
+         if (index == null) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            index = add(key);
+         }
+         return index.intValue();
+      }
+
+      private Integer add(String key) {
+         Integer index = new Integer(count++);
+         indexes.put(key, index);
+         return index;
+      }
+
+      void writeTo(DataOutputStream classFile) throws IOException {
+         out.flush();
+         classFile.writeShort(count);
+         bytes.writeTo(classFile);
+      }
+   }
+
+   private static final class DispatcherClassLoader extends ClassLoader {
+      DispatcherClassLoader(ClassLoader parent) {
+         super(parent);
+      }
+
+      Class define(String name, byte[] classFile) {
+         return defineClass(name, classFile, 0, classFile.length);
+      }
+   }
+}
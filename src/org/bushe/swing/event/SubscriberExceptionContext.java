@@ -0,0 +1,142 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import org.bushe.swing.exception.SwingException;
+
+/**
+ * An exception thrown by a subscriber or veto subscriber, with the publication it was handling.  The message and the
+ * {@link SwingException} are only built when asked for.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see SubscriberExceptionHandler
+ */
+public final class SubscriberExceptionContext {
+   private final ThreadSafeEventService eventService;
+   private final String action;
+   private final Object event;
+   private final String topic;
+   private final Object eventObj;
+   private final Throwable throwable;
+   private final StackTraceElement[] callingStack;
+   private final CallSiteCapture.CallSite callSite;
+   private final Object subscriber;
+   private final String sourcePrefix;
+
+   SubscriberExceptionContext(ThreadSafeEventService eventService, String action, Object event, String topic,
+           Object eventObj, Throwable throwable, StackTraceElement[] callingStack, CallSiteCapture.CallSite callSite,
+           Object subscriber, String sourcePrefix) {
+      this.eventService = eventService;
+      this.action = action;
+      this.event = event;
+      this.topic = topic;
+      this.eventObj = eventObj;
+      this.throwable = throwable;
+      this.callingStack = callingStack;
+      this.callSite = callSite;
+      this.subscriber = subscriber;
+      this.sourcePrefix = sourcePrefix;
+   }
+
+   /** @return the EventService the publication was made on */
+   public ThreadSafeEventService getEventService() {
+      return eventService;
+   }
+
+   /** @return what was being done when the subscriber threw, such as "vetoing" */
+   public String getAction() {
+      return action;
+   }
+
+   /** @return the event that was published, or null for a publication on a topic */
+   public Object getEvent() {
+      return event;
+   }
+
+   /** @return the topic that was published on, or null for an event */
+   public String getTopic() {
+      return topic;
+   }
+
+   /** @return the data that was published on the topic, or null for an event */
+   public Object getEventObj() {
+      return eventObj;
+   }
+
+   /** @return what the subscriber threw */
+   public Throwable getThrowable() {
+      return throwable;
+   }
+
+   /**
+    * @return the stack of the publisher, if it was passed or recorded by the
+    * {@link ThreadSafeEventService#setCallSiteCapture(CallSiteCapture) call site capture}, otherwise null
+    */
+   public StackTraceElement[] getCallingStack() {
+      if (callingStack == null && callSite != null) {
+         return callSite.getStackTrace();
+      }
+      return callingStack;
+   }
+
+   /**
+    * @return the EventSubscriber, EventTopicSubscriber, VetoEventListener or VetoTopicEventListener that threw, as
+    * subscribed, which may be a {@link ProxySubscriber}
+    */
+   public Object getSubscriber() {
+      return subscriber;
+   }
+
+   /** @return true if a veto subscriber threw */
+   public boolean isVeto() {
+      return subscriber instanceof VetoEventListener || subscriber instanceof VetoTopicEventListener;
+   }
+
+   /** @return a description of the publication, which calls toString() on the event and the topic data */
+   public String getMessage() {
+      String eventClassString = (event == null ? "none" : event.getClass().getName());
+      return "Exception " + action + " event class=" + eventClassString + ", event=" + event + ", topic=" + topic
+              + ", eventObj=" + eventObj;
+   }
+
+   /** @return a description of the subscriber, which calls toString() on it */
+   public String getSourceDescription() {
+      String source = sourcePrefix + subscriber;
+      if (subscriber != null) {
+         source = source + ".  " + (isVeto() ? "Vetoer" : "Subscriber") + " class:" + subscriber.getClass();
+      }
+      return source;
+   }
+
+   /** @return a new SwingException with the message, the subscriber's exception as its cause and the calling stack */
+   public SwingException toSwingException() {
+      return new SwingException(getMessage(), throwable, getCallingStack());
+   }
+
+   /**
+    * Unsubscribes the subscriber, or the veto subscriber, from every event class, topic and pattern it is subscribed
+    * to on the EventService.
+    *
+    * @return true if it was subscribed to anything
+    */
+   public boolean quarantine() {
+      return subscriber != null && eventService.unsubscribeEverywhere(subscriber);
+   }
+
+   public String toString() {
+      return "SubscriberExceptionContext{" + throwable + ", topic=" + topic + "}";
+   }
+}
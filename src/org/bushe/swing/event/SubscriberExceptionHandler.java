@@ -0,0 +1,38 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+/**
+ * Handles the exceptions thrown by subscribers and veto subscribers of a {@link ThreadSafeEventService}, set with
+ * {@link ThreadSafeEventService#setSubscriberExceptionHandler(SubscriberExceptionHandler)}.
+ * <p/>
+ * A subscriber that throws on every publication makes exception handling a hot path, so the context is formatted
+ * lazily: nothing calls toString() on the event, the payload or the subscriber unless the handler asks for the
+ * message.  {@link ThrottlingSubscriberExceptionHandler} rate limits logging per subscriber, counts exceptions and
+ * can quarantine subscribers that keep throwing.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public interface SubscriberExceptionHandler {
+
+   /**
+    * Called on the thread the subscriber threw on, once per exception.  Exceptions thrown by this method are not
+    * caught.
+    *
+    * @param context the exception, the publication and the subscriber that threw it
+    */
+   public void handleException(SubscriberExceptionContext context);
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * The subscribers or veto subscribers of one event class, type, topic or pattern, in subscription order.  The entries
+ * are the subscribers themselves, WeakReferences or ProxySubscribers, and each is also indexed by the identity hash of
+ * the real subscriber it stands for, the referent of a WeakReference or the proxied subscriber of a ProxySubscriber.
+ * That lets the EventService find the entries an object is already subscribed by without walking every subscriber of
+ * a popular class or topic.  Entries are also indexed by their own identity, so the entry of a {@link Subscription}
+ * is removed without a search even after its referent was garbage collected.
+ * <p/>
+ * The entries are held in an array.  Adding to the end and removing are constant time, amortized: a removed entry
+ * leaves an empty slot, and the slots are compacted when the array is full and at least half of it is empty, or when
+ * an entry is next accessed by index.  Iterating skips the empty slots and does not compact, so re-subscribing an
+ * entry, which removes it and adds it to the end, doesn't move the entries in between.  After a compaction indexed
+ * access is constant time like an ArrayList's.  Inserting other than at the end shifts the entries after it.
+ * <p/>
+ * The index holds identity hash codes, not the real subscribers, so it keeps nothing from being garbage collected.
+ * Entries are indexed under the real subscriber they had when added, entries that are garbage collected stay indexed
+ * until they are removed.  Not thread safe, the EventService guards it with its listener lock.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+final class SubscriberList extends AbstractList implements RandomAccess {
+   private static final int INITIAL_CAPACITY = 8;
+
+   //The nodes in subscription order, with nulls where nodes were removed, up to used
+   private Node[] nodes = new Node[INITIAL_CAPACITY];
+   //Chained by the identity hash of the real subscriber
+   private Node[] subscriberBuckets = new Node[INITIAL_CAPACITY];
+   //Chained by the identity hash of the entry
+   private Node[] entryBuckets = new Node[INITIAL_CAPACITY];
+   private int used;
+   private int size;
+
+   public int size() {
+      return size;
+   }
+
+   public Object get(int index) {
+      checkIndex(index, size);
+      compact();
+      return nodes[index].entry;
+   }
+
+   public Object set(int index, Object entry) {
+      checkIndex(index, size);
+      compact();
+      Node node = nodes[index];
+      Object previous = node.entry;
+      removeFromBuckets(node);
+      node.entry = entry;
+      node.hash = indexHash(entry);
+      addToBuckets(node);
+      return previous;
+   }
+
+   public boolean add(Object entry) {
+      if (used == nodes.length) {
+         if (used - size >= used / 2) {
+            compact();
+         } else {
+            Node[] grown = new Node[nodes.length * 2];
+            System.arraycopy(nodes, 0, grown, 0, used);
+            nodes = grown;
+         }
+      }
+      Node node = new Node(entry, indexHash(entry));
+      node.index = used;
+      nodes[used++] = node;
+      added(node);
+      return true;
+   }
+
+   public void add(int index, Object entry) {
+      checkIndex(index, size + 1);
+      if (index == size) {
+         add(entry);
+         return;
+      }
+      compact();
+      if (used == nodes.length) {
+         Node[] grown = new Node[nodes.length * 2];
+         System.arraycopy(nodes, 0, grown, 0, used);
+         nodes = grown;
+      }
+      System.arraycopy(nodes, index, nodes, index + 1, used - index);
+      Node node = new Node(entry, indexHash(entry));
+      nodes[index] = node;
+      used++;
+      for (int i = index; i < used; i++) {
+         nodes[i].index = i;
+      }
+      added(node);
+   }
+
+   public Object remove(int index) {
+      checkIndex(index, size);
+      compact();
+      Node node = nodes[index];
+      unlink(node);
+      return node.entry;
+   }
+
+   public void clear() {
+      nodes = new Node[INITIAL_CAPACITY];
+      subscriberBuckets = new Node[INITIAL_CAPACITY];
+      entryBuckets = new Node[INITIAL_CAPACITY];
+      used = 0;
+      size = 0;
+      modCount++;
+   }
+
+   /** Iterates without compacting, removing through the iterator leaves empty slots. */
+   public Iterator iterator() {
+      return new Itr();
+   }
+
+   /**
+    * Iterates the entries that were added for the given real subscriber, and possibly a few others that share its
+    * identity hash.  Supports remove().
+    *
+    * @param realSubscriber the unwrapped subscriber
+    */
+   Iterator entriesIndexedUnder(Object realSubscriber) {
+      return new IndexItr(System.identityHashCode(realSubscriber));
+   }
+
+   /**
+    * Removes an entry by identity.
+    *
+    * @return true if it was in the list
+    */
+   boolean removeEntry(Object entry) {
+      for (Node node = entryBuckets[bucket(System.identityHashCode(entry))]; node != null;
+           node = node.nextInEntryBucket) {
+         if (node.entry == entry) {
+            unlink(node);
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /** @return the subscriber an entry stands for, or null if it was garbage collected */
+   static Object getIndexedSubscriber(Object entry) {
+      if (entry instanceof WeakReference) {
+         entry = ((WeakReference) entry).get();
+      }
+      if (entry instanceof ProxySubscriber) {
+         entry = ((ProxySubscriber) entry).getProxiedSubscriber();
+      }
+      return entry;
+   }
+
+   private static int indexHash(Object entry) {
+      Object realSubscriber = getIndexedSubscriber(entry);
+      return realSubscriber == null ? 0 : System.identityHashCode(realSubscriber);
+   }
+
+   private void checkIndex(int index, int limit) {
+      if (index < 0 || index >= limit) {
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+   }
+
+   private int bucket(int hash) {
+      return (hash ^ (hash >>> 16)) & (subscriberBuckets.length - 1);
+   }
+
+   private void added(Node node) {
+      size++;
+      addToBuckets(node);
+      if (size > subscriberBuckets.length - (subscriberBuckets.length >> 2)) {
+         resize();
+      }
+      modCount++;
+   }
+
+   private void unlink(Node node) {
+      nodes[node.index] = null;
+      size--;
+      removeFromBuckets(node);
+      modCount++;
+   }
+
+   /** Moves the nodes into the empty slots, so that a node's slot is its index in the list. */
+   private void compact() {
+      if (used == size) {
+         return;
+      }
+      int live = 0;
+      for (int i = 0; i < used; i++) {
+         Node node = nodes[i];
+         if (node != null) {
+            node.index = live;
+            nodes[live++] = node;
+         }
+      }
+      for (int i = live; i < used; i++) {
+         nodes[i] = null;
+      }
+      used = live;
+   }
+
+   private void addToBuckets(Node node) {
+      int index = bucket(node.hash);
+      node.nextInBucket = subscriberBuckets[index];
+      subscriberBuckets[index] = node;
+      index = bucket(System.identityHashCode(node.entry));
+      node.nextInEntryBucket = entryBuckets[index];
+      entryBuckets[index] = node;
+   }
+
+   private void removeFromBuckets(Node node) {
+      int index = bucket(node.hash);
+      Node current = subscriberBuckets[index];
+      if (current == node) {
+         subscriberBuckets[index] = node.nextInBucket;
+      } else {
+         while (current.nextInBucket != node) {
+            current = current.nextInBucket;
+         }
+         current.nextInBucket = node.nextInBucket;
+      }
+      node.nextInBucket = null;
+      index = bucket(System.identityHashCode(node.entry));
+      current = entryBuckets[index];
+      if (current == node) {
+         entryBuckets[index] = node.nextInEntryBucket;
+      } else {
+         while (current.nextInEntryBucket != node) {
+            current = current.nextInEntryBucket;
+         }
+         current.nextInEntryBucket = node.nextInEntryBucket;
+      }
+      node.nextInEntryBucket = null;
+   }
+
+   private void resize() {
+      subscriberBuckets = new Node[subscriberBuckets.length * 2];
+      entryBuckets = new Node[entryBuckets.length * 2];
+      for (int i = 0; i < used; i++) {
+         if (nodes[i] != null) {
+            addToBuckets(nodes[i]);
+         }
+      }
+   }
+
+   /** @return the first node in a slot at or after the given one, or null if there is none */
+   private Node firstFrom(int slot) {
+      for (; slot < used; slot++) {
+         if (nodes[slot] != null) {
+            return nodes[slot];
+         }
+      }
+      return null;
+   }
+
+   private static final class Node {
+      Object entry;
+      int hash;
+      int index;
+      Node nextInBucket;
+      Node nextInEntryBucket;
+
+      Node(Object entry, int hash) {
+         this.entry = entry;
+         this.hash = hash;
+      }
+   }
+
+   /** Iterates the entries in order, by node so that a compaction while iterating does not lose its place. */
+   private class Itr implements Iterator {
+      private Node next = firstFrom(0);
+      private Node lastReturned;
+      private int expectedModCount = modCount;
+
+      public boolean hasNext() {
+         return next != null;
+      }
+
+      public Object next() {
+         if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+         }
+         if (next == null) {
+            throw new NoSuchElementException();
+         }
+         lastReturned = next;
+         next = firstFrom(next.index + 1);
+         return lastReturned.entry;
+      }
+
+      public void remove() {
+         if (lastReturned == null) {
+            throw new IllegalStateException();
+         }
+         if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+         }
+         unlink(lastReturned);
+         lastReturned = null;
+         expectedModCount = modCount;
+      }
+   }
+
+   /** Iterates the entries of one bucket that have a given hash. */
+   private class IndexItr implements Iterator {
+      private final Node[] matches;
+      private int nextMatch;
+      private Node lastReturned;
+      private int expectedModCount = modCount;
+
+      IndexItr(int hash) {
+         int count = 0;
+         for (Node node = subscriberBuckets[bucket(hash)]; node != null; node = node.nextInBucket) {
+            if (node.hash == hash) {
+               count++;
+            }
+         }
+         matches = new Node[count];
+         count = 0;
+         for (Node node = subscriberBuckets[bucket(hash)]; node != null; node = node.nextInBucket) {
+            if (node.hash == hash) {
+               matches[count++] = node;
+            }
+         }
+      }
+
+      public boolean hasNext() {
+         return nextMatch < matches.length;
+      }
+
+      public Object next() {
+         if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+         }
+         if (!hasNext()) {
+            throw new NoSuchElementException();
+         }
+         lastReturned = matches[nextMatch++];
+         return lastReturned.entry;
+      }
+
+      public void remove() {
+         if (lastReturned == null) {
+            throw new IllegalStateException();
+         }
+         if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+         }
+         unlink(lastReturned);
+         lastReturned = null;
+         expectedModCount = modCount;
+      }
+   }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * A handle on one subscription or veto subscription made on a {@link ThreadSafeEventService}, returned by its
+ * <code>subscribe...WithHandle()</code> methods.
+ * <p/>
+ * Cancelling a subscription removes exactly the entry that was subscribed, without looking up the subscribers of the
+ * class, topic or pattern and unwrapping WeakReferences and ProxySubscribers to find it, as unsubscribing by subscriber
+ * or by proxied object does.
+ * <p/>
+ * The handle does not keep the subscriber from being garbage collected.  If the subscriber is unsubscribed by other
+ * means, or is subscribed again weakly or through a proxy to the same class, topic or pattern, which replaces the
+ * entry, cancelling the handle does nothing.  A strongly held subscriber is its own entry, so any handle to it
+ * cancels its current subscription.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see ThreadSafeEventService#subscribeWithHandle(Class, EventSubscriber, org.bushe.swing.event.annotation.ReferenceStrength)
+ */
+public final class Subscription {
+   private final ThreadSafeEventService eventService;
+   private final Object classTopicOrPattern;
+   private final Object key;
+   private final Object subscriberMap;
+   private final boolean veto;
+   private final WeakReference<Object> entry;
+
+   Subscription(ThreadSafeEventService eventService, Object classTopicOrPattern, Object key, Object subscriberMap,
+           boolean veto, Object entry) {
+      this.eventService = eventService;
+      this.classTopicOrPattern = classTopicOrPattern;
+      this.key = key;
+      this.subscriberMap = subscriberMap;
+      this.veto = veto;
+      //The subscriber list holds the entry strongly for as long as it is subscribed
+      this.entry = new WeakReference<Object>(entry);
+   }
+
+   /**
+    * Unsubscribes the subscription.
+    *
+    * @return true if it was still subscribed
+    */
+   public boolean cancel() {
+      Object subscribed = entry.get();
+      if (subscribed == null) {
+         return false;
+      }
+      if (eventService.cancel(this, subscribed)) {
+         entry.clear();
+         return true;
+      }
+      return false;
+   }
+
+   /** @return the EventService the subscription was made on */
+   public ThreadSafeEventService getEventService() {
+      return eventService;
+   }
+
+   /** @return the event Class, topic String or topic Pattern subscribed to */
+   public Object getClassTopicOrPattern() {
+      return classTopicOrPattern;
+   }
+
+   /** @return true for a veto subscription */
+   public boolean isVeto() {
+      return veto;
+   }
+
+   Object getKey() {
+      return key;
+   }
+
+   Object getSubscriberMap() {
+      return subscriberMap;
+   }
+
+   public String toString() {
+      return "Subscription{" + (veto ? "veto " : "") + classTopicOrPattern + "}";
+   }
+}
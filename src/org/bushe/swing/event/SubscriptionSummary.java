@@ -0,0 +1,150 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A compact summary of the event classes and topics that have any subscriber, veto subscriber or cache size on a
+ * {@link ThreadSafeEventService}, so that publications nobody can be interested in are rejected without building
+ * subscriber lists.
+ * <p/>
+ * The classes and topics are hashed into a Bloom filter: each one sets two bits of a fixed size bit set, and a class
+ * or topic whose bits are not both set is certainly not subscribed.  A set pair of bits may be a false positive,
+ * which only means the publication takes the regular path.  A published class is checked against the filter for
+ * itself, its superclasses and its interfaces, and a topic is matched against the subscribed patterns, and both
+ * verdicts are remembered for the life of the summary.  A summary is immutable apart from these verdicts, and is
+ * replaced as soon as the subscriptions or cache settings change.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+final class SubscriptionSummary {
+   private static final int BIT_COUNT = 4096;
+   private static final int MASK = BIT_COUNT - 1;
+   private static final int MAX_REMEMBERED_VERDICTS = 1024;
+
+   final int version;
+   private final long[] bits = new long[BIT_COUNT / 64];
+   private final boolean everything;
+   private final Pattern[] patterns;
+   private final Map<Class, Boolean> classVerdicts = new ConcurrentHashMap<Class, Boolean>();
+   private final Map<String, Boolean> topicVerdicts = new ConcurrentHashMap<String, Boolean>();
+
+   /**
+    * @param version the subscription version the summary was built from
+    * @param classes the event classes that have subscribers, veto subscribers or a cache size
+    * @param topics the topics that have subscribers, veto subscribers or a cache size
+    * @param patterns the topic patterns that have subscribers, veto subscribers or a cache size
+    * @param everything true if every class and topic may be of interest, such as when there is a default cache size
+    */
+   SubscriptionSummary(int version, Collection<Class> classes, Collection<String> topics,
+           Collection<Pattern> patterns, boolean everything) {
+      this.version = version;
+      this.everything = everything;
+      for (Iterator<Class> iterator = classes.iterator(); iterator.hasNext();) {
+         add(iterator.next());
+      }
+      for (Iterator<String> iterator = topics.iterator(); iterator.hasNext();) {
+         add(iterator.next());
+      }
+      this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+   }
+
+   /** @return false if nothing can be interested in publications of the class */
+   boolean mayHaveInterest(Class eventClass) {
+      if (everything) {
+         return true;
+      }
+      Boolean verdict = classVerdicts.get(eventClass);
+      if (verdict == null) {
+         verdict = Boolean.valueOf(mayHaveInterestInHierarchy(eventClass));
+         if (classVerdicts.size() < MAX_REMEMBERED_VERDICTS) {
+            classVerdicts.put(eventClass, verdict);
+         }
+      }
+      return verdict.booleanValue();
+   }
+
+   /** @return false if nothing can be interested in publications on the topic */
+   boolean mayHaveInterest(String topic) {
+      if (everything || mightContain(topic)) {
+         return true;
+      }
+      if (patterns.length == 0) {
+         return false;
+      }
+      Boolean verdict = topicVerdicts.get(topic);
+      if (verdict == null) {
+         verdict = Boolean.valueOf(matchesAnyPattern(topic));
+         if (topicVerdicts.size() < MAX_REMEMBERED_VERDICTS) {
+            topicVerdicts.put(topic, verdict);
+         }
+      }
+      return verdict.booleanValue();
+   }
+
+   private boolean mayHaveInterestInHierarchy(Class cl) {
+      for (; cl != null; cl = cl.getSuperclass()) {
+         if (mightContain(cl) || mayHaveInterestInInterfaces(cl.getInterfaces())) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean mayHaveInterestInInterfaces(Class[] interfaces) {
+      for (int i = 0; i < interfaces.length; i++) {
+         if (mightContain(interfaces[i]) || mayHaveInterestInInterfaces(interfaces[i].getInterfaces())) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean matchesAnyPattern(String topic) {
+      for (int i = 0; i < patterns.length; i++) {
+         if (patterns[i].matcher(topic).matches()) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void add(Object classOrTopic) {
+      int hash = mix(classOrTopic.hashCode());
+      int first = hash & MASK;
+      int second = mix(hash) & MASK;
+      bits[first >>> 6] |= 1L << first;
+      bits[second >>> 6] |= 1L << second;
+   }
+
+   private boolean mightContain(Object classOrTopic) {
+      int hash = mix(classOrTopic.hashCode());
+      int first = hash & MASK;
+      int second = mix(hash) & MASK;
+      return (bits[first >>> 6] & (1L << first)) != 0 && (bits[second >>> 6] & (1L << second)) != 0;
+   }
+
+   /** Spreads the bits of a hash code, the multiplier is the golden ratio used by Fibonacci hashing */
+   private static int mix(int hash) {
+      hash *= 0x9E3779B9;
+      return hash ^ (hash >>> 16);
+   }
+}
@@ -79,15 +79,60 @@ public class SwingEventService extends ThreadSafeEventService {
       } else {
          //Make call to this method - stick on the EDT if not on the EDT
          //Check the params first so that this thread can get the exception thrown
+         final CallSiteCapture.CallSite callSite = callingStack == null ? captureCallSite() : null;
          SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                if (LOG.isLoggable(Logger.Level.DEBUG)) {
                   LOG.debug("publish(" + event + "," + topic + "," + eventObj
                           + "), called from non-EDT Thread:" + Arrays.toString(callingStack));
                }
-               SwingEventService.super.publish(event, topic, eventObj, subscribers, vetoSubscribers, callingStack);
+               CallSiteCapture.CallSite previous = enterCallSite(callSite);
+               try {
+                  SwingEventService.super.publish(event, topic, eventObj, subscribers, vetoSubscribers, callingStack);
+               } finally {
+                  exitCallSite(previous);
+               }
             }
          });
       }
    }
+
+   /**
+    * Same as ThreadSafeEventService.publish(TopicHandle, ...), except that if the call is coming from a thread that is
+    * not the Swing Event Dispatch Thread, the request is put on the EDT through a a call to
+    * SwingUtilities.invokeLater().
+    */
+   protected void publish(final TopicHandle handle, final Object eventObj, final List subscribers,
+           final List vetoSubscribers, final StackTraceElement[] callingStack) {
+      if (SwingUtilities.isEventDispatchThread()) {
+         super.publish(handle, eventObj, subscribers, vetoSubscribers, callingStack);
+      } else {
+         final CallSiteCapture.CallSite callSite = callingStack == null ? captureCallSite() : null;
+         SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+               if (LOG.isLoggable(Logger.Level.DEBUG)) {
+                  LOG.debug("publish(" + handle + "," + eventObj
+                          + "), called from non-EDT Thread:" + Arrays.toString(callingStack));
+               }
+               CallSiteCapture.CallSite previous = enterCallSite(callSite);
+               try {
+                  SwingEventService.super.publish(handle, eventObj, subscribers, vetoSubscribers, callingStack);
+               } finally {
+                  exitCallSite(previous);
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * Runs deliveries delayed by a {@link RateLimit} on the Swing Event Dispatch Thread.
+    */
+   protected void deliverTimed(Runnable delivery) {
+      if (SwingUtilities.isEventDispatchThread()) {
+         delivery.run();
+      } else {
+         SwingUtilities.invokeLater(delivery);
+      }
+   }
 }
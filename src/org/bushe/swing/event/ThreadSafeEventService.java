@@ -15,6 +15,7 @@
  */
 package org.bushe.swing.event;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
 import java.lang.reflect.ParameterizedType;
@@ -22,6 +23,7 @@ import java.lang.reflect.WildcardType;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,10 +33,17 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.bushe.swing.event.Logger.Level;
 import org.bushe.swing.event.annotation.ReferenceStrength;
+import org.bushe.swing.event.journal.EventJournal;
+import org.bushe.swing.event.journal.JournalEntry;
+import org.bushe.swing.event.journal.JournalEntryHandler;
 import org.bushe.swing.exception.SwingException;
 
 /**
@@ -144,6 +153,8 @@ public class ThreadSafeEventService implements EventService {
    public static final Integer CLEANUP_START_THRESHOLD_DEFAULT = 250;
    public static final Integer CLEANUP_STOP_THRESHOLD_DEFAULT = 100;
    public static final Long CLEANUP_PERIOD_MS_DEFAULT = 20L*60L*1000L;
+   /** The default number of publications before a route gets a generated {@link RouteDispatcher}, 0 for never. */
+   public static final int DEFAULT_ROUTE_DISPATCHER_THRESHOLD = 0;
 
    protected static final Logger LOG = Logger.getLogger(EventService.class.getName());
 
@@ -180,6 +191,38 @@ public class ThreadSafeEventService implements EventService {
    private TimerTask cleanupTimerTask;
    private static final Comparator PRIORITIZED_SUBSCRIBER_COMPARATOR = new PrioritizedSubscriberComparator();
    private boolean hasEverUsedPrioritized;
+   //guarded by listenerLock
+   private final Map<Class, Boolean> identityEqualsByClass = new WeakHashMap<Class, Boolean>();
+   private volatile int subscriptionVersion;
+   //guarded by listenerLock
+   private int registrationBatchDepth;
+   private boolean subscriptionsChangedInBatch;
+   private final Map<String, WeakReference<TopicHandle>> topicHandles = new WeakHashMap<String, WeakReference<TopicHandle>>();
+   private volatile EventJournal eventJournal;
+   private final List<ReplayingSubscriber> replayingSubscribers = new ArrayList<ReplayingSubscriber>();
+   private final RequestCorrelator requestCorrelator = new RequestCorrelator();
+   private TimerWheel timerWheel;
+   private final Map<Class, FilterIndex> filteredSubscribersByEventClass = new HashMap<Class, FilterIndex>();
+   private final Map<String, FilterIndex> filteredSubscribersByTopic = new HashMap<String, FilterIndex>();
+   private volatile boolean hasFilteredSubscribers;
+   private static final int MAX_CLASS_DISPATCH_PLANS = 1024;
+   private static final int MAX_TOPIC_DISPATCH_PLANS = 1024;
+   private final boolean fastPathAllowed = !overridesPublicationHooks(getClass(), ThreadSafeEventService.class);
+   private final boolean rejectionAllowed = !overridesPublicationHooks(getClass(), SwingEventService.class);
+   private volatile SubscriptionSummary subscriptionSummary;
+   private final Map<Class, FanOut> fanOutsByEventClass = new ConcurrentHashMap<Class, FanOut>();
+   private final Map<String, FanOut> fanOutsByTopic = new ConcurrentHashMap<String, FanOut>();
+   private volatile boolean hasFanOuts;
+   private volatile SubscriberExceptionHandler subscriberExceptionHandler;
+   private volatile CallSiteCapture callSiteCapture = CallSiteCapture.NONE;
+   private static final ThreadLocal<CallSiteCapture.CallSite> DELIVERY_CALL_SITE =
+           new ThreadLocal<CallSiteCapture.CallSite>();
+   private final boolean handleExceptionOverridden = overridesHandleException(getClass());
+   private final boolean unsubscribeHooksOverridden = overridesUnsubscribeHooks(getClass());
+   private final Map<Class, DispatchPlan> classDispatchPlans = new ConcurrentHashMap<Class, DispatchPlan>();
+   private final Map<String, DispatchPlan> topicDispatchPlans = new ConcurrentHashMap<String, DispatchPlan>();
+   private volatile boolean sealed;
+   private volatile int routeDispatcherThreshold = DEFAULT_ROUTE_DISPATCHER_THRESHOLD;
 
    /** Creates a ThreadSafeEventService that does not monitor timing of handlers. */
    public ThreadSafeEventService() {
@@ -447,9 +490,880 @@ public class ThreadSafeEventService implements EventService {
       return subscribe(patternWrapper, subscribersByTopicPattern, eh);
    }
 
+   /** @see EventService#subscribe(Class,EventSubscriber,RateLimit) */
+   public boolean subscribe(Class cl, EventSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(cl, eh, rateLimit);
+      return subscribe(cl, subscribersByEventClass, new RateLimitedSubscriber(eh, rateLimit, this, false));
+   }
+
+   /** @see EventService#subscribeExactly(Class,EventSubscriber,RateLimit) */
+   public boolean subscribeExactly(Class cl, EventSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(cl, eh, rateLimit);
+      return subscribe(cl, subscribersByExactEventClass, new RateLimitedSubscriber(eh, rateLimit, this, false));
+   }
+
+   /** @see EventService#subscribe(String,EventTopicSubscriber,RateLimit) */
+   public boolean subscribe(String topic, EventTopicSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(topic, eh, rateLimit);
+      return subscribe(topic, subscribersByTopic, new RateLimitedSubscriber(eh, rateLimit, this, true));
+   }
+
+   /** @see EventService#subscribe(Pattern,EventTopicSubscriber,RateLimit) */
+   public boolean subscribe(Pattern pat, EventTopicSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(pat, eh, rateLimit);
+      PatternWrapper patternWrapper = new PatternWrapper(pat);
+      return subscribe(patternWrapper, subscribersByTopicPattern, new RateLimitedSubscriber(eh, rateLimit, this, true));
+   }
+
+   /** @see EventService#subscribe(Class,EventSubscriber,EventFilter) */
+   public boolean subscribe(Class cl, EventSubscriber eh, EventFilter filter) {
+      return subscribeFiltered(cl, filteredSubscribersByEventClass, eh, filter);
+   }
+
+   /** @see EventService#subscribe(String,EventTopicSubscriber,EventFilter) */
+   public boolean subscribe(String topic, EventTopicSubscriber eh, EventFilter filter) {
+      return subscribeFiltered(topic, filteredSubscribersByTopic, eh, filter);
+   }
+
+   /**
+    * Same as {@link #subscribe(Class, EventSubscriber)} or {@link #subscribeStrongly(Class, EventSubscriber)}, but
+    * returns a handle that unsubscribes exactly this subscription without searching for it.
+    *
+    * @param cl the class of published objects to subscribe to, and its subclasses
+    * @param eh the subscriber
+    * @param referenceStrength whether the subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeWithHandle(Class cl, EventSubscriber eh, ReferenceStrength referenceStrength) {
+      if (cl == null) {
+         throw new IllegalArgumentException("Event class must not be null");
+      }
+      return subscribeWithHandle(cl, cl, subscribersByEventClass, eh, referenceStrength, false);
+   }
+
+   /**
+    * Same as {@link #subscribeExactly(Class, EventSubscriber)} or
+    * {@link #subscribeExactlyStrongly(Class, EventSubscriber)}, but returns a handle on the subscription.
+    *
+    * @param cl the class of published objects to subscribe to
+    * @param eh the subscriber
+    * @param referenceStrength whether the subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeExactlyWithHandle(Class cl, EventSubscriber eh, ReferenceStrength referenceStrength) {
+      if (cl == null) {
+         throw new IllegalArgumentException("Event class must not be null");
+      }
+      return subscribeWithHandle(cl, cl, subscribersByExactEventClass, eh, referenceStrength, false);
+   }
+
+   /**
+    * Same as {@link #subscribe(String, EventTopicSubscriber)} or
+    * {@link #subscribeStrongly(String, EventTopicSubscriber)}, but returns a handle on the subscription.
+    *
+    * @param topic the topic to subscribe to
+    * @param eh the subscriber
+    * @param referenceStrength whether the subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeWithHandle(String topic, EventTopicSubscriber eh,
+           ReferenceStrength referenceStrength) {
+      if (topic == null) {
+         throw new IllegalArgumentException("Topic must not be null");
+      }
+      return subscribeWithHandle(topic, topic, subscribersByTopic, eh, referenceStrength, false);
+   }
+
+   /**
+    * Same as {@link #subscribe(Pattern, EventTopicSubscriber)} or
+    * {@link #subscribeStrongly(Pattern, EventTopicSubscriber)}, but returns a handle on the subscription.
+    *
+    * @param pat the pattern of topics to subscribe to
+    * @param eh the subscriber
+    * @param referenceStrength whether the subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeWithHandle(Pattern pat, EventTopicSubscriber eh, ReferenceStrength referenceStrength) {
+      if (pat == null) {
+         throw new IllegalArgumentException("Pattern must not be null");
+      }
+      return subscribeWithHandle(pat, new PatternWrapper(pat), subscribersByTopicPattern, eh, referenceStrength, false);
+   }
+
+   /**
+    * Same as {@link #subscribe(Class, EventSubscriber, RateLimit)}, but returns a handle on the subscription.
+    *
+    * @param cl the class of published objects to subscribe to, and its subclasses
+    * @param eh the subscriber, held strongly
+    * @param rateLimit how often the subscriber is called
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeWithHandle(Class cl, EventSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(cl, eh, rateLimit);
+      RateLimitedSubscriber entry = new RateLimitedSubscriber(eh, rateLimit, this, false);
+      subscribe(cl, subscribersByEventClass, entry);
+      return new Subscription(this, cl, cl, subscribersByEventClass, false, entry);
+   }
+
+   /**
+    * Same as {@link #subscribeExactly(Class, EventSubscriber, RateLimit)}, but returns a handle on the subscription.
+    *
+    * @param cl the class of published objects to subscribe to
+    * @param eh the subscriber, held strongly
+    * @param rateLimit how often the subscriber is called
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeExactlyWithHandle(Class cl, EventSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(cl, eh, rateLimit);
+      RateLimitedSubscriber entry = new RateLimitedSubscriber(eh, rateLimit, this, false);
+      subscribe(cl, subscribersByExactEventClass, entry);
+      return new Subscription(this, cl, cl, subscribersByExactEventClass, false, entry);
+   }
+
+   /**
+    * Same as {@link #subscribe(String, EventTopicSubscriber, RateLimit)}, but returns a handle on the subscription.
+    *
+    * @param topic the topic to subscribe to
+    * @param eh the subscriber, held strongly
+    * @param rateLimit how often the subscriber is called
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeWithHandle(String topic, EventTopicSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(topic, eh, rateLimit);
+      RateLimitedSubscriber entry = new RateLimitedSubscriber(eh, rateLimit, this, true);
+      subscribe(topic, subscribersByTopic, entry);
+      return new Subscription(this, topic, topic, subscribersByTopic, false, entry);
+   }
+
+   /**
+    * Same as {@link #subscribe(Pattern, EventTopicSubscriber, RateLimit)}, but returns a handle on the subscription.
+    *
+    * @param pat the pattern of topics to subscribe to
+    * @param eh the subscriber, held strongly
+    * @param rateLimit how often the subscriber is called
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeWithHandle(Pattern pat, EventTopicSubscriber eh, RateLimit rateLimit) {
+      checkRateLimitedSubscription(pat, eh, rateLimit);
+      PatternWrapper patternWrapper = new PatternWrapper(pat);
+      RateLimitedSubscriber entry = new RateLimitedSubscriber(eh, rateLimit, this, true);
+      subscribe(patternWrapper, subscribersByTopicPattern, entry);
+      return new Subscription(this, pat, patternWrapper, subscribersByTopicPattern, false, entry);
+   }
+
+   /**
+    * Subscribes a subscriber as a member of a {@link ConsumerGroup}.  Each object published to the class or its
+    * subclasses is delivered to only one member of the group, picked by the group's strategy.  The group is subscribed
+    * to the class when its first member joins, and unsubscribed when its last member leaves.
+    * <p/>
+    * Members leave the group when their handle is cancelled, or when they are garbage collected if they were
+    * subscribed weakly.  Unsubscribing the member from the class by other means does not take it out of the group.
+    *
+    * @param cl the class of published objects to subscribe to, and its subclasses
+    * @param eh the member
+    * @param group the group to join
+    * @param referenceStrength whether the member is held weakly or strongly
+    *
+    * @return the handle of the membership
+    * @throws IllegalArgumentException if a group of the same name but a different strategy is subscribed to the class
+    */
+   public Subscription subscribeToGroup(Class cl, EventSubscriber eh, ConsumerGroup group,
+           ReferenceStrength referenceStrength) {
+      return subscribeToGroup(cl, cl, subscribersByEventClass, eh, group, referenceStrength);
+   }
+
+   /**
+    * Same as {@link #subscribeToGroup(Class, EventSubscriber, ConsumerGroup, ReferenceStrength)}, but the group is
+    * subscribed to the class only, not its subclasses.
+    *
+    * @param cl the class of published objects to subscribe to
+    * @param eh the member
+    * @param group the group to join
+    * @param referenceStrength whether the member is held weakly or strongly
+    *
+    * @return the handle of the membership
+    */
+   public Subscription subscribeExactlyToGroup(Class cl, EventSubscriber eh, ConsumerGroup group,
+           ReferenceStrength referenceStrength) {
+      return subscribeToGroup(cl, cl, subscribersByExactEventClass, eh, group, referenceStrength);
+   }
+
+   /**
+    * Same as {@link #subscribeToGroup(Class, EventSubscriber, ConsumerGroup, ReferenceStrength)}, for a topic.
+    *
+    * @param topic the topic to subscribe to
+    * @param eh the member
+    * @param group the group to join
+    * @param referenceStrength whether the member is held weakly or strongly
+    *
+    * @return the handle of the membership
+    */
+   public Subscription subscribeToGroup(String topic, EventTopicSubscriber eh, ConsumerGroup group,
+           ReferenceStrength referenceStrength) {
+      return subscribeToGroup(topic, topic, subscribersByTopic, eh, group, referenceStrength);
+   }
+
+   /**
+    * Same as {@link #subscribeToGroup(Class, EventSubscriber, ConsumerGroup, ReferenceStrength)}, for a topic
+    * pattern.  Each publication on a matching topic is delivered to one member.
+    *
+    * @param pat the pattern of topics to subscribe to
+    * @param eh the member
+    * @param group the group to join
+    * @param referenceStrength whether the member is held weakly or strongly
+    *
+    * @return the handle of the membership
+    */
+   public Subscription subscribeToGroup(Pattern pat, EventTopicSubscriber eh, ConsumerGroup group,
+           ReferenceStrength referenceStrength) {
+      if (pat == null) {
+         throw new IllegalArgumentException("Pattern must not be null");
+      }
+      return subscribeToGroup(pat, new PatternWrapper(pat), subscribersByTopicPattern, eh, group, referenceStrength);
+   }
+
+   /**
+    * Adds a member to the group subscribed under the key, subscribing the group first if it has no members yet.
+    *
+    * @return the handle on the membership
+    */
+   private Subscription subscribeToGroup(Object classTopicOrPattern, Object key, Map subscriberMap,
+           Object subscriber, ConsumerGroup group, ReferenceStrength referenceStrength) {
+      if (classTopicOrPattern == null) {
+         throw new IllegalArgumentException("Event class, topic or pattern must not be null");
+      }
+      if (subscriber == null) {
+         throw new IllegalArgumentException("Subscriber must not be null");
+      }
+      if (group == null) {
+         throw new IllegalArgumentException("Consumer group must not be null");
+      }
+      if (referenceStrength == null) {
+         throw new IllegalArgumentException("Reference strength must not be null");
+      }
+      if (subscriber instanceof ProxySubscriber && referenceStrength == ReferenceStrength.WEAK) {
+         throw new IllegalArgumentException("ProxySubscribers should always be subscribed strongly.");
+      }
+      checkNotSealed();
+      if (LOG.isLoggable(Level.DEBUG)) {
+         LOG.debug("Subscribing to " + group + ", class, topic or pattern:" + classTopicOrPattern
+                 + ", subscriber:" + subscriber);
+      }
+      synchronized (listenerLock) {
+         ConsumerGroupSubscriber groupSubscriber = null;
+         List subscribers = (List) subscriberMap.get(key);
+         if (subscribers != null) {
+            for (int i = 0; i < subscribers.size(); i++) {
+               Object entry = subscribers.get(i);
+               if (entry instanceof ConsumerGroupSubscriber
+                       && ((ConsumerGroupSubscriber) entry).getGroup().getName().equals(group.getName())) {
+                  groupSubscriber = (ConsumerGroupSubscriber) entry;
+                  break;
+               }
+            }
+         }
+         ConsumerGroupSubscriber.Member member;
+         if (groupSubscriber == null) {
+            groupSubscriber = new ConsumerGroupSubscriber(group, this, key, subscriberMap);
+            member = groupSubscriber.add(subscriber, referenceStrength);
+            subscribe(key, subscriberMap, groupSubscriber);
+         } else if (!groupSubscriber.getGroup().equals(group)) {
+            throw new IllegalArgumentException("Consumer group " + groupSubscriber.getGroup()
+                    + " is already subscribed to " + classTopicOrPattern + ", can't join it as " + group);
+         } else {
+            member = groupSubscriber.add(subscriber, referenceStrength);
+         }
+         return new Subscription(this, classTopicOrPattern, key, subscriberMap, false, member);
+      }
+   }
+
+   /** Unsubscribes a group whose last member left, unless a member joined it in the meantime. */
+   void removeEmptyConsumerGroup(ConsumerGroupSubscriber groupSubscriber) {
+      synchronized (listenerLock) {
+         if (groupSubscriber.size() > 0 || sealed) {
+            return;
+         }
+         if (unsubscribeHooksOverridden) {
+            unsubscribe(groupSubscriber.getKey(), groupSubscriber.getSubscriberMap(), groupSubscriber);
+            return;
+         }
+         SubscriberList subscribers = (SubscriberList) groupSubscriber.getSubscriberMap().get(groupSubscriber.getKey());
+         if (subscribers != null && subscribers.removeEntry(groupSubscriber)) {
+            subscriptionsChanged();
+         }
+      }
+   }
+
+   /**
+    * Subscribes a subscriber or veto subscriber, or a WeakReference to it, through the subscribe hooks.
+    *
+    * @return the handle on the entry that was added to the subscriber list
+    */
+   private Subscription subscribeWithHandle(Object classTopicOrPattern, Object key, Map subscriberMap,
+           Object subscriber, ReferenceStrength referenceStrength, boolean veto) {
+      if (subscriber == null) {
+         throw new IllegalArgumentException("Subscriber must not be null");
+      }
+      if (referenceStrength == null) {
+         throw new IllegalArgumentException("Reference strength must not be null");
+      }
+      Object entry = referenceStrength == ReferenceStrength.WEAK ? new WeakReference<Object>(subscriber) : subscriber;
+      if (veto) {
+         subscribeVetoListener(key, subscriberMap, entry);
+      } else {
+         subscribe(key, subscriberMap, entry);
+      }
+      return new Subscription(this, classTopicOrPattern, key, subscriberMap, veto, entry);
+   }
+
+   /**
+    * Removes the entry of a subscription handle from its subscriber list by identity.  Subclasses that override the
+    * unsubscribe hooks get them called instead.
+    *
+    * @return true if the entry was still subscribed
+    */
+   boolean cancel(Subscription subscription, Object entry) {
+      checkNotSealed();
+      if (entry instanceof ConsumerGroupSubscriber.Member) {
+         return cancelGroupMembership((ConsumerGroupSubscriber.Member) entry);
+      }
+      Map subscriberMap = (Map) subscription.getSubscriberMap();
+      if (unsubscribeHooksOverridden) {
+         if (subscription.isVeto()) {
+            return unsubscribeVetoListener(subscription.getKey(), subscriberMap, entry);
+         }
+         return unsubscribe(subscription.getKey(), subscriberMap, entry);
+      }
+      synchronized (listenerLock) {
+         SubscriberList subscribers = (SubscriberList) subscriberMap.get(subscription.getKey());
+         if (subscribers == null || !subscribers.removeEntry(entry)) {
+            return false;
+         }
+         if (entry instanceof WeakReference) {
+            decWeakRefPlusProxySubscriberCount();
+         }
+         if (entry instanceof ProxySubscriber) {
+            ((ProxySubscriber) entry).proxyUnsubscribed();
+            decWeakRefPlusProxySubscriberCount();
+         }
+         subscriptionsChanged();
+         return true;
+      }
+   }
+
+   /**
+    * Takes a member out of its group, and unsubscribes the group if it was the last member.
+    *
+    * @return true if the member was in a group that is still subscribed
+    */
+   private boolean cancelGroupMembership(ConsumerGroupSubscriber.Member member) {
+      ConsumerGroupSubscriber groupSubscriber = member.getGroupSubscriber();
+      synchronized (listenerLock) {
+         List subscribers = (List) groupSubscriber.getSubscriberMap().get(groupSubscriber.getKey());
+         if (!containsIdentical(subscribers, groupSubscriber) || !groupSubscriber.remove(member)) {
+            return false;
+         }
+         if (groupSubscriber.size() == 0) {
+            removeEmptyConsumerGroup(groupSubscriber);
+         }
+         return true;
+      }
+   }
+
+   /**
+    * @return true if the subscriber is a ProxySubscriber or its equals() is Object's, so it can only equal the
+    * entries that are indexed under it
+    */
+   private boolean equalsOnlyItself(Object realSubscriber) {
+      if (realSubscriber instanceof ProxySubscriber) {
+         return true;
+      }
+      Class subscriberClass = realSubscriber.getClass();
+      Boolean identityEquals = identityEqualsByClass.get(subscriberClass);
+      if (identityEquals == null) {
+         identityEquals = Boolean.TRUE;
+         for (Class cl = subscriberClass; cl != Object.class && cl != null; cl = cl.getSuperclass()) {
+            if (declares(cl, "equals", new Class[]{Object.class})) {
+               identityEquals = Boolean.FALSE;
+               break;
+            }
+         }
+         identityEqualsByClass.put(subscriberClass, identityEquals);
+      }
+      return identityEquals.booleanValue();
+   }
+
+   /** @return true if the class overrides the hooks that all unsubscriptions go through */
+   private static boolean overridesUnsubscribeHooks(Class serviceClass) {
+      for (Class cl = serviceClass; cl != ThreadSafeEventService.class; cl = cl.getSuperclass()) {
+         if (declares(cl, "unsubscribe", new Class[]{Object.class, Map.class, Object.class})
+                 || declares(cl, "unsubscribeVetoListener", new Class[]{Object.class, Map.class, Object.class})) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean subscribeFiltered(Object classOrTopic, Map filterIndexes, Object eh, EventFilter filter) {
+      checkNotSealed();
+      if (classOrTopic == null) {
+         throw new IllegalArgumentException("Event class or topic must not be null");
+      }
+      if (eh == null) {
+         throw new IllegalArgumentException("Subscriber must not be null");
+      }
+      if (filter == null) {
+         throw new IllegalArgumentException("Filter must not be null");
+      }
+      if (LOG.isLoggable(Level.DEBUG)) {
+         LOG.debug("Subscribing with " + filter + ", class or topic:" + classOrTopic + ", subscriber:" + eh);
+      }
+      synchronized (listenerLock) {
+         FilterIndex index = (FilterIndex) filterIndexes.get(classOrTopic);
+         if (index == null) {
+            index = new FilterIndex();
+            filterIndexes.put(classOrTopic, index);
+         }
+         if (eh instanceof Prioritized) {
+            hasEverUsedPrioritized = true;
+         }
+         hasFilteredSubscribers = true;
+         return index.add(eh, filter);
+      }
+   }
+
+   private boolean unsubscribeFiltered(Object classOrTopic, Map filterIndexes, Object eh) {
+      if (!hasFilteredSubscribers || classOrTopic == null || eh == null) {
+         return false;
+      }
+      synchronized (listenerLock) {
+         FilterIndex index = (FilterIndex) filterIndexes.get(classOrTopic);
+         if (index == null || !index.remove(eh)) {
+            return false;
+         }
+         if (index.isEmpty()) {
+            filterIndexes.remove(classOrTopic);
+            hasFilteredSubscribers = !filteredSubscribersByEventClass.isEmpty() || !filteredSubscribersByTopic.isEmpty();
+         }
+         return true;
+      }
+   }
+
+   /**
+    * @return the subscribers to publish to, plus the filtered subscribers whose filters match the event or topic
+    * data, in priority order
+    */
+   private List addFilteredSubscribers(Object event, String topic, Object eventObj, List subscribers) {
+      if (!hasFilteredSubscribers) {
+         return subscribers;
+      }
+      List<FilterIndex> indexes = null;
+      synchronized (listenerLock) {
+         if (event != null) {
+            for (Map.Entry<Class, FilterIndex> entry : filteredSubscribersByEventClass.entrySet()) {
+               if (entry.getKey().isInstance(event)) {
+                  if (indexes == null) {
+                     indexes = new ArrayList<FilterIndex>(2);
+                  }
+                  indexes.add(entry.getValue());
+               }
+            }
+         } else {
+            FilterIndex index = filteredSubscribersByTopic.get(topic);
+            if (index != null) {
+               indexes = Collections.singletonList(index);
+            }
+         }
+      }
+      if (indexes == null) {
+         return subscribers;
+      }
+      List result = subscribers == null ? new ArrayList() : new ArrayList(subscribers);
+      int unfiltered = result.size();
+      Object item = event != null ? event : eventObj;
+      for (int i = 0; i < indexes.size(); i++) {
+         indexes.get(i).collectMatches(item, result);
+      }
+      if (result.size() == unfiltered) {
+         return subscribers;
+      }
+      return hasEverUsedPrioritized ? sortSubscribers(result) : result;
+   }
+
+   private void checkRateLimitedSubscription(Object classTopicOrPattern, Object eh, RateLimit rateLimit) {
+      if (classTopicOrPattern == null) {
+         throw new IllegalArgumentException("Event class, topic or pattern must not be null");
+      }
+      if (eh == null) {
+         throw new IllegalArgumentException("Subscriber must not be null");
+      }
+      if (rateLimit == null) {
+         throw new IllegalArgumentException("Rate limit must not be null");
+      }
+      if (LOG.isLoggable(Level.DEBUG)) {
+         LOG.debug("Subscribing with " + rateLimit + ", class, topic or pattern:" + classTopicOrPattern
+                 + ", subscriber:" + eh);
+      }
+   }
+
+   /** @return the timer wheel that times rate limited deliveries and stream windows, created on first use */
+   synchronized TimerWheel getTimerWheel() {
+      if (timerWheel == null) {
+         timerWheel = new TimerWheel("EventService timer wheel", 10, 512);
+      }
+      return timerWheel;
+   }
+
+   /**
+    * Called to deliver an event that was delayed by a {@link RateLimit}, or the results of closed {@link EventStream}
+    * windows, on the timer wheel's thread.  Runs the delivery on the calling thread by default, SwingEventService
+    * overrides this to run it on the Swing Event Dispatch Thread.
+    *
+    * @param delivery calls the subscriber and handles its exceptions
+    */
+   protected void deliverTimed(Runnable delivery) {
+      delivery.run();
+   }
+
+   /**
+    * Subscribes an EventSubscriber to an event class and its subclasses, like {@link #subscribe(Class,
+    * EventSubscriber)}, and atomically replays up to the last n cached events of the class to it first.
+    * <p/>
+    * The replayed events are delivered oldest first on the calling thread before this method returns, followed by
+    * the events published meanwhile, then live events as usual.  There are no gaps or duplicates between the replayed
+    * and the live events, so subscribers that subscribe late don't have to call {@link #getCachedEvents(Class)} and
+    * merge the result with what they receive.  Only as many events as the class's cache size are available, see
+    * {@link #setCacheSizeForEventClass(Class, int)}.
+    * <p/>
+    * The subscriber is subscribed weakly, unsubscribe it with {@link #unsubscribe(Class, EventSubscriber)}.
+    *
+    * @param eventClass the class of events to subscribe to, cannot be an interface since events are cached by class
+    * @param eh the subscriber
+    * @param n the maximum number of cached events to replay
+    *
+    * @return true if the subscriber was not already subscribed
+    */
+   public boolean subscribeWithReplay(Class eventClass, EventSubscriber eh, int n) {
+      checkReplaySubscription(eventClass, eh);
+      return subscribeWithReplay(eventClass, subscribersByEventClass, eh, n);
+   }
+
+   /**
+    * Subscribes an EventTopicSubscriber to a topic, like {@link #subscribe(String, EventTopicSubscriber)}, and
+    * atomically replays up to the last n cached data objects published on the topic to it first.
+    * <p/>
+    * The replayed data is delivered oldest first on the calling thread before this method returns, followed by
+    * the data published meanwhile, then live data as usual.  There are no gaps or duplicates between the replayed and
+    * the live data.  Only as many objects as the topic's cache size are available, see
+    * {@link #setCacheSizeForTopic(String, int)}.
+    * <p/>
+    * The subscriber is subscribed weakly, unsubscribe it with {@link #unsubscribe(String, EventTopicSubscriber)}.
+    *
+    * @param topic the topic to subscribe to
+    * @param eh the subscriber
+    * @param n the maximum number of cached data objects to replay
+    *
+    * @return true if the subscriber was not already subscribed
+    */
+   public boolean subscribeWithReplay(String topic, EventTopicSubscriber eh, int n) {
+      checkReplaySubscription(topic, eh);
+      return subscribeWithReplay(topic, subscribersByTopic, eh, n);
+   }
+
+   /**
+    * Subscribes an EventSubscriber to an event class and its subclasses and atomically replays the events of the
+    * class in the {@link #setEventJournal(EventJournal) event journal} from an offset to it first.  Works like
+    * {@link #subscribeWithReplay(Class, EventSubscriber, int)}, but the replay is read from the journal's files, so it
+    * can go back further than the cache and across restarts.  The journal must be set to journal the event class.
+    *
+    * @param eventClass the class of events to subscribe to
+    * @param eh the subscriber
+    * @param fromOffset the journal offset to replay from, 0 replays the whole journal
+    *
+    * @return true if the subscriber was not already subscribed
+    *
+    * @throws IllegalStateException if no event journal is set
+    * @throws IOException if the journal cannot be read, the subscriber is subscribed and receives live events anyway
+    * @throws InterruptedException if interrupted while waiting for the journal to write pending entries
+    */
+   public boolean subscribeWithJournalReplay(Class eventClass, EventSubscriber eh, long fromOffset)
+           throws IOException, InterruptedException {
+      checkReplaySubscription(eventClass, eh);
+      return subscribeWithJournalReplay(eventClass, subscribersByEventClass, eh, fromOffset);
+   }
+
+   /**
+    * Subscribes an EventTopicSubscriber to a topic and atomically replays the data published on the topic in the
+    * {@link #setEventJournal(EventJournal) event journal} from an offset to it first.  Works like
+    * {@link #subscribeWithReplay(String, EventTopicSubscriber, int)}, but the replay is read from the journal's
+    * files, so it can go back further than the cache and across restarts.  The journal must be set to journal the
+    * topic.
+    *
+    * @param topic the topic to subscribe to
+    * @param eh the subscriber
+    * @param fromOffset the journal offset to replay from, 0 replays the whole journal
+    *
+    * @return true if the subscriber was not already subscribed
+    *
+    * @throws IllegalStateException if no event journal is set
+    * @throws IOException if the journal cannot be read, the subscriber is subscribed and receives live events anyway
+    * @throws InterruptedException if interrupted while waiting for the journal to write pending entries
+    */
+   public boolean subscribeWithJournalReplay(String topic, EventTopicSubscriber eh, long fromOffset)
+           throws IOException, InterruptedException {
+      checkReplaySubscription(topic, eh);
+      return subscribeWithJournalReplay(topic, subscribersByTopic, eh, fromOffset);
+   }
+
+   private void checkReplaySubscription(Object classOrTopic, Object eh) {
+      if (classOrTopic == null) {
+         throw new IllegalArgumentException("Event class or topic must not be null");
+      }
+      if (eh == null) {
+         throw new IllegalArgumentException("Subscriber must not be null");
+      }
+      if (LOG.isLoggable(Level.DEBUG)) {
+         LOG.debug("Subscribing with replay, class or topic:" + classOrTopic + ", subscriber:" + eh);
+      }
+   }
+
+   private boolean subscribeWithReplay(Object classOrTopic, Map subscriberMap, Object eh, int n) {
+      if (classOrTopic instanceof Class && ((Class) classOrTopic).isInterface()) {
+         throw new IllegalArgumentException("Interfaces are not accepted in subscribe with replay, use a specific event class.");
+      }
+      ReplayingSubscriber replayingSubscriber = new ReplayingSubscriber(classOrTopic, eh, this);
+      boolean subscribed;
+      List replayed;
+      synchronized (listenerLock) {
+         subscribed = subscribe(classOrTopic, subscriberMap, replayingSubscriber);
+         replayingSubscribers.add(replayingSubscriber);
+         replayed = getCachedItemsOldestFirst(classOrTopic, n);
+      }
+      replayingSubscriber.replay(replayed);
+      return subscribed;
+   }
+
+   private boolean subscribeWithJournalReplay(Object classOrTopic, Map subscriberMap, Object eh, long fromOffset)
+           throws IOException, InterruptedException {
+      EventJournal journal = eventJournal;
+      if (journal == null) {
+         throw new IllegalStateException("No event journal is set, call setEventJournal() before subscribing with journal replay.");
+      }
+      final ReplayingSubscriber replayingSubscriber = new ReplayingSubscriber(classOrTopic, eh, this);
+      boolean subscribed;
+      long endOffset;
+      synchronized (listenerLock) {
+         subscribed = subscribe(classOrTopic, subscriberMap, replayingSubscriber);
+         replayingSubscribers.add(replayingSubscriber);
+         //Publications are journaled under the listener lock, so everything after this is delivered live
+         endOffset = journal.getNextOffset();
+      }
+      try {
+         journal.flush();
+         journal.replay(fromOffset, endOffset, new JournalEntryHandler() {
+            public void onEntry(JournalEntry entry) {
+               if (replayingSubscriber.matches(entry.getEvent(), entry.getTopic())) {
+                  replayingSubscriber.deliverReplayed(entry.getTopic() == null ? entry.getEvent() : entry.getPayload());
+               }
+            }
+         });
+      } finally {
+         replayingSubscriber.finishReplay();
+      }
+      return subscribed;
+   }
+
+   /** @return up to the last n cached events of a class or data objects of a topic, oldest first */
+   private List getCachedItemsOldestFirst(Object classOrTopic, int n) {
+      synchronized (cacheLock) {
+         List cache = classOrTopic instanceof Class ? cacheByEvent.get(classOrTopic) : cacheByTopic.get(classOrTopic);
+         int count = cache == null ? 0 : Math.min(n, cache.size());
+         List result = new ArrayList(Math.max(count, 0));
+         for (int i = count - 1; i >= 0; i--) {
+            result.add(cache.get(i));
+         }
+         return result;
+      }
+   }
+
+   /**
+    * A publication's subscribers are copied before it is cached.  Returns the subscribers subscribed with replay
+    * after the copy was made and before the event was cached or journaled - they did not get the event replayed
+    * and are not in the copy, so the publication must deliver it to them too.  Must be called holding the listener
+    * lock right after the event is cached and journaled.
+    * <p/>
+    * A replaying subscriber is only tracked until its replay has finished and a publication it matches copied the
+    * subscribers after it was subscribed, publications after that can't miss it.
+    */
+   private List<ReplayingSubscriber> getLateReplayingSubscribers(Object event, String topic, List subscribers) {
+      if (replayingSubscribers.isEmpty()) {
+         return null;
+      }
+      List<ReplayingSubscriber> result = null;
+      for (Iterator<ReplayingSubscriber> iter = replayingSubscribers.iterator(); iter.hasNext();) {
+         ReplayingSubscriber replayingSubscriber = iter.next();
+         if (replayingSubscriber.getProxiedSubscriber() == null) {
+            //unsubscribed or garbage collected
+            iter.remove();
+            continue;
+         }
+         if (!replayingSubscriber.matches(event, topic)) {
+            continue;
+         }
+         if (containsIdentical(subscribers, replayingSubscriber)) {
+            if (!replayingSubscriber.isReplaying()) {
+               iter.remove();
+            }
+            continue;
+         }
+         Object classOrTopic = replayingSubscriber.getClassOrTopic();
+         List current = (List) (classOrTopic instanceof Class ? subscribersByEventClass.get(classOrTopic)
+                 : subscribersByTopic.get(classOrTopic));
+         if (!containsIdentical(current, replayingSubscriber)) {
+            //replaced by another subscription of the same subscriber
+            iter.remove();
+            continue;
+         }
+         if (result == null) {
+            result = new ArrayList<ReplayingSubscriber>(1);
+         }
+         result.add(replayingSubscriber);
+      }
+      return result;
+   }
+
+   /** @return the number of replaying subscribers publications still check for, for tests */
+   int getTrackedReplayingSubscriberCount() {
+      synchronized (listenerLock) {
+         return replayingSubscribers.size();
+      }
+   }
+
+   private static boolean containsIdentical(List list, Object o) {
+      if (list == null) {
+         return false;
+      }
+      for (int i = 0; i < list.size(); i++) {
+         if (list.get(i) == o) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Seals the subscriptions of this EventService, for deployments that subscribe everything at startup and never
+    * change their subscriptions afterwards.
+    * <p/>
+    * Sealing builds the dispatch plan of every subscribed event class and topic: its subscribers and veto subscribers,
+    * sorted by priority and with the WeakReferences and ProxySubscribers of the subscription lists already resolved.
+    * Once sealed, every publication is routed by its plan, without locking to copy, unwrap, sort and match the
+    * subscription lists.  Plans for event classes and topics that had no subscriptions of their own, such as
+    * subclasses of subscribed classes or topics matched only by patterns, are built on their first publication.  Plans
+    * are rebuilt if cache settings change or a weakly referenced subscriber is garbage collected.
+    * <p/>
+    * After sealing, subscribing, unsubscribing and clearing subscribers throw an IllegalStateException, though a
+    * {@link SubscriberExceptionHandler} can still quarantine a failing subscriber with
+    * {@link SubscriberExceptionContext#quarantine()}.  Sealing cannot be undone.
+    */
+   public void seal() {
+      synchronized (listenerLock) {
+         if (sealed) {
+            return;
+         }
+         Set<Class> classes = new HashSet<Class>();
+         classes.addAll(subscribersByEventClass.keySet());
+         classes.addAll(subscribersByExactEventClass.keySet());
+         classes.addAll(vetoListenersByClass.keySet());
+         classes.addAll(vetoListenersByExactClass.keySet());
+         Map weaklySubscribed = getWeakClassReferents();
+         for (Class eventClass : classes) {
+            classDispatchPlans.put(eventClass, createDispatchPlan(eventClass, weaklySubscribed));
+         }
+         Set<String> topics = new HashSet<String>();
+         topics.addAll(subscribersByTopic.keySet());
+         topics.addAll(vetoListenersByTopic.keySet());
+         for (String topic : topics) {
+            topicDispatchPlans.put(topic, createDispatchPlan(topic));
+         }
+         sealed = true;
+      }
+   }
+
+   /**
+    * Sets how many fast path publications an event class or topic takes, without its subscriptions changing, before
+    * this EventService generates a {@link RouteDispatcher} for it.  Generating dispatchers is experimental and off by
+    * default ({@link #DEFAULT_ROUTE_DISPATCHER_THRESHOLD}).  Each dispatcher is a class generated at runtime and
+    * defined by a class loader of its own, so enable it only for services with a few busy routes, with a threshold
+    * such as 1000 that only those routes reach:
+    * <pre>
+    * eventService.setRouteDispatcherThreshold(1000);
+    * </pre>
+    *
+    * @param publications the number of publications, 0 or less to never generate dispatchers
+    */
+   public void setRouteDispatcherThreshold(int publications) {
+      this.routeDispatcherThreshold = publications;
+   }
+
+   /** @return the number of publications after which a route gets a generated dispatcher, 0 or less for never */
+   public int getRouteDispatcherThreshold() {
+      return routeDispatcherThreshold;
+   }
+
+   /** @return true if {@link #seal()} was called */
+   public boolean isSealed() {
+      return sealed;
+   }
+
+   private void checkNotSealed() {
+      if (sealed) {
+         throw new IllegalStateException("The EventService is sealed, its subscriptions can't be changed.");
+      }
+   }
+
+   /**
+    * Starts a batch of subscribes and unsubscribes that are applied under one acquisition of the listener lock, and
+    * that publications see all at once.
+    *
+    * @return an empty batch for this EventService
+    */
+   public RegistrationBatch registrationBatch() {
+      return new RegistrationBatch(this);
+   }
+
+   int applyRegistrationBatch(RegistrationBatch.Operation[] operations) {
+      int changed = 0;
+      synchronized (listenerLock) {
+         //Publications keep using the dispatch plans of the old version until the whole batch is applied
+         registrationBatchDepth++;
+         try {
+            for (int i = 0; i < operations.length; i++) {
+               if (operations[i].applyTo(this)) {
+                  changed++;
+               }
+            }
+         } finally {
+            if (--registrationBatchDepth == 0 && subscriptionsChangedInBatch) {
+               subscriptionsChangedInBatch = false;
+               incrementSubscriptionVersion();
+            }
+         }
+      }
+      return changed;
+   }
 
    /** @see org.bushe.swing.event.EventService#clearAllSubscribers() */
    public void clearAllSubscribers() {
+      checkNotSealed();
       synchronized (listenerLock) {
          unsubscribeAllInMap(subscribersByEventType);
          unsubscribeAllInMap(subscribersByEventClass);
@@ -460,19 +1374,51 @@ public class ThreadSafeEventService implements EventService {
          unsubscribeAllInMap(vetoListenersByExactClass);
          unsubscribeAllInMap(vetoListenersByTopic);
          unsubscribeAllInMap(vetoListenersByTopicPattern);
+         filteredSubscribersByEventClass.clear();
+         filteredSubscribersByTopic.clear();
+         hasFilteredSubscribers = false;
       }
    }
    
    private void unsubscribeAllInMap(Map subscriberMap) {
       synchronized (listenerLock) {
-         Set subscriptionKeys = subscriberMap.keySet();
-         for (Object key : subscriptionKeys) {
-            List subscribers = (List) subscriberMap.get(key);
-            while (!subscribers.isEmpty()) {
-               unsubscribe(key, subscriberMap, subscribers.get(0));               
+         if (unsubscribeHooksOverridden) {
+            //Let the subclass see every unsubscription
+            Set subscriptionKeys = subscriberMap.keySet();
+            for (Object key : subscriptionKeys) {
+               List subscribers = (List) subscriberMap.get(key);
+               while (!subscribers.isEmpty()) {
+                  Object subscriber = subscribers.get(0);
+                  if (subscriber instanceof ConsumerGroupSubscriber) {
+                     ((ConsumerGroupSubscriber) subscriber).clear();
+                  }
+                  unsubscribe(key, subscriberMap, subscriber);
+               }
+            }
+            return;
+         }
+         if (subscriberMap.isEmpty()) {
+            return;
+         }
+         for (Iterator lists = subscriberMap.values().iterator(); lists.hasNext();) {
+            List subscribers = (List) lists.next();
+            for (Iterator iterator = subscribers.iterator(); iterator.hasNext();) {
+               Object subscriber = iterator.next();
+               if (subscriber instanceof WeakReference) {
+                  decWeakRefPlusProxySubscriberCount();
+               }
+               if (subscriber instanceof ProxySubscriber) {
+                  ((ProxySubscriber) subscriber).proxyUnsubscribed();
+                  decWeakRefPlusProxySubscriberCount();
+               }
+               if (subscriber instanceof ConsumerGroupSubscriber) {
+                  ((ConsumerGroupSubscriber) subscriber).clear();
+               }
             }
          }
-      }      
+         subscriberMap.clear();
+         subscriptionsChanged();
+      }
    }
  
    /** @see EventService#subscribeVetoListener(Class,VetoEventListener) */
@@ -528,41 +1474,117 @@ public class ThreadSafeEventService implements EventService {
       if (eventClass == null) {
          throw new IllegalArgumentException("eventClass cannot be null.");
       }
-      return subscribeVetoListener(eventClass, vetoListenersByClass, vetoListener);
+      return subscribeVetoListener(eventClass, vetoListenersByClass, vetoListener);
+   }
+
+   /** @see EventService#subscribeVetoListenerExactlyStrongly(Class,VetoEventListener) */
+   public boolean subscribeVetoListenerExactlyStrongly(Class eventClass, VetoEventListener vetoListener) {
+      if (vetoListener == null) {
+         throw new IllegalArgumentException("VetoEventListener cannot be null.");
+      }
+      if (eventClass == null) {
+         throw new IllegalArgumentException("eventClass cannot be null.");
+      }
+      return subscribeVetoListener(eventClass, vetoListenersByExactClass, vetoListener);
+   }
+
+   /** @see EventService#subscribeVetoListenerStrongly(String,VetoTopicEventListener) */
+   public boolean subscribeVetoListenerStrongly(String topic, VetoTopicEventListener vetoListener) {
+      if (vetoListener == null) {
+         throw new IllegalArgumentException("VetoListener cannot be null.");
+      }
+      if (topic == null) {
+         throw new IllegalArgumentException("topic cannot be null.");
+      }
+      return subscribeVetoListener(topic, vetoListenersByTopic, vetoListener);
+   }
+
+   /** @see EventService#subscribeVetoListenerStrongly(Pattern,VetoTopicEventListener) */
+   public boolean subscribeVetoListenerStrongly(Pattern topicPattern, VetoTopicEventListener vetoListener) {
+      if (vetoListener == null) {
+         throw new IllegalArgumentException("VetoTopicEventListener cannot be null.");
+      }
+      if (topicPattern == null) {
+         throw new IllegalArgumentException("topicPattern cannot be null.");
+      }
+      PatternWrapper patternWrapper = new PatternWrapper(topicPattern);
+      return subscribeVetoListener(patternWrapper, vetoListenersByTopicPattern, vetoListener);
+   }
+
+   /**
+    * Same as {@link #subscribeVetoListener(Class, VetoEventListener)} or
+    * {@link #subscribeVetoListenerStrongly(Class, VetoEventListener)}, but returns a handle on the subscription.
+    *
+    * @param eventClass the class of published objects to veto, and its subclasses
+    * @param vetoListener the veto subscriber
+    * @param referenceStrength whether the veto subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeVetoListenerWithHandle(Class eventClass, VetoEventListener vetoListener,
+           ReferenceStrength referenceStrength) {
+      if (eventClass == null) {
+         throw new IllegalArgumentException("eventClass cannot be null.");
+      }
+      return subscribeWithHandle(eventClass, eventClass, vetoListenersByClass, vetoListener, referenceStrength, true);
    }
 
-   /** @see EventService#subscribeVetoListenerExactlyStrongly(Class,VetoEventListener) */
-   public boolean subscribeVetoListenerExactlyStrongly(Class eventClass, VetoEventListener vetoListener) {
-      if (vetoListener == null) {
-         throw new IllegalArgumentException("VetoEventListener cannot be null.");
-      }
+   /**
+    * Same as {@link #subscribeVetoListenerExactly(Class, VetoEventListener)} or
+    * {@link #subscribeVetoListenerExactlyStrongly(Class, VetoEventListener)}, but returns a handle on the
+    * subscription.
+    *
+    * @param eventClass the class of published objects to veto
+    * @param vetoListener the veto subscriber
+    * @param referenceStrength whether the veto subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeVetoListenerExactlyWithHandle(Class eventClass, VetoEventListener vetoListener,
+           ReferenceStrength referenceStrength) {
       if (eventClass == null) {
          throw new IllegalArgumentException("eventClass cannot be null.");
       }
-      return subscribeVetoListener(eventClass, vetoListenersByExactClass, vetoListener);
+      return subscribeWithHandle(eventClass, eventClass, vetoListenersByExactClass, vetoListener, referenceStrength,
+              true);
    }
 
-   /** @see EventService#subscribeVetoListenerStrongly(String,VetoTopicEventListener) */
-   public boolean subscribeVetoListenerStrongly(String topic, VetoTopicEventListener vetoListener) {
-      if (vetoListener == null) {
-         throw new IllegalArgumentException("VetoListener cannot be null.");
-      }
+   /**
+    * Same as {@link #subscribeVetoListener(String, VetoTopicEventListener)} or
+    * {@link #subscribeVetoListenerStrongly(String, VetoTopicEventListener)}, but returns a handle on the subscription.
+    *
+    * @param topic the topic to veto
+    * @param vetoListener the veto subscriber
+    * @param referenceStrength whether the veto subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeVetoListenerWithHandle(String topic, VetoTopicEventListener vetoListener,
+           ReferenceStrength referenceStrength) {
       if (topic == null) {
          throw new IllegalArgumentException("topic cannot be null.");
       }
-      return subscribeVetoListener(topic, vetoListenersByTopic, vetoListener);
+      return subscribeWithHandle(topic, topic, vetoListenersByTopic, vetoListener, referenceStrength, true);
    }
 
-   /** @see EventService#subscribeVetoListenerStrongly(Pattern,VetoTopicEventListener) */
-   public boolean subscribeVetoListenerStrongly(Pattern topicPattern, VetoTopicEventListener vetoListener) {
-      if (vetoListener == null) {
-         throw new IllegalArgumentException("VetoTopicEventListener cannot be null.");
-      }
+   /**
+    * Same as {@link #subscribeVetoListener(Pattern, VetoTopicEventListener)} or
+    * {@link #subscribeVetoListenerStrongly(Pattern, VetoTopicEventListener)}, but returns a handle on the
+    * subscription.
+    *
+    * @param topicPattern the pattern of topics to veto
+    * @param vetoListener the veto subscriber
+    * @param referenceStrength whether the veto subscriber is held weakly or strongly
+    *
+    * @return the handle of the subscription
+    */
+   public Subscription subscribeVetoListenerWithHandle(Pattern topicPattern, VetoTopicEventListener vetoListener,
+           ReferenceStrength referenceStrength) {
       if (topicPattern == null) {
          throw new IllegalArgumentException("topicPattern cannot be null.");
       }
-      PatternWrapper patternWrapper = new PatternWrapper(topicPattern);
-      return subscribeVetoListener(patternWrapper, vetoListenersByTopicPattern, vetoListener);
+      return subscribeWithHandle(topicPattern, new PatternWrapper(topicPattern), vetoListenersByTopicPattern,
+              vetoListener, referenceStrength, true);
    }
 
    /**
@@ -612,6 +1634,7 @@ public class ThreadSafeEventService implements EventService {
       if (subscriber == null) {
          throw new IllegalArgumentException("Can't subscribe null subscriber to " + classTopicOrPatternWrapper);
       }
+      checkNotSealed();
       boolean alreadyExists = false;
 
       //Find the real subscriber underlying weak refs and proxies
@@ -641,12 +1664,12 @@ public class ThreadSafeEventService implements EventService {
          return false;//already garbage collected?  Weird.
       }
       synchronized (listenerLock) {
-         List currentSubscribers = (List) subscriberMap.get(classTopicOrPatternWrapper);
+         SubscriberList currentSubscribers = (SubscriberList) subscriberMap.get(classTopicOrPatternWrapper);
          if (currentSubscribers == null) {
             if (LOG.isLoggable(Level.DEBUG)) {
                LOG.debug("Creating new subscriber map for:" + classTopicOrPatternWrapper);
             }
-            currentSubscribers = new ArrayList();
+            currentSubscribers = new SubscriberList();
             subscriberMap.put(classTopicOrPatternWrapper, currentSubscribers);
          } else {
             //Double subscription check and stale subscriber cleanup
@@ -656,7 +1679,11 @@ public class ThreadSafeEventService implements EventService {
             //Use the proxied subscriber for comparison if a ProxySubscribers is used
             //Subscribing the same object by proxy and subscribing explicitly should
             //not subscribe the same object twice
-            for (Iterator iterator = currentSubscribers.iterator(); iterator.hasNext();) {
+            //A subscriber that doesn't override equals() can only equal itself, so only the entries indexed under
+            //it need comparing.  The same goes for ProxySubscribers, the unwrapped entries are never proxies.
+            Iterator iterator = equalsOnlyItself(realSubscriber) ? currentSubscribers.entriesIndexedUnder(realSubscriber)
+                    : currentSubscribers.iterator();
+            while (iterator.hasNext()) {
                Object currentSubscriber = iterator.next();
                Object realCurrentSubscriber = getRealSubscriberAndCleanStaleSubscriberIfNecessary(iterator, currentSubscriber);
                if (realSubscriber.equals(realCurrentSubscriber)) {
@@ -671,13 +1698,16 @@ public class ThreadSafeEventService implements EventService {
          if (isWeakProxySubscriber || isWeakRef) {
             incWeakRefPlusProxySubscriberCount();
          }
+         subscriptionsChanged();
          return !alreadyExists;
       }
    }
 
    /** @see EventService#unsubscribe(Class,EventSubscriber) */
    public boolean unsubscribe(Class cl, EventSubscriber eh) {
-      return unsubscribe(cl, subscribersByEventClass, eh);
+      checkNotSealed();
+      boolean filtered = unsubscribeFiltered(cl, filteredSubscribersByEventClass, eh);
+      return unsubscribe(cl, subscribersByEventClass, eh) || filtered;
    }
 
    /** @see EventService#unsubscribeExactly(Class,EventSubscriber) */
@@ -687,7 +1717,9 @@ public class ThreadSafeEventService implements EventService {
 
    /** @see EventService#unsubscribe(String,EventTopicSubscriber) */
    public boolean unsubscribe(String name, EventTopicSubscriber eh) {
-      return unsubscribe(name, subscribersByTopic, eh);
+      checkNotSealed();
+      boolean filtered = unsubscribeFiltered(name, filteredSubscribersByTopic, eh);
+      return unsubscribe(name, subscribersByTopic, eh) || filtered;
    }
 
    /** @see EventService#unsubscribe(String,EventTopicSubscriber) */
@@ -757,6 +1789,7 @@ public class ThreadSafeEventService implements EventService {
       if (subscriber == null) {
          throw new IllegalArgumentException("Can't unsubscribe null subscriber to " + o);
       }
+      checkNotSealed();
       synchronized (listenerLock) {
          return removeFromSetResolveWeakReferences(subscriberMap, o, subscriber);
       }
@@ -843,6 +1876,7 @@ public class ThreadSafeEventService implements EventService {
       if (vl == null) {
          throw new IllegalArgumentException("Can't unsubscribe null veto listener to " + o);
       }
+      checkNotSealed();
       synchronized (listenerLock) {
          return removeFromSetResolveWeakReferences(vetoListenerMap, o, vl);
       }
@@ -893,98 +1927,658 @@ public class ThreadSafeEventService implements EventService {
             }
          }
       }
-      return null;
+      return null;
+   }
+
+   /** @see EventService#publish(Object) */
+   public void publish(Object event) {
+      if (event == null) {
+         throw new IllegalArgumentException("Cannot publish null event.");
+      }
+      if (isRejectionPossible(event) && !getSubscriptionSummary().mayHaveInterest(event.getClass())) {
+         logNoSubscribers(event, null);
+         return;
+      }
+      boolean fastPathPossible = isFastPathPossible(event);
+      if (fastPathPossible || sealed) {
+         DispatchPlan plan = getDispatchPlan(event.getClass());
+         if (plan != null && plan.fast && fastPathPossible) {
+            plan.stale |= publishFast(plan, event, null, null);
+            return;
+         }
+         if (plan != null && sealed) {
+            List subscribers = addFilteredSubscribers(event, null, null, plan.getSubscribers());
+            publish(event, null, null, subscribers, plan.getVetoSubscribers(), null);
+            return;
+         }
+      }
+      List subscribers = addFilteredSubscribers(event, null, null, getSubscribers(event.getClass()));
+      publish(event, null, null, subscribers, getVetoSubscribers(event.getClass()), null);
+   }
+
+   /** @see EventService#publish(java.lang.reflect.Type, Object)  */
+   public void publish(Type genericType, Object event) {
+      if (genericType == null) {
+         throw new IllegalArgumentException("genericType must not be null.");
+      }
+      if (event == null) {
+         throw new IllegalArgumentException("Cannot publish null event.");
+      }
+      publish(event, null, null, getSubscribers(genericType), null/*getVetoSubscribers(genericType)*/, null);
+   }
+
+   /** @see EventService#publish(String,Object) */
+   public void publish(String topicName, Object eventObj) {
+      if (topicName != null && isRejectionPossible(eventObj)
+              && !getSubscriptionSummary().mayHaveInterest(topicName)) {
+         logNoSubscribers(null, topicName);
+         return;
+      }
+      boolean fastPathPossible = isFastPathPossible(eventObj);
+      if (topicName != null && (fastPathPossible || sealed)) {
+         DispatchPlan plan = getDispatchPlan(topicName);
+         if (plan != null && plan.fast && fastPathPossible) {
+            plan.stale |= publishFast(plan, null, topicName, eventObj);
+            return;
+         }
+         if (plan != null && sealed) {
+            List subscribers = addFilteredSubscribers(null, topicName, eventObj, plan.getSubscribers());
+            publish(null, topicName, eventObj, subscribers, plan.getVetoSubscribers(), null);
+            return;
+         }
+      }
+      List subscribers = addFilteredSubscribers(null, topicName, eventObj, getSubscribers(topicName));
+      publish(null, topicName, eventObj, subscribers, getVetoEventListeners(topicName), null);
+   }
+
+   /** @see EventService#request(String,Object,long) */
+   public Future<Object> request(String topic, Object payload, long timeoutMS) {
+      return publishRequest(topic, payload, false, timeoutMS);
+   }
+
+   /** @see EventService#scatterGather(String,Object,long) */
+   public Future<List<Object>> scatterGather(String topic, Object payload, long timeoutMS) {
+      return publishRequest(topic, payload, true, timeoutMS);
+   }
+
+   private Future publishRequest(String topic, Object payload, boolean gather, long timeoutMS) {
+      if (topic == null) {
+         throw new IllegalArgumentException("Can't publish a request to a null topic.");
+      }
+      if (timeoutMS < 0) {
+         throw new IllegalArgumentException("Request timeout must not be negative, was " + timeoutMS);
+      }
+      //Filtered subscribers are selected by the payload they are asked about, not by the Request wrapping it
+      List subscribers = addFilteredSubscribers(null, topic, payload, getSubscribers(topic));
+      Request request = requestCorrelator.newRequest(payload, gather, subscribers.size());
+      if (subscribers.isEmpty()) {
+         requestCorrelator.noSubscribers(request, topic);
+      } else {
+         publish(null, topic, request, subscribers, getVetoEventListeners(topic), null);
+         requestCorrelator.startTimeout(request, timeoutMS);
+      }
+      return request.getFuture();
+   }
+
+   /**
+    * Resolves a topic to an interned {@link TopicHandle} that can be published to without looking up the topic's
+    * subscribers, veto subscribers, pattern matches and cache by name on every publication.  The same handle is
+    * returned for the same topic while the handle is referenced.
+    *
+    * @param topic the topic name to resolve
+    *
+    * @return the handle for the topic on this EventService
+    *
+    * @see TopicHandle
+    */
+   public TopicHandle resolveTopic(String topic) {
+      if (topic == null) {
+         throw new IllegalArgumentException("Topic must not be null");
+      }
+      synchronized (listenerLock) {
+         WeakReference<TopicHandle> handleRef = topicHandles.get(topic);
+         TopicHandle handle = handleRef == null ? null : handleRef.get();
+         if (handle == null) {
+            handle = new TopicHandle(topic, this);
+            topicHandles.put(topic, new WeakReference<TopicHandle>(handle));
+         }
+         return handle;
+      }
+   }
+
+   /**
+    * Publishes an object on a resolved topic, equivalent to publish(handle.getTopic(), eventObj) but without looking
+    * up the topic by name.  The handle's subscriber, veto and cache slots are rebuilt first if subscriptions or cache
+    * settings have changed since they were last used.
+    *
+    * @param handle a handle resolved on this EventService with {@link #resolveTopic(String)}
+    * @param eventObj the payload to publish on the handle's topic
+    *
+    * @throws IllegalArgumentException if the handle is null or was resolved on another EventService
+    */
+   public void publish(TopicHandle handle, Object eventObj) {
+      if (handle == null) {
+         throw new IllegalArgumentException("Can't publish to a null topic handle.");
+      }
+      if (handle.getEventService() != this) {
+         throw new IllegalArgumentException("The topic handle was resolved on a different EventService, topic:" + handle.getTopic());
+      }
+      TopicHandle.Slots slots = getTopicHandleSlots(handle);
+      if (slots.vetoSubscribers.length == 0 && slots.cacheSize <= 0 && isFastPathPossible(eventObj)
+              && getFanOut(null, handle.getTopic()) == null) {
+         if (publishFast(null, handle.getTopic(), eventObj, slots.subscribers)) {
+            slots.stale = true;
+         }
+         return;
+      }
+      List subscribers = addFilteredSubscribers(null, handle.getTopic(), eventObj, slots.getSubscribers());
+      publish(handle, eventObj, subscribers, slots.getVetoSubscribers(), null);
+   }
+
+   /**
+    * All publish methods call this method.  Extending classes only have to override this method to handle all
+    * publishing cases.
+    *
+    * @param event the event to publish, null if publishing on a topic
+    * @param topic if publishing on a topic, the topic to publish on, else null
+    * @param eventObj if publishing on a topic, the eventObj to publish, else null
+    * @param subscribers the subscribers to publish to - must be a snapshot copy
+    * @param vetoSubscribers the veto subscribers to publish to - must be a snapshot copy.
+    * @param callingStack the stack that called this publication, helpful for reporting errors on other threads
+    * @throws IllegalArgumentException if eh or o is null
+    */
+   protected void publish(final Object event, final String topic, final Object eventObj,
+           final List subscribers, final List vetoSubscribers, StackTraceElement[] callingStack) {
+      publish(event, topic, eventObj, subscribers, vetoSubscribers, callingStack, null);
+   }
+
+   /**
+    * All publications through a {@link TopicHandle} call this method.  Extending classes that override
+    * {@link #publish(Object, String, Object, List, List, StackTraceElement[])} should override this method too.
+    * The subscribers are the same as what would be passed for a publication by topic name, but caching uses the
+    * handle's cache slot instead of looking up the topic's cache.
+    *
+    * @param handle the handle being published to
+    * @param eventObj the payload to publish on the handle's topic
+    * @param subscribers the subscribers to publish to - must be a snapshot copy
+    * @param vetoSubscribers the veto subscribers to publish to - must be a snapshot copy.
+    * @param callingStack the stack that called this publication, helpful for reporting errors on other threads
+    */
+   protected void publish(final TopicHandle handle, final Object eventObj, final List subscribers,
+           final List vetoSubscribers, StackTraceElement[] callingStack) {
+      publish(null, handle.getTopic(), eventObj, subscribers, vetoSubscribers, callingStack, handle.getSlots());
+   }
+
+   private void publish(final Object event, final String topic, final Object eventObj,
+           final List subscribers, final List vetoSubscribers, StackTraceElement[] callingStack,
+           TopicHandle.Slots topicSlots) {
+
+      if (event == null && topic == null) {
+         throw new IllegalArgumentException("Can't publish to null topic/event.");
+      }
+
+      setStatus(PublicationStatus.Initiated, event, topic, eventObj);
+      //topic or event
+      logEvent(event, topic, eventObj);
+
+      //Check all veto subscribers, if any veto, then don't publish or cache
+      if (checkVetoSubscribers(event, topic, eventObj, vetoSubscribers, callingStack)) {
+         setStatus(PublicationStatus.Vetoed, event, topic, eventObj);
+         releasePooledEvent(event, eventObj);
+         return;
+      } else {
+         setStatus(PublicationStatus.Queued, event, topic, eventObj);
+      }
+
+      List<ReplayingSubscriber> lateReplayingSubscribers = null;
+      if (topicSlots != null && topicSlots.cacheSize <= 0 && eventJournal == null) {
+         //Neither cached nor journaled, so there is nothing a replay subscription could miss
+         addTopicDataToCache(topicSlots, topic, eventObj);
+      } else {
+         //Cache, journal and find late replaying subscribers atomically with respect to replay subscriptions
+         synchronized (listenerLock) {
+            if (topicSlots == null) {
+               addEventToCache(event, topic, eventObj);
+            } else {
+               addTopicDataToCache(topicSlots, topic, eventObj);
+            }
+            addEventToJournal(event, topic, eventObj);
+            retainPooledEventIfKept(event, topic, eventObj);
+            lateReplayingSubscribers = getLateReplayingSubscribers(event, topic, subscribers);
+         }
+      }
+
+      if (subscribers == null || subscribers.isEmpty()) {
+         logNoSubscribers(event, topic);
+      } else {
+         if (LOG.isLoggable(Level.DEBUG)) {
+            LOG.debug("Publishing to subscribers:" + subscribers);
+         }
+         setStatus(PublicationStatus.Publishing, event, topic, eventObj);
+         FanOut fanOut = getFanOut(event, topic);
+         if (fanOut != null && subscribers.size() > 1) {
+            if (!fanOut.isWaitForCompletion()) {
+               //Delivered after publish returns, keep it out of its EventPool
+               retainPooledEvent(event, eventObj);
+            }
+            new ParallelDelivery(this, event, topic, eventObj, subscribers, fanOut, callingStack).deliver();
+         } else {
+            for (int i = 0; i < subscribers.size(); i++) {
+               Object eh = subscribers.get(i);
+               if (event != null) {
+                  EventSubscriber eventSubscriber = (EventSubscriber) eh;
+                  long start = System.currentTimeMillis();
+                  try {
+                     eventSubscriber.onEvent(event);
+                     checkTimeLimit(start, event, eventSubscriber, null);
+                  } catch (Throwable e) {
+                     checkTimeLimit(start, event, eventSubscriber, null);
+                     handleException(event, e, callingStack, eventSubscriber);
+                  }
+               } else {
+                  EventTopicSubscriber eventTopicSubscriber = (EventTopicSubscriber) eh;
+                  try {
+                     eventTopicSubscriber.onEvent(topic, eventObj);
+                  } catch (Throwable e) {
+                     onEventException(topic, eventObj, e, callingStack, eventTopicSubscriber);
+                  }
+               }
+            }
+         }
+      }
+      if (lateReplayingSubscribers != null) {
+         for (ReplayingSubscriber replayingSubscriber : lateReplayingSubscribers) {
+            try {
+               if (event != null) {
+                  replayingSubscriber.onEvent(event);
+               } else {
+                  replayingSubscriber.onEvent(topic, eventObj);
+               }
+            } catch (Throwable e) {
+               if (event != null) {
+                  handleException(event, e, callingStack, replayingSubscriber);
+               } else {
+                  onEventException(topic, eventObj, e, callingStack, replayingSubscriber);
+               }
+            }
+         }
+      }
+      setStatus(PublicationStatus.Completed, event, topic, eventObj);
+      releasePooledEvent(event, eventObj);
+   }
+
+   /**
+    * Keeps a pooled event or topic data object out of its {@link EventPool} if the cache or the event journal keeps
+    * a reference to it.
+    */
+   private void retainPooledEventIfKept(Object event, String topic, Object eventObj) {
+      Object published = event != null ? event : eventObj;
+      if (!(published instanceof AbstractEventServiceEvent) || !((AbstractEventServiceEvent) published).isPooled()) {
+         return;
+      }
+      boolean cached = event != null ? getLastEvent(event.getClass()) == event : getLastTopicData(topic) == eventObj;
+      EventJournal journal = eventJournal;
+      if (cached || (journal != null && journal.isJournaled(event, topic))) {
+         ((AbstractEventServiceEvent) published).retain();
+      }
+   }
+
+   private static void logNoSubscribers(Object event, String topic) {
+      if (LOG.isLoggable(Level.DEBUG)) {
+         LOG.debug("No subscribers for event or topic. Event:" + event + ", Topic:" + topic);
+      }
+   }
+
+   /** Keeps a pooled event or topic data object out of its {@link EventPool} */
+   private static void retainPooledEvent(Object event, Object eventObj) {
+      Object published = event != null ? event : eventObj;
+      if (published instanceof AbstractEventServiceEvent) {
+         ((AbstractEventServiceEvent) published).retain();
+      }
+   }
+
+   /** Returns a pooled event or topic data object to its {@link EventPool} once its publication is over. */
+   private static void releasePooledEvent(Object event, Object eventObj) {
+      Object published = event != null ? event : eventObj;
+      if (published instanceof AbstractEventServiceEvent) {
+         ((AbstractEventServiceEvent) published).releaseToPool();
+      }
+   }
+
+   /**
+    * @return true if a publication can skip the full pipeline: there is no journal, no filtered subscriber, no
+    * timing threshold, no debug logging and the published object does not track its status.  The veto subscribers
+    * and cache size are checked by the dispatch plan.  Subclasses that override the publish, setStatus,
+    * addEventToCache or addEventToJournal hooks always get the full pipeline.
+    */
+   private boolean isFastPathPossible(Object published) {
+      return fastPathAllowed && eventJournal == null && !hasFilteredSubscribers
+              && timeThresholdForEventTimingEventPublication == null
+              && !(published instanceof PublicationStatusTracker) && !LOG.isLoggable(Level.DEBUG);
+   }
+
+   /**
+    * @return true if a publication can be dropped when the subscription summary shows nothing is interested in it:
+    * there is no journal, no filtered subscriber and the published object does not track its status.  Subclasses
+    * that override the publish, setStatus, addEventToCache or addEventToJournal hooks always get every publication,
+    * except for SwingEventService, which overrides publish only to move it to the Event Dispatch Thread.
+    */
+   private boolean isRejectionPossible(Object published) {
+      return rejectionAllowed && eventJournal == null && !hasFilteredSubscribers
+              && !(published instanceof PublicationStatusTracker);
+   }
+
+   /**
+    * @return the summary of the classes and topics anything is interested in, rebuilt if the subscriptions or cache
+    * settings changed since it was built
+    */
+   private SubscriptionSummary getSubscriptionSummary() {
+      SubscriptionSummary summary = subscriptionSummary;
+      if (summary == null || summary.version != subscriptionVersion) {
+         synchronized (listenerLock) {
+            List<Class> classes = new ArrayList<Class>();
+            List<String> topics = new ArrayList<String>();
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            classes.addAll(subscribersByEventClass.keySet());
+            classes.addAll(subscribersByExactEventClass.keySet());
+            classes.addAll(vetoListenersByClass.keySet());
+            classes.addAll(vetoListenersByExactClass.keySet());
+            topics.addAll(subscribersByTopic.keySet());
+            topics.addAll(vetoListenersByTopic.keySet());
+            addPatterns(subscribersByTopicPattern.keySet(), patterns);
+            addPatterns(vetoListenersByTopicPattern.keySet(), patterns);
+            boolean everything;
+            synchronized (cacheLock) {
+               everything = defaultCacheSizePerClassOrTopic > 0;
+               if (rawCacheSizesForEventClass != null) {
+                  classes.addAll(rawCacheSizesForEventClass.keySet());
+               }
+               if (rawCacheSizesForTopic != null) {
+                  topics.addAll(rawCacheSizesForTopic.keySet());
+               }
+               if (rawCacheSizesForPattern != null) {
+                  addPatterns(rawCacheSizesForPattern.keySet(), patterns);
+               }
+            }
+            summary = new SubscriptionSummary(subscriptionVersion, classes, topics, patterns, everything);
+            subscriptionSummary = summary;
+         }
+      }
+      return summary;
+   }
+
+   private static void addPatterns(Collection patternWrappers, List<Pattern> patterns) {
+      for (Iterator iterator = patternWrappers.iterator(); iterator.hasNext();) {
+         patterns.add(((PatternWrapper) iterator.next()).pattern);
+      }
+   }
+
+   /**
+    * @return true if the class, or any class between it and the base class, overrides any of the methods the
+    * publication fast path skips
+    */
+   private static boolean overridesPublicationHooks(Class serviceClass, Class baseClass) {
+      for (Class cl = serviceClass; cl != ThreadSafeEventService.class && cl != baseClass; cl = cl.getSuperclass()) {
+         if (declares(cl, "publish", new Class[]{Object.class, String.class, Object.class, List.class, List.class,
+                 StackTraceElement[].class})
+                 || declares(cl, "publish", new Class[]{TopicHandle.class, Object.class, List.class, List.class,
+                 StackTraceElement[].class})
+                 || declares(cl, "setStatus", new Class[]{PublicationStatus.class, Object.class, String.class,
+                 Object.class})
+                 || declares(cl, "addEventToCache", new Class[]{Object.class, String.class, Object.class})
+                 || declares(cl, "addEventToJournal", new Class[]{Object.class, String.class, Object.class})) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static boolean declares(Class cl, String name, Class[] parameterTypes) {
+      try {
+         cl.getDeclaredMethod(name, parameterTypes);
+         return true;
+      } catch (NoSuchMethodException e) {
+         return false;
+      }
+   }
+
+   /**
+    * @return the dispatch plan for publications of an event class, rebuilt if the subscriptions or cache settings
+    * changed or a weakly referenced subscriber was garbage collected since it was built, or null if there are too
+    * many classes to keep a plan for each
+    */
+   private DispatchPlan getDispatchPlan(Class eventClass) {
+      DispatchPlan plan = classDispatchPlans.get(eventClass);
+      if (plan == null || plan.stale || plan.version != subscriptionVersion) {
+         if (plan == null && classDispatchPlans.size() >= MAX_CLASS_DISPATCH_PLANS) {
+            return null;
+         }
+         synchronized (listenerLock) {
+            plan = createDispatchPlan(eventClass, getWeakClassReferents(eventClass));
+            classDispatchPlans.put(eventClass, plan);
+         }
+      }
+      return plan;
+   }
+
+   /**
+    * @param weaklySubscribed the referents of the WeakReferences and weak ProxySubscribers subscribed or veto
+    * subscribed to any event class
+    */
+   private DispatchPlan createDispatchPlan(Class eventClass, Map weaklySubscribed) {
+      //These also clean up stale subscribers, which changes the version, so read the version last
+      List subscribers = getSubscribers(eventClass);
+      List vetoSubscribers = getVetoSubscribers(eventClass);
+      boolean fast = vetoSubscribers.isEmpty() && getCacheSizeForEventClass(eventClass) <= 0
+              && getFanOutForEventClass(eventClass) == null;
+      return new DispatchPlan(subscriptionVersion, createDispatchPlanEntries(subscribers, weaklySubscribed),
+              createDispatchPlanEntries(vetoSubscribers, weaklySubscribed), fast);
+   }
+
+   /**
+    * @return the referents of the WeakReferences subscribed or veto subscribed to an event class, its superclasses or
+    * its interfaces, from only the lists that match it
+    */
+   private Map getWeakClassReferents(Class eventClass) {
+      Map weaklySubscribed = new IdentityHashMap();
+      addWeakReferents((List) subscribersByExactEventClass.get(eventClass), weaklySubscribed);
+      addWeakReferents((List) vetoListenersByExactClass.get(eventClass), weaklySubscribed);
+      addHierarchyWeakReferents(subscribersByEventClass, eventClass, weaklySubscribed);
+      addHierarchyWeakReferents(vetoListenersByClass, eventClass, weaklySubscribed);
+      return weaklySubscribed;
+   }
+
+   private void addHierarchyWeakReferents(Map classMap, Class eventClass, Map weaklySubscribed) {
+      for (Iterator iterator = classMap.entrySet().iterator(); iterator.hasNext();) {
+         Map.Entry entry = (Map.Entry) iterator.next();
+         if (((Class) entry.getKey()).isAssignableFrom(eventClass)) {
+            addWeakReferents((List) entry.getValue(), weaklySubscribed);
+         }
+      }
+   }
+
+   /** @return the referents of the WeakReferences subscribed or veto subscribed to any event class, for seal() */
+   private Map getWeakClassReferents() {
+      Map weaklySubscribed = new IdentityHashMap();
+      addAllWeakReferents(subscribersByEventClass, weaklySubscribed);
+      addAllWeakReferents(subscribersByExactEventClass, weaklySubscribed);
+      addAllWeakReferents(vetoListenersByClass, weaklySubscribed);
+      addAllWeakReferents(vetoListenersByExactClass, weaklySubscribed);
+      return weaklySubscribed;
+   }
+
+   /**
+    * @return the dispatch plan for publications on a topic, or null if there are too many topics to keep a plan
+    * for each
+    */
+   private DispatchPlan getDispatchPlan(String topic) {
+      DispatchPlan plan = topicDispatchPlans.get(topic);
+      if (plan == null || plan.stale || plan.version != subscriptionVersion) {
+         if (plan == null && topicDispatchPlans.size() >= MAX_TOPIC_DISPATCH_PLANS) {
+            return null;
+         }
+         synchronized (listenerLock) {
+            plan = createDispatchPlan(topic);
+            topicDispatchPlans.put(topic, plan);
+         }
+      }
+      return plan;
    }
 
-   /** @see EventService#publish(Object) */
-   public void publish(Object event) {
-      if (event == null) {
-         throw new IllegalArgumentException("Cannot publish null event.");
-      }
-      publish(event, null, null, getSubscribers(event.getClass()), getVetoSubscribers(event.getClass()), null);
+   private DispatchPlan createDispatchPlan(String topic) {
+      List subscribers = getSubscribers(topic);
+      List vetoSubscribers = getVetoEventListeners(topic);
+      boolean fast = vetoSubscribers.isEmpty() && getCacheSizeForTopic(topic) <= 0
+              && getFanOutForTopic(topic) == null;
+      Object[] entries = createTopicHandleSlotEntries(subscribers, topic, subscribersByTopic,
+              subscribersByTopicPattern);
+      Object[] vetoEntries = createTopicHandleSlotEntries(vetoSubscribers, topic, vetoListenersByTopic,
+              vetoListenersByTopicPattern);
+      return new DispatchPlan(subscriptionVersion, entries, vetoEntries, fast);
    }
 
-   /** @see EventService#publish(java.lang.reflect.Type, Object)  */
-   public void publish(Type genericType, Object event) {
-      if (genericType == null) {
-         throw new IllegalArgumentException("genericType must not be null.");
+   private void addAllWeakReferents(Map subscriberMap, Map weaklySubscribed) {
+      for (Iterator iterator = subscriberMap.values().iterator(); iterator.hasNext();) {
+         addWeakReferents((List) iterator.next(), weaklySubscribed);
       }
-      if (event == null) {
-         throw new IllegalArgumentException("Cannot publish null event.");
-      }
-      publish(event, null, null, getSubscribers(genericType), null/*getVetoSubscribers(genericType)*/, null);
    }
 
-   /** @see EventService#publish(String,Object) */
-   public void publish(String topicName, Object eventObj) {
-      publish(null, topicName, eventObj, getSubscribers(topicName), getVetoEventListeners(topicName), null);
+   private Object[] createDispatchPlanEntries(List resolvedSubscribers, Map weaklySubscribed) {
+      Object[] result = new Object[resolvedSubscribers.size()];
+      for (int i = 0; i < result.length; i++) {
+         Object subscriber = resolvedSubscribers.get(i);
+         result[i] = weaklySubscribed.containsKey(subscriber) ? new WeakReference(subscriber) : subscriber;
+      }
+      return result;
    }
 
    /**
-    * All publish methods call this method.  Extending classes only have to override this method to handle all
-    * publishing cases.
+    * Publishes through the generated dispatcher of a plan, generating it once the plan has been published through
+    * often enough, or through the plan's array until then.
     *
-    * @param event the event to publish, null if publishing on a topic
-    * @param topic if publishing on a topic, the topic to publish on, else null
-    * @param eventObj if publishing on a topic, the eventObj to publish, else null
-    * @param subscribers the subscribers to publish to - must be a snapshot copy
-    * @param vetoSubscribers the veto subscribers to publish to - must be a snapshot copy.
-    * @param callingStack the stack that called this publication, helpful for reporting errors on other threads
-    * @throws IllegalArgumentException if eh or o is null
+    * @return true if a garbage collected subscriber was found and the plan should be rebuilt
     */
-   protected void publish(final Object event, final String topic, final Object eventObj,
-           final List subscribers, final List vetoSubscribers, StackTraceElement[] callingStack) {
-
-      if (event == null && topic == null) {
-         throw new IllegalArgumentException("Can't publish to null topic/event.");
+   private boolean publishFast(DispatchPlan plan, Object event, String topic, Object eventObj) {
+      RouteDispatcher dispatcher = plan.dispatcher;
+      if (dispatcher == null) {
+         int threshold = routeDispatcherThreshold;
+         if (threshold <= 0 || plan.dispatcherGenerated || ++plan.publications < threshold
+                 || (dispatcher = generateRouteDispatcher(plan, topic != null)) == null) {
+            return publishFast(event, topic, eventObj, plan.subscribers);
+         }
       }
+      return dispatcher.publish(event, topic, eventObj);
+   }
 
-      setStatus(PublicationStatus.Initiated, event, topic, eventObj);
-      //topic or event
-      logEvent(event, topic, eventObj);
-
-      //Check all veto subscribers, if any veto, then don't publish or cache
-      if (checkVetoSubscribers(event, topic, eventObj, vetoSubscribers, callingStack)) {
-         setStatus(PublicationStatus.Vetoed, event, topic, eventObj);
-         return;
-      } else {
-         setStatus(PublicationStatus.Queued, event, topic, eventObj);
+   private RouteDispatcher generateRouteDispatcher(DispatchPlan plan, boolean topicRoute) {
+      synchronized (plan) {
+         if (!plan.dispatcherGenerated) {
+            plan.dispatcher = RouteDispatcherGenerator.generate(this, plan.subscribers, topicRoute);
+            plan.dispatcherGenerated = true;
+         }
+         return plan.dispatcher;
       }
+   }
 
-      addEventToCache(event, topic, eventObj);
+   /** @return the generated dispatcher of the current plan for an event class or topic, if there is one */
+   RouteDispatcher getRouteDispatcher(Object eventClassOrTopic) {
+      DispatchPlan plan = eventClassOrTopic instanceof Class ? classDispatchPlans.get(eventClassOrTopic)
+              : topicDispatchPlans.get(eventClassOrTopic);
+      return plan == null ? null : plan.dispatcher;
+   }
 
-      if (subscribers == null || subscribers.isEmpty()) {
-         if (LOG.isLoggable(Level.DEBUG)) {
-            LOG.debug("No subscribers for event or topic. Event:" + event + ", Topic:" + topic);
+   /**
+    * Calls the subscribers of a dispatch plan or topic handle directly from its array, without allocating, locking,
+    * vetoing, caching or setting the publication status.
+    *
+    * @return true if a garbage collected subscriber was found and the plan should be rebuilt
+    */
+   private boolean publishFast(Object event, String topic, Object eventObj, Object[] subscribers) {
+      boolean stale = false;
+      for (int i = 0; i < subscribers.length; i++) {
+         Object subscriber = subscribers[i];
+         if (subscriber instanceof WeakReference) {
+            subscriber = ((WeakReference) subscriber).get();
+            if (subscriber == null) {
+               stale = true;
+               continue;
+            }
+         } else if (subscriber instanceof ProxySubscriber
+                 && ((ProxySubscriber) subscriber).getProxiedSubscriber() == null) {
+            stale = true;
+            continue;
          }
-      } else {
-         if (LOG.isLoggable(Level.DEBUG)) {
-            LOG.debug("Publishing to subscribers:" + subscribers);
+         if (event != null) {
+            try {
+               ((EventSubscriber) subscriber).onEvent(event);
+            } catch (Throwable e) {
+               handleException(event, e, null, (EventSubscriber) subscriber);
+            }
+         } else {
+            try {
+               ((EventTopicSubscriber) subscriber).onEvent(topic, eventObj);
+            } catch (Throwable e) {
+               onEventException(topic, eventObj, e, null, (EventTopicSubscriber) subscriber);
+            }
          }
-         setStatus(PublicationStatus.Publishing, event, topic, eventObj);
-         for (int i = 0; i < subscribers.size(); i++) {
-            Object eh = subscribers.get(i);
-            if (event != null) {
-               EventSubscriber eventSubscriber = (EventSubscriber) eh;
-               long start = System.currentTimeMillis();
-               try {
-                  eventSubscriber.onEvent(event);
-                  checkTimeLimit(start, event, eventSubscriber, null);
-               } catch (Throwable e) {
-                  checkTimeLimit(start, event, eventSubscriber, null);
-                  handleException(event, e, callingStack, eventSubscriber);
-               }
-            } else {
-               EventTopicSubscriber eventTopicSubscriber = (EventTopicSubscriber) eh;
-               try {
-                  eventTopicSubscriber.onEvent(topic, eventObj);
-               } catch (Throwable e) {
-                  onEventException(topic, eventObj, e, callingStack, eventTopicSubscriber);
+      }
+      return stale;
+   }
+
+   /**
+    * The subscribers and veto subscribers of an event class or topic as of a subscription version, for the
+    * publication fast path, and for every publication once the EventService is sealed.
+    */
+   private static final class DispatchPlan {
+      final int version;
+      final Object[] subscribers;
+      final Object[] vetoSubscribers;
+      final boolean fast;
+      volatile boolean stale;
+      //racy, it only needs to reach the threshold eventually
+      int publications;
+      volatile boolean dispatcherGenerated;
+      volatile RouteDispatcher dispatcher;
+      private final List subscriberList;
+      private final List vetoSubscriberList;
+
+      DispatchPlan(int version, Object[] subscribers, Object[] vetoSubscribers, boolean fast) {
+         this.version = version;
+         this.subscribers = subscribers;
+         this.vetoSubscribers = vetoSubscribers;
+         this.fast = fast;
+         this.subscriberList = TopicHandle.Slots.resolvedListOrNull(subscribers);
+         this.vetoSubscriberList = TopicHandle.Slots.resolvedListOrNull(vetoSubscribers);
+      }
+
+      /** @return the subscribers to publish to, resolving WeakReferences if there are any */
+      List getSubscribers() {
+         return subscriberList != null ? subscriberList : resolve(subscribers);
+      }
+
+      /** @return the veto subscribers to check, resolving WeakReferences if there are any */
+      List getVetoSubscribers() {
+         return vetoSubscriberList != null ? vetoSubscriberList : resolve(vetoSubscribers);
+      }
+
+      private List resolve(Object[] entries) {
+         List result = new ArrayList(entries.length);
+         for (int i = 0; i < entries.length; i++) {
+            Object entry = entries[i];
+            if (entry instanceof WeakReference) {
+               entry = ((WeakReference) entry).get();
+               if (entry == null) {
+                  stale = true;
+                  continue;
                }
+            } else if (entry instanceof ProxySubscriber && ((ProxySubscriber) entry).getProxiedSubscriber() == null) {
+               stale = true;
+               continue;
             }
+            result.add(entry);
          }
+         return result;
       }
-      setStatus(PublicationStatus.Completed, event, topic, eventObj);      
    }
 
    /**
@@ -1159,6 +2753,151 @@ public class ThreadSafeEventService implements EventService {
       }
    }
 
+   /**
+    * Appends an event to the event journal, if there is one and it journals the event or topic.  This method is
+    * called just after the event is cached, after the event passes any veto listeners.  The journal writes
+    * asynchronously, so this does not block on I/O.
+    * <p/>
+    * Using protected visibility to open the journaling to other implementations.
+    *
+    * @param event the event about to be published, null if topic is non-null
+    * @param topic the topic about to be published to, null if the event is non-null
+    * @param eventObj the eventObj about to be published on a topic, null if the event is non-null
+    */
+   protected void addEventToJournal(Object event, String topic, Object eventObj) {
+      EventJournal journal = eventJournal;
+      if (journal != null) {
+         journal.append(event, topic, eventObj);
+      }
+   }
+
+   /**
+    * Adds topic data to the cache slot of a TopicHandle, if the topic is cached.  Falls back to
+    * {@link #addEventToCache(Object, String, Object)} if cache settings changed after the slot was resolved.
+    */
+   private void addTopicDataToCache(TopicHandle.Slots topicSlots, String topic, Object eventObj) {
+      if (topicSlots.version != subscriptionVersion) {
+         addEventToCache(null, topic, eventObj);
+         return;
+      }
+      if (topicSlots.cacheSize <= 0) {
+         return;
+      }
+      synchronized (listenerLock) {
+         if (topicSlots.version != subscriptionVersion) {
+            addEventToCache(null, topic, eventObj);
+            return;
+         }
+         List topicCache = topicSlots.cache;
+         topicCache.add(0, eventObj);
+         while (topicCache.size() > topicSlots.cacheSize) {
+            topicCache.remove(topicCache.size() - 1);
+         }
+      }
+   }
+
+   /**
+    * Returns the current slots of a TopicHandle, rebuilding them if subscriptions or cache settings have changed since
+    * they were built, or if a weakly referenced subscriber was found to be garbage collected.
+    */
+   private TopicHandle.Slots getTopicHandleSlots(TopicHandle handle) {
+      TopicHandle.Slots slots = handle.getSlots();
+      if (slots == null || slots.stale || slots.version != subscriptionVersion) {
+         synchronized (listenerLock) {
+            String topic = handle.getTopic();
+            //These also clean up stale subscribers, which changes the version, so read the version last
+            List subscribers = getSubscribers(topic);
+            List vetoSubscribers = getVetoEventListeners(topic);
+            Object[] subscriberSlots = createTopicHandleSlotEntries(subscribers, topic,
+                    subscribersByTopic, subscribersByTopicPattern);
+            Object[] vetoSlots = createTopicHandleSlotEntries(vetoSubscribers, topic,
+                    vetoListenersByTopic, vetoListenersByTopicPattern);
+            int cacheSize = getCacheSizeForTopic(topic);
+            List topicCache = null;
+            if (cacheSize > 0) {
+               topicCache = cacheByTopic.get(topic);
+               if (topicCache == null) {
+                  topicCache = new LinkedList();
+                  cacheByTopic.put(topic, topicCache);
+               }
+            }
+            slots = new TopicHandle.Slots(subscriptionVersion, subscriberSlots, vetoSlots, cacheSize, topicCache);
+            handle.setSlots(slots);
+         }
+      }
+      return slots;
+   }
+
+   /**
+    * Turns the resolved (hard referenced) subscribers of a topic back into WeakReferences for those subscribers that
+    * are only weakly subscribed to the topic or one of the patterns that match it so that a TopicHandle does not keep
+    * them from being garbage collected.
+    */
+   private Object[] createTopicHandleSlotEntries(List resolvedSubscribers, String topic, Map byTopic, Map byPattern) {
+      Map weaklySubscribed = new IdentityHashMap();
+      addWeakReferents((List) byTopic.get(topic), weaklySubscribed);
+      for (Iterator iterator = byPattern.keySet().iterator(); iterator.hasNext();) {
+         PatternWrapper patternKey = (PatternWrapper) iterator.next();
+         if (patternKey.matches(topic)) {
+            addWeakReferents((List) byPattern.get(patternKey), weaklySubscribed);
+         }
+      }
+      Object[] result = new Object[resolvedSubscribers.size()];
+      for (int i = 0; i < result.length; i++) {
+         Object subscriber = resolvedSubscribers.get(i);
+         if (weaklySubscribed.containsKey(subscriber)) {
+            result[i] = new WeakReference(subscriber);
+         } else {
+            result[i] = subscriber;
+         }
+      }
+      return result;
+   }
+
+   private void addWeakReferents(List subscribers, Map weaklySubscribed) {
+      if (subscribers == null) {
+         return;
+      }
+      for (int i = 0; i < subscribers.size(); i++) {
+         Object subscriber = subscribers.get(i);
+         if (subscriber instanceof WeakReference) {
+            Object referent = ((WeakReference) subscriber).get();
+            if (referent != null) {
+               weaklySubscribed.put(referent, Boolean.TRUE);
+            }
+         }
+      }
+   }
+
+   /**
+    * Called whenever the subscriptions or cache settings change so that anything precomputed from them, such as
+    * {@link TopicHandle} slots, is recomputed before it is used again.
+    */
+   private void subscriptionsChanged() {
+      synchronized (listenerLock) {
+         if (registrationBatchDepth > 0) {
+            subscriptionsChangedInBatch = true;
+         } else {
+            incrementSubscriptionVersion();
+         }
+      }
+   }
+
+   /**
+    * Bumps the subscription version and drops the dispatch plans built for the previous one, so that plans of
+    * classes and topics that are not published again don't keep unsubscribed subscribers, or their classes, reachable.
+    * Called while holding the listener lock, which plans are also put under.
+    */
+   private void incrementSubscriptionVersion() {
+      subscriptionVersion++;
+      if (!classDispatchPlans.isEmpty()) {
+         classDispatchPlans.clear();
+      }
+      if (!topicDispatchPlans.isEmpty()) {
+         topicDispatchPlans.clear();
+      }
+   }
+
    /** @see EventService#getSubscribers(Class) */
    public <T> List<T> getSubscribers(Class<T> eventClass) {
       List hierarchyMatches;
@@ -1512,7 +3251,7 @@ public class ThreadSafeEventService implements EventService {
           */
    }
 
-   private void checkTimeLimit(long start, Object event, EventSubscriber subscriber, VetoEventListener l) {
+   void checkTimeLimit(long start, Object event, EventSubscriber subscriber, VetoEventListener l) {
       if (timeThresholdForEventTimingEventPublication == null) {
          return;
       }
@@ -1570,6 +3309,7 @@ public class ThreadSafeEventService implements EventService {
             ((ProxySubscriber)toRemove).proxyUnsubscribed();
             decWeakRefPlusProxySubscriberCount();
          }
+         subscriptionsChanged();
          return true;
       }
 
@@ -1591,10 +3331,12 @@ public class ThreadSafeEventService implements EventService {
                //clean up a garbage collected reference
                iter.remove();
                decWeakRefPlusProxySubscriberCount();
+               subscriptionsChanged();
                return true;
             } else if (realRef == toRemove) {
                iter.remove();
                decWeakRefPlusProxySubscriberCount();
+               subscriptionsChanged();
                return true;
             } else if (realRef instanceof ProxySubscriber) {
                ProxySubscriber proxy = (ProxySubscriber) realRef;
@@ -1638,6 +3380,7 @@ public class ThreadSafeEventService implements EventService {
                //Was reclaimed, unsubscribe
                iter.remove();
                decWeakRefPlusProxySubscriberCount();
+               subscriptionsChanged();
             } else {
                copyOfSubscribersOrVetolisteners.add(hardRef);
             }
@@ -1648,6 +3391,25 @@ public class ThreadSafeEventService implements EventService {
       return copyOfSubscribersOrVetolisteners;
    }
 
+   /**
+    * Sets the journal that durably records the event classes and topics it selects, default is null (no journaling).
+    * Unlike the cache, the journal survives restarts and subscribers can replay it from an offset or a timestamp.
+    * The journal appends published events after they pass any veto subscribers, in the order they are published.
+    * It serializes them later on its writer thread, so events and payloads changed after publication are journaled
+    * with the changes.
+    *
+    * @param eventJournal the journal to append to, or null to stop journaling.  Setting a journal does not close the
+    * previous one.
+    */
+   public void setEventJournal(EventJournal eventJournal) {
+      this.eventJournal = eventJournal;
+   }
+
+   /** @return the journal published events are appended to, or null if there is none */
+   public EventJournal getEventJournal() {
+      return eventJournal;
+   }
+
    /**
     * Sets the default cache size for each kind of event, default is 0 (no caching).
     * <p/>
@@ -1664,6 +3426,7 @@ public class ThreadSafeEventService implements EventService {
       synchronized (cacheLock) {
          this.defaultCacheSizePerClassOrTopic = defaultCacheSizePerClassOrTopic;
       }
+      subscriptionsChanged();
    }
 
    /** @return the default number of event payloads kept per event class or topic */
@@ -1698,6 +3461,7 @@ public class ThreadSafeEventService implements EventService {
          rawCacheSizesForEventClass.put(eventClass, new Integer(cacheSize));
          rawCacheSizesForEventClassChanged = true;
       }
+      subscriptionsChanged();
    }
 
    /**
@@ -1779,6 +3543,7 @@ public class ThreadSafeEventService implements EventService {
          rawCacheSizesForTopic.put(topicName, new Integer(cacheSize));
          rawCacheSizesForTopicChanged = true;
       }
+      subscriptionsChanged();
    }
 
    /**
@@ -1803,6 +3568,7 @@ public class ThreadSafeEventService implements EventService {
          rawCacheSizesForPattern.put(patternWrapper, new Integer(cacheSize));
          rawCacheSizesForPatternChanged = true;
       }
+      subscriptionsChanged();
    }
 
    /**
@@ -1832,7 +3598,9 @@ public class ThreadSafeEventService implements EventService {
          }
          if (rawCacheSizesForTopicChanged || rawCacheSizesForPatternChanged) {
             cacheSizesForTopic.clear();
-            cacheSizesForTopic.putAll(rawCacheSizesForTopic);
+            if (rawCacheSizesForTopic != null) {
+               cacheSizesForTopic.putAll(rawCacheSizesForTopic);
+            }
             rawCacheSizesForTopicChanged = false;
             rawCacheSizesForPatternChanged = false;
          }
@@ -1859,6 +3627,74 @@ public class ThreadSafeEventService implements EventService {
       }
    }
 
+   /** @see EventService#setFanOutForEventClass(Class,FanOut) */
+   public void setFanOutForEventClass(Class eventClass, FanOut fanOut) {
+      if (eventClass == null) {
+         throw new IllegalArgumentException("eventClass must not be null.");
+      }
+      if (fanOut == null) {
+         fanOutsByEventClass.remove(eventClass);
+      } else {
+         fanOutsByEventClass.put(eventClass, fanOut);
+      }
+      hasFanOuts = !fanOutsByEventClass.isEmpty() || !fanOutsByTopic.isEmpty();
+      subscriptionsChanged();
+   }
+
+   /** @see EventService#getFanOutForEventClass(Class) */
+   public FanOut getFanOutForEventClass(Class eventClass) {
+      if (eventClass == null) {
+         throw new IllegalArgumentException("eventClass must not be null.");
+      }
+      if (fanOutsByEventClass.isEmpty()) {
+         return null;
+      }
+      for (Class cl = eventClass; cl != null; cl = cl.getSuperclass()) {
+         FanOut fanOut = fanOutsByEventClass.get(cl);
+         if (fanOut != null) {
+            return fanOut;
+         }
+      }
+      Class[] interfaces = eventClass.getInterfaces();
+      for (int i = 0; i < interfaces.length; i++) {
+         FanOut fanOut = fanOutsByEventClass.get(interfaces[i]);
+         if (fanOut != null) {
+            return fanOut;
+         }
+      }
+      return null;
+   }
+
+   /** @see EventService#setFanOutForTopic(String,FanOut) */
+   public void setFanOutForTopic(String topic, FanOut fanOut) {
+      if (topic == null) {
+         throw new IllegalArgumentException("topic must not be null.");
+      }
+      if (fanOut == null) {
+         fanOutsByTopic.remove(topic);
+      } else {
+         fanOutsByTopic.put(topic, fanOut);
+      }
+      hasFanOuts = !fanOutsByEventClass.isEmpty() || !fanOutsByTopic.isEmpty();
+      subscriptionsChanged();
+   }
+
+   /** @see EventService#getFanOutForTopic(String) */
+   public FanOut getFanOutForTopic(String topic) {
+      if (topic == null) {
+         throw new IllegalArgumentException("topic must not be null.");
+      }
+      return fanOutsByTopic.get(topic);
+   }
+
+   /** @return the FanOut of a publication, or null to deliver it sequentially on the publishing thread */
+   private FanOut getFanOut(Object event, String topic) {
+      if (!hasFanOuts) {
+         return null;
+      }
+      return event != null ? getFanOutForEventClass(event.getClass()) : getFanOutForTopic(topic);
+   }
+
    /**
     * @param eventClass an index into the cache, cannot be an interface
     *
@@ -1941,6 +3777,7 @@ public class ThreadSafeEventService implements EventService {
             }
          }
       }
+      subscriptionsChanged();
    }
 
    /**
@@ -1952,6 +3789,7 @@ public class ThreadSafeEventService implements EventService {
       synchronized (cacheLock) {
          cacheByTopic.remove(topic);
       }
+      subscriptionsChanged();
    }
 
    /**
@@ -1969,6 +3807,7 @@ public class ThreadSafeEventService implements EventService {
             }
          }
       }
+      subscriptionsChanged();
    }
 
    /** Clear all event caches for all topics and event. */
@@ -1977,40 +3816,198 @@ public class ThreadSafeEventService implements EventService {
          cacheByEvent.clear();
          cacheByTopic.clear();
       }
+      subscriptionsChanged();
    }
 
-   /** Called during veto exceptions, calls handleException */
+   /** Called during veto exceptions, calls the SubscriberExceptionHandler or handleException */
    protected void subscribeVetoException(final Object event, final String topic, final Object eventObj,
            Throwable e, StackTraceElement[] callingStack, VetoEventListener vetoer) {
-      String str = "EventService veto event listener r:" + vetoer;
-      if (vetoer != null) {
-         str = str + ".  Vetoer class:" + vetoer.getClass();
-      }
-      handleException("vetoing", event, topic, eventObj, e, callingStack, str);
+      dispatchException(new SubscriberExceptionContext(this, "vetoing", event, topic, eventObj, e, callingStack,
+              deliveryCallSite(callingStack), vetoer, "EventService veto event listener r:"));
    }
 
-   /** Called during event handling exceptions, calls handleException */
+   /** Called during event handling exceptions, calls the SubscriberExceptionHandler or handleException */
    protected void onEventException(final String topic, final Object eventObj, Throwable e,
            StackTraceElement[] callingStack, EventTopicSubscriber eventTopicSubscriber) {
-      String str = "EventService topic subscriber:" + eventTopicSubscriber;
-      if (eventTopicSubscriber != null) {
-         str = str + ".  Subscriber class:" + eventTopicSubscriber.getClass();
-      }
-      handleException("handling event", null, topic, eventObj, e, callingStack, str);
+      dispatchException(new SubscriberExceptionContext(this, "handling event", null, topic, eventObj, e, callingStack,
+              deliveryCallSite(callingStack), eventTopicSubscriber, "EventService topic subscriber:"));
    }
 
-   /** Called during event handling exceptions, calls handleException */
+   /** Called during event handling exceptions, calls the SubscriberExceptionHandler or handleException */
    protected void handleException(final Object event, Throwable e,
            StackTraceElement[] callingStack, EventSubscriber eventSubscriber) {
-      String str = "EventService subscriber:" + eventSubscriber;
-      if (eventSubscriber != null) {
-         str = str + ".  Subscriber class:" + eventSubscriber.getClass();
+      dispatchException(new SubscriberExceptionContext(this, "handling event topic", event, null, null, e,
+              callingStack, deliveryCallSite(callingStack), eventSubscriber, "EventService subscriber:"));
+   }
+
+   /**
+    * Passes a subscriber exception to the SubscriberExceptionHandler if one is set, otherwise to
+    * {@link #handleException(String, Object, String, Object, Throwable, StackTraceElement[], String)}.  Unless a
+    * subclass overrides that method, nothing is formatted when WARN logging is off.
+    */
+   private void dispatchException(SubscriberExceptionContext context) {
+      SubscriberExceptionHandler handler = subscriberExceptionHandler;
+      if (handler != null) {
+         handler.handleException(context);
+      } else if (handleExceptionOverridden || LOG.isLoggable(Level.WARN)) {
+         handleException(context);
+      }
+   }
+
+   private void handleException(SubscriberExceptionContext context) {
+      handleException(context.getAction(), context.getEvent(), context.getTopic(), context.getEventObj(), context.getThrowable(),
+              context.getCallingStack(), context.getSourceDescription());
+   }
+
+   /**
+    * Sets the strategy that handles exceptions thrown by subscribers and veto subscribers, instead of
+    * {@link #handleException(String, Object, String, Object, Throwable, StackTraceElement[], String)}.
+    *
+    * @param subscriberExceptionHandler the handler, or null to log a warning for each exception, the default
+    *
+    * @see ThrottlingSubscriberExceptionHandler
+    */
+   public void setSubscriberExceptionHandler(SubscriberExceptionHandler subscriberExceptionHandler) {
+      this.subscriberExceptionHandler = subscriberExceptionHandler;
+   }
+
+   /** @return the strategy that handles exceptions thrown by subscribers, null if they are logged */
+   public SubscriberExceptionHandler getSubscriberExceptionHandler() {
+      return subscriberExceptionHandler;
+   }
+
+   /**
+    * Sets whether and how often the call site of a publication is recorded when the publication is delivered on
+    * another thread, so that a subscriber exception on that thread carries the publisher's stack.
+    *
+    * @param callSiteCapture the capture mode, {@link CallSiteCapture#NONE} by default
+    */
+   public void setCallSiteCapture(CallSiteCapture callSiteCapture) {
+      if (callSiteCapture == null) {
+         throw new IllegalArgumentException("Call site capture must not be null, use CallSiteCapture.NONE");
+      }
+      this.callSiteCapture = callSiteCapture;
+   }
+
+   /** @return the capture mode for the call sites of publications delivered on another thread */
+   public CallSiteCapture getCallSiteCapture() {
+      return callSiteCapture;
+   }
+
+   /**
+    * Records the current call site, if the capture mode samples this publication, before a publication is handed to
+    * another thread.
+    *
+    * @return the call site, or null
+    */
+   CallSiteCapture.CallSite captureCallSite() {
+      return callSiteCapture.capture();
+   }
+
+   /**
+    * Makes a call site the one reported for subscriber exceptions on the current thread, while a publication handed
+    * over from another thread is delivered.
+    *
+    * @return the previous call site, to pass to {@link #exitCallSite(CallSiteCapture.CallSite)}
+    */
+   static CallSiteCapture.CallSite enterCallSite(CallSiteCapture.CallSite callSite) {
+      CallSiteCapture.CallSite previous = DELIVERY_CALL_SITE.get();
+      DELIVERY_CALL_SITE.set(callSite);
+      return previous;
+   }
+
+   /** Restores the call site that was current before {@link #enterCallSite(CallSiteCapture.CallSite)} */
+   static void exitCallSite(CallSiteCapture.CallSite previous) {
+      DELIVERY_CALL_SITE.set(previous);
+   }
+
+   /** @return the call site of the publication being delivered on this thread if there is no calling stack */
+   private static CallSiteCapture.CallSite deliveryCallSite(StackTraceElement[] callingStack) {
+      return callingStack == null ? DELIVERY_CALL_SITE.get() : null;
+   }
+
+   /** @return true if the class overrides the handleException method that formats and logs exceptions */
+   private static boolean overridesHandleException(Class serviceClass) {
+      for (Class cl = serviceClass; cl != ThreadSafeEventService.class; cl = cl.getSuperclass()) {
+         if (declares(cl, "handleException", new Class[]{String.class, Object.class, String.class, Object.class,
+                 Throwable.class, StackTraceElement[].class, String.class})) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Unsubscribes a subscriber or veto subscriber from every event class, type, topic and pattern, and takes it out
+    * of every consumer group, for quarantining subscribers that keep throwing.
+    *
+    * @return true if it was subscribed to anything
+    */
+   boolean unsubscribeEverywhere(Object subscriber) {
+      boolean unsubscribed = false;
+      synchronized (listenerLock) {
+         Map[] maps = {subscribersByEventType, subscribersByEventClass, subscribersByExactEventClass,
+                 subscribersByTopic, subscribersByTopicPattern, vetoListenersByClass, vetoListenersByExactClass,
+                 vetoListenersByTopic, vetoListenersByTopicPattern};
+         for (int i = 0; i < maps.length; i++) {
+            for (Iterator iterator = new ArrayList(maps[i].keySet()).iterator(); iterator.hasNext();) {
+               Object key = iterator.next();
+               while (removeFromSetResolveWeakReferences(maps[i], key, subscriber)) {
+                  unsubscribed = true;
+               }
+            }
+         }
+         unsubscribed |= leaveConsumerGroups(subscribersByEventClass, subscriber);
+         unsubscribed |= leaveConsumerGroups(subscribersByExactEventClass, subscriber);
+         unsubscribed |= leaveConsumerGroups(subscribersByTopic, subscriber);
+         unsubscribed |= leaveConsumerGroups(subscribersByTopicPattern, subscriber);
+         for (Iterator iterator = new ArrayList(filteredSubscribersByEventClass.keySet()).iterator();
+              iterator.hasNext();) {
+            unsubscribed |= unsubscribeFiltered(iterator.next(), filteredSubscribersByEventClass, subscriber);
+         }
+         for (Iterator iterator = new ArrayList(filteredSubscribersByTopic.keySet()).iterator();
+              iterator.hasNext();) {
+            unsubscribed |= unsubscribeFiltered(iterator.next(), filteredSubscribersByTopic, subscriber);
+         }
+      }
+      return unsubscribed;
+   }
+
+   /**
+    * Takes a subscriber out of the consumer groups subscribed in a map, and unsubscribes the groups it leaves empty.
+    *
+    * @return true if it was a member of any of them
+    */
+   private boolean leaveConsumerGroups(Map subscriberMap, Object subscriber) {
+      List left = null;
+      for (Iterator lists = subscriberMap.values().iterator(); lists.hasNext();) {
+         List subscribers = (List) lists.next();
+         for (int i = 0; i < subscribers.size(); i++) {
+            Object entry = subscribers.get(i);
+            if (entry instanceof ConsumerGroupSubscriber
+                    && ((ConsumerGroupSubscriber) entry).removeSubscriber(subscriber)) {
+               if (left == null) {
+                  left = new ArrayList();
+               }
+               left.add(entry);
+            }
+         }
+      }
+      if (left == null) {
+         return false;
+      }
+      for (int i = 0; i < left.size(); i++) {
+         ConsumerGroupSubscriber groupSubscriber = (ConsumerGroupSubscriber) left.get(i);
+         if (groupSubscriber.size() == 0) {
+            removeEmptyConsumerGroup(groupSubscriber);
+         }
       }
-      handleException("handling event topic", event, null, null, e, callingStack, str);
+      return true;
    }
 
    /**
-    * All exception handling goes through this method.  Logs a warning by default.
+    * All exception handling goes through this method, unless a {@link SubscriberExceptionHandler} is set.  Logs a
+    * warning by default.
     */
    protected void handleException(final String action, final Object event, final String topic,
            final Object eventObj, Throwable e, StackTraceElement[] callingStack, String sourceString) {
@@ -2049,6 +4046,7 @@ public class ThreadSafeEventService implements EventService {
          if (existingSubscriber == null) {
             iterator.remove();
             decWeakRefPlusProxySubscriberCount();
+            subscriptionsChanged();
          }         
       }
       if (existingSubscriber instanceof ProxySubscriber) {
@@ -2065,6 +4063,7 @@ public class ThreadSafeEventService implements EventService {
       iter.remove();
       proxy.proxyUnsubscribed();
       decWeakRefPlusProxySubscriberCount();
+      subscriptionsChanged();
    }
 
    /**
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * A {@link SubscriberExceptionHandler} for subscribers that may throw on every publication.
+ * <ul>
+ * <li>Logs at most one warning per subscriber per log interval.  The next warning reports how many were suppressed,
+ * and nothing is formatted for the suppressed ones, or for any of them when WARN logging is off.
+ * <li>Counts exceptions, in total and per subscriber, for metrics.
+ * <li>Optionally quarantines a subscriber, unsubscribing it from everything, when it throws a number of times within
+ * a window.
+ * </ul>
+ * Subscribers are counted by identity and held weakly, so they are not kept from being garbage collected.  A
+ * ProxySubscriber, such as one for an annotated method, is counted as the object it proxies, since that is what a
+ * quarantine unsubscribes.  Proxies can't be hashed, and their subscribers' equals() and hashCode() aren't used.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class ThrottlingSubscriberExceptionHandler implements SubscriberExceptionHandler {
+   /** The log interval of the no-argument constructor, {@value} milliseconds */
+   public static final long DEFAULT_LOG_INTERVAL_MS = 1000;
+
+   private static final Logger LOG = Logger.getLogger(EventService.class.getName());
+
+   private final long logIntervalNanos;
+   private final int quarantineThreshold;
+   private final long quarantineWindowNanos;
+   //guarded by itself
+   private final Map<SubscriberKey, Counts> countsBySubscriber = new HashMap<SubscriberKey, Counts>();
+   private final ReferenceQueue<Object> collectedSubscribers = new ReferenceQueue<Object>();
+   private final AtomicLong exceptionCount = new AtomicLong();
+   private final AtomicLong suppressedCount = new AtomicLong();
+   private final AtomicLong quarantinedCount = new AtomicLong();
+
+   /** Logs at most once a second per subscriber and never quarantines. */
+   public ThrottlingSubscriberExceptionHandler() {
+      this(DEFAULT_LOG_INTERVAL_MS, 0, 0);
+   }
+
+   /**
+    * @param logIntervalMS the minimum time between warnings for the same subscriber, 0 logs every exception
+    * @param quarantineThreshold the number of exceptions within the quarantine window that gets a subscriber
+    * unsubscribed, 0 never quarantines
+    * @param quarantineWindowMS the window the quarantine threshold is counted in
+    */
+   public ThrottlingSubscriberExceptionHandler(long logIntervalMS, int quarantineThreshold, long quarantineWindowMS) {
+      if (logIntervalMS < 0) {
+         throw new IllegalArgumentException("Log interval must not be negative, was " + logIntervalMS);
+      }
+      if (quarantineThreshold < 0) {
+         throw new IllegalArgumentException("Quarantine threshold must not be negative, was " + quarantineThreshold);
+      }
+      if (quarantineThreshold > 0 && quarantineWindowMS <= 0) {
+         throw new IllegalArgumentException("Quarantine window must be positive, was " + quarantineWindowMS);
+      }
+      this.logIntervalNanos = logIntervalMS * 1000000L;
+      this.quarantineThreshold = quarantineThreshold;
+      this.quarantineWindowNanos = quarantineWindowMS * 1000000L;
+   }
+
+   public void handleException(SubscriberExceptionContext context) {
+      exceptionCount.incrementAndGet();
+      long now = System.nanoTime();
+      boolean log;
+      long suppressed = 0;
+      boolean quarantine = false;
+      synchronized (countsBySubscriber) {
+         removeCollectedSubscribers();
+         Object subscriber = getCountedSubscriber(context.getSubscriber());
+         Counts counts = countsBySubscriber.get(new SubscriberKey(subscriber, null));
+         if (counts == null) {
+            counts = new Counts();
+            countsBySubscriber.put(new SubscriberKey(subscriber, collectedSubscribers), counts);
+            log = true;
+         } else {
+            log = now - counts.lastLoggedNanos >= logIntervalNanos;
+         }
+         counts.total++;
+         if (log) {
+            suppressed = counts.suppressed;
+            counts.suppressed = 0;
+            counts.lastLoggedNanos = now;
+         } else {
+            counts.suppressed++;
+         }
+         if (quarantineThreshold > 0) {
+            if (counts.windowCount == 0 || now - counts.windowStartNanos > quarantineWindowNanos) {
+               counts.windowStartNanos = now;
+               counts.windowCount = 0;
+            }
+            counts.windowCount++;
+            quarantine = counts.windowCount >= quarantineThreshold;
+            if (quarantine) {
+               counts.windowCount = 0;
+            }
+         }
+      }
+      if (!log) {
+         suppressedCount.incrementAndGet();
+      } else if (LOG.isLoggable(Level.WARN)) {
+         String message = "Exception thrown by;" + context.getSourceDescription();
+         if (suppressed > 0) {
+            message = message + " (" + suppressed + " more exceptions from it were not logged)";
+         }
+         LOG.log(Level.WARN, message, context.toSwingException());
+      }
+      if (quarantine && context.quarantine()) {
+         quarantinedCount.incrementAndGet();
+         if (LOG.isLoggable(Level.WARN)) {
+            LOG.log(Level.WARN, "Quarantined after " + quarantineThreshold + " exceptions, unsubscribed "
+                    + context.getSourceDescription());
+         }
+      }
+   }
+
+   /** @return the number of exceptions handled */
+   public long getExceptionCount() {
+      return exceptionCount.get();
+   }
+
+   /**
+    * @param subscriber a subscriber, as passed to the handler, or the object a ProxySubscriber proxies
+    * @return the number of exceptions the subscriber threw, including those of all the proxies for it
+    */
+   public long getExceptionCount(Object subscriber) {
+      synchronized (countsBySubscriber) {
+         Counts counts = countsBySubscriber.get(new SubscriberKey(getCountedSubscriber(subscriber), null));
+         return counts == null ? 0 : counts.total;
+      }
+   }
+
+   /** @return the number of exceptions that were not logged because of the log interval */
+   public long getSuppressedCount() {
+      return suppressedCount.get();
+   }
+
+   /** @return the number of times a subscriber was quarantined */
+   public long getQuarantinedCount() {
+      return quarantinedCount.get();
+   }
+
+   /** @return the object a ProxySubscriber proxies, or the subscriber if it is not a proxy or the object is gone */
+   private static Object getCountedSubscriber(Object subscriber) {
+      if (subscriber instanceof ProxySubscriber) {
+         Object proxied = ((ProxySubscriber) subscriber).getProxiedSubscriber();
+         if (proxied != null) {
+            return proxied;
+         }
+      }
+      return subscriber;
+   }
+
+   /** Forgets the counts of subscribers that were garbage collected.  Called while holding countsBySubscriber. */
+   private void removeCollectedSubscribers() {
+      Object collected;
+      while ((collected = collectedSubscribers.poll()) != null) {
+         countsBySubscriber.remove(collected);
+      }
+   }
+
+   /** A weak reference to a subscriber that is equal to references to the same subscriber. */
+   private static final class SubscriberKey extends WeakReference<Object> {
+      private final int hash;
+
+      SubscriberKey(Object subscriber, ReferenceQueue<Object> queue) {
+         super(subscriber, queue);
+         hash = System.identityHashCode(subscriber);
+      }
+
+      public int hashCode() {
+         return hash;
+      }
+
+      public boolean equals(Object obj) {
+         if (obj == this) {
+            return true;
+         }
+         if (!(obj instanceof SubscriberKey)) {
+            return false;
+         }
+         return get() == ((SubscriberKey) obj).get();
+      }
+   }
+
+   private static class Counts {
+      long total;
+      long suppressed;
+      long lastLoggedNanos;
+      long windowStartNanos;
+      int windowCount;
+   }
+}
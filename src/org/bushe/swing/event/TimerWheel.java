@@ -0,0 +1,216 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * A hashed timer wheel that runs any number of timeouts on one thread.  Scheduling and cancelling are O(1), and a
+ * tick only visits the timeouts that hash to its slot, so thousands of pending timeouts cost no more than a few.
+ * Timeouts fire on the tick at or after their deadline, so they are accurate to the tick duration.
+ * <p/>
+ * The thread is started by the first schedule() and exits after it has been idle for a second, so a wheel that is
+ * not used does not hold a thread.  Tasks run on the wheel's thread and should be short.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class TimerWheel {
+   private static final Logger LOG = Logger.getLogger(TimerWheel.class.getName());
+   private static final long IDLE_EXIT_MS = 1000;
+
+   private final String name;
+   private final long tickNanos;
+   private final Timeout[] slots;
+   private final int mask;
+   private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+   private final Object lock = new Object();
+   private Thread worker;
+   private boolean workerIdle;
+   //only touched by the worker thread
+   private long startNanos;
+   private long tick;
+   private int pendingCount;
+
+   /**
+    * @param name the name of the wheel's thread
+    * @param tickMS the tick duration, the resolution of the timeouts
+    * @param slotCount the number of slots, rounded up to a power of two
+    */
+   TimerWheel(String name, long tickMS, int slotCount) {
+      if (tickMS <= 0) {
+         throw new IllegalArgumentException("Tick duration must be positive, was " + tickMS);
+      }
+      if (slotCount <= 0) {
+         throw new IllegalArgumentException("Slot count must be positive, was " + slotCount);
+      }
+      int size = 1;
+      while (size < slotCount) {
+         size <<= 1;
+      }
+      this.name = name;
+      this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMS);
+      this.slots = new Timeout[size];
+      this.mask = size - 1;
+   }
+
+   /**
+    * Runs a task once after a delay.
+    *
+    * @param task the task to run on the wheel's thread
+    * @param delayMS the delay, in milliseconds
+    *
+    * @return the timeout, which can be cancelled
+    */
+   Timeout schedule(Runnable task, long delayMS) {
+      if (task == null) {
+         throw new IllegalArgumentException("Task must not be null");
+      }
+      Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMS)));
+      added.add(timeout);
+      synchronized (lock) {
+         if (worker == null) {
+            worker = new Thread(new Runnable() {
+               public void run() {
+                  work();
+               }
+            }, name);
+            worker.setDaemon(true);
+            worker.start();
+         } else if (workerIdle) {
+            lock.notify();
+         }
+      }
+      return timeout;
+   }
+
+   private void work() {
+      startNanos = System.nanoTime();
+      tick = 0;
+      while (true) {
+         waitForNextTick();
+         tick++;
+         transferAdded();
+         expire();
+         if (pendingCount == 0 && !waitWhileIdle()) {
+            return;
+         }
+      }
+   }
+
+   private void waitForNextTick() {
+      long deadline = startNanos + (tick + 1) * tickNanos;
+      long remaining;
+      while ((remaining = deadline - System.nanoTime()) > 0) {
+         LockSupport.parkNanos(remaining);
+      }
+   }
+
+   /** @return false if the worker should exit */
+   private boolean waitWhileIdle() {
+      synchronized (lock) {
+         if (added.isEmpty()) {
+            workerIdle = true;
+            try {
+               lock.wait(IDLE_EXIT_MS);
+            } catch (InterruptedException e) {
+               //exit below if nothing was scheduled
+            } finally {
+               workerIdle = false;
+            }
+            if (added.isEmpty()) {
+               worker = null;
+               return false;
+            }
+         }
+      }
+      //The wheel is empty, restart the tick count from now
+      startNanos = System.nanoTime();
+      tick = 0;
+      return true;
+   }
+
+   private void transferAdded() {
+      Timeout timeout;
+      while ((timeout = added.poll()) != null) {
+         if (timeout.cancelled) {
+            continue;
+         }
+         long elapsed = timeout.deadline - startNanos;
+         long ticks = elapsed <= 0 ? tick : (elapsed + tickNanos - 1) / tickNanos;
+         if (ticks < tick) {
+            ticks = tick;
+         }
+         timeout.rounds = (ticks - tick) / slots.length;
+         int slot = (int) (ticks & mask);
+         timeout.next = slots[slot];
+         slots[slot] = timeout;
+         pendingCount++;
+      }
+   }
+
+   private void expire() {
+      int slot = (int) (tick & mask);
+      Timeout previous = null;
+      Timeout timeout = slots[slot];
+      while (timeout != null) {
+         Timeout next = timeout.next;
+         boolean due = !timeout.cancelled && timeout.rounds <= 0;
+         if (timeout.cancelled || due) {
+            if (previous == null) {
+               slots[slot] = next;
+            } else {
+               previous.next = next;
+            }
+            timeout.next = null;
+            pendingCount--;
+         } else {
+            timeout.rounds--;
+            previous = timeout;
+         }
+         if (due) {
+            try {
+               timeout.task.run();
+            } catch (Throwable e) {
+               LOG.log(Level.ERROR, "Timer wheel task threw an exception: " + timeout.task, e);
+            }
+         }
+         timeout = next;
+      }
+   }
+
+   /** A scheduled task. */
+   static final class Timeout {
+      private final Runnable task;
+      private final long deadline;
+      private long rounds;
+      private Timeout next;
+      private volatile boolean cancelled;
+
+      private Timeout(Runnable task, long deadline) {
+         this.task = task;
+         this.deadline = deadline;
+      }
+
+      /** Prevents the task from running if it has not run yet. */
+      void cancel() {
+         cancelled = true;
+      }
+   }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+/**
+ * A resolved, interned topic on a {@link ThreadSafeEventService}.
+ * <p/>
+ * Publishing on a topic by name requires the EventService to look up the topic's subscribers, veto subscribers, cache
+ * size and cache on every publication, and to match the topic name against every subscribed Pattern.  For topics that
+ * are published to very often, resolve the topic once with {@link ThreadSafeEventService#resolveTopic(String)} and
+ * publish through the handle:
+ * <pre>
+ * TopicHandle priceTopic = eventService.resolveTopic("Price.IBM");
+ * ...
+ * priceTopic.publish(price);
+ * </pre>
+ * The handle carries a snapshot of the subscribers, veto subscribers (including those matched by Patterns) and cache
+ * slot of its topic.  The snapshot is stamped with the EventService's subscription version, and is transparently
+ * rebuilt on the next publication after any subscription, unsubscription or cache setting changes, so publishing
+ * through a handle is always equivalent to publishing by name.
+ * <p/>
+ * Handles are interned per EventService - resolving the same topic twice returns the same handle as long as the first
+ * is still referenced.  Handles do not hold subscribers strongly, weakly subscribed subscribers can still be garbage
+ * collected while a handle to their topic is held.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see ThreadSafeEventService#resolveTopic(String)
+ * @see ThreadSafeEventService#publish(TopicHandle, Object)
+ */
+public final class TopicHandle {
+   private final String topic;
+   private final ThreadSafeEventService eventService;
+   private volatile Slots slots;
+
+   TopicHandle(String topic, ThreadSafeEventService eventService) {
+      this.topic = topic;
+      this.eventService = eventService;
+   }
+
+   /** @return the topic name this handle was resolved for */
+   public String getTopic() {
+      return topic;
+   }
+
+   /** @return the EventService this handle was resolved on */
+   public ThreadSafeEventService getEventService() {
+      return eventService;
+   }
+
+   /**
+    * Publishes on this handle's topic, equivalent to <code>getEventService().publish(this, eventObj)</code>.
+    *
+    * @param eventObj the payload to publish on the topic
+    */
+   public void publish(Object eventObj) {
+      eventService.publish(this, eventObj);
+   }
+
+   Slots getSlots() {
+      return slots;
+   }
+
+   void setSlots(Slots slots) {
+      this.slots = slots;
+   }
+
+   public String toString() {
+      return "TopicHandle{topic='" + topic + "'}";
+   }
+
+   /**
+    * The precomputed subscriber, veto and cache slots of a handle, immutable once built.  The subscriber arrays hold
+    * WeakReferences for weakly subscribed subscribers and are resolved on each publication, as are weak ProxySubscribers.
+    */
+   static final class Slots {
+      final int version;
+      final Object[] subscribers;
+      final Object[] vetoSubscribers;
+      final List subscriberList;
+      final List vetoSubscriberList;
+      final int cacheSize;
+      final List cache;
+      volatile boolean stale;
+
+      Slots(int version, Object[] subscribers, Object[] vetoSubscribers, int cacheSize, List cache) {
+         this.version = version;
+         this.subscribers = subscribers;
+         this.vetoSubscribers = vetoSubscribers;
+         this.subscriberList = resolvedListOrNull(subscribers);
+         this.vetoSubscriberList = resolvedListOrNull(vetoSubscribers);
+         this.cacheSize = cacheSize;
+         this.cache = cache;
+      }
+
+      /** @return the subscribers to publish to, resolving WeakReferences if there are any */
+      List getSubscribers() {
+         return subscriberList != null ? subscriberList : resolve(subscribers);
+      }
+
+      /** @return the veto subscribers to check, resolving WeakReferences if there are any */
+      List getVetoSubscribers() {
+         return vetoSubscriberList != null ? vetoSubscriberList : resolve(vetoSubscribers);
+      }
+
+      private List resolve(Object[] entries) {
+         List result = new ArrayList(entries.length);
+         for (int i = 0; i < entries.length; i++) {
+            Object entry = entries[i];
+            if (entry instanceof WeakReference) {
+               entry = ((WeakReference) entry).get();
+               if (entry == null) {
+                  //garbage collected, rebuild on the next publication so the service can clean up
+                  stale = true;
+                  continue;
+               }
+            } else if (entry instanceof ProxySubscriber && ((ProxySubscriber) entry).getProxiedSubscriber() == null) {
+               stale = true;
+               continue;
+            }
+            result.add(entry);
+         }
+         return result;
+      }
+
+      /**
+       * @return an immutable list of the entries if none of them are weakly held, so that publication does not
+       * need to copy anything, otherwise null
+       */
+      static List resolvedListOrNull(Object[] entries) {
+         for (int i = 0; i < entries.length; i++) {
+            Object entry = entries[i];
+            if (entry instanceof WeakReference || (entry instanceof ProxySubscriber
+                    && ((ProxySubscriber) entry).getReferenceStrength() == ReferenceStrength.WEAK)) {
+               return null;
+            }
+         }
+         return Collections.unmodifiableList(Arrays.asList(entries));
+      }
+   }
+}
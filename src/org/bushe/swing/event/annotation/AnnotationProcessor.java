@@ -1,8 +1,14 @@
 package org.bushe.swing.event.annotation;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.Arrays;
 
@@ -10,6 +16,11 @@ import org.bushe.swing.event.EventService;
 import org.bushe.swing.event.EventServiceExistsException;
 import org.bushe.swing.event.EventServiceLocator;
 import org.bushe.swing.event.Logger;
+import org.bushe.swing.event.ConsumerGroup;
+import org.bushe.swing.event.EventAttribute;
+import org.bushe.swing.event.RateLimit;
+import org.bushe.swing.event.Subscription;
+import org.bushe.swing.event.ThreadSafeEventService;
 
 /**
  * Enhances classes that use EventService Annotations.
@@ -40,11 +51,17 @@ import org.bushe.swing.event.Logger;
  * Inversion of Control containers, such as Spring or PicoContainer. <li>In the apt tool, though this does not generate
  * code. <li>In a Annotation Processing Tool plugin, when it becomes available. </ul> Support for these other methods
  * are not yet implemented.
+ * <p/>
+ * Subscriptions made on a {@link ThreadSafeEventService} are recorded per instance as {@link Subscription} handles,
+ * so that unprocessing an instance cancels exactly its own subscriptions instead of searching the EventService's
+ * subscribers for each annotated method.
  */
 public class AnnotationProcessor {
 
    protected static final Logger LOG = Logger.getLogger(EventService.class.getName());
 
+   private static final SubscriptionRegistry SUBSCRIPTIONS = new SubscriptionRegistry();
+
    /**
     * Add the appropriate subscribers to one or more EventServices for an instance of a class with
     * EventBus annotations.
@@ -67,6 +84,14 @@ public class AnnotationProcessor {
       if (obj == null) {
          return;
       }
+      if (!add) {
+         List<Subscription> subscriptions = SUBSCRIPTIONS.remove(obj);
+         if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) {
+               subscription.cancel();
+            }
+         }
+      }
       Class cl = obj.getClass();
       Method[] methods = cl.getMethods();
       if (LOG.isLoggable(Logger.Level.DEBUG)) {
@@ -174,8 +199,19 @@ public class AnnotationProcessor {
                  topicPatternAnnotation.referenceStrength(), priority, eventService,
                  topicPattern, pattern, false);
 
-         eventService.subscribeStrongly(pattern, subscriber);
-      } else {
+         RateLimit rateLimit = getRateLimit(topicPatternAnnotation.debounceMS(),
+                 topicPatternAnnotation.throttleMS(), topicPatternAnnotation.sampleMS(), method);
+         if (eventService instanceof ThreadSafeEventService) {
+            ThreadSafeEventService threadSafeEventService = (ThreadSafeEventService) eventService;
+            SUBSCRIPTIONS.add(obj, rateLimit == null
+                    ? threadSafeEventService.subscribeWithHandle(pattern, subscriber, ReferenceStrength.STRONG)
+                    : threadSafeEventService.subscribeWithHandle(pattern, subscriber, rateLimit));
+         } else if (rateLimit == null) {
+            eventService.subscribeStrongly(pattern, subscriber);
+         } else {
+            eventService.subscribe(pattern, subscriber, rateLimit);
+         }
+      } else if (!(eventService instanceof ThreadSafeEventService)) {
          eventService.unsubscribe(pattern, obj);
       }
    }
@@ -202,8 +238,24 @@ public class AnnotationProcessor {
          ProxyTopicSubscriber subscriber = new ProxyTopicSubscriber(obj, method,
                  topicAnnotation.referenceStrength(), priority, eventService, topic, false);
 
-         eventService.subscribeStrongly(topic, subscriber);
-      } else {
+         RateLimit rateLimit = getRateLimit(topicAnnotation.debounceMS(), topicAnnotation.throttleMS(),
+                 topicAnnotation.sampleMS(), method);
+         ConsumerGroup group = getConsumerGroup(topicAnnotation.group(), topicAnnotation.groupStrategy(),
+                 topicAnnotation.groupKey(), rateLimit, eventService, method);
+         if (group != null) {
+            SUBSCRIPTIONS.add(obj, ((ThreadSafeEventService) eventService).subscribeToGroup(topic, subscriber, group,
+                    ReferenceStrength.STRONG));
+         } else if (eventService instanceof ThreadSafeEventService) {
+            ThreadSafeEventService threadSafeEventService = (ThreadSafeEventService) eventService;
+            SUBSCRIPTIONS.add(obj, rateLimit == null
+                    ? threadSafeEventService.subscribeWithHandle(topic, subscriber, ReferenceStrength.STRONG)
+                    : threadSafeEventService.subscribeWithHandle(topic, subscriber, rateLimit));
+         } else if (rateLimit == null) {
+            eventService.subscribeStrongly(topic, subscriber);
+         } else {
+            eventService.subscribe(topic, subscriber, rateLimit);
+         }
+      } else if (!(eventService instanceof ThreadSafeEventService)) {
          eventService.unsubscribe(topic, obj);
       }
    }
@@ -234,7 +286,36 @@ public class AnnotationProcessor {
          //See https://eventbus.dev.java.net/servlets/ProjectForumMessageView?messageID=19499&forumID=1834
          BaseProxySubscriber subscriber = new BaseProxySubscriber(obj, method, annotation.referenceStrength(),
                  priority, eventService, eventClass, false);
-         if (annotation.exact()) {
+         RateLimit rateLimit = getRateLimit(annotation.debounceMS(), annotation.throttleMS(),
+                 annotation.sampleMS(), method);
+         ConsumerGroup group = getConsumerGroup(annotation.group(), annotation.groupStrategy(),
+                 annotation.groupKey(), rateLimit, eventService, method);
+         if (eventService instanceof ThreadSafeEventService) {
+            ThreadSafeEventService threadSafeEventService = (ThreadSafeEventService) eventService;
+            Subscription subscription;
+            if (group != null) {
+               subscription = annotation.exact()
+                       ? threadSafeEventService.subscribeExactlyToGroup(eventClass, subscriber, group, ReferenceStrength.STRONG)
+                       : threadSafeEventService.subscribeToGroup(eventClass, subscriber, group, ReferenceStrength.STRONG);
+            } else if (rateLimit != null) {
+               subscription = annotation.exact()
+                       ? threadSafeEventService.subscribeExactlyWithHandle(eventClass, subscriber, rateLimit)
+                       : threadSafeEventService.subscribeWithHandle(eventClass, subscriber, rateLimit);
+            } else {
+               //Strongly, see Issue #18 below
+               subscription = annotation.exact()
+                       ? threadSafeEventService.subscribeExactlyWithHandle(eventClass, subscriber, ReferenceStrength.STRONG)
+                       : threadSafeEventService.subscribeWithHandle(eventClass, subscriber, ReferenceStrength.STRONG);
+            }
+            SUBSCRIPTIONS.add(obj, subscription);
+         } else if (rateLimit != null) {
+            //The rate limiting proxy holds the subscriber proxy strongly
+            if (annotation.exact()) {
+               eventService.subscribeExactly(eventClass, subscriber, rateLimit);
+            } else {
+               eventService.subscribe(eventClass, subscriber, rateLimit);
+            }
+         } else if (annotation.exact()) {
             //See Issue #18
             //Also note that this post is wrong: https://eventbus.dev.java.net/servlets/ProjectForumMessageView?messageID=19499&forumID=1834
             //Since two WeakReferences are not treated as one.  So this always has to be strong and we'll have to clean up occasionally.
@@ -245,7 +326,7 @@ public class AnnotationProcessor {
             //Since two WeakReferences are not treated as one.  So this always has to be strong and we'll have to clean up occasionally.
             eventService.subscribeStrongly(eventClass, subscriber);
          }
-      } else {
+      } else if (!(eventService instanceof ThreadSafeEventService)) {
          if (annotation.exact()) {
             eventService.unsubscribeExactly(eventClass, obj);
          } else {
@@ -256,6 +337,58 @@ public class AnnotationProcessor {
 
 
 
+   /**
+    * @return the RateLimit set by an annotation's debounceMS, throttleMS or sampleMS attribute, null if none is set
+    * @throws IllegalArgumentException if more than one is set
+    */
+   private static RateLimit getRateLimit(long debounceMS, long throttleMS, long sampleMS, Method method) {
+      RateLimit rateLimit = null;
+      int count = 0;
+      if (debounceMS > 0) {
+         rateLimit = RateLimit.debounce(debounceMS);
+         count++;
+      }
+      if (throttleMS > 0) {
+         rateLimit = RateLimit.throttle(throttleMS);
+         count++;
+      }
+      if (sampleMS > 0) {
+         rateLimit = RateLimit.sample(sampleMS);
+         count++;
+      }
+      if (count > 1) {
+         throw new IllegalArgumentException("Only one of debounceMS, throttleMS and sampleMS can be set, method:" + method);
+      }
+      return rateLimit;
+   }
+
+   /**
+    * @return the ConsumerGroup set by an annotation's group, groupStrategy and groupKey attributes, null if no group
+    * is set
+    * @throws IllegalArgumentException if a rate limit is set too, or the EventService is not a ThreadSafeEventService
+    */
+   private static ConsumerGroup getConsumerGroup(String name, ConsumerGroup.Strategy strategy, String key,
+           RateLimit rateLimit, EventService eventService, Method method) {
+      if (name == null || name.length() == 0) {
+         return null;
+      }
+      if (rateLimit != null) {
+         throw new IllegalArgumentException("A consumer group can't be rate limited, method:" + method);
+      }
+      if (!(eventService instanceof ThreadSafeEventService)) {
+         throw new IllegalArgumentException("Consumer groups require a ThreadSafeEventService, event service:"
+                 + eventService + ", method:" + method);
+      }
+      switch (strategy) {
+         case LEAST_OUTSTANDING:
+            return ConsumerGroup.leastOutstanding(name);
+         case KEY_AFFINITY:
+            return ConsumerGroup.keyAffinity(name, key == null || key.length() == 0 ? null : EventAttribute.property(key));
+         default:
+            return ConsumerGroup.roundRobin(name);
+      }
+   }
+
    private static void process(final RuntimeTopicEventSubscriber annotation, final Object subscriber, final Method method, boolean add) {
        EventTopicSubscriber eventTopicSubscriber = new EventTopicSubscriber() {
            //TODO uncomment when language level is set to 1.6 (2.0) @Override
@@ -283,6 +416,36 @@ public class AnnotationProcessor {
                return getTopic(annotation.methodName(), subscriber, method);
            }
 
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public long debounceMS() {
+               return 0;
+           }
+
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public long throttleMS() {
+               return 0;
+           }
+
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public long sampleMS() {
+               return 0;
+           }
+
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public String group() {
+               return "";
+           }
+
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public ConsumerGroup.Strategy groupStrategy() {
+               return ConsumerGroup.Strategy.ROUND_ROBIN;
+           }
+
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public String groupKey() {
+               return "";
+           }
+
            //TODO uncomment when language level is set to 1.6 (2.0) @Override
            public Class<? extends Annotation> annotationType() {
                return annotation.annotationType();
@@ -323,6 +486,21 @@ public class AnnotationProcessor {
                return getTopic(annotation.methodName(), subscriber, method);
            }
 
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public long debounceMS() {
+               return 0;
+           }
+
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public long throttleMS() {
+               return 0;
+           }
+
+           //TODO uncomment when language level is set to 1.6 (2.0) @Override
+           public long sampleMS() {
+               return 0;
+           }
+
            //TODO uncomment when language level is set to 1.6 (2.0) @Override
            public Class<? extends Annotation> annotationType() {
                return annotation.annotationType();
@@ -355,8 +533,13 @@ public class AnnotationProcessor {
       //Also note that this post is wrong: https://eventbus.dev.java.net/servlets/ProjectForumMessageView?messageID=19499&forumID=1834
       //Since two WeakReferences are not treated as one.  So this always has to be strong and we'll have to clean up occasionally.
       if (add) {
-         eventService.subscribeVetoListenerStrongly(pattern, subscriber);
-      } else {
+         if (eventService instanceof ThreadSafeEventService) {
+            SUBSCRIPTIONS.add(obj, ((ThreadSafeEventService) eventService).subscribeVetoListenerWithHandle(pattern,
+                    subscriber, ReferenceStrength.STRONG));
+         } else {
+            eventService.subscribeVetoListenerStrongly(pattern, subscriber);
+         }
+      } else if (!(eventService instanceof ThreadSafeEventService)) {
          eventService.unsubscribeVeto(pattern, obj);
       }
    }
@@ -383,8 +566,13 @@ public class AnnotationProcessor {
       //Also note that this post is wrong: https://eventbus.dev.java.net/servlets/ProjectForumMessageView?messageID=19499&forumID=1834
       //Since two WeakReferences are not treated as one.  So this always has to be strong and we'll have to clean up occasionally.
       if (add) {
-         eventService.subscribeVetoListenerStrongly(topic, subscriber);
-      } else {
+         if (eventService instanceof ThreadSafeEventService) {
+            SUBSCRIPTIONS.add(obj, ((ThreadSafeEventService) eventService).subscribeVetoListenerWithHandle(topic,
+                    subscriber, ReferenceStrength.STRONG));
+         } else {
+            eventService.subscribeVetoListenerStrongly(topic, subscriber);
+         }
+      } else if (!(eventService instanceof ThreadSafeEventService)) {
          eventService.unsubscribeVeto(topic, obj);
       }
    }
@@ -414,7 +602,15 @@ public class AnnotationProcessor {
       //See https://eventbus.dev.java.net/servlets/ProjectForumMessageView?messageID=19499&forumID=1834
       BaseProxySubscriber subscriber = new BaseProxySubscriber(obj, method, annotation.referenceStrength(),
               priority, eventService, eventClass, true);
-      if (add) {
+      if (add && eventService instanceof ThreadSafeEventService) {
+         //Strongly, see Issue #18 below
+         ThreadSafeEventService threadSafeEventService = (ThreadSafeEventService) eventService;
+         SUBSCRIPTIONS.add(obj, annotation.exact()
+                 ? threadSafeEventService.subscribeVetoListenerExactlyWithHandle(eventClass, subscriber,
+                 ReferenceStrength.STRONG)
+                 : threadSafeEventService.subscribeVetoListenerWithHandle(eventClass, subscriber,
+                 ReferenceStrength.STRONG));
+      } else if (add) {
          if (annotation.exact()) {
             //See Issue #18
             //Also note that this post is wrong: https://eventbus.dev.java.net/servlets/ProjectForumMessageView?messageID=19499&forumID=1834
@@ -426,7 +622,7 @@ public class AnnotationProcessor {
             //Since two WeakReferences are not treated as one.  So this always has to be strong and we'll have to clean up occasionally.
             eventService.subscribeVetoListenerStrongly(eventClass, subscriber);
          }
-      } else {
+      } else if (!(eventService instanceof ThreadSafeEventService)) {
          if (annotation.exact()) {
             eventService.unsubscribeVetoExactly(eventClass, obj);
          } else {
@@ -559,4 +755,60 @@ public class AnnotationProcessor {
       return eventService;
    }
 
+   /**
+    * The Subscription handles of processed instances, by identity.  The instances are held weakly, and the handles do
+    * not hold the subscribers, so an instance that is never unprocessed can still be garbage collected.
+    */
+   private static class SubscriptionRegistry {
+      private final Map<IdentityKey, List<Subscription>> subscriptionsByInstance =
+              new HashMap<IdentityKey, List<Subscription>>();
+      private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+      synchronized void add(Object instance, Subscription subscription) {
+         expungeCollected();
+         IdentityKey key = new IdentityKey(instance, collected);
+         List<Subscription> subscriptions = subscriptionsByInstance.get(key);
+         if (subscriptions == null) {
+            subscriptions = new ArrayList<Subscription>();
+            subscriptionsByInstance.put(key, subscriptions);
+         }
+         subscriptions.add(subscription);
+      }
+
+      synchronized List<Subscription> remove(Object instance) {
+         expungeCollected();
+         return subscriptionsByInstance.remove(new IdentityKey(instance, null));
+      }
+
+      private void expungeCollected() {
+         for (Object key; (key = collected.poll()) != null;) {
+            subscriptionsByInstance.remove(key);
+         }
+      }
+   }
+
+   /** A weak key that is equal only to a key for the same instance */
+   private static class IdentityKey extends WeakReference<Object> {
+      private final int hash;
+
+      IdentityKey(Object instance, ReferenceQueue<Object> queue) {
+         super(instance, queue);
+         hash = System.identityHashCode(instance);
+      }
+
+      public int hashCode() {
+         return hash;
+      }
+
+      public boolean equals(Object obj) {
+         if (this == obj) {
+            return true;
+         }
+         if (!(obj instanceof IdentityKey)) {
+            return false;
+         }
+         Object instance = get();
+         return instance != null && instance == ((IdentityKey) obj).get();
+      }
+   }
 }
@@ -71,10 +71,21 @@ public class BaseProxySubscriber extends AbstractProxySubscriber
          String message = "Exception when invoking annotated method from EventService publication.  Event class:" + event.getClass() + ", Event:" + event + ", subscriber:" + getProxiedSubscriber() + ", subscription Method=" + getSubscriptionMethod();
          retryReflectiveCallUsingAccessibleObject(args, subscriptionMethod, obj, e, message);
       } catch (InvocationTargetException e) {
-         throw new RuntimeException("InvocationTargetException when invoking annotated method from EventService publication.  Event class:" + event.getClass() + ", Event:" + event + ", subscriber:" + getProxiedSubscriber() + ", subscription Method=" + getSubscriptionMethod(), e);
+         throw createInvocationException(event, e);
       }
    }
 
+   /**
+    * @param event the event the annotated method threw on
+    * @param e the exception wrapping what the annotated method threw
+    *
+    * @return the exception onEvent() throws when the annotated method throws, also used for the exceptions of
+    * generated dispatchers that call the method directly
+    */
+   public RuntimeException createInvocationException(Object event, InvocationTargetException e) {
+      return new RuntimeException("InvocationTargetException when invoking annotated method from EventService publication.  Event class:" + event.getClass() + ", Event:" + event + ", subscriber:" + getProxiedSubscriber() + ", subscription Method=" + getSubscriptionMethod(), e);
+   }
+
 
    public boolean shouldVeto(Object event) {
       Object[] args = new Object[]{event};
@@ -32,4 +32,16 @@ public @interface EventTopicPatternSubscriber {
 
    /** Determines the order in which this subscriber is called, default is FIFO.*/
    int priority() default 0;
+
+   /**
+    * Delivers only the latest event once none have been published for this many milliseconds, default is 0, off.
+    * Only one of debounceMS, throttleMS and sampleMS can be set.  See {@link org.bushe.swing.event.RateLimit}.
+    */
+   long debounceMS() default 0;
+
+   /** Delivers the first event immediately, then at most one event per this many milliseconds, default is 0, off. */
+   long throttleMS() default 0;
+
+   /** Delivers the latest event at the end of each period of this many milliseconds, default is 0, off. */
+   long sampleMS() default 0;
 }
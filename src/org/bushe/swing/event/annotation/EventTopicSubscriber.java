@@ -6,6 +6,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.bushe.swing.event.ConsumerGroup;
 import org.bushe.swing.event.EventService;
 import org.bushe.swing.event.EventServiceLocator;
 import org.bushe.swing.event.ThreadSafeEventService;
@@ -105,4 +106,32 @@ public @interface EventTopicSubscriber {
     * service needs to be created, it must have a default constructor.
     */
    Class<? extends EventService> autoCreateEventServiceClass() default ThreadSafeEventService.class;
+
+   /**
+    * Delivers only the latest event once none have been published for this many milliseconds, default is 0, off.
+    * Only one of debounceMS, throttleMS and sampleMS can be set.  See {@link org.bushe.swing.event.RateLimit}.
+    */
+   long debounceMS() default 0;
+
+   /** Delivers the first event immediately, then at most one event per this many milliseconds, default is 0, off. */
+   long throttleMS() default 0;
+
+   /** Delivers the latest event at the end of each period of this many milliseconds, default is 0, off. */
+   long sampleMS() default 0;
+
+   /**
+    * The name of a {@link ConsumerGroup} to join instead of getting every event, default is
+    * "", no group.  Each event is delivered to only one of the group's members.  Requires a ThreadSafeEventService,
+    * and can't be combined with debounceMS, throttleMS or sampleMS.
+    */
+   String group() default "";
+
+   /** How the group picks the member that gets an event, default is round robin. */
+   ConsumerGroup.Strategy groupStrategy() default ConsumerGroup.Strategy.ROUND_ROBIN;
+
+   /**
+    * For a KEY_AFFINITY group, the JavaBean property of the topic data that keys the member, default is "", the data
+    * itself.
+    */
+   String groupKey() default "";
 }
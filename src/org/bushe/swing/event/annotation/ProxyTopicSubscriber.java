@@ -78,10 +78,22 @@ public class ProxyTopicSubscriber extends AbstractProxySubscriber
          String message = "IllegalAccessException when invoking annotated method from EventService publication.  Topic:" + topic + ", data:" + data + ", subscriber:" + getProxiedSubscriber() + ", subscription Method=" + getSubscriptionMethod();
          retryReflectiveCallUsingAccessibleObject(args, subscriptionMethod, obj, e, message);
       } catch (InvocationTargetException e) {
-         throw new RuntimeException("InvocationTargetException when invoking annotated method from EventService publication.  Topic:" + topic + ", data:" + data + ", subscriber:" + getProxiedSubscriber() + ", subscription Method=" + getSubscriptionMethod(), e);
+         throw createInvocationException(topic, data, e);
       }
    }
 
+   /**
+    * @param topic the topic the annotated method threw on
+    * @param data the data the annotated method threw on
+    * @param e the exception wrapping what the annotated method threw
+    *
+    * @return the exception onEvent() throws when the annotated method throws, also used for the exceptions of
+    * generated dispatchers that call the method directly
+    */
+   public RuntimeException createInvocationException(String topic, Object data, InvocationTargetException e) {
+      return new RuntimeException("InvocationTargetException when invoking annotated method from EventService publication.  Topic:" + topic + ", data:" + data + ", subscriber:" + getProxiedSubscriber() + ", subscription Method=" + getSubscriptionMethod(), e);
+   }
+
 
    public boolean shouldVeto(String topic, Object data) {
       Object[] args = new Object[]{topic, data};
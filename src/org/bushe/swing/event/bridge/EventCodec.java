@@ -0,0 +1,50 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns events and topic payloads into bytes to send to another JVM and back.  Implementations must be thread safe,
+ * objects are encoded on the publishing threads.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public interface EventCodec {
+
+   /**
+    * @param object the event or topic payload to encode
+    *
+    * @return the encoded bytes
+    *
+    * @throws IOException if the object cannot be encoded
+    */
+   public byte[] encode(Object object) throws IOException;
+
+   /**
+    * Decodes an object encoded by {@link #encode(Object)}.  The buffer is positioned at the start of the encoded
+    * bytes and limited to their end.  It is only valid during this call, it may be a view of a connection's read
+    * buffer, so it should be read from directly rather than retained.
+    *
+    * @param buffer the encoded bytes
+    *
+    * @return the decoded object
+    *
+    * @throws IOException if the bytes cannot be decoded
+    */
+   public Object decode(ByteBuffer buffer) throws IOException;
+}
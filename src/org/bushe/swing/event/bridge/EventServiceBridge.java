@@ -0,0 +1,488 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import org.bushe.swing.event.EventService;
+import org.bushe.swing.event.Logger;
+import org.bushe.swing.event.Logger.Level;
+import org.bushe.swing.event.SwingEventService;
+
+/**
+ * Bridges an {@link EventService} to EventServices in other JVMs over sockets.
+ * <p/>
+ * The event classes and topics to forward are selected the same way subscriptions are made, with
+ * {@link #forward(Class)}, {@link #forwardExactly(Class)}, {@link #forward(String)} and {@link #forward(Pattern)}.
+ * Selected publications on the local EventService are encoded with the {@link EventCodec} and sent to every
+ * connected peer.  Publications received from peers are decoded and published on the local EventService.  Both ends
+ * of a connection may forward, and any number of peers may {@link #connect(InetSocketAddress) connect} to a bridge
+ * that {@link #listen(InetSocketAddress) listens}:
+ * <pre>
+ * //JVM 1
+ * EventServiceBridge bridge = new EventServiceBridge(EventBus.getGlobalEventService(), new SerializableEventCodec());
+ * bridge.forward(OrderEvent.class);
+ * bridge.listen(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 7777));
+ * //JVM 2
+ * EventServiceBridge bridge = new EventServiceBridge(EventBus.getGlobalEventService(), new SerializableEventCodec());
+ * bridge.forward(Pattern.compile("Price\\..*"));
+ * bridge.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 7777));
+ * </pre>
+ * Publications received from a peer are not forwarded out of the local EventService again, by this or any other
+ * bridge, so a bidirectional bridge that forwards the same classes or topics in both directions does not bounce
+ * publications back and forth.  As a consequence, publications travel one hop only - connect every JVM that needs a
+ * publication directly to the JVM that publishes it.
+ * <p/>
+ * All socket I/O is non-blocking and done on one selector thread per bridge.  Publishing threads only encode the
+ * object and queue it.  The selector thread frames queued publications directly into a direct ByteBuffer per peer
+ * and writes as many as fit with a single write, and reads and decodes frames straight from a direct read buffer.
+ * Received publications are published on the selector thread, or on the Swing event dispatch thread if the local
+ * EventService is a {@link SwingEventService}.
+ * <p/>
+ * Frames are: frame length (int, not including itself), kind (byte, 0 for an event, 1 for a topic), topic length
+ * (int, -1 for an event), topic (UTF-8), encoded object.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class EventServiceBridge {
+   public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+   protected static final Logger LOG = Logger.getLogger(EventServiceBridge.class.getName());
+   private static final byte KIND_EVENT = 0;
+   private static final byte KIND_TOPIC = 1;
+   private static final int FRAME_HEADER_SIZE = 4 + 1 + 4;
+
+   private final EventService eventService;
+   private final EventCodec codec;
+   private final int bufferSize;
+   private final Selector selector;
+   private final Thread selectorThread;
+   private final List<Peer> peers = new CopyOnWriteArrayList<Peer>();
+   private final List<ServerSocketChannel> serverChannels = new CopyOnWriteArrayList<ServerSocketChannel>();
+   private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<Runnable>();
+   private final AtomicBoolean wakeupPending = new AtomicBoolean();
+   private final ForwardingSubscriptions forwarding;
+   private volatile boolean closed;
+
+   /**
+    * Creates a bridge for an EventService with the default buffer size.
+    *
+    * @param eventService the local EventService to forward from and publish received publications on
+    * @param codec encodes and decodes forwarded events and payloads, must be the same kind of codec at all peers
+    *
+    * @throws IOException if a selector cannot be opened
+    */
+   public EventServiceBridge(EventService eventService, EventCodec codec) throws IOException {
+      this(eventService, codec, DEFAULT_BUFFER_SIZE);
+   }
+
+   /**
+    * Creates a bridge for an EventService.
+    *
+    * @param eventService the local EventService to forward from and publish received publications on
+    * @param codec encodes and decodes forwarded events and payloads, must be the same kind of codec at all peers
+    * @param bufferSize the initial size of each connection's read and write buffers, they grow to fit large frames
+    *
+    * @throws IOException if a selector cannot be opened
+    */
+   public EventServiceBridge(EventService eventService, EventCodec codec, int bufferSize) throws IOException {
+      if (eventService == null) {
+         throw new IllegalArgumentException("eventService cannot be null.");
+      }
+      if (codec == null) {
+         throw new IllegalArgumentException("codec cannot be null.");
+      }
+      if (bufferSize < FRAME_HEADER_SIZE) {
+         throw new IllegalArgumentException("bufferSize must be at least " + FRAME_HEADER_SIZE + ", was:" + bufferSize);
+      }
+      this.eventService = eventService;
+      this.codec = codec;
+      this.bufferSize = bufferSize;
+      this.forwarding = new ForwardingSubscriptions(eventService, new ForwardingSubscriptions.Target() {
+         public void forward(Object event, String topic, Object object) {
+            EventServiceBridge.this.forward(event, topic, object);
+         }
+      });
+      this.selector = Selector.open();
+      selectorThread = new Thread(new Runnable() {
+         public void run() {
+            runSelector();
+         }
+      }, "EventServiceBridge selector");
+      selectorThread.setDaemon(true);
+      selectorThread.start();
+   }
+
+   /** @return the local EventService */
+   public EventService getEventService() {
+      return eventService;
+   }
+
+   /** @param eventClass forwards publications of this class and its subclasses and implementations */
+   public void forward(Class eventClass) {
+      forwarding.forward(eventClass);
+   }
+
+   /** @param eventClass forwards publications of exactly this class */
+   public void forwardExactly(Class eventClass) {
+      forwarding.forwardExactly(eventClass);
+   }
+
+   /** @param topic forwards publications on this topic */
+   public void forward(String topic) {
+      forwarding.forward(topic);
+   }
+
+   /** @param topicPattern forwards publications on all topics that match the pattern */
+   public void forward(Pattern topicPattern) {
+      forwarding.forward(topicPattern);
+   }
+
+   /**
+    * Accepts connections from other bridges.
+    *
+    * @param address the address to listen on, use port 0 to pick a free port
+    *
+    * @return the address actually listened on
+    *
+    * @throws IOException if the address cannot be bound
+    */
+   public InetSocketAddress listen(InetSocketAddress address) throws IOException {
+      checkNotClosed();
+      final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+      serverChannel.socket().setReuseAddress(true);
+      serverChannel.socket().bind(address);
+      serverChannel.configureBlocking(false);
+      serverChannels.add(serverChannel);
+      runOnSelectorThread(new Runnable() {
+         public void run() {
+            try {
+               serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+               LOG.log(Level.ERROR, "Could not listen on " + serverChannel.socket().getLocalSocketAddress(), e);
+            }
+         }
+      });
+      return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+   }
+
+   /**
+    * Connects to a bridge that is listening.  Publications forwarded after this method returns are sent to it.
+    *
+    * @param address the address the other bridge listens on
+    *
+    * @throws IOException if the connection cannot be made
+    */
+   public void connect(InetSocketAddress address) throws IOException {
+      checkNotClosed();
+      SocketChannel channel = SocketChannel.open(address);
+      addPeer(channel);
+   }
+
+   /** @return the number of currently connected peers */
+   public int getPeerCount() {
+      return peers.size();
+   }
+
+   /**
+    * Stops forwarding, closes all connections and stops listening.  Frames that were not written yet are dropped.
+    *
+    * @throws InterruptedException if interrupted while waiting for the selector thread to stop
+    */
+   public void close() throws InterruptedException {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      forwarding.unsubscribeAll();
+      selector.wakeup();
+      selectorThread.join();
+   }
+
+   private void checkNotClosed() {
+      if (closed) {
+         throw new IllegalStateException("The bridge is closed.");
+      }
+   }
+
+   private void addPeer(SocketChannel channel) throws IOException {
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      final Peer peer = new Peer(channel);
+      peers.add(peer);
+      runOnSelectorThread(new Runnable() {
+         public void run() {
+            try {
+               peer.key = peer.channel.register(selector, SelectionKey.OP_READ, peer);
+            } catch (IOException e) {
+               closePeer(peer, e);
+            }
+         }
+      });
+   }
+
+   private void runOnSelectorThread(Runnable task) {
+      selectorTasks.add(task);
+      wakeup();
+   }
+
+   private void wakeup() {
+      if (wakeupPending.compareAndSet(false, true)) {
+         selector.wakeup();
+      }
+   }
+
+   /** Encodes a publication on the publishing thread and queues it to be written to all peers. */
+   private void forward(Object event, String topic, Object object) {
+      if (peers.isEmpty()) {
+         return;
+      }
+      OutboundFrame frame;
+      try {
+         frame = new OutboundFrame(topic, codec.encode(object));
+      } catch (IOException e) {
+         LOG.log(Level.WARN, "Could not encode " + (event != null ? "event:" + event
+                 : "payload on topic " + topic + ":" + object) + ", it will not be forwarded.", e);
+         return;
+      }
+      for (Peer peer : peers) {
+         peer.outbound.add(frame);
+      }
+      wakeup();
+   }
+
+   private void runSelector() {
+      while (!closed) {
+         try {
+            selector.select();
+            wakeupPending.set(false);
+            Runnable task;
+            while ((task = selectorTasks.poll()) != null) {
+               task.run();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+               SelectionKey key = keys.next();
+               keys.remove();
+               if (!key.isValid()) {
+                  continue;
+               }
+               if (key.isAcceptable()) {
+                  accept((ServerSocketChannel) key.channel());
+                  continue;
+               }
+               Peer peer = (Peer) key.attachment();
+               try {
+                  if (key.isReadable()) {
+                     read(peer);
+                  }
+               } catch (IOException e) {
+                  closePeer(peer, e);
+               }
+            }
+            for (Peer peer : peers) {
+               if (peer.key != null) {
+                  try {
+                     write(peer);
+                  } catch (IOException e) {
+                     closePeer(peer, e);
+                  }
+               }
+            }
+         } catch (IOException e) {
+            LOG.log(Level.ERROR, "EventServiceBridge selector failed.", e);
+         }
+      }
+      for (Peer peer : peers) {
+         closePeer(peer, null);
+      }
+      for (ServerSocketChannel serverChannel : serverChannels) {
+         try {
+            serverChannel.close();
+         } catch (IOException e) {
+            LOG.log(Level.WARN, "Error closing bridge server socket.", e);
+         }
+      }
+      try {
+         selector.close();
+      } catch (IOException e) {
+         LOG.log(Level.WARN, "Error closing bridge selector.", e);
+      }
+   }
+
+   private void accept(ServerSocketChannel serverChannel) {
+      try {
+         SocketChannel channel = serverChannel.accept();
+         if (channel != null) {
+            addPeer(channel);
+         }
+      } catch (IOException e) {
+         LOG.log(Level.WARN, "Could not accept a bridge connection.", e);
+      }
+   }
+
+   /** Frames as many queued publications as fit into the peer's write buffer and writes them with one write. */
+   private void write(Peer peer) throws IOException {
+      OutboundFrame frame;
+      while ((frame = peer.outbound.peek()) != null) {
+         int frameSize = frame.size();
+         if (frameSize > peer.writeBuffer.remaining()) {
+            if (peer.writeBuffer.position() > 0) {
+               break;
+            }
+            peer.writeBuffer = ByteBuffer.allocateDirect(frameSize);
+         }
+         frame.writeTo(peer.writeBuffer);
+         peer.outbound.poll();
+      }
+      if (peer.writeBuffer.position() == 0) {
+         return;
+      }
+      peer.writeBuffer.flip();
+      peer.channel.write(peer.writeBuffer);
+      peer.writeBuffer.compact();
+      if (peer.writeBuffer.position() > 0 || !peer.outbound.isEmpty()) {
+         peer.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      } else {
+         peer.key.interestOps(SelectionKey.OP_READ);
+      }
+   }
+
+   /** Reads what is available from a peer and publishes all complete frames. */
+   private void read(Peer peer) throws IOException {
+      if (peer.channel.read(peer.readBuffer) < 0) {
+         closePeer(peer, null);
+         return;
+      }
+      ByteBuffer buffer = peer.readBuffer;
+      buffer.flip();
+      while (buffer.remaining() >= 4) {
+         int frameLength = buffer.getInt(buffer.position());
+         if (buffer.remaining() < 4 + frameLength) {
+            if (4 + frameLength > buffer.capacity()) {
+               ByteBuffer larger = ByteBuffer.allocateDirect(4 + frameLength);
+               larger.put(buffer);
+               larger.flip();
+               peer.readBuffer = larger;
+               buffer = larger;
+            }
+            break;
+         }
+         int frameEnd = buffer.position() + 4 + frameLength;
+         buffer.position(buffer.position() + 4);
+         byte kind = buffer.get();
+         int topicLength = buffer.getInt();
+         String topic = null;
+         if (topicLength >= 0) {
+            byte[] topicBytes = new byte[topicLength];
+            buffer.get(topicBytes);
+            topic = new String(topicBytes, "UTF-8");
+         }
+         ByteBuffer payload = buffer.slice();
+         payload.limit(frameEnd - buffer.position());
+         buffer.position(frameEnd);
+         Object object;
+         try {
+            object = codec.decode(payload);
+         } catch (Throwable e) {
+            LOG.log(Level.WARN, "Could not decode a received " + (kind == KIND_EVENT ? "event"
+                    : "payload on topic " + topic) + ", it will not be published.", e);
+            continue;
+         }
+         publishReceived(kind == KIND_EVENT ? object : null, topic, object);
+      }
+      buffer.compact();
+   }
+
+   /**
+    * Publishes a received publication on the local EventService, marking the publishing thread so that it is not
+    * forwarded back.
+    */
+   protected void publishReceived(Object event, String topic, Object object) {
+      ForwardingSubscriptions.publishReceived(eventService, event, topic, object);
+   }
+
+   private void closePeer(Peer peer, IOException cause) {
+      if (cause != null) {
+         LOG.log(Level.WARN, "Closing bridge connection to " + peer.channel.socket().getRemoteSocketAddress(), cause);
+      }
+      peers.remove(peer);
+      if (peer.key != null) {
+         peer.key.cancel();
+      }
+      try {
+         peer.channel.close();
+      } catch (IOException e) {
+         LOG.log(Level.WARN, "Error closing bridge connection.", e);
+      }
+   }
+
+   private class Peer {
+      final SocketChannel channel;
+      final Queue<OutboundFrame> outbound = new ConcurrentLinkedQueue<OutboundFrame>();
+      ByteBuffer writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+      ByteBuffer readBuffer = ByteBuffer.allocateDirect(bufferSize);
+      SelectionKey key;
+
+      Peer(SocketChannel channel) {
+         this.channel = channel;
+      }
+   }
+
+   /** An encoded publication, shared by all peers' queues. */
+   private static class OutboundFrame {
+      final byte[] topic;
+      final byte[] payload;
+
+      OutboundFrame(String topic, byte[] payload) {
+         try {
+            this.topic = topic == null ? null : topic.getBytes("UTF-8");
+         } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 must be supported");
+         }
+         this.payload = payload;
+      }
+
+      int size() {
+         return FRAME_HEADER_SIZE + (topic == null ? 0 : topic.length) + payload.length;
+      }
+
+      void writeTo(ByteBuffer buffer) {
+         buffer.putInt(size() - 4);
+         buffer.put(topic == null ? KIND_EVENT : KIND_TOPIC);
+         if (topic == null) {
+            buffer.putInt(-1);
+         } else {
+            buffer.putInt(topic.length);
+            buffer.put(topic);
+         }
+         buffer.put(payload);
+      }
+   }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingUtilities;
+
+import org.bushe.swing.event.EventService;
+import org.bushe.swing.event.EventSubscriber;
+import org.bushe.swing.event.EventTopicSubscriber;
+import org.bushe.swing.event.SwingEventService;
+
+/**
+ * The subscriptions a bridge makes on its local EventService to forward the selected classes and topics, and the
+ * loop suppression shared by all bridges: publications received from another process are published with a mark on
+ * the publishing thread, and no bridge forwards them out of the same EventService again.  Only the received
+ * publication itself is suppressed - what subscribers publish in response to it on the same thread is forwarded
+ * as usual, unless it is the same object on the same topic.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class ForwardingSubscriptions {
+   private static final ThreadLocal<Received> RECEIVING = new ThreadLocal<Received>();
+
+   /** Receives the publications to forward. */
+   interface Target {
+      void forward(Object event, String topic, Object object);
+   }
+
+   private final EventService eventService;
+   private final Target target;
+   private final List<Class> classes = new CopyOnWriteArrayList<Class>();
+   private final List<Class> exactClasses = new CopyOnWriteArrayList<Class>();
+   private final List<String> topics = new CopyOnWriteArrayList<String>();
+   private final List<Pattern> patterns = new CopyOnWriteArrayList<Pattern>();
+
+   private final EventSubscriber eventForwarder = new EventSubscriber() {
+      public void onEvent(Object event) {
+         if (!isReceiving(null, event)) {
+            target.forward(event, null, event);
+         }
+      }
+   };
+
+   private final EventTopicSubscriber topicForwarder = new EventTopicSubscriber() {
+      public void onEvent(String topic, Object data) {
+         if (!isReceiving(topic, data)) {
+            target.forward(null, topic, data);
+         }
+      }
+   };
+
+   ForwardingSubscriptions(EventService eventService, Target target) {
+      if (eventService == null) {
+         throw new IllegalArgumentException("eventService cannot be null.");
+      }
+      this.eventService = eventService;
+      this.target = target;
+   }
+
+   /** @return true if the publication is one that is being published on this thread after it was received */
+   private boolean isReceiving(String topic, Object object) {
+      Received received = RECEIVING.get();
+      return received != null && received.eventService == eventService && received.object == object
+              && (topic == null ? received.topic == null : topic.equals(received.topic));
+   }
+
+   void forward(Class eventClass) {
+      eventService.subscribeStrongly(eventClass, eventForwarder);
+      classes.add(eventClass);
+   }
+
+   void forwardExactly(Class eventClass) {
+      eventService.subscribeExactlyStrongly(eventClass, eventForwarder);
+      exactClasses.add(eventClass);
+   }
+
+   void forward(String topic) {
+      eventService.subscribeStrongly(topic, topicForwarder);
+      topics.add(topic);
+   }
+
+   void forward(Pattern topicPattern) {
+      eventService.subscribeStrongly(topicPattern, topicForwarder);
+      patterns.add(topicPattern);
+   }
+
+   void unsubscribeAll() {
+      for (Class eventClass : classes) {
+         eventService.unsubscribe(eventClass, eventForwarder);
+      }
+      for (Class eventClass : exactClasses) {
+         eventService.unsubscribeExactly(eventClass, eventForwarder);
+      }
+      for (String topic : topics) {
+         eventService.unsubscribe(topic, topicForwarder);
+      }
+      for (Pattern pattern : patterns) {
+         eventService.unsubscribe(pattern, topicForwarder);
+      }
+      classes.clear();
+      exactClasses.clear();
+      topics.clear();
+      patterns.clear();
+   }
+
+   /**
+    * Publishes a publication received from another process on the local EventService, marking the publishing
+    * thread so that no bridge forwards it back out.  A SwingEventService publishes synchronously when called on the
+    * EDT, so the publication is made on the EDT to keep the mark visible to the forwarders.
+    */
+   static void publishReceived(final EventService eventService, final Object event, final String topic,
+           final Object object) {
+      Runnable publication = new Runnable() {
+         public void run() {
+            Received previous = RECEIVING.get();
+            RECEIVING.set(new Received(eventService, topic, object));
+            try {
+               if (event != null) {
+                  eventService.publish(event);
+               } else {
+                  eventService.publish(topic, object);
+               }
+            } finally {
+               RECEIVING.set(previous);
+            }
+         }
+      };
+      if (eventService instanceof SwingEventService && !SwingUtilities.isEventDispatchThread()) {
+         SwingUtilities.invokeLater(publication);
+      } else {
+         publication.run();
+      }
+   }
+
+   private static class Received {
+      final EventService eventService;
+      final String topic;
+      final Object object;
+
+      Received(EventService eventService, String topic, Object object) {
+         this.eventService = eventService;
+         this.topic = topic;
+         this.object = object;
+      }
+   }
+}
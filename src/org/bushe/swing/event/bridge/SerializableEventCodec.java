@@ -0,0 +1,79 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link EventCodec} that uses Java serialization, so events and payloads must be Serializable.  Decoding reads
+ * directly from the buffer without copying it.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class SerializableEventCodec implements EventCodec {
+
+   public byte[] encode(Object object) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(object);
+      out.close();
+      return bytes.toByteArray();
+   }
+
+   public Object decode(ByteBuffer buffer) throws IOException {
+      ObjectInputStream in = new ObjectInputStream(new ByteBufferInputStream(buffer));
+      try {
+         return in.readObject();
+      } catch (ClassNotFoundException e) {
+         IOException ioe = new IOException("Class of a received object is not available:" + e.getMessage());
+         ioe.initCause(e);
+         throw ioe;
+      }
+   }
+
+   private static class ByteBufferInputStream extends InputStream {
+      private final ByteBuffer buffer;
+
+      ByteBufferInputStream(ByteBuffer buffer) {
+         this.buffer = buffer;
+      }
+
+      public int read() {
+         return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+      }
+
+      public int read(byte[] bytes, int offset, int length) {
+         if (length == 0) {
+            return 0;
+         }
+         if (!buffer.hasRemaining()) {
+            return -1;
+         }
+         length = Math.min(length, buffer.remaining());
+         buffer.get(bytes, offset, length);
+         return length;
+      }
+
+      public int available() {
+         return buffer.remaining();
+      }
+   }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.regex.Pattern;
+
+import org.bushe.swing.event.EventService;
+import org.bushe.swing.event.Logger;
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * Forwards publications from an {@link EventService} to EventServices in other processes on the same host through
+ * a ring buffer in a shared memory-mapped file, without system calls per publication.
+ * <p/>
+ * The publisher creates the ring file and is its only producer.  Any number of {@link SharedMemorySubscriber}s, up to
+ * the maximum number of consumers, open the same file in other processes (or in this one) and each receives every
+ * publication forwarded after it attached, in order.  Classes and topics are selected the same way as for an
+ * {@link EventServiceBridge}:
+ * <pre>
+ * //Process 1
+ * SharedMemoryPublisher publisher = new SharedMemoryPublisher(EventBus.getGlobalEventService(),
+ *         new File("/dev/shm/prices"), new SerializableEventCodec());
+ * publisher.forward(Pattern.compile("Price\\..*"));
+ * //Process 2
+ * SharedMemorySubscriber subscriber = new SharedMemorySubscriber(EventBus.getGlobalEventService(),
+ *         new File("/dev/shm/prices"), new SerializableEventCodec());
+ * </pre>
+ * Publishing threads encode the object and copy it into the ring.  If the ring is full, the publishing thread waits
+ * until the slowest live subscriber has read enough - a slow subscriber slows down the publisher rather than losing
+ * publications.  Subscribers beat a heartbeat in the ring file, a subscriber whose heartbeat is older than the
+ * liveness timeout (its process died or was stopped) is evicted and no longer holds the publisher up.  The publisher
+ * beats a heartbeat too, see {@link SharedMemorySubscriber#isPublisherAlive()}.
+ * <p/>
+ * Publications received by a subscriber are not forwarded out of its EventService again by any publisher or bridge,
+ * so two processes can forward the same topics to each other with a publisher and a subscriber each.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class SharedMemoryPublisher {
+   public static final int DEFAULT_CAPACITY = 1024 * 1024;
+   public static final long DEFAULT_HEARTBEAT_INTERVAL_MS = 100;
+   public static final long DEFAULT_LIVENESS_TIMEOUT_MS = 2000;
+   protected static final Logger LOG = Logger.getLogger(SharedMemoryPublisher.class.getName());
+
+   private final EventCodec codec;
+   private final SharedMemoryRing ring;
+   private final ForwardingSubscriptions forwarding;
+   private final Timer heartbeatTimer;
+   private final Object producerLock = new Object();
+   private long position;
+   private long lastEviction;
+   private volatile long livenessTimeoutMS = DEFAULT_LIVENESS_TIMEOUT_MS;
+   private volatile boolean closed;
+
+   /**
+    * Creates a publisher with the default capacity and maximum number of subscribers.
+    *
+    * @param eventService the EventService to forward from
+    * @param ringFile the file to create the ring in, on a memory backed file system such as /dev/shm if available.
+    * An existing file is reinitialized.
+    * @param codec encodes the forwarded events and payloads, subscribers must use the same kind of codec
+    *
+    * @throws IOException if the file cannot be created and mapped
+    */
+   public SharedMemoryPublisher(EventService eventService, File ringFile, EventCodec codec) throws IOException {
+      this(eventService, ringFile, codec, DEFAULT_CAPACITY, SharedMemoryRing.DEFAULT_MAX_CONSUMERS);
+   }
+
+   /**
+    * Creates a publisher.
+    *
+    * @param eventService the EventService to forward from
+    * @param ringFile the file to create the ring in, on a memory backed file system such as /dev/shm if available.
+    * An existing file is reinitialized.
+    * @param codec encodes the forwarded events and payloads, subscribers must use the same kind of codec
+    * @param capacity the size of the ring in bytes, a power of two.  A publication can use at most half of it.
+    * @param maxSubscribers the maximum number of subscribers that can attach at the same time
+    *
+    * @throws IOException if the file cannot be created and mapped
+    */
+   public SharedMemoryPublisher(EventService eventService, File ringFile, EventCodec codec, int capacity,
+           int maxSubscribers) throws IOException {
+      if (ringFile == null) {
+         throw new IllegalArgumentException("ringFile cannot be null.");
+      }
+      if (codec == null) {
+         throw new IllegalArgumentException("codec cannot be null.");
+      }
+      this.codec = codec;
+      this.forwarding = new ForwardingSubscriptions(eventService, new ForwardingSubscriptions.Target() {
+         public void forward(Object event, String topic, Object object) {
+            SharedMemoryPublisher.this.forward(event, topic, object);
+         }
+      });
+      this.ring = SharedMemoryRing.create(ringFile, capacity, maxSubscribers);
+      heartbeatTimer = new Timer("SharedMemoryPublisher heartbeat " + ringFile, true);
+      heartbeatTimer.scheduleAtFixedRate(new TimerTask() {
+         public void run() {
+            if (!closed) {
+               ring.beatProducerHeartbeat(System.currentTimeMillis());
+            }
+         }
+      }, 0, DEFAULT_HEARTBEAT_INTERVAL_MS);
+   }
+
+   /** @param eventClass forwards publications of this class and its subclasses and implementations */
+   public void forward(Class eventClass) {
+      forwarding.forward(eventClass);
+   }
+
+   /** @param eventClass forwards publications of exactly this class */
+   public void forwardExactly(Class eventClass) {
+      forwarding.forwardExactly(eventClass);
+   }
+
+   /** @param topic forwards publications on this topic */
+   public void forward(String topic) {
+      forwarding.forward(topic);
+   }
+
+   /** @param topicPattern forwards publications on all topics that match the pattern */
+   public void forward(Pattern topicPattern) {
+      forwarding.forward(topicPattern);
+   }
+
+   /** @return how old a subscriber's heartbeat may be before it is considered dead, in milliseconds */
+   public long getLivenessTimeoutMS() {
+      return livenessTimeoutMS;
+   }
+
+   /** @param livenessTimeoutMS how old a subscriber's heartbeat may be before it is considered dead, in milliseconds */
+   public void setLivenessTimeoutMS(long livenessTimeoutMS) {
+      this.livenessTimeoutMS = livenessTimeoutMS;
+   }
+
+   /** @return the number of attached subscribers whose heartbeat is no older than the liveness timeout */
+   public int getLiveSubscriberCount() {
+      return ring.getLiveConsumerCount(System.currentTimeMillis(), livenessTimeoutMS);
+   }
+
+   /** Stops forwarding and marks the publisher dead for the subscribers. */
+   public void close() throws IOException {
+      synchronized (producerLock) {
+         if (closed) {
+            return;
+         }
+         closed = true;
+      }
+      forwarding.unsubscribeAll();
+      heartbeatTimer.cancel();
+      ring.beatProducerHeartbeat(0);
+      ring.close();
+   }
+
+   private void forward(Object event, String topic, Object object) {
+      byte[] topicBytes = null;
+      byte[] payload;
+      try {
+         if (topic != null) {
+            topicBytes = topic.getBytes("UTF-8");
+         }
+         payload = codec.encode(object);
+      } catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException("UTF-8 must be supported");
+      } catch (IOException e) {
+         LOG.log(Level.WARN, "Could not encode " + (event != null ? "event:" + event
+                 : "payload on topic " + topic + ":" + object) + ", it will not be forwarded.", e);
+         return;
+      }
+      int recordLength = ring.recordLength(topicBytes, payload);
+      if (recordLength < 0) {
+         LOG.log(Level.WARN, "Encoded " + (event != null ? "event:" + event : "payload on topic " + topic + ":" + object)
+                 + " is " + payload.length + " bytes, larger than half the ring capacity of " + ring.getCapacity()
+                 + " bytes, it will not be forwarded.");
+         return;
+      }
+      synchronized (producerLock) {
+         if (closed) {
+            return;
+         }
+         waitForRoom(ring.bytesNeeded(position, recordLength));
+         position = ring.write(position, recordLength, topicBytes, payload);
+      }
+   }
+
+   /** Waits until the slowest live subscriber has read enough for the given number of bytes to be written. */
+   private void waitForRoom(int bytesNeeded) {
+      int idleCount = 0;
+      while (true) {
+         long now = System.currentTimeMillis();
+         long timeout = livenessTimeoutMS;
+         long minimum = ring.getMinimumConsumerPosition(now, timeout);
+         if (minimum == Long.MAX_VALUE || position + bytesNeeded - minimum <= ring.getCapacity()) {
+            return;
+         }
+         if (now - lastEviction > timeout) {
+            lastEviction = now;
+            try {
+               ring.evictDeadConsumers(now, timeout);
+            } catch (IOException e) {
+               LOG.log(Level.WARN, "Could not evict dead subscribers from the shared memory ring.", e);
+            }
+         }
+         idleCount = SharedMemoryRing.idle(idleCount);
+      }
+   }
+}
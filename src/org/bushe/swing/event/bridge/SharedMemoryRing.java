@@ -0,0 +1,461 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer, multi-consumer broadcast ring buffer in a memory-mapped file shared by processes on the same
+ * host.  Every consumer reads every record.  The producer never overwrites a record that a live consumer has not
+ * read yet, it waits for the slowest live consumer instead.
+ * <p/>
+ * File layout, with the producer and each consumer's fields on their own 64 byte cache line:
+ * <pre>
+ * 0    magic (int, written last when the producer initializes the file), layout version (int), capacity (int),
+ *      maximum consumers (int), session id (long)
+ * 64   producer position (long), total bytes written since the ring was created
+ * 128  producer heartbeat (long, System.currentTimeMillis() of the last beat, 0 when closed)
+ * 192  consumer slots, 64 bytes each: consumer id (long, 0 if free), position (long), heartbeat (long)
+ * data capacity bytes, a power of two
+ * </pre>
+ * Records are 8 byte aligned: record length (int, -1 pads to the end of the data area), topic length (int, -1 for
+ * events), encoded object length (int), topic (UTF-8), encoded object.  Numbers are in the platform's byte order.
+ * <p/>
+ * The Java memory model says nothing about how plain ByteBuffer accesses are ordered for another process, and weakly
+ * ordered CPUs such as ARM reorder them.  So the producer and consumer positions are written with a release store
+ * and read with an acquire load, through sun.misc.Unsafe's putOrderedLong() and getLongVolatile() on the mapped
+ * address: the record bytes are visible before the producer position that covers them, and a consumer has read a
+ * record before its position moves past it.  Unsafe can't be compiled against and is looked up reflectively, if it
+ * is not available the ring can't be created or opened.  Slots are claimed and freed under a file lock.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class SharedMemoryRing {
+   static final int MAGIC = 0x45425348;
+   static final int LAYOUT_VERSION = 2;
+   static final int DEFAULT_MAX_CONSUMERS = 16;
+   static final int RECORD_HEADER_SIZE = 12;
+   static final int PADDING = -1;
+   private static final int MAGIC_OFFSET = 0;
+   private static final int VERSION_OFFSET = 4;
+   private static final int CAPACITY_OFFSET = 8;
+   private static final int MAX_CONSUMERS_OFFSET = 12;
+   private static final int SESSION_OFFSET = 16;
+   private static final int PRODUCER_POSITION_OFFSET = 64;
+   private static final int PRODUCER_HEARTBEAT_OFFSET = 128;
+   private static final int CONSUMER_SLOTS_OFFSET = 192;
+   private static final int SLOT_SIZE = 64;
+   private static final int SLOT_ID = 0;
+   private static final int SLOT_POSITION = 8;
+   private static final int SLOT_HEARTBEAT = 16;
+   private static final Random IDS = new Random();
+
+   private final RandomAccessFile file;
+   private final MappedByteBuffer map;
+   private final int capacity;
+   private final int mask;
+   private final int maxConsumers;
+   private final int dataOffset;
+   private final long address;
+
+   /**
+    * Waits a little when a producer or consumer found nothing to do: spins first, for the lowest latency, then yields,
+    * then parks briefly.
+    *
+    * @param idleCount how many times in a row there was nothing to do
+    *
+    * @return the next idle count
+    */
+   static int idle(int idleCount) {
+      if (idleCount < 10000) {
+         return idleCount + 1;
+      } else if (idleCount < 10100) {
+         Thread.yield();
+         return idleCount + 1;
+      } else {
+         LockSupport.parkNanos(50000L);
+         return idleCount;
+      }
+   }
+
+   private SharedMemoryRing(RandomAccessFile file, MappedByteBuffer map, int capacity, int maxConsumers) {
+      this.file = file;
+      this.map = map;
+      this.capacity = capacity;
+      this.mask = capacity - 1;
+      this.maxConsumers = maxConsumers;
+      this.dataOffset = CONSUMER_SLOTS_OFFSET + maxConsumers * SLOT_SIZE;
+      this.address = OrderedAccess.addressOf(map);
+   }
+
+   /** Creates or reinitializes the ring file, for the producer. */
+   static SharedMemoryRing create(File ringFile, int capacity, int maxConsumers) throws IOException {
+      if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+         throw new IllegalArgumentException("capacity must be a power of two, was:" + capacity);
+      }
+      if (maxConsumers <= 0) {
+         throw new IllegalArgumentException("maxConsumers must be positive, was:" + maxConsumers);
+      }
+      OrderedAccess.checkAvailable();
+      RandomAccessFile file = new RandomAccessFile(ringFile, "rw");
+      int size = CONSUMER_SLOTS_OFFSET + maxConsumers * SLOT_SIZE + capacity;
+      file.setLength(size);
+      MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      map.order(ByteOrder.nativeOrder());
+      map.putInt(MAGIC_OFFSET, 0);
+      for (int i = 0; i < CONSUMER_SLOTS_OFFSET + maxConsumers * SLOT_SIZE; i += 8) {
+         map.putLong(i, 0);
+      }
+      map.putInt(VERSION_OFFSET, LAYOUT_VERSION);
+      map.putInt(CAPACITY_OFFSET, capacity);
+      map.putInt(MAX_CONSUMERS_OFFSET, maxConsumers);
+      map.putLong(SESSION_OFFSET, newId());
+      map.putLong(PRODUCER_HEARTBEAT_OFFSET, System.currentTimeMillis());
+      SharedMemoryRing ring = new SharedMemoryRing(file, map, capacity, maxConsumers);
+      ring.putOrderedLong(PRODUCER_POSITION_OFFSET, 0);
+      map.putInt(MAGIC_OFFSET, MAGIC);
+      return ring;
+   }
+
+   /**
+    * Opens a ring file created by a producer, for a consumer.
+    *
+    * @return the ring, or null if the file does not exist or the producer has not initialized it yet
+    */
+   static SharedMemoryRing open(File ringFile) throws IOException {
+      if (!ringFile.isFile() || ringFile.length() < CONSUMER_SLOTS_OFFSET) {
+         return null;
+      }
+      OrderedAccess.checkAvailable();
+      RandomAccessFile file = new RandomAccessFile(ringFile, "rw");
+      MappedByteBuffer header = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CONSUMER_SLOTS_OFFSET);
+      header.order(ByteOrder.nativeOrder());
+      if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+         file.close();
+         return null;
+      }
+      if (header.getInt(VERSION_OFFSET) != LAYOUT_VERSION) {
+         file.close();
+         throw new IOException("Unsupported shared memory ring layout version " + header.getInt(VERSION_OFFSET)
+                 + " in " + ringFile);
+      }
+      int capacity = header.getInt(CAPACITY_OFFSET);
+      int maxConsumers = header.getInt(MAX_CONSUMERS_OFFSET);
+      int size = CONSUMER_SLOTS_OFFSET + maxConsumers * SLOT_SIZE + capacity;
+      MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      map.order(ByteOrder.nativeOrder());
+      return new SharedMemoryRing(file, map, capacity, maxConsumers);
+   }
+
+   private static long newId() {
+      synchronized (IDS) {
+         long id;
+         do {
+            id = IDS.nextLong();
+         } while (id == 0);
+         return id;
+      }
+   }
+
+   int getCapacity() {
+      return capacity;
+   }
+
+   int getMaxConsumers() {
+      return maxConsumers;
+   }
+
+   // ---- producer ----
+
+   /**
+    * @return the length of a record with a topic and an encoded object, or -1 if it can never fit in the ring
+    */
+   int recordLength(byte[] topic, byte[] payload) {
+      long length = RECORD_HEADER_SIZE + (topic == null ? 0 : topic.length) + (long) payload.length;
+      length = (length + 7) & ~7L;
+      return length > capacity / 2 ? -1 : (int) length;
+   }
+
+   /**
+    * @return the number of bytes a record of the given length needs at a position, including padding to the end of
+    * the data area when it does not fit before the end
+    */
+   int bytesNeeded(long position, int recordLength) {
+      int toEnd = capacity - (int) (position & mask);
+      return toEnd < recordLength ? toEnd + recordLength : recordLength;
+   }
+
+   /** Writes a record at a position that has room for it, and publishes the new producer position. */
+   long write(long position, int recordLength, byte[] topic, byte[] payload) {
+      int index = (int) (position & mask);
+      if (capacity - index < recordLength) {
+         map.putInt(dataOffset + index, PADDING);
+         position += capacity - index;
+         index = 0;
+      }
+      int offset = dataOffset + index;
+      map.putInt(offset, recordLength);
+      map.putInt(offset + 4, topic == null ? -1 : topic.length);
+      map.putInt(offset + 8, payload.length);
+      map.position(offset + RECORD_HEADER_SIZE);
+      if (topic != null) {
+         map.put(topic);
+      }
+      map.put(payload);
+      position += recordLength;
+      putOrderedLong(PRODUCER_POSITION_OFFSET, position);
+      return position;
+   }
+
+   void beatProducerHeartbeat(long now) {
+      map.putLong(PRODUCER_HEARTBEAT_OFFSET, now);
+   }
+
+   long getProducerHeartbeat() {
+      return map.getLong(PRODUCER_HEARTBEAT_OFFSET);
+   }
+
+   /**
+    * @param now the current time
+    * @param timeoutMS how old a consumer's heartbeat may be for it to be considered live
+    *
+    * @return the lowest position of the live consumers, or Long.MAX_VALUE if there are none
+    */
+   long getMinimumConsumerPosition(long now, long timeoutMS) {
+      long minimum = Long.MAX_VALUE;
+      for (int i = 0; i < maxConsumers; i++) {
+         int slot = CONSUMER_SLOTS_OFFSET + i * SLOT_SIZE;
+         if (map.getLong(slot + SLOT_ID) != 0 && now - map.getLong(slot + SLOT_HEARTBEAT) <= timeoutMS) {
+            minimum = Math.min(minimum, getLongVolatile(slot + SLOT_POSITION));
+         }
+      }
+      return minimum;
+   }
+
+   /** @return the number of consumers whose heartbeat is no older than the timeout */
+   int getLiveConsumerCount(long now, long timeoutMS) {
+      int count = 0;
+      for (int i = 0; i < maxConsumers; i++) {
+         int slot = CONSUMER_SLOTS_OFFSET + i * SLOT_SIZE;
+         if (map.getLong(slot + SLOT_ID) != 0 && now - map.getLong(slot + SLOT_HEARTBEAT) <= timeoutMS) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   /** Frees the slots of consumers whose heartbeat is older than the timeout so they no longer hold the producer up. */
+   void evictDeadConsumers(long now, long timeoutMS) throws IOException {
+      synchronized (SharedMemoryRing.class) {
+         FileLock lock = file.getChannel().lock(0, CONSUMER_SLOTS_OFFSET, false);
+         try {
+            for (int i = 0; i < maxConsumers; i++) {
+               int slot = CONSUMER_SLOTS_OFFSET + i * SLOT_SIZE;
+               if (map.getLong(slot + SLOT_ID) != 0 && now - map.getLong(slot + SLOT_HEARTBEAT) > timeoutMS) {
+                  map.putLong(slot + SLOT_ID, 0);
+               }
+            }
+         } finally {
+            lock.release();
+         }
+      }
+   }
+
+   // ---- consumers ----
+
+   /**
+    * Claims a free consumer slot, starting at the producer's current position.
+    *
+    * @return the slot index, the consumer id is then available from {@link #getConsumerId(int)}
+    *
+    * @throws IOException if all slots are taken by live consumers
+    */
+   int claimConsumerSlot(long now, long timeoutMS) throws IOException {
+      synchronized (SharedMemoryRing.class) {
+         FileLock lock = file.getChannel().lock(0, CONSUMER_SLOTS_OFFSET, false);
+         try {
+            for (int i = 0; i < maxConsumers; i++) {
+               int slot = CONSUMER_SLOTS_OFFSET + i * SLOT_SIZE;
+               if (map.getLong(slot + SLOT_ID) == 0 || now - map.getLong(slot + SLOT_HEARTBEAT) > timeoutMS) {
+                  map.putLong(slot + SLOT_HEARTBEAT, now);
+                  putOrderedLong(slot + SLOT_POSITION, readProducerPosition());
+                  map.putLong(slot + SLOT_ID, newId());
+                  return i;
+               }
+            }
+         } finally {
+            lock.release();
+         }
+      }
+      throw new IOException("All " + maxConsumers + " consumer slots of the shared memory ring are taken.");
+   }
+
+   void freeConsumerSlot(int slotIndex, long consumerId) throws IOException {
+      synchronized (SharedMemoryRing.class) {
+         FileLock lock = file.getChannel().lock(0, CONSUMER_SLOTS_OFFSET, false);
+         try {
+            int slot = CONSUMER_SLOTS_OFFSET + slotIndex * SLOT_SIZE;
+            if (map.getLong(slot + SLOT_ID) == consumerId) {
+               map.putLong(slot + SLOT_ID, 0);
+            }
+         } finally {
+            lock.release();
+         }
+      }
+   }
+
+   long getConsumerId(int slotIndex) {
+      return map.getLong(CONSUMER_SLOTS_OFFSET + slotIndex * SLOT_SIZE + SLOT_ID);
+   }
+
+   long getConsumerPosition(int slotIndex) {
+      return getLongVolatile(CONSUMER_SLOTS_OFFSET + slotIndex * SLOT_SIZE + SLOT_POSITION);
+   }
+
+   /** Publishes a consumer's position, after its reads of the records before it. */
+   void setConsumerPosition(int slotIndex, long position) {
+      putOrderedLong(CONSUMER_SLOTS_OFFSET + slotIndex * SLOT_SIZE + SLOT_POSITION, position);
+   }
+
+   void beatConsumerHeartbeat(int slotIndex, long now) {
+      map.putLong(CONSUMER_SLOTS_OFFSET + slotIndex * SLOT_SIZE + SLOT_HEARTBEAT, now);
+   }
+
+   /** @return the producer position, with the records before it visible to the caller */
+   long readProducerPosition() {
+      return getLongVolatile(PRODUCER_POSITION_OFFSET);
+   }
+
+   /**
+    * Reads the record at a position.
+    *
+    * @param position the position of the record, before the producer position
+    * @param reader receives the record's topic and encoded object
+    *
+    * @return the position after the record
+    */
+   long read(long position, RecordReader reader) throws IOException {
+      int index = (int) (position & mask);
+      int length = map.getInt(dataOffset + index);
+      if (length == PADDING) {
+         position += capacity - index;
+         index = 0;
+         length = map.getInt(dataOffset);
+      }
+      int offset = dataOffset + index;
+      int topicLength = map.getInt(offset + 4);
+      int payloadLength = map.getInt(offset + 8);
+      String topic = null;
+      int payloadStart = offset + RECORD_HEADER_SIZE;
+      if (topicLength >= 0) {
+         byte[] topicBytes = new byte[topicLength];
+         map.position(payloadStart);
+         map.get(topicBytes);
+         topic = new String(topicBytes, "UTF-8");
+         payloadStart += topicLength;
+      }
+      ByteBuffer payload = map.duplicate();
+      payload.limit(payloadStart + payloadLength);
+      payload.position(payloadStart);
+      reader.onRecord(topic, payload.slice());
+      return position + length;
+   }
+
+   /** Receives records read from the ring. */
+   interface RecordReader {
+      void onRecord(String topic, ByteBuffer payload) throws IOException;
+   }
+
+   void close() throws IOException {
+      file.close();
+   }
+
+   /** A release store of a position word. */
+   private void putOrderedLong(int offset, long value) {
+      OrderedAccess.invoke(OrderedAccess.putOrderedLong, new Object[]{null, Long.valueOf(address + offset),
+              Long.valueOf(value)});
+   }
+
+   /** An acquire load of a position word. */
+   private long getLongVolatile(int offset) {
+      return ((Long) OrderedAccess.invoke(OrderedAccess.getLongVolatile,
+              new Object[]{null, Long.valueOf(address + offset)})).longValue();
+   }
+
+   /** The sun.misc.Unsafe methods for ordered access to the mapped file, looked up once. */
+   private static final class OrderedAccess {
+      static Object unsafe;
+      static Method putOrderedLong;
+      static Method getLongVolatile;
+      static Method getLong;
+      static long addressFieldOffset;
+      static Throwable unavailable;
+
+      static {
+         try {
+            Class unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            putOrderedLong = unsafeClass.getMethod("putOrderedLong", new Class[]{Object.class, long.class, long.class});
+            getLongVolatile = unsafeClass.getMethod("getLongVolatile", new Class[]{Object.class, long.class});
+            getLong = unsafeClass.getMethod("getLong", new Class[]{Object.class, long.class});
+            Method objectFieldOffset = unsafeClass.getMethod("objectFieldOffset", new Class[]{Field.class});
+            Field address = Buffer.class.getDeclaredField("address");
+            addressFieldOffset = ((Long) objectFieldOffset.invoke(unsafe, new Object[]{address})).longValue();
+         } catch (Throwable e) {
+            unavailable = e;
+         }
+      }
+
+      static void checkAvailable() throws IOException {
+         if (unavailable != null) {
+            IOException e = new IOException("The shared memory ring needs sun.misc.Unsafe to order its position "
+                    + "updates between processes, it is not available: " + unavailable);
+            e.initCause(unavailable);
+            throw e;
+         }
+      }
+
+      /** @return the address a direct buffer maps */
+      static long addressOf(MappedByteBuffer map) {
+         return ((Long) invoke(getLong, new Object[]{map, Long.valueOf(addressFieldOffset)})).longValue();
+      }
+
+      static Object invoke(Method method, Object[] args) {
+         try {
+            return method.invoke(unsafe, args);
+         } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not call " + method + ": " + e);
+         } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Could not call " + method + ": " + e.getCause());
+         }
+      }
+   }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.bushe.swing.event.EventService;
+import org.bushe.swing.event.Logger;
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * Receives the publications forwarded by a {@link SharedMemoryPublisher}, possibly in another process on the same
+ * host, and publishes them on a local {@link EventService}.
+ * <p/>
+ * The subscriber attaches to the ring file created by the publisher and receives everything forwarded after it
+ * attached, in order.  A reader thread busy-spins on the ring for the lowest latency, backing off to yielding and
+ * then to short sleeps after a while without publications.  Publications are published on the reader thread, or on
+ * the Swing event dispatch thread for a {@link org.bushe.swing.event.SwingEventService}.  Until the local
+ * subscribers are done with a publication, the ring space it takes is not freed for the publisher.
+ * <p/>
+ * The subscriber beats a heartbeat so the publisher can tell it is alive, and {@link #isPublisherAlive()} tells
+ * whether the publisher's heartbeat is recent.  If this subscriber stops beating for longer than the publisher's
+ * liveness timeout (for example, a debugger stopped the process), the publisher evicts it.  The subscriber then
+ * logs that publications were lost and attaches again at the publisher's current position.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class SharedMemorySubscriber {
+   protected static final Logger LOG = Logger.getLogger(SharedMemorySubscriber.class.getName());
+
+   private final EventService eventService;
+   private final EventCodec codec;
+   private final File ringFile;
+   private final SharedMemoryRing ring;
+   private final Thread readerThread;
+   private final Timer heartbeatTimer;
+   private volatile int slot;
+   private volatile long consumerId;
+   private volatile long livenessTimeoutMS = SharedMemoryPublisher.DEFAULT_LIVENESS_TIMEOUT_MS;
+   private volatile boolean closed;
+
+   private final SharedMemoryRing.RecordReader recordReader = new SharedMemoryRing.RecordReader() {
+      public void onRecord(String topic, ByteBuffer payload) {
+         Object object;
+         try {
+            object = codec.decode(payload);
+         } catch (Throwable e) {
+            LOG.log(Level.WARN, "Could not decode a received " + (topic == null ? "event"
+                    : "payload on topic " + topic) + ", it will not be published.", e);
+            return;
+         }
+         ForwardingSubscriptions.publishReceived(eventService, topic == null ? object : null, topic, object);
+      }
+   };
+
+   /**
+    * Attaches to a ring created by a publisher.
+    *
+    * @param eventService the EventService to publish received publications on
+    * @param ringFile the file the publisher created the ring in
+    * @param codec decodes received events and payloads, the same kind of codec the publisher uses
+    *
+    * @throws IOException if the ring does not exist or all subscriber slots are taken
+    */
+   public SharedMemorySubscriber(EventService eventService, File ringFile, EventCodec codec) throws IOException {
+      this(eventService, ringFile, codec, 0);
+   }
+
+   /**
+    * Attaches to a ring created by a publisher, waiting for the publisher to create it.
+    *
+    * @param eventService the EventService to publish received publications on
+    * @param ringFile the file the publisher created the ring in
+    * @param codec decodes received events and payloads, the same kind of codec the publisher uses
+    * @param openTimeoutMS how long to wait for the publisher to create the ring, in milliseconds
+    *
+    * @throws IOException if the ring is not created in time or all subscriber slots are taken
+    */
+   public SharedMemorySubscriber(EventService eventService, File ringFile, EventCodec codec, long openTimeoutMS)
+           throws IOException {
+      if (eventService == null) {
+         throw new IllegalArgumentException("eventService cannot be null.");
+      }
+      if (codec == null) {
+         throw new IllegalArgumentException("codec cannot be null.");
+      }
+      this.eventService = eventService;
+      this.codec = codec;
+      this.ringFile = ringFile;
+      this.ring = openRing(ringFile, openTimeoutMS);
+      attach();
+      heartbeatTimer = new Timer("SharedMemorySubscriber heartbeat " + ringFile, true);
+      heartbeatTimer.scheduleAtFixedRate(new TimerTask() {
+         public void run() {
+            if (!closed) {
+               ring.beatConsumerHeartbeat(slot, System.currentTimeMillis());
+            }
+         }
+      }, SharedMemoryPublisher.DEFAULT_HEARTBEAT_INTERVAL_MS, SharedMemoryPublisher.DEFAULT_HEARTBEAT_INTERVAL_MS);
+      readerThread = new Thread(new Runnable() {
+         public void run() {
+            readRecords();
+         }
+      }, "SharedMemorySubscriber reader " + ringFile);
+      readerThread.setDaemon(true);
+      readerThread.start();
+   }
+
+   private static SharedMemoryRing openRing(File ringFile, long openTimeoutMS) throws IOException {
+      long end = System.currentTimeMillis() + openTimeoutMS;
+      while (true) {
+         SharedMemoryRing ring = SharedMemoryRing.open(ringFile);
+         if (ring != null) {
+            return ring;
+         }
+         if (System.currentTimeMillis() >= end) {
+            throw new IOException("No shared memory ring was created in " + ringFile);
+         }
+         try {
+            Thread.sleep(10);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a shared memory ring in " + ringFile);
+         }
+      }
+   }
+
+   private void attach() throws IOException {
+      slot = ring.claimConsumerSlot(System.currentTimeMillis(), livenessTimeoutMS);
+      consumerId = ring.getConsumerId(slot);
+   }
+
+   /** @return true if the publisher's heartbeat is no older than the liveness timeout */
+   public boolean isPublisherAlive() {
+      return System.currentTimeMillis() - ring.getProducerHeartbeat() <= livenessTimeoutMS;
+   }
+
+   /** @return how old the publisher's heartbeat may be before it is considered dead, in milliseconds */
+   public long getLivenessTimeoutMS() {
+      return livenessTimeoutMS;
+   }
+
+   /** @param livenessTimeoutMS how old the publisher's heartbeat may be before it is considered dead, in milliseconds */
+   public void setLivenessTimeoutMS(long livenessTimeoutMS) {
+      this.livenessTimeoutMS = livenessTimeoutMS;
+   }
+
+   /**
+    * Stops receiving and detaches from the ring so the publisher no longer waits for this subscriber.
+    *
+    * @throws InterruptedException if interrupted while waiting for the reader thread to stop
+    */
+   public void close() throws IOException, InterruptedException {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      heartbeatTimer.cancel();
+      readerThread.join();
+      ring.freeConsumerSlot(slot, consumerId);
+      ring.close();
+   }
+
+   private void readRecords() {
+      long position = ring.getConsumerPosition(slot);
+      int idleCount = 0;
+      while (!closed) {
+         long available = ring.readProducerPosition();
+         if (available == position) {
+            idleCount = SharedMemoryRing.idle(idleCount);
+            continue;
+         }
+         idleCount = 0;
+         try {
+            if (ring.getConsumerId(slot) != consumerId) {
+               LOG.log(Level.WARN, "This subscriber was evicted from the shared memory ring in " + ringFile
+                       + " after its heartbeat stopped, publications were lost.  Attaching again.");
+               attach();
+               position = ring.getConsumerPosition(slot);
+               continue;
+            }
+            while (position < available && !closed) {
+               position = ring.read(position, recordReader);
+               ring.setConsumerPosition(slot, position);
+            }
+         } catch (IOException e) {
+            LOG.log(Level.ERROR, "Error reading the shared memory ring in " + ringFile + ", stopping.", e);
+            return;
+         }
+      }
+   }
+}
@@ -0,0 +1,605 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.bushe.swing.event.EventService;
+import org.bushe.swing.event.Logger;
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * A durable, append-only journal of selected events and topic publications, stored in segmented, memory-mapped files.
+ * <p/>
+ * The EventService caches of the {@link org.bushe.swing.event.ThreadSafeEventService} only hold a limited number of
+ * recent items in memory and are lost when the application exits.  A journal persists every publication of the event
+ * classes and topics selected with {@link #journal(Class)}, {@link #journal(String)} and {@link #journal(Pattern)}, so
+ * that subscribers can catch up at startup by replaying from an offset or a timestamp:
+ * <pre>
+ * EventJournal journal = new EventJournal(new File("events"), new SerializableJournalSerializer());
+ * journal.journal(OrderEvent.class);
+ * journal.journal(Pattern.compile("Price\\..*"));
+ * ((ThreadSafeEventService)EventBus.getGlobalEventService()).setEventJournal(journal);
+ * ...
+ * journal.replay(lastProcessedOffset + 1, handler);
+ * </pre>
+ * Every entry is assigned an offset, starting at 0 and increasing by one per entry, and a timestamp that never
+ * decreases.  Entries are written in the order the EventService published them.
+ * <p/>
+ * Appending never does I/O on the publishing thread.  Publications are handed off to a single writer thread that
+ * serializes them with the {@link JournalSerializer}, appends them to the current memory-mapped segment and its index
+ * and forces them to the storage device according to the {@link FsyncPolicy}.  Call {@link #flush()} to wait until
+ * everything appended so far is written, and {@link #close()} when done.  Objects that cannot be serialized are logged
+ * and skipped, they take up an offset but are not replayed.
+ * <p/>
+ * Since serializing happens later on the writer thread, the journal records an object's state at that time, not at
+ * the time it was published.  Journaled events and payloads should be immutable, or at least not be changed after
+ * they are published.
+ * <p/>
+ * Segments are preallocated to the segment size and a new one is started when the current one is full.  Each segment
+ * has an index file of offsets and timestamps, so replays find their starting point with a binary search rather than
+ * a scan.  When a journal is opened on an existing directory, the last segment is validated record by record (each
+ * record carries a CRC) and appending continues after the last complete record.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see org.bushe.swing.event.ThreadSafeEventService#setEventJournal(EventJournal)
+ */
+public class EventJournal {
+   public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+   public static final long DEFAULT_FSYNC_INTERVAL_MS = 1000;
+   protected static final Logger LOG = Logger.getLogger(EventJournal.class.getName());
+   private static final PendingEntry CLOSE = new PendingEntry(-1, 0, null, null);
+   private static final int MAX_JOURNALED_DECISIONS = 1024;
+
+   private final File directory;
+   private final JournalSerializer serializer;
+   private final int segmentSize;
+   private volatile FsyncPolicy fsyncPolicy = FsyncPolicy.EVERY_BATCH;
+   private volatile long fsyncIntervalMS = DEFAULT_FSYNC_INTERVAL_MS;
+
+   private final List<Class> journaledClasses = new CopyOnWriteArrayList<Class>();
+   private final List<String> journaledTopics = new CopyOnWriteArrayList<String>();
+   private final List<Pattern> journaledPatterns = new CopyOnWriteArrayList<Pattern>();
+   private final Map<Object, Boolean> journaledDecisions = new ConcurrentHashMap<Object, Boolean>();
+   private final ThreadLocal<Boolean> replaying = new ThreadLocal<Boolean>();
+
+   private final Object appendLock = new Object();
+   private long nextOffset;
+   private long lastTimestamp;
+   private boolean closed;
+   private boolean warnedClosed;
+   private final BlockingQueue<PendingEntry> queue = new LinkedBlockingQueue<PendingEntry>();
+
+   private final Object commitLock = new Object();
+   private volatile long committedOffset;
+   private final List<Long> segmentBaseOffsets = new CopyOnWriteArrayList<Long>();
+   private final Thread writerThread;
+   private JournalSegment currentSegment;
+   private long lastForceTime;
+   private volatile boolean unforced;
+
+   /**
+    * Opens or creates a journal with the default segment size.
+    *
+    * @param directory the directory to keep the journal's files in, created if it does not exist
+    * @param serializer turns events and payloads into bytes and back
+    *
+    * @throws IOException if the directory or the last segment cannot be opened
+    */
+   public EventJournal(File directory, JournalSerializer serializer) throws IOException {
+      this(directory, serializer, DEFAULT_SEGMENT_SIZE);
+   }
+
+   /**
+    * Opens or creates a journal.
+    *
+    * @param directory the directory to keep the journal's files in, created if it does not exist
+    * @param serializer turns events and payloads into bytes and back
+    * @param segmentSize the size in bytes of each segment file, a segment is larger if a single entry does not fit
+    *
+    * @throws IOException if the directory or the last segment cannot be opened
+    */
+   public EventJournal(File directory, JournalSerializer serializer, int segmentSize) throws IOException {
+      if (directory == null) {
+         throw new IllegalArgumentException("directory cannot be null.");
+      }
+      if (serializer == null) {
+         throw new IllegalArgumentException("serializer cannot be null.");
+      }
+      if (segmentSize <= 0) {
+         throw new IllegalArgumentException("segmentSize must be positive, was:" + segmentSize);
+      }
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         throw new IOException("Could not create journal directory:" + directory);
+      }
+      this.directory = directory;
+      this.serializer = serializer;
+      this.segmentSize = segmentSize;
+      openSegments();
+      writerThread = new Thread(new Runnable() {
+         public void run() {
+            writeEntries();
+         }
+      }, "EventJournal writer " + directory);
+      writerThread.setDaemon(true);
+      writerThread.start();
+   }
+
+   private void openSegments() throws IOException {
+      File[] files = directory.listFiles();
+      long[] baseOffsets = new long[files == null ? 0 : files.length];
+      int count = 0;
+      for (int i = 0; i < baseOffsets.length; i++) {
+         long baseOffset = JournalSegment.parseBaseOffset(files[i].getName());
+         if (baseOffset >= 0) {
+            baseOffsets[count++] = baseOffset;
+         }
+      }
+      Arrays.sort(baseOffsets, 0, count);
+      for (int i = 0; i < count; i++) {
+         segmentBaseOffsets.add(new Long(baseOffsets[i]));
+      }
+      if (count > 0) {
+         currentSegment = JournalSegment.recover(directory, baseOffsets[count - 1]);
+         nextOffset = currentSegment.getNextOffset();
+         committedOffset = nextOffset;
+      }
+   }
+
+   /** @return the directory the journal's files are kept in */
+   public File getDirectory() {
+      return directory;
+   }
+
+   /** @return the serializer used to write and read entries */
+   public JournalSerializer getSerializer() {
+      return serializer;
+   }
+
+   /** @return how often entries are forced to the storage device, EVERY_BATCH by default */
+   public FsyncPolicy getFsyncPolicy() {
+      return fsyncPolicy;
+   }
+
+   /** @param fsyncPolicy how often entries are forced to the storage device */
+   public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+      if (fsyncPolicy == null) {
+         throw new IllegalArgumentException("fsyncPolicy cannot be null.");
+      }
+      this.fsyncPolicy = fsyncPolicy;
+   }
+
+   /**
+    * @return the time between forces for the PERIODIC FsyncPolicy, in milliseconds.  Entries are forced at most this
+    * long after they are written.
+    */
+   public long getFsyncIntervalMS() {
+      return fsyncIntervalMS;
+   }
+
+   /** @param fsyncIntervalMS the time between forces for the PERIODIC FsyncPolicy, in milliseconds */
+   public void setFsyncIntervalMS(long fsyncIntervalMS) {
+      this.fsyncIntervalMS = fsyncIntervalMS;
+   }
+
+   /**
+    * Journals events of a class and its subclasses and implementations.
+    *
+    * @param eventClass the class or interface of events to journal
+    */
+   public void journal(Class eventClass) {
+      if (eventClass == null) {
+         throw new IllegalArgumentException("eventClass cannot be null.");
+      }
+      journaledClasses.add(eventClass);
+      journaledDecisions.clear();
+   }
+
+   /**
+    * Journals publications on a topic.
+    *
+    * @param topic the topic to journal
+    */
+   public void journal(String topic) {
+      if (topic == null) {
+         throw new IllegalArgumentException("topic cannot be null.");
+      }
+      journaledTopics.add(topic);
+      journaledDecisions.clear();
+   }
+
+   /**
+    * Journals publications on all topics that match a pattern.
+    *
+    * @param topicPattern the pattern of the topics to journal
+    */
+   public void journal(Pattern topicPattern) {
+      if (topicPattern == null) {
+         throw new IllegalArgumentException("topicPattern cannot be null.");
+      }
+      journaledPatterns.add(topicPattern);
+      journaledDecisions.clear();
+   }
+
+   /**
+    * @param event the published event, or null if a topic was published on
+    * @param topic the topic published on, or null if an event was published
+    *
+    * @return true if the publication is selected for journaling
+    */
+   public boolean isJournaled(Object event, String topic) {
+      Object key = event != null ? (Object) event.getClass() : topic;
+      if (key == null) {
+         return false;
+      }
+      Boolean decision = journaledDecisions.get(key);
+      if (decision == null) {
+         decision = Boolean.valueOf(event != null ? isJournaledClass(event.getClass()) : isJournaledTopic(topic));
+         //Don't let an unbounded number of classes or topics grow the cache, decide the rest each time
+         if (journaledDecisions.size() < MAX_JOURNALED_DECISIONS) {
+            journaledDecisions.put(key, decision);
+         }
+      }
+      return decision.booleanValue();
+   }
+
+   private boolean isJournaledClass(Class eventClass) {
+      for (Class journaledClass : journaledClasses) {
+         if (journaledClass.isAssignableFrom(eventClass)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean isJournaledTopic(String topic) {
+      if (journaledTopics.contains(topic)) {
+         return true;
+      }
+      for (Pattern pattern : journaledPatterns) {
+         if (pattern.matcher(topic).matches()) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Appends a publication to the journal if it is selected for journaling.  The entry is written asynchronously,
+    * this method does not block on I/O.  Publications made while replaying on the same thread are not journaled again.
+    * <p/>
+    * The object is serialized when the writer thread gets to it, after this method returns, so changes made to it in
+    * the meantime are journaled too.
+    *
+    * @param event the published event, or null if a topic was published on
+    * @param topic the topic published on, or null if an event was published
+    * @param eventObj the payload published on the topic, or null if an event was published
+    *
+    * @return the offset the entry was assigned, or -1 if it is not journaled
+    */
+   public long append(Object event, String topic, Object eventObj) {
+      if (!isJournaled(event, topic) || replaying.get() != null) {
+         return -1;
+      }
+      synchronized (appendLock) {
+         if (closed) {
+            if (!warnedClosed) {
+               warnedClosed = true;
+               LOG.log(Level.WARN, "The journal in " + directory + " is closed, publications are no longer journaled.");
+            }
+            return -1;
+         }
+         long offset = nextOffset++;
+         long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+         lastTimestamp = timestamp;
+         queue.add(new PendingEntry(offset, timestamp, topic, topic == null ? event : eventObj));
+         return offset;
+      }
+   }
+
+   /** @return the offset the next appended entry will be assigned */
+   public long getNextOffset() {
+      synchronized (appendLock) {
+         return nextOffset;
+      }
+   }
+
+   /** @return the offset after the last entry that has been written and can be replayed */
+   public long getCommittedOffset() {
+      return committedOffset;
+   }
+
+   /** @return true if written entries are waiting for the PERIODIC FsyncPolicy to force them */
+   boolean isForcePending() {
+      return unforced;
+   }
+
+   /**
+    * Waits until all entries appended before this call are written (and forced, according to the FsyncPolicy).
+    *
+    * @throws InterruptedException if interrupted while waiting
+    */
+   public void flush() throws InterruptedException {
+      long target = getNextOffset();
+      synchronized (commitLock) {
+         while (committedOffset < target && writerThread.isAlive()) {
+            commitLock.wait(100);
+         }
+      }
+   }
+
+   /**
+    * Writes all appended entries, forces them to the storage device and stops the writer thread.  Entries appended
+    * after closing are not journaled.
+    *
+    * @throws InterruptedException if interrupted while waiting for the writer
+    */
+   public void close() throws InterruptedException {
+      synchronized (appendLock) {
+         if (closed) {
+            return;
+         }
+         closed = true;
+         queue.add(CLOSE);
+      }
+      writerThread.join();
+   }
+
+   /**
+    * Replays journaled entries, in order, to a handler on the calling thread.  Publications made by the handler on
+    * the calling thread while replaying are not journaled again.
+    *
+    * @param fromOffset the offset of the first entry to replay, 0 replays the whole journal
+    * @param handler receives the entries
+    *
+    * @return the offset after the last replayed entry, replay from here to continue later
+    *
+    * @throws IOException if the journal cannot be read
+    */
+   public long replay(long fromOffset, JournalEntryHandler handler) throws IOException {
+      return replay(fromOffset, Long.MAX_VALUE, Long.MIN_VALUE, handler);
+   }
+
+   /**
+    * Replays the journaled entries in a range of offsets, in order, to a handler on the calling thread.
+    *
+    * @param fromOffset the offset of the first entry to replay
+    * @param toOffset the offset to stop at (exclusive).  Entries that are not written yet are not replayed, call
+    * {@link #flush()} first to replay up to {@link #getNextOffset()}.
+    * @param handler receives the entries
+    *
+    * @return the offset after the last replayed entry
+    *
+    * @throws IOException if the journal cannot be read
+    */
+   public long replay(long fromOffset, long toOffset, JournalEntryHandler handler) throws IOException {
+      return replay(fromOffset, toOffset, Long.MIN_VALUE, handler);
+   }
+
+   /**
+    * Replays journaled entries appended at or after a time, in order, to a handler on the calling thread.
+    *
+    * @param fromTimestamp the time in milliseconds of the earliest entry to replay
+    * @param handler receives the entries
+    *
+    * @return the offset after the last replayed entry, replay from here to continue later
+    *
+    * @throws IOException if the journal cannot be read
+    */
+   public long replayFromTimestamp(long fromTimestamp, JournalEntryHandler handler) throws IOException {
+      return replay(0, Long.MAX_VALUE, fromTimestamp, handler);
+   }
+
+   /**
+    * Replays journaled entries by publishing them on an EventService, as events or on their topics.  The
+    * republished entries are not journaled again.
+    *
+    * @param fromOffset the offset of the first entry to replay, 0 replays the whole journal
+    * @param eventService the service to publish on
+    *
+    * @return the offset after the last replayed entry, replay from here to continue later
+    *
+    * @throws IOException if the journal cannot be read
+    */
+   public long replay(long fromOffset, final EventService eventService) throws IOException {
+      return replay(fromOffset, new JournalEntryHandler() {
+         public void onEntry(JournalEntry entry) {
+            entry.publishTo(eventService);
+         }
+      });
+   }
+
+   private long replay(long fromOffset, long toOffset, long fromTimestamp, JournalEntryHandler handler)
+           throws IOException {
+      if (handler == null) {
+         throw new IllegalArgumentException("handler cannot be null.");
+      }
+      long endOffset = Math.min(committedOffset, toOffset);
+      Long[] baseOffsets = segmentBaseOffsets.toArray(new Long[0]);
+      boolean wasReplaying = replaying.get() != null;
+      replaying.set(Boolean.TRUE);
+      try {
+         long next = fromOffset;
+         for (int i = 0; i < baseOffsets.length; i++) {
+            long baseOffset = baseOffsets[i].longValue();
+            if (baseOffset >= endOffset) {
+               break;
+            }
+            if (i + 1 < baseOffsets.length && baseOffsets[i + 1].longValue() <= next) {
+               //All entries in this segment are before the starting offset
+               continue;
+            }
+            File logFile = new File(directory, JournalSegment.fileName(baseOffset, JournalSegment.LOG_SUFFIX));
+            File indexFile = new File(directory, JournalSegment.fileName(baseOffset, JournalSegment.INDEX_SUFFIX));
+            next = JournalSegment.read(logFile, indexFile, next, fromTimestamp, endOffset, serializer, handler);
+         }
+         return Math.max(next, fromOffset);
+      } finally {
+         if (!wasReplaying) {
+            replaying.remove();
+         }
+      }
+   }
+
+   private void writeEntries() {
+      List<PendingEntry> batch = new ArrayList<PendingEntry>();
+      boolean closing = false;
+      while (!closing) {
+         PendingEntry first;
+         try {
+            long forceDelay = getForceDelay();
+            first = forceDelay < 0 ? queue.take() : queue.poll(forceDelay, TimeUnit.MILLISECONDS);
+         } catch (InterruptedException e) {
+            continue;
+         }
+         if (first == null) {
+            //The PERIODIC interval expired with no more entries to write, force the ones written
+            try {
+               forceIfNecessary(false);
+            } catch (IOException e) {
+               LOG.log(Level.ERROR, "Error forcing the journal in " + directory + " to the storage device.", e);
+            }
+            continue;
+         }
+         batch.add(first);
+         queue.drainTo(batch);
+         try {
+            for (PendingEntry entry : batch) {
+               if (entry == CLOSE) {
+                  closing = true;
+                  continue;
+               }
+               write(entry);
+            }
+            if (currentSegment != null) {
+               currentSegment.flushIndex();
+               forceIfNecessary(closing);
+            }
+         } catch (IOException e) {
+            LOG.log(Level.ERROR, "Error writing to the journal in " + directory
+                    + ", entries up to offset " + committedOffset + " are in the journal.", e);
+         }
+         batch.clear();
+         synchronized (commitLock) {
+            if (currentSegment != null) {
+               committedOffset = currentSegment.getNextOffset();
+            }
+            commitLock.notifyAll();
+         }
+      }
+      if (currentSegment != null) {
+         try {
+            currentSegment.close();
+         } catch (IOException e) {
+            LOG.log(Level.ERROR, "Error closing the journal in " + directory, e);
+         }
+      }
+   }
+
+   private void write(PendingEntry entry) throws IOException {
+      byte kind = entry.topic == null ? JournalSegment.KIND_EVENT : JournalSegment.KIND_TOPIC;
+      byte[] payload;
+      try {
+         payload = serializer.serialize(entry.object);
+      } catch (Throwable t) {
+         LOG.log(Level.WARN, "Could not serialize " + (entry.topic == null ? "event:" : "payload on topic "
+                 + entry.topic + ":") + entry.object + ", it will not be replayed.", t);
+         kind = JournalSegment.KIND_UNREADABLE;
+         payload = new byte[0];
+      }
+      byte[] record = JournalSegment.createRecord(entry.offset, entry.timestamp, kind, entry.topic, payload);
+      if (currentSegment == null || !currentSegment.hasRoomFor(record)) {
+         rollSegment(entry.offset, record.length);
+      }
+      currentSegment.append(entry.offset, entry.timestamp, record);
+   }
+
+   private void rollSegment(long baseOffset, int recordLength) throws IOException {
+      if (currentSegment != null) {
+         if (currentSegment.isEmpty()) {
+            //Only a too-large record has been tried, replace the empty segment
+            currentSegment.close();
+            currentSegment.logFile.delete();
+            currentSegment.indexFile.delete();
+            segmentBaseOffsets.remove(new Long(currentSegment.baseOffset));
+         } else {
+            currentSegment.close();
+         }
+      }
+      currentSegment = JournalSegment.create(directory, baseOffset, Math.max(segmentSize, recordLength));
+      segmentBaseOffsets.add(new Long(baseOffset));
+   }
+
+   private void forceIfNecessary(boolean closing) throws IOException {
+      FsyncPolicy policy = fsyncPolicy;
+      if (policy == FsyncPolicy.EVERY_BATCH || closing) {
+         force();
+      } else if (policy == FsyncPolicy.PERIODIC) {
+         long now = System.currentTimeMillis();
+         if (now - lastForceTime >= fsyncIntervalMS) {
+            force();
+         } else {
+            unforced = true;
+         }
+      }
+   }
+
+   private void force() throws IOException {
+      currentSegment.force();
+      lastForceTime = System.currentTimeMillis();
+      unforced = false;
+   }
+
+   /**
+    * @return how many milliseconds the writer can wait for more entries before written ones are due to be forced, or
+    * -1 if none are waiting to be forced
+    */
+   private long getForceDelay() {
+      if (!unforced) {
+         return -1;
+      }
+      if (fsyncPolicy != FsyncPolicy.PERIODIC) {
+         //The policy changed, force on the next batch or when the interval would have expired
+         return fsyncPolicy == FsyncPolicy.NONE ? -1 : 0;
+      }
+      return Math.max(0, lastForceTime + fsyncIntervalMS - System.currentTimeMillis());
+   }
+
+   private static class PendingEntry {
+      final long offset;
+      final long timestamp;
+      final String topic;
+      final Object object;
+
+      PendingEntry(long offset, long timestamp, String topic, Object object) {
+         this.offset = offset;
+         this.timestamp = timestamp;
+         this.topic = topic;
+         this.object = object;
+      }
+   }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+/**
+ * How often an {@link EventJournal} forces journaled entries to the storage device.  Forcing is always done on the
+ * journal's writer thread, never on the publishing thread.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public enum FsyncPolicy {
+   /** Never force, leave it to the operating system.  Entries survive a JVM crash, but not necessarily a power loss. */
+   NONE,
+   /**
+    * Group commit - force once after each batch of entries is written.  All entries queued while the previous batch
+    * was being forced are written and forced together.
+    */
+   EVERY_BATCH,
+   /** Force at most once every {@link EventJournal#getFsyncIntervalMS()} milliseconds. */
+   PERIODIC
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+import org.bushe.swing.event.EventService;
+
+/**
+ * An event or topic publication read back from an {@link EventJournal}.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class JournalEntry {
+   private final long offset;
+   private final long timestamp;
+   private final String topic;
+   private final Object object;
+
+   public JournalEntry(long offset, long timestamp, String topic, Object object) {
+      this.offset = offset;
+      this.timestamp = timestamp;
+      this.topic = topic;
+      this.object = object;
+   }
+
+   /** @return the position of this entry in the journal, offsets start at 0 and increase by one per entry */
+   public long getOffset() {
+      return offset;
+   }
+
+   /** @return the time the entry was appended to the journal, in milliseconds, never decreasing from entry to entry */
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   /** @return the topic the payload was published on, or null if an event was published */
+   public String getTopic() {
+      return topic;
+   }
+
+   /** @return the published event, or null if a payload was published on a topic */
+   public Object getEvent() {
+      return topic == null ? object : null;
+   }
+
+   /** @return the payload published on the topic, or null if an event was published */
+   public Object getPayload() {
+      return topic == null ? null : object;
+   }
+
+   /**
+    * Publishes this entry on an EventService, as an event or on its topic.
+    *
+    * @param eventService the service to publish on
+    */
+   public void publishTo(EventService eventService) {
+      if (topic == null) {
+         eventService.publish(object);
+      } else {
+         eventService.publish(topic, object);
+      }
+   }
+
+   public String toString() {
+      return "JournalEntry{offset=" + offset + ", timestamp=" + timestamp
+              + (topic == null ? ", event=" + object : ", topic=" + topic + ", payload=" + object) + "}";
+   }
+}
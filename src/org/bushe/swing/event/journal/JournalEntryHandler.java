@@ -0,0 +1,33 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+/**
+ * Receives the entries of an {@link EventJournal} replay, in offset order.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see EventJournal#replay(long, JournalEntryHandler)
+ * @see EventJournal#replayFromTimestamp(long, JournalEntryHandler)
+ */
+public interface JournalEntryHandler {
+
+   /**
+    * Called for each replayed entry.
+    *
+    * @param entry the journaled event or topic publication
+    */
+   public void onEntry(JournalEntry entry);
+}
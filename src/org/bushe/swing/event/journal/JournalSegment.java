@@ -0,0 +1,341 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * One segment of an {@link EventJournal}, a memory-mapped, preallocated, append-only log file named after the offset
+ * of its first entry and a dense index file of fixed size entries used to find an offset or timestamp in the log
+ * without scanning it.
+ * <p/>
+ * Log records are laid out as: record length (int, not including the 8 byte length and CRC header), CRC32 of the
+ * record body (int), offset (long), timestamp (long), kind (byte), topic length (int, -1 for events), topic (UTF-8),
+ * serialized event or payload.  A zero length marks the end of the written records since the log is preallocated with
+ * zeros.  Index records are: offset (long), timestamp (long), position of the record in the log (int).
+ * <p/>
+ * Writing is only done on the journal's writer thread.  Reading may be done on any thread.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+class JournalSegment {
+   static final String LOG_SUFFIX = ".log";
+   static final String INDEX_SUFFIX = ".idx";
+   static final int RECORD_HEADER_SIZE = 8;
+   static final int RECORD_FIXED_BODY_SIZE = 8 + 8 + 1 + 4;
+   static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+   static final byte KIND_EVENT = 0;
+   static final byte KIND_TOPIC = 1;
+   static final byte KIND_UNREADABLE = 2;
+
+   final long baseOffset;
+   final File logFile;
+   final File indexFile;
+
+   //Writer thread state
+   private RandomAccessFile logAccess;
+   private MappedByteBuffer writeMap;
+   private RandomAccessFile indexAccess;
+   private ByteBuffer pendingIndexEntries;
+   private int writePosition;
+   private long nextOffset;
+   private boolean dirty;
+
+   private JournalSegment(File directory, long baseOffset) {
+      this.baseOffset = baseOffset;
+      this.logFile = new File(directory, fileName(baseOffset, LOG_SUFFIX));
+      this.indexFile = new File(directory, fileName(baseOffset, INDEX_SUFFIX));
+      this.nextOffset = baseOffset;
+   }
+
+   static String fileName(long baseOffset, String suffix) {
+      return String.format("%020d", new Object[]{new Long(baseOffset)}) + suffix;
+   }
+
+   /** @return the base offset encoded in a log file name, or -1 if the file is not a segment log */
+   static long parseBaseOffset(String fileName) {
+      if (!fileName.endsWith(LOG_SUFFIX)) {
+         return -1;
+      }
+      try {
+         return Long.parseLong(fileName.substring(0, fileName.length() - LOG_SUFFIX.length()));
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   /** Creates a new, empty segment for writing, preallocating the log file to size bytes. */
+   static JournalSegment create(File directory, long baseOffset, int size) throws IOException {
+      JournalSegment segment = new JournalSegment(directory, baseOffset);
+      segment.openForWriting(size, true);
+      return segment;
+   }
+
+   /**
+    * Opens an existing segment to continue writing to it, validating its records, dropping a partially written last
+    * record and rebuilding its index.
+    */
+   static JournalSegment recover(File directory, long baseOffset) throws IOException {
+      JournalSegment segment = new JournalSegment(directory, baseOffset);
+      segment.openForWriting((int) segment.logFile.length(), false);
+      segment.recoverRecords();
+      return segment;
+   }
+
+   /** Creates a log record for an entry, ready to be appended. */
+   static byte[] createRecord(long offset, long timestamp, byte kind, String topic, byte[] payload) {
+      byte[] topicBytes = null;
+      if (topic != null) {
+         try {
+            topicBytes = topic.getBytes("UTF-8");
+         } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 must be supported");
+         }
+      }
+      int bodyLength = RECORD_FIXED_BODY_SIZE + (topicBytes == null ? 0 : topicBytes.length) + payload.length;
+      byte[] record = new byte[RECORD_HEADER_SIZE + bodyLength];
+      ByteBuffer buffer = ByteBuffer.wrap(record);
+      buffer.putInt(bodyLength);
+      buffer.putInt(0);
+      buffer.putLong(offset);
+      buffer.putLong(timestamp);
+      buffer.put(kind);
+      if (topicBytes == null) {
+         buffer.putInt(-1);
+      } else {
+         buffer.putInt(topicBytes.length);
+         buffer.put(topicBytes);
+      }
+      buffer.put(payload);
+      CRC32 crc = new CRC32();
+      crc.update(record, RECORD_HEADER_SIZE, bodyLength);
+      buffer.putInt(4, (int) crc.getValue());
+      return record;
+   }
+
+   private void openForWriting(int size, boolean create) throws IOException {
+      logAccess = new RandomAccessFile(logFile, "rw");
+      if (create) {
+         logAccess.setLength(size);
+      }
+      writeMap = logAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      indexAccess = new RandomAccessFile(indexFile, "rw");
+      if (create) {
+         indexAccess.setLength(0);
+      }
+      pendingIndexEntries = ByteBuffer.allocate(INDEX_ENTRY_SIZE * 256);
+   }
+
+   private void recoverRecords() throws IOException {
+      indexAccess.setLength(0);
+      int position = 0;
+      byte[] body = new byte[0];
+      CRC32 crc = new CRC32();
+      while (position + RECORD_HEADER_SIZE <= writeMap.capacity()) {
+         int bodyLength = writeMap.getInt(position);
+         if (bodyLength < RECORD_FIXED_BODY_SIZE || position + RECORD_HEADER_SIZE + bodyLength > writeMap.capacity()) {
+            break;
+         }
+         if (body.length < bodyLength) {
+            body = new byte[bodyLength];
+         }
+         writeMap.position(position + RECORD_HEADER_SIZE);
+         writeMap.get(body, 0, bodyLength);
+         crc.reset();
+         crc.update(body, 0, bodyLength);
+         ByteBuffer bodyBuffer = ByteBuffer.wrap(body, 0, bodyLength);
+         long offset = bodyBuffer.getLong();
+         if ((int) crc.getValue() != writeMap.getInt(position + 4) || offset != nextOffset) {
+            break;
+         }
+         addIndexEntry(offset, bodyBuffer.getLong(), position);
+         position += RECORD_HEADER_SIZE + bodyLength;
+         nextOffset = offset + 1;
+      }
+      writePosition = position;
+      //Zero out whatever is left of a partially written record so it is never mistaken for a record
+      int end = Math.min(writeMap.capacity(), position + RECORD_HEADER_SIZE + RECORD_FIXED_BODY_SIZE);
+      if (position + 4 <= writeMap.capacity()) {
+         int tornLength = writeMap.getInt(position);
+         if (tornLength > 0) {
+            end = (int) Math.min((long) writeMap.capacity(), (long) position + RECORD_HEADER_SIZE + tornLength);
+         }
+      }
+      for (int i = position; i < end; i++) {
+         writeMap.put(i, (byte) 0);
+      }
+      flushIndex();
+      force();
+   }
+
+   /** @return the offset the next record appended to this segment must have */
+   long getNextOffset() {
+      return nextOffset;
+   }
+
+   /** @return true if no records have been written to this segment */
+   boolean isEmpty() {
+      return nextOffset == baseOffset;
+   }
+
+   boolean hasRoomFor(byte[] record) {
+      return writePosition + record.length <= writeMap.capacity();
+   }
+
+   /** Appends a record created by {@link #createRecord(long, long, byte, String, byte[])}. */
+   void append(long offset, long timestamp, byte[] record) throws IOException {
+      writeMap.position(writePosition);
+      writeMap.put(record);
+      addIndexEntry(offset, timestamp, writePosition);
+      writePosition += record.length;
+      nextOffset = offset + 1;
+      dirty = true;
+   }
+
+   private void addIndexEntry(long offset, long timestamp, int position) throws IOException {
+      if (pendingIndexEntries.remaining() < INDEX_ENTRY_SIZE) {
+         flushIndex();
+      }
+      pendingIndexEntries.putLong(offset);
+      pendingIndexEntries.putLong(timestamp);
+      pendingIndexEntries.putInt(position);
+   }
+
+   /** Writes index entries for the appended records to the index file, makes them visible to readers. */
+   void flushIndex() throws IOException {
+      pendingIndexEntries.flip();
+      FileChannel channel = indexAccess.getChannel();
+      channel.position(channel.size());
+      while (pendingIndexEntries.hasRemaining()) {
+         channel.write(pendingIndexEntries);
+      }
+      pendingIndexEntries.clear();
+   }
+
+   /** Forces the log and index to the storage device if anything was appended since the last force. */
+   void force() throws IOException {
+      if (!dirty) {
+         return;
+      }
+      writeMap.force();
+      indexAccess.getChannel().force(false);
+      dirty = false;
+   }
+
+   void close() throws IOException {
+      flushIndex();
+      force();
+      writeMap = null;
+      logAccess.close();
+      indexAccess.close();
+   }
+
+   /**
+    * Reads records from this segment's files, may be called on any thread.
+    *
+    * @param fromOffset the first offset to read, if less than the base offset, read from the start
+    * @param fromTimestamp the first timestamp to read, pass Long.MIN_VALUE to read by offset only
+    * @param endOffset the offset to stop reading at (exclusive), records at or after it may not be completely written
+    * @param serializer turns payloads back into objects
+    * @param handler receives the entries
+    *
+    * @return the offset after the last entry read, or fromOffset if none were read
+    */
+   static long read(File logFile, File indexFile, long fromOffset, long fromTimestamp, long endOffset,
+           JournalSerializer serializer, JournalEntryHandler handler) throws IOException {
+      int position = findPosition(indexFile, fromOffset, fromTimestamp);
+      if (position < 0) {
+         return fromOffset;
+      }
+      long nextOffset = fromOffset;
+      RandomAccessFile access = new RandomAccessFile(logFile, "r");
+      try {
+         MappedByteBuffer map = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+         while (position + RECORD_HEADER_SIZE <= map.capacity()) {
+            int bodyLength = map.getInt(position);
+            if (bodyLength < RECORD_FIXED_BODY_SIZE || position + RECORD_HEADER_SIZE + bodyLength > map.capacity()) {
+               break;
+            }
+            map.position(position + RECORD_HEADER_SIZE);
+            long offset = map.getLong();
+            if (offset >= endOffset) {
+               break;
+            }
+            long timestamp = map.getLong();
+            byte kind = map.get();
+            int topicLength = map.getInt();
+            String topic = null;
+            if (topicLength >= 0) {
+               byte[] topicBytes = new byte[topicLength];
+               map.get(topicBytes);
+               topic = new String(topicBytes, "UTF-8");
+            }
+            byte[] payload = new byte[position + RECORD_HEADER_SIZE + bodyLength - map.position()];
+            map.get(payload);
+            position += RECORD_HEADER_SIZE + bodyLength;
+            nextOffset = offset + 1;
+            if (offset < fromOffset || timestamp < fromTimestamp || kind == KIND_UNREADABLE) {
+               continue;
+            }
+            handler.onEntry(new JournalEntry(offset, timestamp, topic, serializer.deserialize(payload)));
+         }
+      } finally {
+         access.close();
+      }
+      return nextOffset;
+   }
+
+   /**
+    * Binary searches the index for the position of the first record at or after an offset and a timestamp.
+    *
+    * @return the position of the record in the log, or -1 if all records are before the offset or timestamp
+    */
+   private static int findPosition(File indexFile, long fromOffset, long fromTimestamp) throws IOException {
+      RandomAccessFile access = new RandomAccessFile(indexFile, "r");
+      try {
+         int entries = (int) (access.length() / INDEX_ENTRY_SIZE);
+         if (entries == 0) {
+            return -1;
+         }
+         MappedByteBuffer index = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                 (long) entries * INDEX_ENTRY_SIZE);
+         int low = 0;
+         int high = entries;
+         while (low < high) {
+            int mid = (low + high) >>> 1;
+            int entryStart = mid * INDEX_ENTRY_SIZE;
+            if (index.getLong(entryStart) < fromOffset || index.getLong(entryStart + 8) < fromTimestamp) {
+               low = mid + 1;
+            } else {
+               high = mid;
+            }
+         }
+         if (low == entries) {
+            return -1;
+         }
+         return index.getInt(low * INDEX_ENTRY_SIZE + 16);
+      } finally {
+         access.close();
+      }
+   }
+}
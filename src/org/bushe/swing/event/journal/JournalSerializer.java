@@ -0,0 +1,48 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+import java.io.IOException;
+
+/**
+ * Converts journaled events and topic payloads to and from bytes.  The {@link EventJournal} calls the serializer on
+ * its writer thread, never on the publishing thread, so events should not be changed after they are published.
+ * <p/>
+ * Implementations must be thread safe, since replays may deserialize while the writer thread serializes.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see SerializableJournalSerializer for the default implementation
+ */
+public interface JournalSerializer {
+
+   /**
+    * @param object the event, or the payload published on a topic
+    *
+    * @return the bytes to store in the journal
+    *
+    * @throws IOException if the object cannot be serialized, the entry is journaled as unreadable and skipped on replay
+    */
+   public byte[] serialize(Object object) throws IOException;
+
+   /**
+    * @param bytes the bytes produced by {@link #serialize(Object)}
+    *
+    * @return the event or topic payload
+    *
+    * @throws IOException if the bytes cannot be read
+    */
+   public Object deserialize(byte[] bytes) throws IOException;
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * The default {@link JournalSerializer}, uses Java serialization, so journaled events and topic payloads must be
+ * Serializable.  Objects that are not are logged by the journal and skipped on replay.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public class SerializableJournalSerializer implements JournalSerializer {
+
+   public byte[] serialize(Object object) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(object);
+      out.close();
+      return bytes.toByteArray();
+   }
+
+   public Object deserialize(byte[] bytes) throws IOException {
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+      try {
+         return in.readObject();
+      } catch (ClassNotFoundException e) {
+         IOException ioe = new IOException("Class of journaled object not found: " + e.getMessage());
+         ioe.initCause(e);
+         throw ioe;
+      } finally {
+         in.close();
+      }
+   }
+}
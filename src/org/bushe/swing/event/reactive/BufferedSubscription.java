@@ -0,0 +1,222 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bushe.swing.event.AbstractEventServiceEvent;
+import org.bushe.swing.event.EventSubscriber;
+import org.bushe.swing.event.EventTopicSubscriber;
+import org.bushe.swing.event.Logger;
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * One subscriber's subscription to an {@link EventServicePublisher}, subscribed on the EventService on its behalf.
+ * Publications go into a bounded ring buffer and are drained to the subscriber while it has outstanding demand.
+ * Draining is serialized with a work-in-progress counter, whichever thread finds it at zero drains for all the
+ * others, so the subscriber is never called concurrently or reentrantly.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+final class BufferedSubscription<T> implements Subscription, EventSubscriber, EventTopicSubscriber {
+   private static final Logger LOG = Logger.getLogger(BufferedSubscription.class.getName());
+
+   private final EventServicePublisher<T> publisher;
+   private final Subscriber<? super T> subscriber;
+   private final OverflowStrategy overflowStrategy;
+   private final Object[] buffer;
+   private int head;
+   private int count;
+   private final AtomicLong requested = new AtomicLong();
+   private final AtomicInteger workInProgress = new AtomicInteger();
+   private final Object lifecycleLock = new Object();
+   private boolean started;
+   private volatile boolean cancelled;
+   private volatile Throwable failure;
+   private boolean terminated;
+
+   BufferedSubscription(EventServicePublisher<T> publisher, Subscriber<? super T> subscriber, int bufferSize,
+           OverflowStrategy overflowStrategy) {
+      this.publisher = publisher;
+      this.subscriber = subscriber;
+      this.overflowStrategy = overflowStrategy;
+      this.buffer = new Object[bufferSize];
+   }
+
+   /** Subscribes on the EventService, unless the subscriber cancelled in onSubscribe() */
+   void start() {
+      synchronized (lifecycleLock) {
+         if (cancelled) {
+            return;
+         }
+         started = true;
+         publisher.subscribeOnEventService(this);
+      }
+   }
+
+   public void onEvent(Object event) {
+      offer(event);
+   }
+
+   public void onEvent(String topic, Object data) {
+      offer(data);
+   }
+
+   public void request(long n) {
+      if (n <= 0) {
+         fail(new IllegalArgumentException("Reactive Streams rule 3.9: request must be greater than zero, was " + n));
+         return;
+      }
+      for (;;) {
+         long current = requested.get();
+         long next = current + n;
+         if (next < 0) {
+            next = Long.MAX_VALUE;
+         }
+         if (requested.compareAndSet(current, next)) {
+            break;
+         }
+      }
+      drain();
+   }
+
+   public void cancel() {
+      synchronized (lifecycleLock) {
+         if (cancelled) {
+            return;
+         }
+         cancelled = true;
+         if (started) {
+            publisher.unsubscribeOnEventService(this);
+         }
+      }
+      synchronized (buffer) {
+         clear();
+      }
+   }
+
+   private void offer(Object item) {
+      if (cancelled || item == null) {
+         return;
+      }
+      synchronized (buffer) {
+         if (count == buffer.length) {
+            if (overflowStrategy == OverflowStrategy.DROP) {
+               return;
+            } else if (overflowStrategy == OverflowStrategy.LATEST) {
+               buffer[head] = null;
+               head = (head + 1) % buffer.length;
+               count--;
+            } else {
+               if (failure == null) {
+                  failure = new IllegalStateException("The subscriber did not keep up with " + publisher
+                          + ", more than " + buffer.length + " publications were not requested.");
+               }
+               item = null;
+            }
+         }
+         if (item != null) {
+            if (item instanceof AbstractEventServiceEvent) {
+               ((AbstractEventServiceEvent) item).retain();
+            }
+            buffer[(head + count) % buffer.length] = item;
+            count++;
+         }
+      }
+      drain();
+   }
+
+   private void fail(Throwable throwable) {
+      synchronized (buffer) {
+         if (failure == null) {
+            failure = throwable;
+         }
+      }
+      drain();
+   }
+
+   private Object poll() {
+      synchronized (buffer) {
+         if (count == 0) {
+            return null;
+         }
+         Object item = buffer[head];
+         buffer[head] = null;
+         head = (head + 1) % buffer.length;
+         count--;
+         return item;
+      }
+   }
+
+   private void clear() {
+      for (int i = 0; i < buffer.length; i++) {
+         buffer[i] = null;
+      }
+      head = 0;
+      count = 0;
+   }
+
+   private void drain() {
+      if (workInProgress.getAndIncrement() != 0) {
+         return;
+      }
+      int missed = 1;
+      for (;;) {
+         if (terminated) {
+            return;
+         }
+         long demand = requested.get();
+         long emitted = 0;
+         while (!cancelled && failure == null && emitted != demand) {
+            Object item = poll();
+            if (item == null) {
+               break;
+            }
+            emitted++;
+            if (!emit(item)) {
+               break;
+            }
+         }
+         if (!cancelled && failure != null) {
+            terminated = true;
+            cancel();
+            subscriber.onError(failure);
+            return;
+         }
+         if (emitted != 0 && demand != Long.MAX_VALUE) {
+            requested.addAndGet(-emitted);
+         }
+         missed = workInProgress.addAndGet(-missed);
+         if (missed == 0) {
+            return;
+         }
+      }
+   }
+
+   /** @return false if the subscriber threw, which breaks its contract, in which case it is cancelled */
+   @SuppressWarnings("unchecked")
+   private boolean emit(Object item) {
+      try {
+         subscriber.onNext((T) item);
+         return true;
+      } catch (RuntimeException e) {
+         LOG.log(Level.ERROR, "Subscriber " + subscriber + " of " + publisher + " threw from onNext(), cancelling.", e);
+         cancel();
+         return false;
+      }
+   }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+import java.util.regex.Pattern;
+
+import org.bushe.swing.event.EventService;
+
+/**
+ * Exposes the publications of an event class, topic or topic pattern on an {@link EventService} as a
+ * {@link Publisher}, for consuming bus traffic in pipelines with backpressure.
+ * <p/>
+ * Each {@link Subscriber} gets its own strong subscription on the EventService, made after its onSubscribe() returns,
+ * and its own bounded buffer.  Publications are delivered as the subscriber requests them, either right away on the
+ * publishing thread if the subscriber has outstanding demand, or later on the thread that calls
+ * {@link Subscription#request(long)}.  When the subscriber falls behind and its buffer fills up, publications are
+ * handled according to the publisher's {@link OverflowStrategy}.
+ * <pre>
+ * Publisher&lt;PriceEvent&gt; prices = EventServicePublisher.forClass(EventBus.getGlobalEventService(),
+ *         PriceEvent.class, 1, OverflowStrategy.LATEST);
+ * </pre>
+ * Cancelling a {@link Subscription} unsubscribes from the EventService immediately, there is no weak reference to
+ * wait on.  The publishers never complete, since the EventService has no notion of an end of a stream.
+ * <p/>
+ * Topic publishers publish the topic's data objects.  Pooled events (see {@link org.bushe.swing.event.EventPool})
+ * that are buffered are retained, so they are not recycled while they wait for demand.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see EventServiceSink
+ */
+public final class EventServicePublisher<T> implements Publisher<T> {
+   /** The buffer size used when none is specified, {@value}. */
+   public static final int DEFAULT_BUFFER_SIZE = 256;
+
+   private final EventService eventService;
+   private final Class<T> eventClass;
+   private final String topic;
+   private final Pattern topicPattern;
+   private final int bufferSize;
+   private final OverflowStrategy overflowStrategy;
+
+   private EventServicePublisher(EventService eventService, Class<T> eventClass, String topic, Pattern topicPattern,
+           int bufferSize, OverflowStrategy overflowStrategy) {
+      if (eventService == null) {
+         throw new IllegalArgumentException("eventService cannot be null.");
+      }
+      if (bufferSize <= 0) {
+         throw new IllegalArgumentException("bufferSize must be greater than zero, was " + bufferSize);
+      }
+      if (overflowStrategy == null) {
+         throw new IllegalArgumentException("overflowStrategy cannot be null.");
+      }
+      this.eventService = eventService;
+      this.eventClass = eventClass;
+      this.topic = topic;
+      this.topicPattern = topicPattern;
+      this.bufferSize = bufferSize;
+      this.overflowStrategy = overflowStrategy;
+   }
+
+   /**
+    * A publisher of the events of a class and its subclasses, with a buffer of {@link #DEFAULT_BUFFER_SIZE} that
+    * drops new events when full.
+    *
+    * @param eventService the EventService to subscribe to
+    * @param eventClass the class of events to publish
+    *
+    * @return the publisher
+    */
+   public static <T> EventServicePublisher<T> forClass(EventService eventService, Class<T> eventClass) {
+      return forClass(eventService, eventClass, DEFAULT_BUFFER_SIZE, OverflowStrategy.DROP);
+   }
+
+   /**
+    * A publisher of the events of a class and its subclasses.
+    *
+    * @param eventService the EventService to subscribe to
+    * @param eventClass the class of events to publish
+    * @param bufferSize the number of unrequested events to buffer per subscriber, greater than zero
+    * @param overflowStrategy what to do with events when a subscriber's buffer is full
+    *
+    * @return the publisher
+    */
+   public static <T> EventServicePublisher<T> forClass(EventService eventService, Class<T> eventClass,
+           int bufferSize, OverflowStrategy overflowStrategy) {
+      if (eventClass == null) {
+         throw new IllegalArgumentException("eventClass cannot be null.");
+      }
+      return new EventServicePublisher<T>(eventService, eventClass, null, null, bufferSize, overflowStrategy);
+   }
+
+   /**
+    * A publisher of the data published on a topic, with a buffer of {@link #DEFAULT_BUFFER_SIZE} that drops new
+    * data when full.
+    *
+    * @param eventService the EventService to subscribe to
+    * @param topic the topic to publish the data of
+    *
+    * @return the publisher
+    */
+   public static EventServicePublisher<Object> forTopic(EventService eventService, String topic) {
+      return forTopic(eventService, topic, DEFAULT_BUFFER_SIZE, OverflowStrategy.DROP);
+   }
+
+   /**
+    * A publisher of the data published on a topic.
+    *
+    * @param eventService the EventService to subscribe to
+    * @param topic the topic to publish the data of
+    * @param bufferSize the number of unrequested data objects to buffer per subscriber, greater than zero
+    * @param overflowStrategy what to do with data when a subscriber's buffer is full
+    *
+    * @return the publisher
+    */
+   public static EventServicePublisher<Object> forTopic(EventService eventService, String topic, int bufferSize,
+           OverflowStrategy overflowStrategy) {
+      if (topic == null) {
+         throw new IllegalArgumentException("topic cannot be null.");
+      }
+      return new EventServicePublisher<Object>(eventService, null, topic, null, bufferSize, overflowStrategy);
+   }
+
+   /**
+    * A publisher of the data published on all topics that match a pattern.
+    *
+    * @param eventService the EventService to subscribe to
+    * @param topicPattern the pattern of the topics to publish the data of
+    * @param bufferSize the number of unrequested data objects to buffer per subscriber, greater than zero
+    * @param overflowStrategy what to do with data when a subscriber's buffer is full
+    *
+    * @return the publisher
+    */
+   public static EventServicePublisher<Object> forTopicPattern(EventService eventService, Pattern topicPattern,
+           int bufferSize, OverflowStrategy overflowStrategy) {
+      if (topicPattern == null) {
+         throw new IllegalArgumentException("topicPattern cannot be null.");
+      }
+      return new EventServicePublisher<Object>(eventService, null, null, topicPattern, bufferSize, overflowStrategy);
+   }
+
+   public void subscribe(Subscriber<? super T> subscriber) {
+      if (subscriber == null) {
+         throw new NullPointerException("subscriber cannot be null.");
+      }
+      BufferedSubscription<T> subscription = new BufferedSubscription<T>(this, subscriber, bufferSize,
+              overflowStrategy);
+      subscriber.onSubscribe(subscription);
+      subscription.start();
+   }
+
+   /** @return the EventService this publisher subscribes to */
+   public EventService getEventService() {
+      return eventService;
+   }
+
+   /** @return the size of each subscriber's buffer */
+   public int getBufferSize() {
+      return bufferSize;
+   }
+
+   /** @return what is done with publications when a subscriber's buffer is full */
+   public OverflowStrategy getOverflowStrategy() {
+      return overflowStrategy;
+   }
+
+   void subscribeOnEventService(BufferedSubscription<T> subscription) {
+      if (eventClass != null) {
+         eventService.subscribeStrongly(eventClass, subscription);
+      } else if (topic != null) {
+         eventService.subscribeStrongly(topic, subscription);
+      } else {
+         eventService.subscribeStrongly(topicPattern, subscription);
+      }
+   }
+
+   void unsubscribeOnEventService(BufferedSubscription<T> subscription) {
+      if (eventClass != null) {
+         eventService.unsubscribe(eventClass, subscription);
+      } else if (topic != null) {
+         eventService.unsubscribe(topic, subscription);
+      } else {
+         eventService.unsubscribe(topicPattern, subscription);
+      }
+   }
+
+   public String toString() {
+      Object source = eventClass != null ? (Object) eventClass : topic != null ? topic : topicPattern;
+      return "EventServicePublisher{" + source + ", bufferSize=" + bufferSize + ", " + overflowStrategy + "}";
+   }
+}
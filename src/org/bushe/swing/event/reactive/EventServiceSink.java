@@ -0,0 +1,158 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+import org.bushe.swing.event.EventService;
+import org.bushe.swing.event.Logger;
+import org.bushe.swing.event.Logger.Level;
+
+/**
+ * A {@link Subscriber} that publishes the items it receives on an {@link EventService}, either as events or as the
+ * data of a topic.  It requests items in batches, requesting the next batch when the previous one has been
+ * published, so a fast upstream publisher cannot get more than a batch ahead of the EventService.
+ * <pre>
+ * upstream.subscribe(new EventServiceSink(EventBus.getGlobalEventService(), "Prices"));
+ * </pre>
+ * Publishing is synchronous, so the batch size only bounds how many items the upstream publisher may have in flight.
+ * Errors from the upstream publisher are logged.  A sink can be subscribed only once, a second subscription is
+ * cancelled, as the Reactive Streams specification requires.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see EventServicePublisher
+ */
+public class EventServiceSink implements Subscriber<Object> {
+   /** The number of items requested at a time when none is specified, {@value}. */
+   public static final int DEFAULT_BATCH_SIZE = 64;
+
+   private static final Logger LOG = Logger.getLogger(EventServiceSink.class.getName());
+
+   private final EventService eventService;
+   private final String topic;
+   private final int batchSize;
+   private volatile Subscription subscription;
+   private int publishedInBatch;
+   private volatile boolean done;
+
+   /**
+    * Publishes items as events, requesting {@link #DEFAULT_BATCH_SIZE} at a time.
+    *
+    * @param eventService the EventService to publish on
+    */
+   public EventServiceSink(EventService eventService) {
+      this(eventService, null, DEFAULT_BATCH_SIZE);
+   }
+
+   /**
+    * Publishes items on a topic, requesting {@link #DEFAULT_BATCH_SIZE} at a time.
+    *
+    * @param eventService the EventService to publish on
+    * @param topic the topic to publish on, or null to publish items as events
+    */
+   public EventServiceSink(EventService eventService, String topic) {
+      this(eventService, topic, DEFAULT_BATCH_SIZE);
+   }
+
+   /**
+    * Publishes items on a topic.
+    *
+    * @param eventService the EventService to publish on
+    * @param topic the topic to publish on, or null to publish items as events
+    * @param batchSize the number of items to request at a time, greater than zero
+    */
+   public EventServiceSink(EventService eventService, String topic, int batchSize) {
+      if (eventService == null) {
+         throw new IllegalArgumentException("eventService cannot be null.");
+      }
+      if (batchSize <= 0) {
+         throw new IllegalArgumentException("batchSize must be greater than zero, was " + batchSize);
+      }
+      this.eventService = eventService;
+      this.topic = topic;
+      this.batchSize = batchSize;
+   }
+
+   public void onSubscribe(Subscription subscription) {
+      if (subscription == null) {
+         throw new NullPointerException("subscription cannot be null.");
+      }
+      synchronized (this) {
+         if (this.subscription != null || done) {
+            subscription.cancel();
+            return;
+         }
+         this.subscription = subscription;
+      }
+      subscription.request(batchSize);
+   }
+
+   public void onNext(Object item) {
+      if (item == null) {
+         throw new NullPointerException("item cannot be null.");
+      }
+      if (done) {
+         return;
+      }
+      try {
+         if (topic == null) {
+            eventService.publish(item);
+         } else {
+            eventService.publish(topic, item);
+         }
+      } finally {
+         if (++publishedInBatch == batchSize) {
+            publishedInBatch = 0;
+            if (!done) {
+               subscription.request(batchSize);
+            }
+         }
+      }
+   }
+
+   public void onError(Throwable throwable) {
+      done = true;
+      LOG.log(Level.WARN, "The publisher to " + this + " failed.", throwable);
+   }
+
+   public void onComplete() {
+      done = true;
+   }
+
+   /** Cancels the subscription to the upstream publisher, no more items are published after this returns. */
+   public void cancel() {
+      Subscription subscription;
+      synchronized (this) {
+         done = true;
+         subscription = this.subscription;
+      }
+      if (subscription != null) {
+         subscription.cancel();
+      }
+   }
+
+   /** @return the EventService items are published on */
+   public EventService getEventService() {
+      return eventService;
+   }
+
+   /** @return the topic items are published on, or null if they are published as events */
+   public String getTopic() {
+      return topic;
+   }
+
+   public String toString() {
+      return "EventServiceSink{" + (topic == null ? "events" : "topic=" + topic) + "}";
+   }
+}
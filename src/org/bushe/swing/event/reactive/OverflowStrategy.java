@@ -0,0 +1,34 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+/**
+ * What an {@link EventServicePublisher} does with a publication when a subscriber has not requested it and that
+ * subscriber's buffer is full.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public enum OverflowStrategy {
+   /** Discard the new publication, keeping the buffered ones. */
+   DROP,
+   /**
+    * Discard the oldest buffered publication to make room for the new one, so the subscriber always gets the latest
+    * publications.  With a buffer size of one, the subscriber gets the latest publication at the time of its request.
+    */
+   LATEST,
+   /** Cancel the subscription and fail the subscriber with an IllegalStateException. */
+   ERROR
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+/**
+ * A provider of a potentially unbounded number of items, published to its {@link Subscriber}s only as they signal
+ * demand for them.
+ * <p/>
+ * This and the other interfaces in this package have the same shape and contract as the Reactive Streams interfaces
+ * (and <code>java.util.concurrent.Flow</code> in Java 9), which this library cannot depend on since it runs on Java
+ * 5.  Adapting to either is a one line delegation per method.
+ *
+ * @author Michael Bushe michael@bushe.com
+ */
+public interface Publisher<T> {
+
+   /**
+    * Requests that this publisher start publishing items to the subscriber.  The subscriber's
+    * {@link Subscriber#onSubscribe(Subscription)} is always called first, and no items are published before it
+    * requests them with {@link Subscription#request(long)}.
+    *
+    * @param subscriber the subscriber to publish to, cannot be null
+    *
+    * @throws NullPointerException if subscriber is null, as required by the Reactive Streams specification
+    */
+   public void subscribe(Subscriber<? super T> subscriber);
+}
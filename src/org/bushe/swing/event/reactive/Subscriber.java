@@ -0,0 +1,50 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+/**
+ * Receives items from a {@link Publisher} after it signals demand for them through its {@link Subscription}.  Calls
+ * to a Subscriber's methods are never concurrent.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see Publisher
+ */
+public interface Subscriber<T> {
+
+   /**
+    * Called once before any other method, with the Subscription used to request items and to cancel.
+    *
+    * @param subscription the subscription of this subscriber to the publisher
+    */
+   public void onSubscribe(Subscription subscription);
+
+   /**
+    * Called with the next item, only after it was requested.
+    *
+    * @param item the next item, never null
+    */
+   public void onNext(T item);
+
+   /**
+    * Called when the publication failed.  No other method is called afterwards.
+    *
+    * @param throwable the reason for the failure
+    */
+   public void onError(Throwable throwable);
+
+   /** Called when there will be no more items.  No other method is called afterwards. */
+   public void onComplete();
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+/**
+ * The link between a {@link Publisher} and one of its {@link Subscriber}s, used to signal demand and to cancel.
+ *
+ * @author Michael Bushe michael@bushe.com
+ * @see Publisher
+ */
+public interface Subscription {
+
+   /**
+    * Adds demand for n more items.  Demand is cumulative, and a total of Long.MAX_VALUE is treated as unbounded.
+    *
+    * @param n the number of additional items requested, a request for zero or fewer items fails the subscription
+    * with an IllegalArgumentException
+    */
+   public void request(long n);
+
+   /**
+    * Stops the publisher sending items to the subscriber as soon as possible.  Cancelling more than once does
+    * nothing.
+    */
+   public void cancel();
+}
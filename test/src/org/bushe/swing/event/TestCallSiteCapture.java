@@ -0,0 +1,159 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+public class TestCallSiteCapture extends TestCase {
+
+   private SwingEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+   private List<SubscriberExceptionContext> contexts =
+           Collections.synchronizedList(new ArrayList<SubscriberExceptionContext>());
+
+   public TestCallSiteCapture(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new SwingEventService();
+      eventService.setSubscriberExceptionHandler(new SubscriberExceptionHandler() {
+         public void handleException(SubscriberExceptionContext context) {
+            contexts.add(context);
+         }
+      });
+      eventService.subscribeStrongly(String.class, new SubscriberForTest(testCounter, true));
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testNoCaptureByDefault() throws Exception {
+      assertSame(CallSiteCapture.NONE, eventService.getCallSiteCapture());
+      eventService.publish("Foo");
+      waitForEDT();
+      assertEquals(1, contexts.size());
+      assertNull(contexts.get(0).getCallingStack());
+   }
+
+   public void testCallSiteCrossesToTheEDT() throws Exception {
+      eventService.setCallSiteCapture(CallSiteCapture.always());
+      publishFromHere();
+      waitForEDT();
+      assertEquals(1, contexts.size());
+      StackTraceElement[] callingStack = contexts.get(0).getCallingStack();
+      assertNotNull(callingStack);
+      assertEquals(TestCallSiteCapture.class.getName(), callingStack[0].getClassName());
+      assertEquals("publishFromHere", callingStack[0].getMethodName());
+      assertSame(callingStack, contexts.get(0).toSwingException().getCallingStack());
+   }
+
+   public void testCallSiteOfATopicHandle() throws Exception {
+      eventService.setCallSiteCapture(CallSiteCapture.always());
+      eventService.subscribeStrongly("Foo", new TopicSubscriberForTest(testCounter, true));
+      eventService.resolveTopic("Foo").publish("data");
+      waitForEDT();
+      assertEquals(1, contexts.size());
+      assertEquals(TestCallSiteCapture.class.getName(), contexts.get(0).getCallingStack()[0].getClassName());
+   }
+
+   public void testMaxDepth() throws Exception {
+      eventService.setCallSiteCapture(CallSiteCapture.always(2));
+      eventService.publish("Foo");
+      waitForEDT();
+      assertEquals(2, contexts.get(0).getCallingStack().length);
+   }
+
+   public void testSampling() throws Exception {
+      eventService.setCallSiteCapture(CallSiteCapture.sampled(3));
+      for (int i = 0; i < 9; i++) {
+         eventService.publish("Foo");
+      }
+      waitForEDT();
+      assertEquals(9, contexts.size());
+      int captured = 0;
+      for (SubscriberExceptionContext context : contexts) {
+         if (context.getCallingStack() != null) {
+            captured++;
+         }
+      }
+      assertEquals(3, captured);
+   }
+
+   public void testNoWaitFanOut() throws Exception {
+      ThreadSafeEventService service = new ThreadSafeEventService(null, false);
+      final CountDownLatch handled = new CountDownLatch(2);
+      service.setSubscriberExceptionHandler(new SubscriberExceptionHandler() {
+         public void handleException(SubscriberExceptionContext context) {
+            contexts.add(context);
+            handled.countDown();
+         }
+      });
+      service.setCallSiteCapture(CallSiteCapture.always());
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         service.setFanOutForEventClass(String.class, FanOut.parallelNoWait(executor, 1));
+         service.subscribeStrongly(String.class, new SubscriberForTest(testCounter, true));
+         service.subscribeStrongly(String.class, new SubscriberForTest(testCounter, true));
+         service.publish("Foo");
+         assertTrue(handled.await(5, TimeUnit.SECONDS));
+         for (SubscriberExceptionContext context : contexts) {
+            assertEquals(TestCallSiteCapture.class.getName(), context.getCallingStack()[0].getClassName());
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   public void testInvalidArguments() {
+      try {
+         CallSiteCapture.sampled(0);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         CallSiteCapture.always(0);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         eventService.setCallSiteCapture(null);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   private void publishFromHere() {
+      eventService.publish("Foo");
+   }
+
+   private void waitForEDT() throws Exception {
+      SwingUtilities.invokeAndWait(new Runnable() {
+         public void run() {
+         }
+      });
+   }
+}
@@ -0,0 +1,412 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.annotation.AnnotationProcessor;
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+public class TestConsumerGroup extends TestCase {
+   private static final String SERVICE_NAME = "ConsumerGroupService";
+
+   private ThreadSafeEventService eventService = null;
+
+   public TestConsumerGroup(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+      EventServiceLocator.setEventService(SERVICE_NAME, null);
+      EventServiceLocator.setEventService(SERVICE_NAME, eventService);
+   }
+
+   protected void tearDown() throws Exception {
+      EventServiceLocator.setEventService(SERVICE_NAME, null);
+      eventService = null;
+   }
+
+   public void testRoundRobinAlongsideBroadcast() {
+      ConsumerGroup workers = ConsumerGroup.roundRobin("workers");
+      Worker first = new Worker();
+      Worker second = new Worker();
+      Worker third = new Worker();
+      Worker broadcast = new Worker();
+      eventService.subscribeToGroup(String.class, first, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, second, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, third, workers, ReferenceStrength.STRONG);
+      eventService.subscribeStrongly(String.class, broadcast);
+      //One entry for the group, one for the broadcast subscriber
+      assertEquals(2, eventService.getSubscribers(String.class).size());
+
+      for (int i = 0; i < 6; i++) {
+         eventService.publish("event" + i);
+      }
+      assertEquals(2, first.received.size());
+      assertEquals(2, second.received.size());
+      assertEquals(2, third.received.size());
+      assertEquals(6, broadcast.received.size());
+      assertEquals("event0", first.received.get(0));
+      assertEquals("event1", second.received.get(0));
+   }
+
+   public void testTwoGroupsEachGetEveryEvent() {
+      Worker a = new Worker();
+      Worker b = new Worker();
+      Worker c = new Worker();
+      eventService.subscribeToGroup(String.class, a, ConsumerGroup.roundRobin("one"), ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, b, ConsumerGroup.roundRobin("one"), ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, c, ConsumerGroup.roundRobin("two"), ReferenceStrength.STRONG);
+      for (int i = 0; i < 4; i++) {
+         eventService.publish("event" + i);
+      }
+      assertEquals(4, a.received.size() + b.received.size());
+      assertEquals(4, c.received.size());
+   }
+
+   public void testKeyAffinity() {
+      ConsumerGroup byAccount = ConsumerGroup.keyAffinity("accounts", EventAttribute.property("account"));
+      Worker first = new Worker();
+      Worker second = new Worker();
+      eventService.subscribeToGroup("Trades", first, byAccount, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup("Trades", second, byAccount, ReferenceStrength.STRONG);
+      for (int i = 0; i < 20; i++) {
+         eventService.publish("Trades", new Trade("account" + (i % 5)));
+      }
+      assertEquals(20, first.received.size() + second.received.size());
+      for (int i = 0; i < 5; i++) {
+         String account = "account" + i;
+         assertTrue(first.accounts().contains(account) != second.accounts().contains(account));
+      }
+   }
+
+   public void testLeastOutstanding() throws InterruptedException {
+      ConsumerGroup group = ConsumerGroup.leastOutstanding("least");
+      final CountDownLatch entered = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      Worker busy = new Worker() {
+         public void onEvent(Object event) {
+            super.onEvent(event);
+            if ("block".equals(event)) {
+               entered.countDown();
+               try {
+                  release.await(5, TimeUnit.SECONDS);
+               } catch (InterruptedException e) {
+               }
+            }
+         }
+      };
+      Worker idle = new Worker();
+      eventService.subscribeToGroup(String.class, busy, group, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, idle, group, ReferenceStrength.STRONG);
+      Thread publisher = new Thread() {
+         public void run() {
+            eventService.publish("block");
+         }
+      };
+      publisher.start();
+      //The first publication goes to busy, the first member
+      assertTrue(entered.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 4; i++) {
+         eventService.publish("event" + i);
+      }
+      release.countDown();
+      publisher.join(5000);
+      assertEquals(1, busy.received.size());
+      assertEquals(4, idle.received.size());
+   }
+
+   public void testPatternGroup() {
+      ConsumerGroup workers = ConsumerGroup.roundRobin("workers");
+      Worker first = new Worker();
+      Worker second = new Worker();
+      eventService.subscribeToGroup(Pattern.compile("Foo.*"), first, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(Pattern.compile("Foo.*"), second, workers, ReferenceStrength.STRONG);
+      eventService.publish("Foo.Bar", "one");
+      eventService.publish("Foo.Baz", "two");
+      assertEquals(1, first.received.size());
+      assertEquals(1, second.received.size());
+   }
+
+   public void testCancelLeavesTheGroup() {
+      ConsumerGroup workers = ConsumerGroup.roundRobin("workers");
+      Worker first = new Worker();
+      Worker second = new Worker();
+      Subscription firstMembership = eventService.subscribeToGroup(String.class, first, workers, ReferenceStrength.STRONG);
+      Subscription secondMembership = eventService.subscribeToGroup(String.class, second, workers,
+              ReferenceStrength.STRONG);
+      assertTrue(firstMembership.cancel());
+      assertFalse(firstMembership.cancel());
+      eventService.publish("one");
+      eventService.publish("two");
+      assertEquals(0, first.received.size());
+      assertEquals(2, second.received.size());
+      assertEquals(1, eventService.getSubscribers(String.class).size());
+
+      assertTrue(secondMembership.cancel());
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      eventService.publish("three");
+      assertEquals(2, second.received.size());
+
+      //Joining again subscribes a new group
+      eventService.subscribeToGroup(String.class, first, workers, ReferenceStrength.STRONG);
+      eventService.publish("four");
+      assertEquals(1, first.received.size());
+   }
+
+   public void testJoiningTwiceIsOneMembership() {
+      ConsumerGroup workers = ConsumerGroup.roundRobin("workers");
+      Worker first = new Worker();
+      Worker second = new Worker();
+      eventService.subscribeToGroup(String.class, first, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, first, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, second, workers, ReferenceStrength.STRONG);
+      eventService.publish("one");
+      eventService.publish("two");
+      assertEquals(1, first.received.size());
+      assertEquals(1, second.received.size());
+   }
+
+   public void testCollectedMembersAreDropped() {
+      ConsumerGroup workers = ConsumerGroup.roundRobin("workers");
+      Worker strong = new Worker();
+      eventService.subscribeToGroup(String.class, strong, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, new Worker(), workers, ReferenceStrength.WEAK);
+      System.gc();
+      for (int i = 0; i < 4; i++) {
+         eventService.publish("event" + i);
+      }
+      assertEquals(4, strong.received.size());
+
+      eventService.subscribeToGroup(Integer.class, new Worker(), workers, ReferenceStrength.WEAK);
+      System.gc();
+      eventService.publish(new Integer(1));
+      assertEquals(0, eventService.getSubscribers(Integer.class).size());
+   }
+
+   public void testDifferentStrategyIsRejected() {
+      eventService.subscribeToGroup(String.class, new Worker(), ConsumerGroup.roundRobin("workers"),
+              ReferenceStrength.STRONG);
+      try {
+         eventService.subscribeToGroup(String.class, new Worker(), ConsumerGroup.leastOutstanding("workers"),
+                 ReferenceStrength.STRONG);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         ConsumerGroup.roundRobin("");
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   public void testExceptionsAreReportedAgainstTheMember() {
+      final List<SubscriberExceptionContext> failures = new ArrayList<SubscriberExceptionContext>();
+      eventService.setSubscriberExceptionHandler(new SubscriberExceptionHandler() {
+         public void handleException(SubscriberExceptionContext context) {
+            failures.add(context);
+         }
+      });
+      EventSubscriber failing = new EventSubscriber() {
+         public void onEvent(Object event) {
+            throw new IllegalStateException("expected");
+         }
+      };
+      eventService.subscribeToGroup(String.class, failing, ConsumerGroup.roundRobin("workers"),
+              ReferenceStrength.STRONG);
+      eventService.publish("event");
+      assertEquals(1, failures.size());
+      assertSame(failing, failures.get(0).getSubscriber());
+      assertTrue(failures.get(0).getThrowable() instanceof IllegalStateException);
+   }
+
+   public void testQuarantineLeavesTheGroup() {
+      eventService.setSubscriberExceptionHandler(new SubscriberExceptionHandler() {
+         public void handleException(SubscriberExceptionContext context) {
+            assertTrue(context.quarantine());
+         }
+      });
+      ConsumerGroup workers = ConsumerGroup.roundRobin("workers");
+      Worker failing = new Worker() {
+         public void onEvent(Object event) {
+            super.onEvent(event);
+            throw new IllegalStateException("expected");
+         }
+      };
+      Worker healthy = new Worker();
+      eventService.subscribeToGroup(String.class, failing, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup(String.class, healthy, workers, ReferenceStrength.STRONG);
+      eventService.subscribeToGroup("Topic", failing, workers, ReferenceStrength.STRONG);
+      for (int i = 0; i < 4; i++) {
+         eventService.publish("event" + i);
+      }
+      //Only the first event went to the failing member, the healthy one gets the rest
+      assertEquals(1, failing.received.size());
+      assertEquals(3, healthy.received.size());
+
+      //The topic's group had no other member and is unsubscribed
+      assertEquals(0, eventService.getSubscribers("Topic").size());
+      eventService.publish("Topic", "data");
+      assertEquals(1, failing.received.size());
+   }
+
+   public void testClearAllSubscribersUnsubscribesMemberProxies() {
+      ConsumerGroup workers = ConsumerGroup.roundRobin("workers");
+      CountingProxy first = new CountingProxy(new Worker());
+      CountingProxy second = new CountingProxy(new Worker());
+      Subscription firstMembership = eventService.subscribeToGroup(String.class, first, workers,
+              ReferenceStrength.STRONG);
+      eventService.subscribeToGroup("Topic", second, workers, ReferenceStrength.STRONG);
+      eventService.clearAllSubscribers();
+      assertEquals(1, first.unsubscribedCount);
+      assertEquals(1, second.unsubscribedCount);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      assertEquals(0, eventService.getSubscribers("Topic").size());
+      assertFalse(firstMembership.cancel());
+      assertEquals(1, first.unsubscribedCount);
+   }
+
+   public void testAnnotatedGroups() {
+      AnnotatedWorker first = new AnnotatedWorker();
+      AnnotatedWorker second = new AnnotatedWorker();
+      AnnotationProcessor.process(first);
+      AnnotationProcessor.process(second);
+      for (int i = 0; i < 4; i++) {
+         eventService.publish("event" + i);
+      }
+      for (int i = 0; i < 10; i++) {
+         eventService.publish("Trades", new Trade("account" + (i % 2)));
+      }
+      assertEquals(2, first.events.size());
+      assertEquals(2, second.events.size());
+      //Each of the two accounts went to one worker only
+      assertEquals(2, first.trades.size() + second.trades.size());
+
+      AnnotationProcessor.unprocess(first);
+      eventService.publish("event4");
+      eventService.publish("event5");
+      assertEquals(2, first.events.size());
+      assertEquals(4, second.events.size());
+
+      AnnotationProcessor.unprocess(second);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      assertEquals(0, eventService.getSubscribers("Trades").size());
+   }
+
+   public void testAnnotatedGroupCannotBeRateLimited() {
+      try {
+         AnnotationProcessor.process(new RateLimitedWorker());
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   public static class Trade {
+      private final String account;
+
+      public Trade(String account) {
+         this.account = account;
+      }
+
+      public String getAccount() {
+         return account;
+      }
+   }
+
+   static class Worker implements EventSubscriber, EventTopicSubscriber {
+      final List<Object> received = new ArrayList<Object>();
+
+      public void onEvent(Object event) {
+         synchronized (received) {
+            received.add(event);
+         }
+      }
+
+      public void onEvent(String topic, Object data) {
+         onEvent(data);
+      }
+
+      List<String> accounts() {
+         List<String> accounts = new ArrayList<String>();
+         for (int i = 0; i < received.size(); i++) {
+            accounts.add(((Trade) received.get(i)).getAccount());
+         }
+         return accounts;
+      }
+   }
+
+   static class CountingProxy implements ProxySubscriber, EventSubscriber, EventTopicSubscriber {
+      private final Worker proxied;
+      int unsubscribedCount;
+
+      CountingProxy(Worker proxied) {
+         this.proxied = proxied;
+      }
+
+      public Object getProxiedSubscriber() {
+         return proxied;
+      }
+
+      public void proxyUnsubscribed() {
+         unsubscribedCount++;
+      }
+
+      public ReferenceStrength getReferenceStrength() {
+         return ReferenceStrength.STRONG;
+      }
+
+      public void onEvent(Object event) {
+         proxied.onEvent(event);
+      }
+
+      public void onEvent(String topic, Object data) {
+         proxied.onEvent(topic, data);
+      }
+   }
+
+   public static class AnnotatedWorker {
+      final List<String> events = new ArrayList<String>();
+      final List<String> trades = new ArrayList<String>();
+
+      @org.bushe.swing.event.annotation.EventSubscriber(eventServiceName = SERVICE_NAME, group = "workers")
+      public void onString(String event) {
+         events.add(event);
+      }
+
+      @org.bushe.swing.event.annotation.EventTopicSubscriber(topic = "Trades", eventServiceName = SERVICE_NAME,
+              group = "accounts", groupStrategy = ConsumerGroup.Strategy.KEY_AFFINITY, groupKey = "account")
+      public void onTrade(String topic, Object trade) {
+         String account = ((Trade) trade).getAccount();
+         if (!trades.contains(account)) {
+            trades.add(account);
+         }
+      }
+   }
+
+   public static class RateLimitedWorker {
+      @org.bushe.swing.event.annotation.EventSubscriber(eventServiceName = SERVICE_NAME, group = "workers",
+              throttleMS = 100)
+      public void onString(String event) {
+      }
+   }
+}
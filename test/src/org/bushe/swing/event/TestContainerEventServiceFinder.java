@@ -0,0 +1,120 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.awt.Container;
+import javax.swing.JButton;
+import javax.swing.JMenuItem;
+import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+
+import junit.framework.TestCase;
+
+public class TestContainerEventServiceFinder extends TestCase {
+
+   public TestContainerEventServiceFinder(String name) {
+      super(name);
+   }
+
+   public void testTopLevelServiceIsCached() {
+      JPanel top = new JPanel();
+      CountingPanel middle = new CountingPanel();
+      JButton button = new JButton();
+      top.add(middle);
+      middle.add(button);
+      EventService eventService = ContainerEventServiceFinder.getEventService(button);
+      assertNotNull(eventService);
+      assertSame(eventService, top.getClientProperty(ContainerEventServiceFinder.CLIENT_PROPERTY_KEY_TOP_LEVEL_EVENT_SERVICE));
+      int walks = middle.getParentCount;
+      for (int i = 0; i < 10; i++) {
+         assertSame(eventService, ContainerEventServiceFinder.getEventService(button));
+      }
+      assertEquals(walks, middle.getParentCount);
+   }
+
+   public void testSupplierIsAskedEachTime() {
+      SupplierPanel supplier = new SupplierPanel();
+      JButton button = new JButton();
+      supplier.add(button);
+      assertSame(supplier.eventService, ContainerEventServiceFinder.getEventService(button));
+      supplier.eventService = new ThreadSafeEventService();
+      assertSame(supplier.eventService, ContainerEventServiceFinder.getEventService(button));
+   }
+
+   public void testMovingTheComponentInvalidates() {
+      SupplierPanel first = new SupplierPanel();
+      SupplierPanel second = new SupplierPanel();
+      JButton button = new JButton();
+      first.add(button);
+      assertSame(first.eventService, ContainerEventServiceFinder.getEventService(button));
+      second.add(button);
+      assertSame(second.eventService, ContainerEventServiceFinder.getEventService(button));
+      second.remove(button);
+      EventService own = ContainerEventServiceFinder.getEventService(button);
+      assertSame(own, button.getClientProperty(ContainerEventServiceFinder.CLIENT_PROPERTY_KEY_TOP_LEVEL_EVENT_SERVICE));
+   }
+
+   public void testMovingAParentInvalidates() {
+      SupplierPanel first = new SupplierPanel();
+      SupplierPanel second = new SupplierPanel();
+      JPanel middle = new JPanel();
+      JButton button = new JButton();
+      middle.add(button);
+      first.add(middle);
+      assertSame(first.eventService, ContainerEventServiceFinder.getEventService(button));
+      second.add(middle);
+      assertSame(second.eventService, ContainerEventServiceFinder.getEventService(button));
+      JPanel inserted = new SupplierPanel();
+      second.remove(middle);
+      inserted.add(middle);
+      second.add(inserted);
+      assertSame(((SupplierPanel) inserted).eventService, ContainerEventServiceFinder.getEventService(button));
+   }
+
+   public void testPopupMenuInvokerChange() {
+      SupplierPanel first = new SupplierPanel();
+      SupplierPanel second = new SupplierPanel();
+      JButton firstInvoker = new JButton();
+      JButton secondInvoker = new JButton();
+      first.add(firstInvoker);
+      second.add(secondInvoker);
+      JPopupMenu popup = new JPopupMenu();
+      JMenuItem item = new JMenuItem();
+      popup.add(item);
+      popup.setInvoker(firstInvoker);
+      assertSame(first.eventService, ContainerEventServiceFinder.getEventService(item));
+      assertSame(first.eventService, ContainerEventServiceFinder.getEventService(item));
+      popup.setInvoker(secondInvoker);
+      assertSame(second.eventService, ContainerEventServiceFinder.getEventService(item));
+   }
+
+   private static class CountingPanel extends JPanel {
+      int getParentCount;
+
+      public Container getParent() {
+         getParentCount++;
+         return super.getParent();
+      }
+   }
+
+   private static class SupplierPanel extends JPanel implements ContainerEventServiceSupplier {
+      EventService eventService = new ThreadSafeEventService();
+
+      public EventService getContainerEventService() {
+         return eventService;
+      }
+   }
+}
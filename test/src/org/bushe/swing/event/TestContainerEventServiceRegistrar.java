@@ -0,0 +1,148 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+public class TestContainerEventServiceRegistrar extends TestCase {
+
+   private EBTestCounter testCounter = new EBTestCounter();
+   private EventTopicSubscriber subscriber = new TopicSubscriberForTest(testCounter, false);
+
+   public TestContainerEventServiceRegistrar(String name) {
+      super(name);
+   }
+
+   public void testUnchangedServiceIsNotReregistered() throws Exception {
+      SupplierPanel supplier = new SupplierPanel();
+      JPanel form = new JPanel();
+      supplier.add(form);
+      new ContainerEventServiceRegistrar(form, subscriber, "Foo");
+      assertEquals(1, supplier.eventService.subscribeCount);
+      for (int i = 0; i < 100; i++) {
+         form.add(new JButton());
+      }
+      waitForEDT();
+      assertEquals(1, supplier.eventService.subscribeCount);
+      assertEquals(0, supplier.eventService.unsubscribeCount);
+      assertEquals(1, supplier.eventService.getSubscribers("Foo").size());
+   }
+
+   public void testChangesAreCoalesced() throws Exception {
+      final SupplierPanel first = new SupplierPanel();
+      final SupplierPanel second = new SupplierPanel();
+      final JPanel form = new JPanel();
+      first.add(form);
+      new ContainerEventServiceRegistrar(form, subscriber, "Foo");
+      //Built on the EDT, so the update can only run afterwards
+      SwingUtilities.invokeAndWait(new Runnable() {
+         public void run() {
+            for (int i = 0; i < 10; i++) {
+               second.add(form);
+               first.add(form);
+            }
+            second.add(form);
+         }
+      });
+      waitForEDT();
+      assertEquals(1, first.eventService.subscribeCount);
+      assertEquals(1, first.eventService.unsubscribeCount);
+      assertEquals(0, first.eventService.getSubscribers("Foo").size());
+      assertEquals(1, second.eventService.subscribeCount);
+      assertEquals(1, second.eventService.getSubscribers("Foo").size());
+   }
+
+   public void testServiceIsCurrentBeforeTheUpdateRuns() throws Exception {
+      SupplierPanel first = new SupplierPanel();
+      SupplierPanel second = new SupplierPanel();
+      JPanel form = new JPanel();
+      first.add(form);
+      ContainerEventServiceRegistrar registrar = new ContainerEventServiceRegistrar(form, subscriber, "Foo");
+      assertSame(first.eventService, registrar.getContainerEventService());
+      second.add(form);
+      assertSame(second.eventService, registrar.getContainerEventService());
+      assertEquals(1, second.eventService.getSubscribers("Foo").size());
+      waitForEDT();
+      assertEquals(1, second.eventService.subscribeCount);
+   }
+
+   public void testMoveIsAppliedAsOneBatchPerService() throws Exception {
+      SupplierPanel first = new SupplierPanel();
+      SupplierPanel second = new SupplierPanel();
+      JPanel form = new JPanel();
+      first.add(form);
+      VetoTopicEventListener veto = new VetoTopicEventListener() {
+         public boolean shouldVeto(String topic, Object data) {
+            return false;
+         }
+      };
+      String[] topics = {"Foo", "Bar", "Baz"};
+      new ContainerEventServiceRegistrar(form, null, null, null, subscriber, veto, topics);
+      assertEquals(1, first.eventService.batchCount);
+      second.add(form);
+      waitForEDT();
+      assertEquals(2, first.eventService.batchCount);
+      assertEquals(1, second.eventService.batchCount);
+      for (int i = 0; i < topics.length; i++) {
+         assertEquals(0, first.eventService.getSubscribers(topics[i]).size());
+         assertEquals(0, first.eventService.getVetoSubscribers(topics[i]).size());
+         assertEquals(1, second.eventService.getSubscribers(topics[i]).size());
+         assertEquals(1, second.eventService.getVetoSubscribers(topics[i]).size());
+      }
+      assertEquals(3, first.eventService.unsubscribeCount);
+      assertEquals(3, second.eventService.subscribeCount);
+   }
+
+   private void waitForEDT() throws Exception {
+      SwingUtilities.invokeAndWait(new Runnable() {
+         public void run() {
+         }
+      });
+   }
+
+   private static class CountingEventService extends ThreadSafeEventService {
+      int subscribeCount;
+      int unsubscribeCount;
+      int batchCount;
+
+      int applyRegistrationBatch(RegistrationBatch.Operation[] operations) {
+         batchCount++;
+         return super.applyRegistrationBatch(operations);
+      }
+
+      public boolean subscribe(String topic, EventTopicSubscriber eh) {
+         subscribeCount++;
+         return super.subscribe(topic, eh);
+      }
+
+      public boolean unsubscribe(String topic, EventTopicSubscriber eh) {
+         unsubscribeCount++;
+         return super.unsubscribe(topic, eh);
+      }
+   }
+
+   private static class SupplierPanel extends JPanel implements ContainerEventServiceSupplier {
+      CountingEventService eventService = new CountingEventService();
+
+      public EventService getContainerEventService() {
+         return eventService;
+      }
+   }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestEventFilter extends TestCase {
+
+   private static final EventAttribute SYMBOL = EventAttribute.property("symbol");
+   private static final EventAttribute PRICE = EventAttribute.property("price");
+
+   private ThreadSafeEventService eventService = null;
+   private List<String> calls = new ArrayList<String>();
+
+   public TestEventFilter(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testOnlyMatchingSubscribersAreCalled() {
+      List<Recorder> recorders = new ArrayList<Recorder>();
+      for (int i = 0; i < 5000; i++) {
+         Recorder recorder = new Recorder("S" + i);
+         recorders.add(recorder);
+         eventService.subscribe(Price.class, recorder, EventFilter.equalTo(SYMBOL, "S" + i));
+      }
+      eventService.publish(new Price("S42", 10));
+      eventService.publish(new Price("NONE", 10));
+      assertEquals(Arrays.asList("S42"), calls);
+      assertEquals(1, recorders.get(42).count);
+   }
+
+   public void testFilteredAndUnfilteredSubscribers() {
+      Recorder all = new Recorder("all");
+      Recorder ibm = new Recorder("ibm");
+      eventService.subscribeStrongly(Price.class, all);
+      eventService.subscribe(Price.class, ibm, EventFilter.equalTo(SYMBOL, "IBM"));
+      eventService.publish(new Price("IBM", 10));
+      eventService.publish(new Price("SUNW", 10));
+      assertEquals(Arrays.asList("all", "ibm", "all"), calls);
+   }
+
+   public void testSubclassEventsAreFiltered() {
+      Recorder recorder = new Recorder("r");
+      eventService.subscribe(Object.class, recorder, EventFilter.equalTo(SYMBOL, "IBM"));
+      eventService.publish(new Price("IBM", 10));
+      eventService.publish("no symbol");
+      assertEquals(Arrays.asList("r"), calls);
+   }
+
+   public void testSetMembership() {
+      Recorder tech = new Recorder("tech");
+      eventService.subscribe(Price.class, tech, EventFilter.in(SYMBOL, Arrays.asList("IBM", "SUNW")));
+      eventService.publish(new Price("IBM", 10));
+      eventService.publish(new Price("GE", 10));
+      eventService.publish(new Price("SUNW", 10));
+      assertEquals(2, tech.count);
+   }
+
+   public void testOverlappingAndNestedRanges() {
+      Recorder low = new Recorder("low");
+      Recorder wide = new Recorder("wide");
+      Recorder narrow = new Recorder("narrow");
+      Recorder high = new Recorder("high");
+      eventService.subscribe(Price.class, low, EventFilter.between(PRICE, new Integer(0), new Integer(10)));
+      eventService.subscribe(Price.class, wide, EventFilter.between(PRICE, new Integer(0), new Integer(100)));
+      eventService.subscribe(Price.class, narrow, EventFilter.between(PRICE, new Integer(40), new Integer(50)));
+      eventService.subscribe(Price.class, high, EventFilter.between(PRICE, new Integer(50), new Integer(200)));
+      eventService.publish(new Price("X", 5));
+      assertEquals(Arrays.asList("low", "wide"), calls);
+      calls.clear();
+      eventService.publish(new Price("X", 50));
+      assertEquals(Arrays.asList("wide", "narrow", "high"), calls);
+      calls.clear();
+      eventService.publish(new Price("X", 150));
+      assertEquals(Arrays.asList("high"), calls);
+      calls.clear();
+      eventService.publish(new Price("X", 500));
+      assertTrue(calls.isEmpty());
+   }
+
+   public void testManyRangesAgreeWithScan() {
+      List<EventFilter> filters = new ArrayList<EventFilter>();
+      List<Recorder> recorders = new ArrayList<Recorder>();
+      java.util.Random random = new java.util.Random(42);
+      for (int i = 0; i < 500; i++) {
+         int min = random.nextInt(1000);
+         EventFilter filter = EventFilter.between(PRICE, new Integer(min), new Integer(min + random.nextInt(200)));
+         Recorder recorder = new Recorder("" + i);
+         filters.add(filter);
+         recorders.add(recorder);
+         eventService.subscribe(Price.class, recorder, filter);
+      }
+      for (int price = 0; price < 1300; price += 7) {
+         calls.clear();
+         Price event = new Price("X", price);
+         eventService.publish(event);
+         List<String> expected = new ArrayList<String>();
+         for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).matches(event)) {
+               expected.add("" + i);
+            }
+         }
+         assertEquals(expected, calls);
+      }
+   }
+
+   public void testMixedBoundTypesFallBackToScan() {
+      Recorder ints = new Recorder("ints");
+      Recorder longs = new Recorder("longs");
+      eventService.subscribe(Price.class, ints, EventFilter.between(PRICE, new Integer(0), new Integer(10)));
+      eventService.subscribe(Price.class, longs, EventFilter.between(PRICE, new Long(0), new Long(10)));
+      eventService.publish(new Price("IBM", 5));
+      //The Integer price can't be compared to the Long bounds
+      assertEquals(Arrays.asList("ints"), calls);
+   }
+
+   public void testTopicFilterByNameAndHandle() {
+      Recorder recorder = new Recorder("r");
+      eventService.subscribe("Prices", recorder, EventFilter.equalTo(SYMBOL, "IBM"));
+      eventService.publish("Prices", new Price("IBM", 1));
+      eventService.publish("Prices", new Price("GE", 1));
+      eventService.resolveTopic("Prices").publish(new Price("IBM", 2));
+      assertEquals(2, recorder.count);
+      assertEquals("Prices", recorder.lastTopic);
+   }
+
+   public void testResubscribeReplacesFilterAndUnsubscribe() {
+      Recorder recorder = new Recorder("r");
+      assertTrue(eventService.subscribe(Price.class, recorder, EventFilter.equalTo(SYMBOL, "IBM")));
+      assertFalse(eventService.subscribe(Price.class, recorder, EventFilter.equalTo(SYMBOL, "GE")));
+      eventService.publish(new Price("IBM", 1));
+      eventService.publish(new Price("GE", 1));
+      assertEquals(1, recorder.count);
+      assertTrue(eventService.unsubscribe(Price.class, recorder));
+      assertFalse(eventService.unsubscribe(Price.class, recorder));
+      eventService.publish(new Price("GE", 1));
+      assertEquals(1, recorder.count);
+   }
+
+   public void testFilteredSubscribersAreWeak() {
+      Recorder recorder = new Recorder("r");
+      eventService.subscribe(Price.class, recorder, EventFilter.equalTo(SYMBOL, "IBM"));
+      eventService.publish(new Price("IBM", 1));
+      assertEquals(1, calls.size());
+      recorder = null;
+      System.gc();
+      eventService.publish(new Price("IBM", 1));
+      assertEquals(1, calls.size());
+   }
+
+   public void testFilterMatches() {
+      assertTrue(EventFilter.equalTo(SYMBOL, null).matches(new Price(null, 1)));
+      assertFalse(EventFilter.between(PRICE, new Integer(1), new Integer(2)).matches("no price"));
+      assertEquals(EventFilter.equalTo(EventAttribute.property("symbol"), "IBM"), EventFilter.equalTo(SYMBOL, "IBM"));
+      try {
+         EventFilter.between(PRICE, new Integer(2), new Integer(1));
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   public static class Price {
+      private final String symbol;
+      private final int price;
+
+      public Price(String symbol, int price) {
+         this.symbol = symbol;
+         this.price = price;
+      }
+
+      public String getSymbol() {
+         return symbol;
+      }
+
+      public int getPrice() {
+         return price;
+      }
+   }
+
+   private class Recorder implements EventSubscriber, EventTopicSubscriber {
+      private final String name;
+      int count;
+      String lastTopic;
+
+      Recorder(String name) {
+         this.name = name;
+      }
+
+      public void onEvent(Object event) {
+         count++;
+         calls.add(name);
+      }
+
+      public void onEvent(String topic, Object data) {
+         count++;
+         lastTopic = topic;
+         calls.add(name);
+      }
+   }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import junit.framework.TestCase;
+
+public class TestEventPool extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private ObjectEventPool pool = null;
+   private ObjectEvent kept;
+
+   public TestEventPool(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+      pool = new ObjectEventPool();
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+      pool = null;
+      kept = null;
+   }
+
+   public void testEventIsReusedAfterPublication() {
+      final Object[] seen = new Object[1];
+      eventService.subscribeStrongly(ObjectEvent.class, new EventSubscriber() {
+         public void onEvent(Object event) {
+            seen[0] = ((ObjectEvent) event).getEventObject();
+         }
+      });
+      ObjectEvent first = pool.acquire(this, "one");
+      assertTrue(first.isPooled());
+      eventService.publish(first);
+      assertEquals("one", seen[0]);
+      assertFalse(first.isPooled());
+      assertEquals(PublicationStatus.Completed, first.getPublicationStatus());
+
+      ObjectEvent second = pool.acquire(this, "two");
+      assertSame(first, second);
+      assertEquals(PublicationStatus.Unpublished, second.getPublicationStatus());
+      assertEquals("two", second.getEventObject());
+      assertSame(this, second.getSource());
+   }
+
+   public void testNonPooledEventsAreUnaffected() {
+      ObjectEvent event = new ObjectEvent(this, "data");
+      assertFalse(event.isPooled());
+      eventService.publish(event);
+      assertEquals("data", event.getEventObject());
+      assertNotSame(event, pool.acquire(this, "data"));
+   }
+
+   public void testVetoedEventIsReleased() {
+      eventService.subscribeVetoListenerStrongly(ObjectEvent.class, new VetoEventListener() {
+         public boolean shouldVeto(Object event) {
+            return true;
+         }
+      });
+      ObjectEvent event = pool.acquire(this, "vetoed");
+      eventService.publish(event);
+      assertEquals(PublicationStatus.Vetoed, event.getPublicationStatus());
+      assertSame(event, pool.acquire());
+   }
+
+   public void testCachedEventIsRetained() {
+      eventService.setCacheSizeForEventClass(ObjectEvent.class, 1);
+      ObjectEvent event = pool.acquire(this, "cached");
+      eventService.publish(event);
+      assertNotSame(event, pool.acquire(this, "next"));
+      assertSame(event, eventService.getLastEvent(ObjectEvent.class));
+      assertEquals("cached", event.getEventObject());
+   }
+
+   public void testCachedTopicDataIsRetained() {
+      eventService.setCacheSizeForTopic("Ticks", 1);
+      ObjectEvent event = pool.acquire(this, "cached");
+      eventService.publish("Ticks", event);
+      assertNotSame(event, pool.acquire(this, "next"));
+      assertEquals("cached", ((ObjectEvent) eventService.getLastTopicData("Ticks")).getEventObject());
+   }
+
+   public void testDebugModeDetectsRetainingSubscribers() {
+      pool.setDebug(true);
+      eventService.subscribeStrongly(ObjectEvent.class, new EventSubscriber() {
+         public void onEvent(Object event) {
+            kept = (ObjectEvent) event;
+         }
+      });
+      ObjectEvent event = pool.acquire(this, "leaked");
+      eventService.publish(event);
+      assertSame(event, kept);
+      try {
+         kept.getEventObject();
+         fail("Expected an IllegalStateException for a retained pooled event");
+      } catch (IllegalStateException expected) {
+      }
+      //Released events are not reused in debug mode
+      assertNotSame(event, pool.acquire(this, "next"));
+   }
+
+   public void testRetainKeepsEventOutOfPool() {
+      pool.setDebug(true);
+      eventService.subscribeStrongly(ObjectEvent.class, new EventSubscriber() {
+         public void onEvent(Object event) {
+            kept = (ObjectEvent) event;
+            kept.retain();
+         }
+      });
+      eventService.publish(pool.acquire(this, "kept"));
+      assertEquals("kept", kept.getEventObject());
+      assertNotSame(kept, pool.acquire(this, "next"));
+   }
+
+   public void testDebouncedSubscriberRetains() throws Exception {
+      pool.setDebug(true);
+      final Object[] received = new Object[1];
+      EventSubscriber subscriber = new EventSubscriber() {
+         public void onEvent(Object event) {
+            synchronized (received) {
+               received[0] = ((ObjectEvent) event).getEventObject();
+               received.notifyAll();
+            }
+         }
+      };
+      eventService.subscribe(ObjectEvent.class, subscriber, RateLimit.debounce(20));
+      eventService.publish(pool.acquire(this, "debounced"));
+      synchronized (received) {
+         long end = System.currentTimeMillis() + 2000;
+         while (received[0] == null && System.currentTimeMillis() < end) {
+            received.wait(100);
+         }
+      }
+      assertEquals("debounced", received[0]);
+   }
+
+   public void testPoolsArePerThread() throws Exception {
+      final ObjectEvent event = pool.acquire(this, "data");
+      eventService.publish(event);
+      final Object[] acquired = new Object[1];
+      Thread thread = new Thread() {
+         public void run() {
+            acquired[0] = pool.acquire();
+         }
+      };
+      thread.start();
+      thread.join();
+      assertNotSame(event, acquired[0]);
+      assertSame(event, pool.acquire());
+   }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestEventStream extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private List<Object> results = null;
+   private EventStream.Sink<Object> sink = null;
+
+   public TestEventStream(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+      results = Collections.synchronizedList(new ArrayList<Object>());
+      sink = new EventStream.Sink<Object>() {
+         public void accept(Object item) {
+            results.add(item);
+         }
+      };
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testFilterAndMapAreFused() {
+      EventStream.fromClass(eventService, Integer.class)
+              .filter(new EventStream.Predicate<Integer>() {
+                 public boolean test(Integer item) {
+                    return item.intValue() % 2 == 0;
+                 }
+              })
+              .map(new EventStream.Function<Integer, Object>() {
+                 public Object apply(Integer item) {
+                    return "#" + item;
+                 }
+              })
+              .to(sink);
+      assertEquals(1, eventService.getSubscribers(Integer.class).size());
+      for (int i = 0; i < 5; i++) {
+         eventService.publish(new Integer(i));
+      }
+      assertEquals("[#0, #2, #4]", results.toString());
+   }
+
+   public void testKeyedRollingReduce() {
+      EventStream.fromTopic(eventService, "Trades")
+              .keyBy(new EventStream.Function<Object, Object>() {
+                 public Object apply(Object item) {
+                    return ((String) item).substring(0, 1);
+                 }
+              })
+              .reduce(new EventStream.Reducer<Object>() {
+                 public Object reduce(Object accumulated, Object item) {
+                    return accumulated + "+" + item;
+                 }
+              })
+              .to(sink);
+      eventService.publish("Trades", "a1");
+      eventService.publish("Trades", "b1");
+      eventService.publish("Trades", "a2");
+      assertEquals("[a1, b1, a1+a2]", results.toString());
+   }
+
+   public void testTumblingWindowAggregate() throws InterruptedException {
+      EventStream.fromClass(eventService, Integer.class)
+              .window(200)
+              .aggregate(new Sum())
+              .to(sink);
+      for (int i = 1; i <= 4; i++) {
+         eventService.publish(new Integer(i));
+      }
+      assertEquals(0, results.size());
+      waitForResults(1, 2000);
+      assertEquals(new Long(10), results.get(0));
+   }
+
+   public void testKeyedWindowsEmitPerKey() throws InterruptedException {
+      EventStream.fromClass(eventService, Integer.class)
+              .keyBy(new EventStream.Function<Integer, Object>() {
+                 public Object apply(Integer item) {
+                    return item.intValue() % 2 == 0 ? "even" : "odd";
+                 }
+              })
+              .window(200)
+              .reduce(new EventStream.Reducer<Integer>() {
+                 public Integer reduce(Integer accumulated, Integer item) {
+                    return new Integer(accumulated.intValue() + item.intValue());
+                 }
+              })
+              .to(sink);
+      for (int i = 1; i <= 4; i++) {
+         eventService.publish(new Integer(i));
+      }
+      waitForResults(2, 2000);
+      assertTrue(results.contains(new Integer(4)));
+      assertTrue(results.contains(new Integer(6)));
+   }
+
+   public void testSlidingWindowsOverlap() throws InterruptedException {
+      EventStream.fromClass(eventService, Integer.class)
+              .window(400, 100)
+              .aggregate(new Sum())
+              .to(sink);
+      eventService.publish(new Integer(1));
+      //the item is in the four windows that contain its time
+      waitForResults(4, 3000);
+      Thread.sleep(300);
+      assertEquals(4, results.size());
+      for (int i = 0; i < results.size(); i++) {
+         assertEquals(new Long(1), results.get(i));
+      }
+   }
+
+   public void testPublishOnRepublishesOnlyResults() {
+      final List<Object> published = new ArrayList<Object>();
+      eventService.subscribeStrongly("Doubled", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+            published.add(data);
+         }
+      });
+      EventStream.fromClass(eventService, Integer.class)
+              .map(new EventStream.Function<Integer, Integer>() {
+                 public Integer apply(Integer item) {
+                    return new Integer(item.intValue() * 2);
+                 }
+              })
+              .publishOn("Doubled");
+      eventService.publish(new Integer(21));
+      assertEquals("[42]", published.toString());
+   }
+
+   public void testCancel() throws InterruptedException {
+      EventStream.Handle handle = EventStream.fromClass(eventService, Integer.class)
+              .window(100)
+              .aggregate(new Sum())
+              .to(sink);
+      eventService.publish(new Integer(1));
+      handle.cancel();
+      assertTrue(handle.isCancelled());
+      assertEquals(0, eventService.getSubscribers(Integer.class).size());
+      Thread.sleep(300);
+      assertEquals(0, results.size());
+      handle.cancel();
+   }
+
+   public void testStreamsAreImmutable() {
+      EventStream<Integer> base = EventStream.fromClass(eventService, Integer.class);
+      base.filter(new EventStream.Predicate<Integer>() {
+         public boolean test(Integer item) {
+            return false;
+         }
+      });
+      base.to(sink);
+      eventService.publish(new Integer(1));
+      assertEquals("[1]", results.toString());
+   }
+
+   public void testSubscriberExceptionsAreHandled() {
+      EventStream.fromClass(eventService, Integer.class)
+              .map(new EventStream.Function<Integer, Object>() {
+                 public Object apply(Integer item) {
+                    throw new IllegalStateException("Broken operator");
+                 }
+              })
+              .to(sink);
+      eventService.publish(new Integer(1));
+      eventService.publish(new Integer(2));
+      assertEquals(0, results.size());
+   }
+
+   public void testBadArguments() {
+      try {
+         EventStream.fromClass(eventService, null);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         EventStream.fromClass(eventService, Integer.class).window(0);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         EventStream.fromClass(eventService, Integer.class).filter(null);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   private void waitForResults(int count, long timeoutMS) throws InterruptedException {
+      long end = System.currentTimeMillis() + timeoutMS;
+      while (results.size() < count && System.currentTimeMillis() < end) {
+         Thread.sleep(10);
+      }
+      assertTrue("Expected " + count + " results, got " + results, results.size() >= count);
+   }
+
+   private static class Sum implements EventStream.Aggregator<Integer, long[], Object> {
+      public long[] create() {
+         return new long[1];
+      }
+
+      public long[] add(long[] accumulator, Integer item) {
+         accumulator[0] += item.intValue();
+         return accumulator;
+      }
+
+      public Object result(long[] accumulator) {
+         return new Long(accumulator[0]);
+      }
+   }
+}
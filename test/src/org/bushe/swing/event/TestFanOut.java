@@ -0,0 +1,192 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class TestFanOut extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private ExecutorService executor = null;
+
+   public TestFanOut(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+      executor = Executors.newFixedThreadPool(4);
+   }
+
+   protected void tearDown() throws Exception {
+      executor.shutdownNow();
+      eventService = null;
+   }
+
+   public void testAllSubscribersCalledBeforePublishReturns() {
+      final AtomicInteger calls = new AtomicInteger();
+      final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+      for (int i = 0; i < 2000; i++) {
+         eventService.subscribeStrongly(String.class, new EventSubscriber() {
+            public void onEvent(Object event) {
+               threads.add(Thread.currentThread());
+               calls.incrementAndGet();
+            }
+         });
+      }
+      eventService.setFanOutForEventClass(CharSequence.class, FanOut.parallel(executor, 50));
+      assertNotNull(eventService.getFanOutForEventClass(String.class));
+      eventService.publish("event");
+      assertEquals(2000, calls.get());
+      assertTrue(threads.contains(Thread.currentThread()));
+   }
+
+   public void testPriorityGroupsCompleteInOrder() {
+      final AtomicInteger sequence = new AtomicInteger();
+      final int[] lastOfGroup = new int[3];
+      final int[] firstOfGroup = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+      for (int i = 0; i < 300; i++) {
+         final int group = i % 3;
+         eventService.subscribeStrongly(String.class, new PrioritizedEventSubscriber() {
+            public int getPriority() {
+               return group - 1;
+            }
+
+            public void onEvent(Object event) {
+               int start = sequence.incrementAndGet();
+               int end = sequence.incrementAndGet();
+               synchronized (lastOfGroup) {
+                  firstOfGroup[group] = Math.min(firstOfGroup[group], start);
+                  lastOfGroup[group] = Math.max(lastOfGroup[group], end);
+               }
+            }
+         });
+      }
+      eventService.setFanOutForEventClass(String.class, FanOut.parallel(executor, 10));
+      eventService.publish("event");
+      assertEquals(600, sequence.get());
+      assertTrue(lastOfGroup[0] < firstOfGroup[1]);
+      assertTrue(lastOfGroup[1] < firstOfGroup[2]);
+   }
+
+   public void testExceptionsAreHandled() {
+      final AtomicInteger handled = new AtomicInteger();
+      eventService = new ThreadSafeEventService() {
+         protected void onEventException(String topic, Object eventObj, Throwable e,
+                 StackTraceElement[] callingStack, EventTopicSubscriber eventTopicSubscriber) {
+            handled.incrementAndGet();
+         }
+      };
+      for (int i = 0; i < 100; i++) {
+         final boolean fail = i % 10 == 0;
+         eventService.subscribeStrongly("Topic", new EventTopicSubscriber() {
+            public void onEvent(String topic, Object data) {
+               if (fail) {
+                  throw new IllegalStateException("Failing subscriber");
+               }
+            }
+         });
+      }
+      eventService.setFanOutForTopic("Topic", FanOut.parallel(executor, 7));
+      eventService.publish("Topic", "data");
+      assertEquals(10, handled.get());
+   }
+
+   public void testNoWait() throws InterruptedException {
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch delivered = new CountDownLatch(20);
+      for (int i = 0; i < 20; i++) {
+         eventService.subscribeStrongly(Pattern.compile("Slow.*"), new EventTopicSubscriber() {
+            public void onEvent(String topic, Object data) {
+               try {
+                  release.await();
+               } catch (InterruptedException e) {
+               }
+               delivered.countDown();
+            }
+         });
+      }
+      eventService.setFanOutForTopic("Slow.Topic", FanOut.parallelNoWait(executor, 5));
+      eventService.publish("Slow.Topic", "data");
+      assertEquals(20, delivered.getCount());
+      release.countDown();
+      assertTrue(delivered.await(5, TimeUnit.SECONDS));
+   }
+
+   public void testPublishingFromTheExecutorDoesNotDeadlock() throws Exception {
+      final ExecutorService single = Executors.newSingleThreadExecutor();
+      try {
+         final AtomicInteger calls = new AtomicInteger();
+         for (int i = 0; i < 10; i++) {
+            eventService.subscribeStrongly(String.class, new EventSubscriber() {
+               public void onEvent(Object event) {
+                  calls.incrementAndGet();
+               }
+            });
+         }
+         eventService.setFanOutForEventClass(String.class, FanOut.parallel(single, 2));
+         Future future = single.submit(new Runnable() {
+            public void run() {
+               eventService.publish("event");
+            }
+         });
+         future.get(5, TimeUnit.SECONDS);
+         assertEquals(10, calls.get());
+      } finally {
+         single.shutdownNow();
+      }
+   }
+
+   public void testRemovingTheFanOutDeliversSequentially() {
+      final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+      for (int i = 0; i < 100; i++) {
+         eventService.subscribeStrongly(String.class, new EventSubscriber() {
+            public void onEvent(Object event) {
+               threads.add(Thread.currentThread());
+            }
+         });
+      }
+      eventService.setFanOutForEventClass(String.class, FanOut.parallel(executor, 1));
+      eventService.setFanOutForEventClass(String.class, null);
+      assertNull(eventService.getFanOutForEventClass(String.class));
+      eventService.publish("event");
+      assertEquals(Collections.singleton(Thread.currentThread()), threads);
+   }
+
+   public void testBadArguments() {
+      try {
+         FanOut.parallel(executor, 0);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         FanOut.parallel(null, 10);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestLogger extends TestCase {
+
+   private CountingBackend backend = new CountingBackend();
+
+   public TestLogger(String name) {
+      super(name);
+   }
+
+   protected void tearDown() throws Exception {
+      Logger.setBackendFactory(null);
+      Logger.setLevelRefreshInterval(Logger.DEFAULT_LEVEL_REFRESH_INTERVAL_MS);
+   }
+
+   public void testLevelsAreCached() {
+      backend.enabled = Logger.Level.WARN;
+      Logger logger = new Logger(backend);
+      int checks = backend.checks;
+      for (int i = 0; i < 100; i++) {
+         assertFalse(logger.isLoggable(Logger.Level.DEBUG));
+         assertTrue(logger.isLoggable(Logger.Level.WARN));
+         assertTrue(logger.isLoggable(Logger.Level.ERROR));
+      }
+      assertEquals(checks, backend.checks);
+   }
+
+   public void testRefresh() {
+      Logger logger = new Logger(backend);
+      assertFalse(logger.isLoggable(Logger.Level.DEBUG));
+      backend.enabled = Logger.Level.DEBUG;
+      assertFalse(logger.isLoggable(Logger.Level.DEBUG));
+      logger.refresh();
+      assertTrue(logger.isLoggable(Logger.Level.DEBUG));
+      backend.enabled = Logger.Level.INFO;
+      Logger.refreshLevels();
+      assertFalse(logger.isLoggable(Logger.Level.DEBUG));
+      assertTrue(logger.isLoggable(Logger.Level.INFO));
+   }
+
+   public void testRefreshInterval() throws InterruptedException {
+      Logger logger = new Logger(backend);
+      Logger.setLevelRefreshInterval(20);
+      assertEquals(20, Logger.getLevelRefreshInterval());
+      backend.enabled = Logger.Level.TRACE;
+      for (int i = 0; i < 100 && !logger.isLoggable(Logger.Level.TRACE); i++) {
+         Thread.sleep(20);
+      }
+      assertTrue(logger.isLoggable(Logger.Level.TRACE));
+      try {
+         Logger.setLevelRefreshInterval(-1);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   public void testOnlyLoggableLevelsReachTheBackend() {
+      backend.enabled = Logger.Level.INFO;
+      Logger logger = new Logger(backend);
+      logger.debug("not logged");
+      logger.log(Logger.Level.INFO, "logged");
+      logger.log(Logger.Level.ERROR, "logged too", new IllegalStateException());
+      assertEquals(2, backend.messages.size());
+      assertEquals("logged", backend.messages.get(0));
+   }
+
+   public void testBackendFactory() {
+      final List<String> names = new ArrayList<String>();
+      Logger.setBackendFactory(new Logger.BackendFactory() {
+         public Logger.Backend getBackend(String name) {
+            names.add(name);
+            return backend;
+         }
+      });
+      Logger logger = Logger.getLogger("Foo");
+      assertEquals(1, names.size());
+      assertEquals("Foo", names.get(0));
+      assertSame(backend, logger.getBackend());
+   }
+
+   public void testJavaLogging() {
+      java.util.logging.Logger utilLogger = java.util.logging.Logger.getLogger("org.bushe.swing.event.TestLogger");
+      Logger logger = new Logger(utilLogger);
+      utilLogger.setLevel(java.util.logging.Level.WARNING);
+      logger.refresh();
+      assertTrue(logger.isLoggable(Logger.Level.WARN));
+      assertFalse(logger.isLoggable(Logger.Level.INFO));
+      utilLogger.setLevel(java.util.logging.Level.FINE);
+      logger.refresh();
+      assertTrue(logger.isLoggable(Logger.Level.DEBUG));
+      assertFalse(logger.isLoggable(Logger.Level.TRACE));
+   }
+
+   private static class CountingBackend implements Logger.Backend {
+      volatile Logger.Level enabled = Logger.Level.ERROR;
+      int checks;
+      List<String> messages = new ArrayList<String>();
+
+      public boolean isLoggable(Logger.Level level) {
+         checks++;
+         return level.compareTo(enabled) <= 0;
+      }
+
+      public void log(Logger.Level level, String message, Throwable throwable) {
+         messages.add(message);
+      }
+   }
+}
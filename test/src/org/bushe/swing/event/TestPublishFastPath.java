@@ -0,0 +1,205 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class TestPublishFastPath extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+
+   public TestPublishFastPath(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testClassSubscribersInPriorityOrder() {
+      final List<String> calls = new ArrayList<String>();
+      eventService.subscribeStrongly(Number.class, new Named("fifo", calls));
+      eventService.subscribeStrongly(Integer.class, new PrioritizedNamed("last", 10, calls));
+      eventService.subscribeStrongly(Integer.class, new PrioritizedNamed("first", -10, calls));
+      eventService.publish(new Integer(1));
+      eventService.publish(new Integer(2));
+      assertEquals("[first, fifo, last, first, fifo, last]", calls.toString());
+   }
+
+   public void testTopicAndPatternSubscribers() {
+      EventTopicSubscriber exact = new TopicSubscriberForTest(testCounter, false);
+      EventTopicSubscriber byPattern = new TopicSubscriberForTest(testCounter, false);
+      eventService.subscribeStrongly("Foo.Bar", exact);
+      eventService.subscribeStrongly(Pattern.compile("Foo.*"), byPattern);
+      eventService.publish("Foo.Bar", "data");
+      eventService.resolveTopic("Foo.Bar").publish("data");
+      assertEquals(4, testCounter.eventsHandledCount);
+   }
+
+   public void testVetoAddedAfterPublishing() {
+      eventService.subscribeStrongly(String.class, new SubscriberForTest(testCounter, null));
+      eventService.publish("one");
+      assertEquals(1, testCounter.eventsHandledCount);
+      eventService.subscribeVetoListenerStrongly(String.class, new VetoEventListener() {
+         public boolean shouldVeto(Object event) {
+            return "veto".equals(event);
+         }
+      });
+      eventService.publish("veto");
+      assertEquals(1, testCounter.eventsHandledCount);
+      eventService.publish("two");
+      assertEquals(2, testCounter.eventsHandledCount);
+   }
+
+   public void testCacheSizeSetAfterPublishing() {
+      eventService.publish("Topic", "uncached");
+      eventService.publish("uncached");
+      assertNull(eventService.getLastTopicData("Topic"));
+      assertNull(eventService.getLastEvent(String.class));
+      eventService.setCacheSizeForTopic("Topic", 1);
+      eventService.setCacheSizeForEventClass(String.class, 1);
+      eventService.publish("Topic", "cached");
+      eventService.publish("cached");
+      assertEquals("cached", eventService.getLastTopicData("Topic"));
+      assertEquals("cached", eventService.getLastEvent(String.class));
+   }
+
+   public void testStatusTrackingEventsGetStatus() {
+      eventService.subscribeStrongly(ObjectEvent.class, new SubscriberForTest(testCounter, null));
+      ObjectEvent event = new ObjectEvent(this, "data");
+      eventService.publish(event);
+      assertEquals(PublicationStatus.Completed, event.getPublicationStatus());
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   public void testSubclassHooksAreCalled() {
+      final List<PublicationStatus> statuses = new ArrayList<PublicationStatus>();
+      ThreadSafeEventService subclass = new ThreadSafeEventService() {
+         protected void setStatus(PublicationStatus status, Object event, String topic, Object eventObj) {
+            statuses.add(status);
+         }
+      };
+      subclass.publish("event");
+      assertTrue(statuses.contains(PublicationStatus.Completed));
+   }
+
+   public void testGarbageCollectedSubscribersAreDropped() {
+      SubscriberForTest subscriber = new SubscriberForTest(testCounter, null);
+      eventService.subscribe(String.class, subscriber);
+      eventService.publish("one");
+      assertEquals(1, testCounter.eventsHandledCount);
+      subscriber = null;
+      System.gc();
+      eventService.publish("two");
+      eventService.publish("three");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testSubscriberExceptionsAreHandled() {
+      eventService.subscribeStrongly(String.class, new SubscriberForTest(testCounter, true));
+      eventService.subscribeStrongly(String.class, new SubscriberForTest(testCounter, null));
+      eventService.publish("data");
+      assertEquals(2, testCounter.eventsHandledCount);
+      assertEquals(1, testCounter.subscribeExceptionCount);
+   }
+
+   public void testUnsubscribeStopsDelivery() {
+      EventTopicSubscriber subscriber = new TopicSubscriberForTest(testCounter, false);
+      eventService.subscribeStrongly("Topic", subscriber);
+      eventService.publish("Topic", "one");
+      eventService.unsubscribe("Topic", subscriber);
+      eventService.publish("Topic", "two");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   public void testUnsubscribedSubscribersAreNotRetainedByPlans() {
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, null);
+      EventTopicSubscriber topicSubscriber = new TopicSubscriberForTest(testCounter, false);
+      eventService.subscribeStrongly(Integer.class, subscriber);
+      eventService.subscribeStrongly("Topic", topicSubscriber);
+      eventService.publish(new Integer(1));
+      eventService.publish("Topic", "one");
+      assertEquals(2, testCounter.eventsHandledCount);
+      eventService.unsubscribe(Integer.class, subscriber);
+      eventService.unsubscribe("Topic", topicSubscriber);
+
+      //Neither the class nor the topic is published again
+      WeakReference<Object> collected = new WeakReference<Object>(subscriber);
+      WeakReference<Object> topicCollected = new WeakReference<Object>(topicSubscriber);
+      subscriber = null;
+      topicSubscriber = null;
+      for (int i = 0; i < 10 && (collected.get() != null || topicCollected.get() != null); i++) {
+         System.gc();
+      }
+      assertNull(collected.get());
+      assertNull(topicCollected.get());
+   }
+
+   public void testMoreClassesThanPlans() {
+      eventService.subscribeStrongly(Object.class, new SubscriberForTest(testCounter, null));
+      //Arrays of each depth are distinct classes, more of them than there are class plans
+      Class[] componentTypes = {String.class, Integer.class, Long.class, Double.class, Object.class};
+      int published = 0;
+      for (int t = 0; t < componentTypes.length; t++) {
+         for (int depth = 1; depth <= 220; depth++) {
+            eventService.publish(Array.newInstance(componentTypes[t], new int[depth]));
+            published++;
+         }
+      }
+      assertEquals(published, testCounter.eventsHandledCount);
+      eventService.publish(new String[0][0]);
+      assertEquals(published + 1, testCounter.eventsHandledCount);
+   }
+
+   private static class Named implements EventSubscriber {
+      private final String name;
+      private final List<String> calls;
+
+      Named(String name, List<String> calls) {
+         this.name = name;
+         this.calls = calls;
+      }
+
+      public void onEvent(Object event) {
+         calls.add(name);
+      }
+   }
+
+   private static class PrioritizedNamed extends Named implements Prioritized {
+      private final int priority;
+
+      PrioritizedNamed(String name, int priority, List<String> calls) {
+         super(name, calls);
+         this.priority = priority;
+      }
+
+      public int getPriority() {
+         return priority;
+      }
+   }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.annotation.AnnotationProcessor;
+
+public class TestRateLimit extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+
+   public TestRateLimit(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testDebounceDeliversLatestAfterQuietPeriod() throws Exception {
+      Recorder recorder = new Recorder();
+      eventService.subscribe("Typing", recorder, RateLimit.debounce(100));
+      for (int i = 0; i < 5; i++) {
+         eventService.publish("Typing", new Integer(i));
+         Thread.sleep(20);
+      }
+      assertEquals(0, recorder.size());
+      recorder.await(1, 2000);
+      Thread.sleep(200);
+      assertEquals(Collections.singletonList(new Integer(4)), recorder.getReceived());
+   }
+
+   public void testThrottleDeliversLeadingAndTrailing() throws Exception {
+      Recorder recorder = new Recorder();
+      eventService.subscribe("Telemetry", recorder, RateLimit.throttle(200));
+      eventService.publish("Telemetry", "first");
+      assertEquals(1, recorder.size());
+      assertSame(Thread.currentThread(), recorder.getThreads().get(0));
+      eventService.publish("Telemetry", "second");
+      eventService.publish("Telemetry", "third");
+      assertEquals(1, recorder.size());
+      recorder.await(2, 2000);
+      assertEquals("third", recorder.getReceived().get(1));
+      assertNotSame(Thread.currentThread(), recorder.getThreads().get(1));
+      //A quiet period closes the throttle, the next event is delivered immediately
+      Thread.sleep(400);
+      eventService.publish("Telemetry", "fourth");
+      assertEquals(3, recorder.size());
+   }
+
+   public void testSampleDeliversLatestPerPeriod() throws Exception {
+      Recorder recorder = new Recorder();
+      eventService.subscribe(Pattern.compile("Price\\..*"), recorder, RateLimit.sample(100));
+      eventService.publish("Price.IBM", "1");
+      eventService.publish("Price.SUNW", "2");
+      assertEquals(0, recorder.size());
+      recorder.await(1, 2000);
+      assertEquals("2", recorder.getReceived().get(0));
+      assertEquals("Price.SUNW", recorder.getTopics().get(0));
+      Thread.sleep(300);
+      assertEquals(1, recorder.size());
+   }
+
+   public void testEventClassSubscriber() throws Exception {
+      final List received = Collections.synchronizedList(new ArrayList());
+      EventSubscriber subscriber = new EventSubscriber() {
+         public void onEvent(Object event) {
+            received.add(event);
+         }
+      };
+      eventService.subscribe(Number.class, subscriber, RateLimit.debounce(50));
+      eventService.publish(new Integer(1));
+      eventService.publish(new Long(2));
+      long end = System.currentTimeMillis() + 2000;
+      while (received.isEmpty() && System.currentTimeMillis() < end) {
+         Thread.sleep(10);
+      }
+      assertEquals(Collections.singletonList(new Long(2)), received);
+   }
+
+   public void testUnsubscribeDropsPendingEvent() throws Exception {
+      Recorder recorder = new Recorder();
+      eventService.subscribe("Typing", recorder, RateLimit.debounce(50));
+      eventService.publish("Typing", "pending");
+      assertTrue(eventService.unsubscribe("Typing", recorder));
+      Thread.sleep(200);
+      assertEquals(0, recorder.size());
+      assertEquals(0, eventService.getSubscribers("Typing").size());
+   }
+
+   public void testManySubscribersShareOneTimerThread() throws Exception {
+      //Let the timer wheels of the other tests' services go idle and exit
+      long end = System.currentTimeMillis() + 5000;
+      while (countTimerWheelThreads() > 0 && System.currentTimeMillis() < end) {
+         Thread.sleep(50);
+      }
+      List<Recorder> recorders = new ArrayList<Recorder>();
+      for (int i = 0; i < 10000; i++) {
+         Recorder recorder = new Recorder();
+         recorders.add(recorder);
+         eventService.subscribe("Many", recorder, RateLimit.debounce(50));
+      }
+      eventService.publish("Many", "data");
+      assertEquals(1, countTimerWheelThreads());
+      recorders.get(recorders.size() - 1).await(1, 5000);
+      Thread.sleep(100);
+      for (Recorder recorder : recorders) {
+         assertEquals(1, recorder.size());
+      }
+   }
+
+   public void testAnnotatedThrottleDeliversOnEDT() throws Exception {
+      ThrottledAnnotatedSubscriber subscriber = new ThrottledAnnotatedSubscriber();
+      AnnotationProcessor.process(subscriber);
+      try {
+         EventBus.publish("ThrottledAnnotated", "first");
+         EventBus.publish("ThrottledAnnotated", "second");
+         EventBus.publish("ThrottledAnnotated", "third");
+         subscriber.recorder.await(2, 2000);
+         assertEquals("first", subscriber.recorder.getReceived().get(0));
+         assertEquals("third", subscriber.recorder.getReceived().get(1));
+         assertTrue(subscriber.onEDT);
+      } finally {
+         AnnotationProcessor.unprocess(subscriber);
+      }
+      assertEquals(0, EventBus.getSubscribers("ThrottledAnnotated").size());
+   }
+
+   public void testOnlyOneRateLimitPerAnnotation() {
+      try {
+         AnnotationProcessor.process(new DoubleRateLimitedSubscriber());
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   private int countTimerWheelThreads() {
+      Thread[] threads = new Thread[Thread.activeCount() * 2];
+      int count = Thread.enumerate(threads);
+      int timerThreads = 0;
+      for (int i = 0; i < count; i++) {
+         if ("EventService timer wheel".equals(threads[i].getName())) {
+            timerThreads++;
+         }
+      }
+      return timerThreads;
+   }
+
+   public static class ThrottledAnnotatedSubscriber {
+      final Recorder recorder = new Recorder();
+      volatile boolean onEDT = true;
+
+      @org.bushe.swing.event.annotation.EventTopicSubscriber(topic = "ThrottledAnnotated", throttleMS = 100)
+      public void onData(String topic, Object data) {
+         onEDT &= SwingUtilities.isEventDispatchThread();
+         recorder.onEvent(topic, data);
+      }
+   }
+
+   public static class DoubleRateLimitedSubscriber {
+      @org.bushe.swing.event.annotation.EventTopicSubscriber(topic = "Double", throttleMS = 100, debounceMS = 100)
+      public void onData(String topic, Object data) {
+      }
+   }
+
+   static class Recorder implements EventTopicSubscriber {
+      private final List<Object> received = new ArrayList<Object>();
+      private final List<String> topics = new ArrayList<String>();
+      private final List<Thread> threads = new ArrayList<Thread>();
+
+      public synchronized void onEvent(String topic, Object data) {
+         received.add(data);
+         topics.add(topic);
+         threads.add(Thread.currentThread());
+         notifyAll();
+      }
+
+      synchronized int size() {
+         return received.size();
+      }
+
+      synchronized List<Object> getReceived() {
+         return new ArrayList<Object>(received);
+      }
+
+      synchronized List<String> getTopics() {
+         return new ArrayList<String>(topics);
+      }
+
+      synchronized List<Thread> getThreads() {
+         return new ArrayList<Thread>(threads);
+      }
+
+      synchronized void await(int count, long timeoutMS) throws InterruptedException {
+         long end = System.currentTimeMillis() + timeoutMS;
+         while (received.size() < count) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+               fail("Expected " + count + " events, received " + received);
+            }
+            wait(remaining);
+         }
+      }
+   }
+}
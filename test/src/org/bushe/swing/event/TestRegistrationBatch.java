@@ -0,0 +1,201 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+public class TestRegistrationBatch extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+
+   public TestRegistrationBatch(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testApply() {
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, false);
+      EventTopicSubscriber topicSubscriber = new TopicSubscriberForTest(testCounter, false);
+      EventSubscriber old = new SubscriberForTest(testCounter, false);
+      eventService.subscribeStrongly(Integer.class, old);
+
+      RegistrationBatch batch = eventService.registrationBatch()
+              .subscribeStrongly(String.class, subscriber)
+              .subscribeStrongly(String.class, subscriber)
+              .subscribeStrongly("Foo", topicSubscriber)
+              .subscribeStrongly(Pattern.compile("Bar.*"), topicSubscriber)
+              .unsubscribe(Integer.class, old)
+              .unsubscribe(Double.class, old);
+      assertEquals(6, batch.size());
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      assertEquals(4, batch.apply());
+      assertEquals(0, batch.size());
+
+      eventService.publish("event");
+      eventService.publish("Foo", "data");
+      eventService.publish("BarBaz", "data");
+      eventService.publish(new Integer(1));
+      assertEquals(3, testCounter.eventsHandledCount);
+      assertEquals(1, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testVeto() {
+      eventService.subscribeStrongly("Foo", new TopicSubscriberForTest(testCounter, false));
+      VetoTopicEventListener vetoer = new VetoTopicEventListener() {
+         public boolean shouldVeto(String topic, Object data) {
+            return true;
+         }
+      };
+      eventService.registrationBatch().subscribeVetoListenerStrongly("Foo", vetoer).apply();
+      eventService.publish("Foo", "data");
+      assertEquals(0, testCounter.eventsHandledCount);
+      eventService.registrationBatch().unsubscribeVetoListener("Foo", vetoer).apply();
+      eventService.publish("Foo", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   public void testInvalidArguments() {
+      RegistrationBatch batch = eventService.registrationBatch();
+      try {
+         batch.subscribe((Class) null, new SubscriberForTest(testCounter, false));
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         batch.subscribe("Foo", null);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      assertEquals(0, batch.size());
+   }
+
+   public void testPublishersSeeTheBatchAllAtOnce() throws Exception {
+      final CountDownLatch inBatch = new CountDownLatch(1);
+      final CountDownLatch published = new CountDownLatch(1);
+      eventService = new ThreadSafeEventService(null, false) {
+         protected boolean subscribe(Object classTopicOrPatternWrapper, Map<Object, Object> subscriberMap,
+                 Object subscriber) {
+            boolean result = super.subscribe(classTopicOrPatternWrapper, subscriberMap, subscriber);
+            if ("Second".equals(classTopicOrPatternWrapper)) {
+               inBatch.countDown();
+               try {
+                  published.await(5, TimeUnit.SECONDS);
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+            }
+            return result;
+         }
+      };
+      final EventTopicSubscriber subscriber = new TopicSubscriberForTest(testCounter, false);
+      eventService.subscribeStrongly("First", new TopicSubscriberForTest(testCounter, false));
+      //build the dispatch plan for the topic before the batch
+      eventService.publish("First", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+
+      Thread batchThread = new Thread(new Runnable() {
+         public void run() {
+            eventService.registrationBatch()
+                    .subscribeStrongly("First", subscriber)
+                    .subscribeStrongly("Second", subscriber)
+                    .apply();
+         }
+      });
+      batchThread.start();
+      assertTrue(inBatch.await(5, TimeUnit.SECONDS));
+      //the batch holds the listener lock, but publications do not wait for it or see half of the batch
+      eventService.publish("First", "data");
+      published.countDown();
+      batchThread.join(5000);
+      assertEquals(2, testCounter.eventsHandledCount);
+
+      eventService.publish("First", "data");
+      assertEquals(4, testCounter.eventsHandledCount);
+   }
+
+   public void testClearAllSubscribersNotifiesProxies() {
+      CountingProxy strongProxy = new CountingProxy(new Object(), ReferenceStrength.STRONG);
+      CountingProxy weakProxy = new CountingProxy(new Object(), ReferenceStrength.WEAK);
+      eventService.subscribeStrongly(String.class, strongProxy);
+      eventService.subscribeStrongly("Foo", weakProxy);
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, false);
+      for (int i = 0; i < 1000; i++) {
+         eventService.subscribe(String.class, new SubscriberForTest(testCounter, false));
+      }
+      eventService.subscribe(String.class, subscriber);
+      eventService.subscribeVetoListenerStrongly(String.class, new VetoEventListener() {
+         public boolean shouldVeto(Object event) {
+            return false;
+         }
+      });
+      eventService.clearAllSubscribers();
+      assertEquals(1, strongProxy.unsubscribedCount);
+      assertEquals(1, weakProxy.unsubscribedCount);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      assertEquals(0, eventService.getSubscribers("Foo").size());
+      assertEquals(0, eventService.getVetoSubscribers(String.class).size());
+      eventService.publish("event");
+      assertEquals(0, testCounter.eventsHandledCount);
+      //still usable
+      eventService.subscribeStrongly(String.class, subscriber);
+      eventService.publish("event");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   private static class CountingProxy implements ProxySubscriber, EventSubscriber, EventTopicSubscriber {
+      private final Object proxied;
+      private final ReferenceStrength referenceStrength;
+      int unsubscribedCount;
+
+      CountingProxy(Object proxied, ReferenceStrength referenceStrength) {
+         this.proxied = proxied;
+         this.referenceStrength = referenceStrength;
+      }
+
+      public Object getProxiedSubscriber() {
+         return proxied;
+      }
+
+      public void proxyUnsubscribed() {
+         unsubscribedCount++;
+      }
+
+      public ReferenceStrength getReferenceStrength() {
+         return referenceStrength;
+      }
+
+      public void onEvent(Object event) {
+      }
+
+      public void onEvent(String topic, Object data) {
+      }
+   }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+public class TestRequestReply extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+
+   public TestRequestReply(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testRequestCompletesWithFirstReply() throws Exception {
+      eventService.subscribeStrongly("Echo", new Responder("first"));
+      eventService.subscribeStrongly("Echo", new Responder("second"));
+      Future<Object> reply = eventService.request("Echo", "ping", 1000);
+      assertTrue(reply.isDone());
+      assertEquals("first:ping", reply.get());
+   }
+
+   public void testAsynchronousReply() throws Exception {
+      eventService.subscribeStrongly("Slow", new EventTopicSubscriber() {
+         public void onEvent(String topic, final Object data) {
+            new Thread() {
+               public void run() {
+                  try {
+                     Thread.sleep(50);
+                  } catch (InterruptedException e) {
+                  }
+                  ((Request) data).reply("done");
+               }
+            }.start();
+         }
+      });
+      Future<Object> reply = eventService.request("Slow", null, 5000);
+      assertFalse(reply.isDone());
+      assertEquals("done", reply.get(5, TimeUnit.SECONDS));
+   }
+
+   public void testRequestTimesOut() throws Exception {
+      final Request[] received = new Request[1];
+      eventService.subscribeStrongly("Silent", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+            received[0] = (Request) data;
+         }
+      });
+      Future<Object> reply = eventService.request("Silent", "ping", 50);
+      assertEquals("ping", received[0].getPayload());
+      assertTrue(received[0].isPending());
+      try {
+         reply.get(5, TimeUnit.SECONDS);
+         fail("Expected the request to time out");
+      } catch (ExecutionException expected) {
+         assertTrue(expected.getCause() instanceof TimeoutException);
+      }
+      assertFalse(received[0].isPending());
+      assertFalse(received[0].reply("late"));
+   }
+
+   public void testRequestWithoutSubscribersFailsFast() throws Exception {
+      Future<Object> reply = eventService.request("Nobody", "ping", 60000);
+      assertTrue(reply.isDone());
+      try {
+         reply.get();
+         fail("Expected the request to fail");
+      } catch (ExecutionException expected) {
+         assertTrue(expected.getCause() instanceof IllegalStateException);
+      }
+   }
+
+   public void testVetoedRequestFailsFast() throws Exception {
+      eventService.subscribeStrongly("Vetoed", new Responder("a"));
+      eventService.subscribeVetoListenerStrongly("Vetoed", new Vetoer());
+      Future<Object> reply = eventService.request("Vetoed", "ping", 60000);
+      assertTrue(reply.isDone());
+      try {
+         reply.get();
+         fail("Expected the request to fail");
+      } catch (ExecutionException expected) {
+         assertTrue(expected.getCause() instanceof IllegalStateException);
+      }
+      Future<List<Object>> replies = eventService.scatterGather("Vetoed", "x", 60000);
+      assertTrue(replies.isDone());
+      assertTrue(replies.get().isEmpty());
+   }
+
+   public void testSubscriberFailure() throws Exception {
+      eventService.subscribeStrongly("Fail", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+            ((Request) data).fail(new UnsupportedOperationException("no"));
+         }
+      });
+      try {
+         eventService.request("Fail", null, 1000).get();
+         fail("Expected the request to fail");
+      } catch (ExecutionException expected) {
+         assertTrue(expected.getCause() instanceof UnsupportedOperationException);
+      }
+   }
+
+   public void testScatterGather() throws Exception {
+      eventService.subscribeStrongly("Quote.IBM", new Responder("a"));
+      eventService.subscribeStrongly("Quote.IBM", new Responder("b"));
+      eventService.subscribeStrongly(Pattern.compile("Quote\\..*"), new Responder("c"));
+      List<Object> replies = eventService.scatterGather("Quote.IBM", "x", 1000).get(5, TimeUnit.SECONDS);
+      assertEquals(3, replies.size());
+      assertTrue(replies.contains("a:x"));
+      assertTrue(replies.contains("b:x"));
+      assertTrue(replies.contains("c:x"));
+   }
+
+   public void testScatterGatherTimeoutReturnsPartialReplies() throws Exception {
+      eventService.subscribeStrongly("Partial", new Responder("a"));
+      eventService.subscribeStrongly("Partial", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+         }
+      });
+      Future<List<Object>> replies = eventService.scatterGather("Partial", "x", 50);
+      assertFalse(replies.isDone());
+      List<Object> result = replies.get(5, TimeUnit.SECONDS);
+      assertEquals(1, result.size());
+      assertEquals("a:x", result.get(0));
+   }
+
+   public void testScatterGatherWithoutSubscribers() throws Exception {
+      Future<List<Object>> replies = eventService.scatterGather("Nobody", "x", 60000);
+      assertTrue(replies.isDone());
+      assertTrue(replies.get().isEmpty());
+   }
+
+   public void testCancel() throws Exception {
+      final Request[] received = new Request[1];
+      eventService.subscribeStrongly("Cancel", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+            received[0] = (Request) data;
+         }
+      });
+      Future<Object> reply = eventService.request("Cancel", null, 60000);
+      assertTrue(reply.cancel(false));
+      assertTrue(reply.isCancelled());
+      assertFalse(received[0].isPending());
+      assertFalse(received[0].reply("late"));
+      try {
+         reply.get();
+         fail("Expected a CancellationException");
+      } catch (CancellationException expected) {
+      }
+   }
+
+   public void testRequestsDoNotChangeSubscriptions() throws Exception {
+      eventService.subscribeStrongly("Echo", new Responder("r"));
+      for (int i = 0; i < 1000; i++) {
+         assertEquals("r:" + i, eventService.request("Echo", new Integer(i), 1000).get());
+      }
+      assertEquals(1, eventService.getSubscribers("Echo").size());
+      assertEquals(1, eventService.getSubscribersToTopic("Echo").size());
+   }
+
+   public void testFilteredSubscribersGetRequestsForMatchingPayloads() throws Exception {
+      EventAttribute self = new EventAttribute("self") {
+         public Object getValue(Object event) {
+            return event;
+         }
+      };
+      Responder ibm = new Responder("ibm");
+      eventService.subscribe("Quote", ibm, EventFilter.equalTo(self, "IBM"));
+      assertEquals("ibm:IBM", eventService.request("Quote", "IBM", 1000).get(5, TimeUnit.SECONDS));
+      try {
+         eventService.request("Quote", "MSFT", 1000).get(5, TimeUnit.SECONDS);
+         fail("Expected the request to fail");
+      } catch (ExecutionException expected) {
+         assertTrue(expected.getCause() instanceof IllegalStateException);
+      }
+
+      Responder all = new Responder("all");
+      eventService.subscribeStrongly("Quote", all);
+      List<Object> replies = eventService.scatterGather("Quote", "IBM", 1000).get(5, TimeUnit.SECONDS);
+      assertEquals(2, replies.size());
+      assertTrue(replies.contains("ibm:IBM"));
+      assertTrue(replies.contains("all:IBM"));
+      replies = eventService.scatterGather("Quote", "MSFT", 1000).get(5, TimeUnit.SECONDS);
+      assertEquals(1, replies.size());
+      assertEquals("all:MSFT", replies.get(0));
+   }
+
+   private static class Responder implements EventTopicSubscriber {
+      private final String name;
+
+      Responder(String name) {
+         this.name = name;
+      }
+
+      public void onEvent(String topic, Object data) {
+         Request request = (Request) data;
+         request.reply(name + ":" + request.getPayload());
+      }
+   }
+
+   private static class Vetoer implements VetoTopicEventListener {
+      public boolean shouldVeto(String topic, Object data) {
+         return true;
+      }
+   }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.annotation.BaseProxySubscriber;
+import org.bushe.swing.event.annotation.ProxyTopicSubscriber;
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+public class TestRouteDispatcher extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private final List<String> calls = new ArrayList<String>();
+   private final List<Throwable> failures = new ArrayList<Throwable>();
+
+   public TestRouteDispatcher(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+      eventService.setRouteDispatcherThreshold(0);
+      eventService.setSubscriberExceptionHandler(new SubscriberExceptionHandler() {
+         public void handleException(SubscriberExceptionContext context) {
+            failures.add(context.getThrowable());
+         }
+      });
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testEventClassRouteMatchesGenericPath() throws Exception {
+      PublicTarget target = new PublicTarget(calls);
+      EventSubscriber weak = new Recorder(calls, "weak");
+      eventService.subscribeStrongly(String.class, new Recorder(calls, "plain"));
+      eventService.subscribe(String.class, weak);
+      eventService.subscribeStrongly(String.class, new PrioritizedRecorder(calls, "prioritized", -5));
+      eventService.subscribeStrongly(String.class, new BaseProxySubscriber(target,
+              PublicTarget.class.getMethod("onString", new Class[]{String.class}), ReferenceStrength.STRONG,
+              eventService, String.class, false));
+      eventService.subscribeStrongly(String.class, new BaseProxySubscriber(target,
+              PublicTarget.class.getMethod("count", new Class[]{String.class}), ReferenceStrength.STRONG,
+              eventService, String.class, false));
+      HiddenTarget hidden = new HiddenTarget(calls);
+      eventService.subscribeStrongly(String.class, new BaseProxySubscriber(hidden,
+              HiddenTarget.class.getMethod("onString", new Class[]{String.class}), ReferenceStrength.WEAK,
+              eventService, String.class, false));
+      eventService.subscribeStrongly(String.class, new EventSubscriber() {
+         public void onEvent(Object event) {
+            calls.add("throwing");
+            throw new IllegalStateException("expected");
+         }
+      });
+
+      eventService.publish("generic");
+      List<String> generic = new ArrayList<String>(calls);
+      assertEquals(1, failures.size());
+      assertTrue(target.calledThroughProxy);
+      assertNull(eventService.getRouteDispatcher(String.class));
+
+      calls.clear();
+      failures.clear();
+      target.calledThroughProxy = false;
+      eventService.setRouteDispatcherThreshold(1);
+      eventService.publish("generated");
+      assertNotNull(eventService.getRouteDispatcher(String.class));
+      assertEquals(generic, calls);
+      assertEquals(1, failures.size());
+      assertTrue(failures.get(0) instanceof IllegalStateException);
+      assertFalse(target.calledThroughProxy);
+      assertEquals(2, target.received.size());
+      assertEquals("generated", target.received.get(1));
+      //keep the weakly subscribed subscribers reachable
+      assertNotNull(weak);
+      assertNotNull(hidden);
+   }
+
+   public void testTopicRouteMatchesGenericPath() throws Exception {
+      PublicTarget target = new PublicTarget(calls);
+      eventService.subscribeStrongly("Foo.Bar", new Recorder(calls, "exact"));
+      eventService.subscribeStrongly(Pattern.compile("Foo.*"), new Recorder(calls, "pattern"));
+      eventService.subscribeStrongly("Foo.Bar", new ProxyTopicSubscriber(target,
+              PublicTarget.class.getMethod("onTopic", new Class[]{String.class, Object.class}),
+              ReferenceStrength.STRONG, eventService, "Foo.Bar", false));
+
+      eventService.publish("Foo.Bar", "generic");
+      List<String> generic = new ArrayList<String>(calls);
+      assertEquals(3, generic.size());
+      assertTrue(target.calledThroughProxy);
+
+      calls.clear();
+      target.calledThroughProxy = false;
+      eventService.setRouteDispatcherThreshold(1);
+      eventService.publish("Foo.Bar", "generated");
+      assertNotNull(eventService.getRouteDispatcher("Foo.Bar"));
+      assertEquals(generic, calls);
+      assertFalse(target.calledThroughProxy);
+      assertEquals(0, failures.size());
+   }
+
+   public void testAnnotatedExceptionsMatchGenericPath() throws Exception {
+      ThrowingTarget target = new ThrowingTarget();
+      eventService.subscribeStrongly(String.class, new BaseProxySubscriber(target,
+              ThrowingTarget.class.getMethod("onString", new Class[]{String.class}), ReferenceStrength.STRONG,
+              eventService, String.class, false));
+      eventService.subscribeStrongly("Foo", new ProxyTopicSubscriber(target,
+              ThrowingTarget.class.getMethod("onTopic", new Class[]{String.class, Object.class}),
+              ReferenceStrength.STRONG, eventService, "Foo", false));
+      eventService.publish("generic");
+      eventService.publish("Foo", "generic");
+      assertEquals(2, failures.size());
+      List<Throwable> generic = new ArrayList<Throwable>(failures);
+
+      failures.clear();
+      eventService.setRouteDispatcherThreshold(1);
+      eventService.publish("generated");
+      eventService.publish("Foo", "generated");
+      assertNotNull(eventService.getRouteDispatcher(String.class));
+      assertNotNull(eventService.getRouteDispatcher("Foo"));
+      assertEquals(2, failures.size());
+      for (int i = 0; i < 2; i++) {
+         Throwable expected = generic.get(i);
+         Throwable actual = failures.get(i);
+         while (expected != null) {
+            assertNotNull(actual);
+            assertEquals(expected.getClass(), actual.getClass());
+            expected = expected.getCause();
+            actual = actual.getCause();
+         }
+         assertNull(actual);
+      }
+      assertTrue(failures.get(0).getCause().getCause() instanceof IllegalStateException);
+      assertTrue(failures.get(0).getMessage().indexOf("Event:generated") > 0);
+      assertTrue(failures.get(1).getMessage().indexOf("Topic:Foo") > 0);
+   }
+
+   public void testRegeneratedWhenSubscriptionsChange() {
+      eventService.setRouteDispatcherThreshold(3);
+      eventService.subscribeStrongly(String.class, new Recorder(calls, "first"));
+      eventService.publish("event");
+      eventService.publish("event");
+      assertNull(eventService.getRouteDispatcher(String.class));
+      eventService.publish("event");
+      RouteDispatcher dispatcher = eventService.getRouteDispatcher(String.class);
+      assertNotNull(dispatcher);
+      assertEquals(3, calls.size());
+
+      eventService.subscribeStrongly(String.class, new Recorder(calls, "second"));
+      calls.clear();
+      eventService.publish("event");
+      assertEquals(2, calls.size());
+      assertNull(eventService.getRouteDispatcher(String.class));
+      eventService.publish("event");
+      eventService.publish("event");
+      assertNotNull(eventService.getRouteDispatcher(String.class));
+      assertNotSame(dispatcher, eventService.getRouteDispatcher(String.class));
+      assertEquals(6, calls.size());
+   }
+
+   public void testCollectedWeakSubscriberIsSkipped() {
+      eventService.setRouteDispatcherThreshold(1);
+      eventService.subscribeStrongly(String.class, new Recorder(calls, "strong"));
+      eventService.subscribe(String.class, new Recorder(calls, "weak"));
+      System.gc();
+      eventService.publish("event");
+      eventService.publish("event");
+      assertEquals(2, calls.size());
+      assertEquals(0, failures.size());
+   }
+
+   public void testTooManySubscribers() {
+      eventService.setRouteDispatcherThreshold(1);
+      for (int i = 0; i <= RouteDispatcherGenerator.MAX_SUBSCRIBERS; i++) {
+         eventService.subscribeStrongly(String.class, new Recorder(calls, "" + i));
+      }
+      eventService.publish("event");
+      assertNull(eventService.getRouteDispatcher(String.class));
+      assertEquals(RouteDispatcherGenerator.MAX_SUBSCRIBERS + 1, calls.size());
+   }
+
+   private static class Recorder implements EventSubscriber, EventTopicSubscriber {
+      private final List<String> calls;
+      private final String name;
+
+      Recorder(List<String> calls, String name) {
+         this.calls = calls;
+         this.name = name;
+      }
+
+      public void onEvent(Object event) {
+         calls.add(name);
+      }
+
+      public void onEvent(String topic, Object data) {
+         calls.add(name);
+      }
+   }
+
+   private static class PrioritizedRecorder extends Recorder implements Prioritized {
+      private final int priority;
+
+      PrioritizedRecorder(List<String> calls, String name, int priority) {
+         super(calls, name);
+         this.priority = priority;
+      }
+
+      public int getPriority() {
+         return priority;
+      }
+   }
+
+   public static class PublicTarget {
+      private final List<String> calls;
+      final List<Object> received = new ArrayList<Object>();
+      boolean calledThroughProxy;
+
+      PublicTarget(List<String> calls) {
+         this.calls = calls;
+      }
+
+      public void onString(String event) {
+         calls.add("annotated");
+         received.add(event);
+         checkCaller();
+      }
+
+      public int count(String event) {
+         calls.add("annotated with a result");
+         checkCaller();
+         return calls.size();
+      }
+
+      public void onTopic(String topic, Object data) {
+         calls.add("annotated topic");
+         checkCaller();
+      }
+
+      private void checkCaller() {
+         StackTraceElement[] stack = new Throwable().getStackTrace();
+         for (int i = 0; i < stack.length; i++) {
+            if (stack[i].getClassName().startsWith("org.bushe.swing.event.annotation.")) {
+               calledThroughProxy = true;
+            }
+         }
+      }
+   }
+
+   public static class ThrowingTarget {
+      public void onString(String event) {
+         throw new IllegalStateException("expected");
+      }
+
+      public void onTopic(String topic, Object data) {
+         throw new IllegalStateException("expected");
+      }
+   }
+
+   static class HiddenTarget {
+      private final List<String> calls;
+
+      HiddenTarget(List<String> calls) {
+         this.calls = calls;
+      }
+
+      public void onString(String event) {
+         calls.add("hidden");
+      }
+   }
+}
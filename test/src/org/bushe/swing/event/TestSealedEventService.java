@@ -0,0 +1,213 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+public class TestSealedEventService extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+
+   public TestSealedEventService(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testPublishAfterSealing() {
+      eventService.subscribeStrongly(Object.class, new SubscriberForTest(testCounter, false));
+      eventService.subscribeExactlyStrongly(String.class, new SubscriberForTest(testCounter, false));
+      eventService.subscribeStrongly("Foo", new TopicSubscriberForTest(testCounter, false));
+      eventService.subscribeStrongly(Pattern.compile("Ba.*"), new TopicSubscriberForTest(testCounter, false));
+      eventService.seal();
+      assertTrue(eventService.isSealed());
+
+      eventService.publish("event");
+      assertEquals(2, testCounter.eventsHandledCount);
+      //no plan was built for Integer when sealing
+      eventService.publish(new Integer(1));
+      assertEquals(3, testCounter.eventsHandledCount);
+      eventService.publish("Foo", "data");
+      assertEquals(4, testCounter.eventsHandledCount);
+      eventService.publish("Bar", "data");
+      eventService.publish("Baz", "data");
+      assertEquals(6, testCounter.eventsHandledCount);
+      eventService.publish("Other", "data");
+      assertEquals(6, testCounter.eventsHandledCount);
+   }
+
+   public void testVetoAndPriorityAfterSealing() {
+      final List<String> calls = new ArrayList<String>();
+      eventService.subscribeStrongly(String.class, new PrioritizedEventSubscriber() {
+         public int getPriority() {
+            return 10;
+         }
+
+         public void onEvent(Object event) {
+            calls.add("last");
+         }
+      });
+      eventService.subscribeStrongly(String.class, new PrioritizedEventSubscriber() {
+         public int getPriority() {
+            return -10;
+         }
+
+         public void onEvent(Object event) {
+            calls.add("first");
+         }
+      });
+      eventService.subscribeVetoListenerStrongly(String.class, new VetoEventListener() {
+         public boolean shouldVeto(Object event) {
+            return "veto".equals(event);
+         }
+      });
+      eventService.seal();
+      eventService.publish("veto");
+      assertEquals(0, calls.size());
+      eventService.publish("event");
+      assertEquals(2, calls.size());
+      assertEquals("first", calls.get(0));
+      assertEquals("last", calls.get(1));
+   }
+
+   public void testSubscriptionsCannotChange() {
+      final EventSubscriber subscriber = new SubscriberForTest(testCounter, false);
+      eventService.subscribeStrongly(String.class, subscriber);
+      Subscription subscription = eventService.subscribeWithHandle("Foo", new TopicSubscriberForTest(testCounter, false),
+              ReferenceStrength.STRONG);
+      eventService.seal();
+      Runnable[] changes = {
+         new Runnable() {
+            public void run() {
+               eventService.subscribe(Integer.class, subscriber);
+            }
+         },
+         new Runnable() {
+            public void run() {
+               eventService.subscribeVetoListenerStrongly("Foo", new VetoTopicEventListenerForTest());
+            }
+         },
+         new Runnable() {
+            public void run() {
+               eventService.unsubscribe(String.class, subscriber);
+            }
+         },
+         new Runnable() {
+            public void run() {
+               eventService.unsubscribeExactly(String.class, subscriber);
+            }
+         },
+         new Runnable() {
+            public void run() {
+               eventService.registrationBatch().subscribe("Bar", new TopicSubscriberForTest(testCounter, false)).apply();
+            }
+         },
+         new Runnable() {
+            public void run() {
+               eventService.clearAllSubscribers();
+            }
+         }
+      };
+      for (int i = 0; i < changes.length; i++) {
+         try {
+            changes[i].run();
+            fail("Expected an IllegalStateException from change " + i);
+         } catch (IllegalStateException expected) {
+         }
+      }
+      try {
+         subscription.cancel();
+         fail("Expected an IllegalStateException");
+      } catch (IllegalStateException expected) {
+      }
+      eventService.publish("event");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   public void testPublishDoesNotCopySubscriptions() {
+      final int[] lookups = new int[1];
+      eventService = new ThreadSafeEventService(null, false) {
+         public <T> List<T> getSubscribers(Class<T> eventClass) {
+            lookups[0]++;
+            return super.getSubscribers(eventClass);
+         }
+
+         public <T> List<T> getVetoSubscribers(Class<T> eventClass) {
+            lookups[0]++;
+            return super.getVetoSubscribers(eventClass);
+         }
+      };
+      eventService.subscribeStrongly(String.class, new SubscriberForTest(testCounter, false));
+      //a veto subscriber keeps publications off the fast path
+      eventService.subscribeVetoListenerStrongly(String.class, new VetoEventListener() {
+         public boolean shouldVeto(Object event) {
+            return false;
+         }
+      });
+      eventService.seal();
+      lookups[0] = 0;
+      for (int i = 0; i < 10; i++) {
+         eventService.publish("event");
+      }
+      assertEquals(0, lookups[0]);
+      assertEquals(10, testCounter.eventsHandledCount);
+   }
+
+   public void testCacheSettingsAfterSealing() {
+      eventService.subscribeStrongly("Foo", new TopicSubscriberForTest(testCounter, false));
+      eventService.seal();
+      eventService.setCacheSizeForTopic("Foo", 1);
+      eventService.publish("Foo", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertEquals("data", eventService.getLastTopicData("Foo"));
+   }
+
+   public void testWeakSubscribersAreStillCollected() {
+      eventService.subscribe(String.class, new SubscriberForTest(testCounter, false));
+      eventService.seal();
+      System.gc();
+      eventService.publish("event");
+      eventService.publish("event");
+      assertEquals(0, testCounter.eventsHandledCount);
+   }
+
+   public void testQuarantineAfterSealing() {
+      final SubscriberForTest failing = new SubscriberForTest(testCounter, true);
+      eventService.subscribeStrongly(String.class, failing);
+      eventService.setSubscriberExceptionHandler(new SubscriberExceptionHandler() {
+         public void handleException(SubscriberExceptionContext context) {
+            context.quarantine();
+         }
+      });
+      eventService.seal();
+      eventService.publish("event");
+      eventService.publish("event");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.journal.EventJournal;
+import org.bushe.swing.event.journal.SerializableJournalSerializer;
+
+public class TestSubscribeWithReplay extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+
+   public TestSubscribeWithReplay(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testTopicReplayThenLive() {
+      eventService.setCacheSizeForTopic("Foo", 3);
+      eventService.publish("Foo", "1");
+      eventService.publish("Foo", "2");
+      eventService.publish("Foo", "3");
+      eventService.publish("Foo", "4");
+      RecordingTopicSubscriber subscriber = new RecordingTopicSubscriber();
+      assertTrue(eventService.subscribeWithReplay("Foo", subscriber, 2));
+      assertEquals(list("3", "4"), subscriber.received);
+      eventService.publish("Foo", "5");
+      assertEquals(list("3", "4", "5"), subscriber.received);
+
+      RecordingTopicSubscriber all = new RecordingTopicSubscriber();
+      eventService.subscribeWithReplay("Foo", all, 10);
+      assertEquals(list("3", "4", "5"), all.received);
+
+      eventService.unsubscribe("Foo", subscriber);
+      eventService.publish("Foo", "6");
+      assertEquals(list("3", "4", "5"), subscriber.received);
+      assertEquals(list("3", "4", "5", "6"), all.received);
+   }
+
+   public void testClassReplayThenLive() {
+      eventService.setCacheSizeForEventClass(Integer.class, 5);
+      eventService.publish(new Integer(1));
+      eventService.publish(new Integer(2));
+      RecordingEventSubscriber subscriber = new RecordingEventSubscriber();
+      eventService.subscribeWithReplay(Integer.class, subscriber, 5);
+      assertEquals(list(new Integer(1), new Integer(2)), subscriber.received);
+      eventService.publish(new Integer(3));
+      assertEquals(list(new Integer(1), new Integer(2), new Integer(3)), subscriber.received);
+
+      try {
+         eventService.subscribeWithReplay(Comparable.class, subscriber, 5);
+         fail("Interfaces are not cached");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   public void testSubscriptionReplacesPlainSubscription() {
+      eventService.setCacheSizeForTopic("Foo", 1);
+      eventService.publish("Foo", "1");
+      RecordingTopicSubscriber subscriber = new RecordingTopicSubscriber();
+      eventService.subscribe("Foo", subscriber);
+      assertFalse(eventService.subscribeWithReplay("Foo", subscriber, 1));
+      eventService.publish("Foo", "2");
+      assertEquals(list("1", "2"), subscriber.received);
+   }
+
+   public void testReplayingSubscribersAreNotTrackedForever() {
+      eventService.setCacheSizeForTopic("Foo", 5);
+      eventService.setCacheSizeForTopic("Bar", 5);
+      eventService.publish("Foo", "1");
+      RecordingTopicSubscriber foo = new RecordingTopicSubscriber();
+      RecordingTopicSubscriber bar = new RecordingTopicSubscriber();
+      eventService.subscribeWithReplay("Foo", foo, 5);
+      eventService.subscribeWithReplay("Bar", bar, 5);
+      assertEquals(2, eventService.getTrackedReplayingSubscriberCount());
+
+      //A publication on another topic does not drop it, one that already delivers to it does
+      eventService.publish("Bar", "a");
+      assertEquals(1, eventService.getTrackedReplayingSubscriberCount());
+      eventService.publish("Foo", "2");
+      assertEquals(0, eventService.getTrackedReplayingSubscriberCount());
+      eventService.publish("Foo", "3");
+      assertEquals(list("1", "2", "3"), foo.received);
+      assertEquals(list("a"), bar.received);
+
+      RecordingTopicSubscriber unsubscribed = new RecordingTopicSubscriber();
+      eventService.subscribeWithReplay("Foo", unsubscribed, 5);
+      eventService.unsubscribe("Foo", unsubscribed);
+      eventService.publish("Bar", "b");
+      assertEquals(0, eventService.getTrackedReplayingSubscriberCount());
+   }
+
+   /**
+    * Subscribes with replay after a publication copied its subscribers but before it cached its data, the
+    * publication must still be delivered to the new subscriber, exactly once.
+    */
+   public void testPublicationBetweenSubscriberCopyAndCachingIsNotMissed() {
+      final RecordingTopicSubscriber subscriber = new RecordingTopicSubscriber();
+      eventService = new ThreadSafeEventService(null, false) {
+         protected void publish(Object event, String topic, Object eventObj, List subscribers,
+                 List vetoSubscribers, StackTraceElement[] callingStack) {
+            if ("2".equals(eventObj)) {
+               subscribeWithReplay("Foo", subscriber, 5);
+            }
+            super.publish(event, topic, eventObj, subscribers, vetoSubscribers, callingStack);
+         }
+      };
+      eventService.setCacheSizeForTopic("Foo", 5);
+      eventService.publish("Foo", "1");
+      eventService.publish("Foo", "2");
+      eventService.publish("Foo", "3");
+      assertEquals(list("1", "2", "3"), subscriber.received);
+   }
+
+   public void testConcurrentPublicationsHaveNoGapsOrDuplicates() throws Exception {
+      eventService.setCacheSizeForTopic("Foo", 5);
+      final int count = 20000;
+      Thread publisher = new Thread() {
+         public void run() {
+            for (int i = 0; i < count; i++) {
+               eventService.publish("Foo", new Integer(i));
+            }
+         }
+      };
+      publisher.start();
+      Thread.sleep(5);
+      RecordingTopicSubscriber subscriber = new RecordingTopicSubscriber();
+      eventService.subscribeWithReplay("Foo", subscriber, 5);
+      publisher.join();
+      List received = subscriber.getReceived();
+      assertFalse(received.isEmpty());
+      int first = ((Integer) received.get(0)).intValue();
+      for (int i = 0; i < received.size(); i++) {
+         assertEquals(new Integer(first + i), received.get(i));
+      }
+      assertEquals(new Integer(count - 1), received.get(received.size() - 1));
+   }
+
+   public void testJournalReplay() throws Exception {
+      File directory = File.createTempFile("replayjournal", "");
+      directory.delete();
+      EventJournal journal = new EventJournal(directory, new SerializableJournalSerializer());
+      try {
+         journal.journal("Foo");
+         eventService.setEventJournal(journal);
+         eventService.publish("Foo", "1");
+         eventService.publish("Bar", "not journaled");
+         eventService.publish("Foo", "2");
+         RecordingTopicSubscriber subscriber = new RecordingTopicSubscriber();
+         eventService.subscribeWithJournalReplay("Foo", subscriber, 0);
+         assertEquals(list("1", "2"), subscriber.received);
+         eventService.publish("Foo", "3");
+         assertEquals(list("1", "2", "3"), subscriber.received);
+
+         RecordingTopicSubscriber late = new RecordingTopicSubscriber();
+         eventService.subscribeWithJournalReplay("Foo", late, 1);
+         assertEquals(list("2", "3"), late.received);
+      } finally {
+         journal.close();
+         File[] files = directory.listFiles();
+         for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+         }
+         directory.delete();
+      }
+   }
+
+   public void testJournalReplayRequiresJournal() throws Exception {
+      try {
+         eventService.subscribeWithJournalReplay("Foo", new RecordingTopicSubscriber(), 0);
+         fail("Expected an IllegalStateException");
+      } catch (IllegalStateException expected) {
+      }
+   }
+
+   private static List list(Object... items) {
+      List result = new ArrayList();
+      Collections.addAll(result, items);
+      return result;
+   }
+
+   private static class RecordingTopicSubscriber implements EventTopicSubscriber {
+      final List received = new ArrayList();
+
+      public synchronized void onEvent(String topic, Object data) {
+         received.add(data);
+      }
+
+      synchronized List getReceived() {
+         return new ArrayList(received);
+      }
+   }
+
+   private static class RecordingEventSubscriber implements EventSubscriber {
+      final List received = new ArrayList();
+
+      public void onEvent(Object event) {
+         received.add(event);
+      }
+   }
+}
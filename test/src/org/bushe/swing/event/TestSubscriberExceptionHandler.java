@@ -0,0 +1,221 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.annotation.BaseProxySubscriber;
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+public class TestSubscriberExceptionHandler extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+   private List<SubscriberExceptionContext> contexts = new ArrayList<SubscriberExceptionContext>();
+   private SubscriberExceptionHandler recorder = new SubscriberExceptionHandler() {
+      public void handleException(SubscriberExceptionContext context) {
+         contexts.add(context);
+      }
+   };
+
+   public TestSubscriberExceptionHandler(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testHandlerReceivesContext() {
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, true);
+      eventService.subscribeStrongly(String.class, subscriber);
+      eventService.setSubscriberExceptionHandler(recorder);
+      assertSame(recorder, eventService.getSubscriberExceptionHandler());
+      eventService.publish("Foo");
+      assertEquals(1, contexts.size());
+      SubscriberExceptionContext context = contexts.get(0);
+      assertSame(eventService, context.getEventService());
+      assertEquals("Foo", context.getEvent());
+      assertNull(context.getTopic());
+      assertSame(subscriber, context.getSubscriber());
+      assertTrue(context.getThrowable() instanceof IllegalArgumentException);
+      assertFalse(context.isVeto());
+      assertEquals(context.getThrowable(), context.toSwingException().getCause());
+      assertTrue(context.getSourceDescription().indexOf("Subscriber class:") > 0);
+
+      TopicSubscriberForTest topicSubscriber = new TopicSubscriberForTest(testCounter, true);
+      eventService.subscribeStrongly("Bar", topicSubscriber);
+      eventService.publish("Bar", "data");
+      assertEquals(2, contexts.size());
+      context = contexts.get(1);
+      assertEquals("Bar", context.getTopic());
+      assertEquals("data", context.getEventObj());
+      assertSame(topicSubscriber, context.getSubscriber());
+   }
+
+   public void testNothingIsFormattedWithAHandler() {
+      ToStringCounter event = new ToStringCounter();
+      eventService.subscribeStrongly(ToStringCounter.class, new SubscriberForTest(testCounter, true));
+      eventService.setSubscriberExceptionHandler(recorder);
+      eventService.publish(event);
+      assertEquals(1, contexts.size());
+      assertEquals(0, event.toStringCount);
+   }
+
+   public void testNothingIsFormattedWhenWarnIsOff() {
+      java.util.logging.Logger utilLogger = java.util.logging.Logger.getLogger(EventService.class.getName());
+      java.util.logging.Level oldLevel = utilLogger.getLevel();
+      utilLogger.setLevel(java.util.logging.Level.OFF);
+      Logger.refreshLevels();
+      try {
+         if (Logger.getLogger(EventService.class.getName()).isLoggable(Logger.Level.WARN)) {
+            //not logging through java.util.logging
+            return;
+         }
+         ToStringCounter event = new ToStringCounter();
+         eventService.subscribeStrongly(ToStringCounter.class, new SubscriberForTest(testCounter, true));
+         eventService.publish(event);
+         assertEquals(1, testCounter.subscribeExceptionCount);
+         assertEquals(0, event.toStringCount);
+      } finally {
+         utilLogger.setLevel(oldLevel);
+         Logger.refreshLevels();
+      }
+   }
+
+   public void testVetoException() {
+      eventService.setSubscriberExceptionHandler(recorder);
+      VetoEventListener vetoer = new VetoEventListener() {
+         public boolean shouldVeto(Object event) {
+            throw new IllegalStateException();
+         }
+      };
+      eventService.subscribeVetoListenerStrongly(String.class, vetoer);
+      eventService.publish("Foo");
+      assertEquals(1, contexts.size());
+      assertTrue(contexts.get(0).isVeto());
+      assertSame(vetoer, contexts.get(0).getSubscriber());
+      assertEquals("vetoing", contexts.get(0).getAction());
+      assertTrue(contexts.get(0).getSourceDescription().indexOf("Vetoer class:") > 0);
+   }
+
+   public void testThrottling() {
+      ThrottlingSubscriberExceptionHandler handler = new ThrottlingSubscriberExceptionHandler(60000, 0, 0);
+      eventService.setSubscriberExceptionHandler(handler);
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, true);
+      eventService.subscribeStrongly(String.class, subscriber);
+      for (int i = 0; i < 5; i++) {
+         eventService.publish("Foo");
+      }
+      assertEquals(5, handler.getExceptionCount());
+      assertEquals(5, handler.getExceptionCount(subscriber));
+      assertEquals(4, handler.getSuppressedCount());
+      assertEquals(0, handler.getQuarantinedCount());
+      assertEquals(1, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testQuarantine() {
+      ThrottlingSubscriberExceptionHandler handler = new ThrottlingSubscriberExceptionHandler(60000, 3, 60000);
+      eventService.setSubscriberExceptionHandler(handler);
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, true);
+      TopicSubscriberForTest topicSubscriber = new TopicSubscriberForTest(testCounter, true);
+      eventService.subscribeStrongly(String.class, subscriber);
+      eventService.subscribe(Integer.class, subscriber);
+      eventService.subscribeStrongly("Foo", topicSubscriber);
+      for (int i = 0; i < 5; i++) {
+         eventService.publish("Foo");
+      }
+      assertEquals(3, testCounter.eventsHandledCount);
+      assertEquals(1, handler.getQuarantinedCount());
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      assertEquals(0, eventService.getSubscribers(Integer.class).size());
+      assertEquals(1, eventService.getSubscribers("Foo").size());
+   }
+
+   public void testThrowingProxySubscriber() throws Exception {
+      ThrottlingSubscriberExceptionHandler handler = new ThrottlingSubscriberExceptionHandler(60000, 3, 60000);
+      eventService.setSubscriberExceptionHandler(handler);
+      ThrowingTarget target = new ThrowingTarget();
+      BaseProxySubscriber proxy = new BaseProxySubscriber(target,
+              ThrowingTarget.class.getMethod("onString", new Class[]{String.class}), ReferenceStrength.STRONG,
+              eventService, String.class, false);
+      eventService.subscribeStrongly(String.class, proxy);
+      eventService.publish("Foo");
+      eventService.publish("Foo");
+      assertEquals(2, target.calls);
+      assertEquals(2, handler.getExceptionCount(proxy));
+      assertEquals(2, handler.getExceptionCount(target));
+      assertEquals(1, handler.getSuppressedCount());
+      eventService.publish("Foo");
+      assertEquals(1, handler.getQuarantinedCount());
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testInvalidArguments() {
+      try {
+         new ThrottlingSubscriberExceptionHandler(-1, 0, 0);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         new ThrottlingSubscriberExceptionHandler(0, 3, 0);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+
+   public void testLegacyOverrideIsStillCalled() {
+      final List<String> actions = new ArrayList<String>();
+      eventService = new ThreadSafeEventService(null, false) {
+         protected void handleException(String action, Object event, String topic, Object eventObj, Throwable e,
+                 StackTraceElement[] callingStack, String sourceString) {
+            actions.add(action);
+         }
+      };
+      eventService.subscribeStrongly(String.class, new SubscriberForTest(testCounter, true));
+      eventService.subscribeStrongly("Foo", new TopicSubscriberForTest(testCounter, true));
+      eventService.publish("Bar");
+      eventService.publish("Foo", "data");
+      assertEquals(2, actions.size());
+      assertEquals("handling event topic", actions.get(0));
+      assertEquals("handling event", actions.get(1));
+   }
+
+   public static class ThrowingTarget {
+      int calls;
+
+      public void onString(String event) {
+         calls++;
+         throw new IllegalStateException("expected");
+      }
+   }
+
+   private static class ToStringCounter {
+      int toStringCount;
+
+      public String toString() {
+         toStringCount++;
+         return "ToStringCounter";
+      }
+   }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import junit.framework.TestCase;
+
+public class TestSubscriberList extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+
+   public TestSubscriberList(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testOrderAndIndex() {
+      SubscriberList list = new SubscriberList();
+      List<Object> subscribers = new ArrayList<Object>();
+      for (int i = 0; i < 1000; i++) {
+         Object subscriber = new Object();
+         subscribers.add(subscriber);
+         list.add(i % 2 == 0 ? subscriber : new WeakReference<Object>(subscriber));
+      }
+      assertEquals(1000, list.size());
+      int i = 0;
+      for (Iterator iterator = list.iterator(); iterator.hasNext(); i++) {
+         assertSame(subscribers.get(i), SubscriberList.getIndexedSubscriber(iterator.next()));
+      }
+      for (i = 0; i < 1000; i++) {
+         Iterator candidates = list.entriesIndexedUnder(subscribers.get(i));
+         boolean found = false;
+         while (candidates.hasNext()) {
+            found |= SubscriberList.getIndexedSubscriber(candidates.next()) == subscribers.get(i);
+         }
+         assertTrue(found);
+      }
+   }
+
+   public void testRemoveThroughTheIndex() {
+      SubscriberList list = new SubscriberList();
+      Object first = new Object();
+      Object second = new Object();
+      list.add(first);
+      list.add(second);
+      list.add(first);
+      Iterator candidates = list.entriesIndexedUnder(first);
+      while (candidates.hasNext()) {
+         if (candidates.next() == first) {
+            candidates.remove();
+         }
+      }
+      assertEquals(1, list.size());
+      assertSame(second, list.get(0));
+      assertFalse(list.entriesIndexedUnder(first).hasNext());
+      assertTrue(list.removeEntry(second));
+      assertFalse(list.removeEntry(second));
+      assertTrue(list.isEmpty());
+   }
+
+   public void testRemoveCollectedEntry() {
+      SubscriberList list = new SubscriberList();
+      WeakReference<Object> entry = new WeakReference<Object>(new Object());
+      list.add("before");
+      list.add(entry);
+      list.add("after");
+      entry.clear();
+      assertTrue(list.removeEntry(entry));
+      assertEquals(2, list.size());
+      assertEquals("after", list.get(1));
+   }
+
+   public void testMatchesArrayList() {
+      SubscriberList list = new SubscriberList();
+      List<Object> expected = new ArrayList<Object>();
+      java.util.Random random = new java.util.Random(46);
+      for (int i = 0; i < 20000; i++) {
+         int op = random.nextInt(6);
+         if (op < 2 || expected.isEmpty()) {
+            Object entry = new Integer(i);
+            list.add(entry);
+            expected.add(entry);
+         } else if (op == 2) {
+            int index = random.nextInt(expected.size());
+            assertSame(expected.get(index), list.get(index));
+         } else if (op == 3) {
+            int index = random.nextInt(expected.size());
+            assertTrue(list.removeEntry(expected.remove(index)));
+         } else if (op == 4) {
+            //remove every third entry through the iterator
+            Iterator iterator = list.iterator();
+            Iterator expectedIterator = expected.iterator();
+            for (int j = 0; iterator.hasNext(); j++) {
+               assertSame(expectedIterator.next(), iterator.next());
+               if (j % 3 == 0) {
+                  iterator.remove();
+                  expectedIterator.remove();
+               }
+            }
+            assertFalse(expectedIterator.hasNext());
+         } else {
+            int index = random.nextInt(expected.size() + 1);
+            Object entry = new Integer(-i);
+            list.add(index, entry);
+            expected.add(index, entry);
+         }
+         assertEquals(expected.size(), list.size());
+      }
+      assertEquals(expected, new ArrayList<Object>(list));
+      assertEquals(expected, list);
+   }
+
+   public void testRemovingCollectedEntriesIsNotQuadratic() {
+      SubscriberList list = new SubscriberList();
+      List<WeakReference<Object>> entries = new ArrayList<WeakReference<Object>>();
+      for (int i = 0; i < 50000; i++) {
+         WeakReference<Object> entry = new WeakReference<Object>(new Object());
+         entries.add(entry);
+         list.add(entry);
+      }
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < entries.size(); i++) {
+         entries.get(i).clear();
+         assertTrue(list.removeEntry(entries.get(i)));
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      assertEquals(0, list.size());
+      assertTrue("Removing collected entries took " + elapsed + "ms", elapsed < 2000);
+   }
+
+   public void testListIterator() {
+      SubscriberList list = new SubscriberList();
+      list.add("a");
+      list.add("c");
+      ListIterator iterator = list.listIterator();
+      assertEquals("a", iterator.next());
+      iterator.add("b");
+      assertEquals("c", iterator.next());
+      iterator.set("d");
+      assertEquals("d", iterator.previous());
+      iterator.remove();
+      assertEquals(2, list.size());
+      assertEquals("a", list.get(0));
+      assertEquals("b", list.get(1));
+      assertTrue(list.entriesIndexedUnder("b").hasNext());
+      assertFalse(list.entriesIndexedUnder("d").hasNext());
+   }
+
+   public void testResubscribeMovesToTheEnd() {
+      EventSubscriber first = new SubscriberForTest(testCounter, false);
+      EventSubscriber second = new SubscriberForTest(testCounter, false);
+      assertTrue(eventService.subscribeStrongly(String.class, first));
+      assertTrue(eventService.subscribeStrongly(String.class, second));
+      //weakly and strongly subscribing the same object is not a double subscription
+      assertFalse(eventService.subscribe(String.class, first));
+      List subscribers = eventService.getSubscribers(String.class);
+      assertEquals(2, subscribers.size());
+      assertSame(second, subscribers.get(0));
+      assertSame(first, subscribers.get(1));
+   }
+
+   public void testEqualSubscribersAreStillDetected() {
+      assertTrue(eventService.subscribeStrongly(String.class, new EqualSubscriber()));
+      assertFalse(eventService.subscribeStrongly(String.class, new EqualSubscriber()));
+      assertEquals(1, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testManySubscribers() {
+      List<EventSubscriber> subscribers = new ArrayList<EventSubscriber>();
+      for (int i = 0; i < 5000; i++) {
+         EventSubscriber subscriber = new SubscriberForTest(testCounter, false);
+         subscribers.add(subscriber);
+         assertTrue(eventService.subscribeStrongly(String.class, subscriber));
+      }
+      for (int i = 0; i < 5000; i++) {
+         assertFalse(eventService.subscribeStrongly(String.class, subscribers.get(i)));
+      }
+      assertEquals(5000, eventService.getSubscribers(String.class).size());
+      for (int i = 0; i < 5000; i++) {
+         assertTrue(eventService.unsubscribe(String.class, subscribers.get(i)));
+      }
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testWeakSubscriberChurn() {
+      CountingSubscriber.count = 0;
+      List<EventSubscriber> subscribers = new ArrayList<EventSubscriber>();
+      for (int i = 0; i < 20000; i++) {
+         EventSubscriber subscriber = new CountingSubscriber();
+         subscribers.add(subscriber);
+         eventService.subscribe(String.class, subscriber);
+      }
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 10; i++) {
+         EventSubscriber subscriber = new CountingSubscriber();
+         subscribers.add(subscriber);
+         eventService.subscribe(String.class, subscriber);
+         eventService.publish("event" + i);
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      assertEquals(20010, eventService.getSubscribers(String.class).size());
+      assertEquals(10 * 20000 + 55, CountingSubscriber.count);
+      //Linear work per publication is a few hundred milliseconds at most, quadratic work is many seconds
+      assertTrue("Subscribe and publish churn took " + elapsed + "ms", elapsed < 3000);
+   }
+
+   public void testResubscribeChurn() {
+      List<EventSubscriber> subscribers = new ArrayList<EventSubscriber>();
+      for (int i = 0; i < 50000; i++) {
+         EventSubscriber subscriber = new CountingSubscriber();
+         subscribers.add(subscriber);
+         eventService.subscribeStrongly(String.class, subscriber);
+      }
+      long start = System.currentTimeMillis();
+      //Each re-subscription moves the subscriber to the end, ending up in the original order
+      for (int i = 0; i < subscribers.size(); i++) {
+         assertFalse(eventService.subscribeStrongly(String.class, subscribers.get(i)));
+      }
+      long elapsed = System.currentTimeMillis() - start;
+      assertEquals(subscribers, eventService.getSubscribers(String.class));
+      //Constant work per re-subscription is a few milliseconds in all, shifting the list is seconds
+      assertTrue("Re-subscribing took " + elapsed + "ms", elapsed < 2000);
+   }
+
+   private static class EqualSubscriber implements EventSubscriber {
+      public void onEvent(Object event) {
+      }
+
+      public boolean equals(Object obj) {
+         return obj instanceof EqualSubscriber;
+      }
+
+      public int hashCode() {
+         return 1;
+      }
+   }
+
+   /** Doesn't override equals(), like most subscribers */
+   private static class CountingSubscriber implements EventSubscriber {
+      static int count;
+
+      public void onEvent(Object event) {
+         count++;
+      }
+   }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.annotation.ReferenceStrength;
+
+public class TestSubscription extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+
+   public TestSubscription(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testCancelByClass() {
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, false);
+      Subscription subscription = eventService.subscribeWithHandle(String.class, subscriber, ReferenceStrength.STRONG);
+      assertSame(eventService, subscription.getEventService());
+      assertEquals(String.class, subscription.getClassTopicOrPattern());
+      assertFalse(subscription.isVeto());
+      eventService.publish("Foo");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertTrue(subscription.cancel());
+      assertFalse(subscription.cancel());
+      eventService.publish("Foo");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testCancelOnlyRemovesItsOwnEntry() {
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, false);
+      EventSubscriber other = new SubscriberForTest(testCounter, false);
+      Subscription subscription = eventService.subscribeExactlyWithHandle(String.class, subscriber,
+              ReferenceStrength.STRONG);
+      eventService.subscribeExactlyStrongly(String.class, other);
+      assertTrue(subscription.cancel());
+      assertEquals(1, eventService.getSubscribersToExactClass(String.class).size());
+      assertSame(other, eventService.getSubscribersToExactClass(String.class).get(0));
+   }
+
+   public void testWeakSubscription() {
+      EventTopicSubscriber subscriber = new TopicSubscriberForTest(testCounter, false);
+      Subscription subscription = eventService.subscribeWithHandle("Foo", subscriber, ReferenceStrength.WEAK);
+      eventService.publish("Foo", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertTrue(subscription.cancel());
+      eventService.publish("Foo", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+
+      Subscription collected = eventService.subscribeWithHandle("Foo", new TopicSubscriberForTest(testCounter, false),
+              ReferenceStrength.WEAK);
+      System.gc();
+      eventService.publish("Foo", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertFalse(collected.cancel());
+      //keep it reachable until here
+      assertNotNull(subscriber);
+   }
+
+   public void testCancelByPattern() {
+      Pattern pattern = Pattern.compile("Foo.*");
+      Subscription subscription = eventService.subscribeWithHandle(pattern,
+              new TopicSubscriberForTest(testCounter, false), ReferenceStrength.STRONG);
+      assertSame(pattern, subscription.getClassTopicOrPattern());
+      eventService.publish("FooBar", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertTrue(subscription.cancel());
+      eventService.publish("FooBar", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   public void testCancelVeto() {
+      eventService.subscribeStrongly("Foo", new TopicSubscriberForTest(testCounter, false));
+      Subscription subscription = eventService.subscribeVetoListenerWithHandle("Foo", new VetoTopicEventListener() {
+         public boolean shouldVeto(String topic, Object data) {
+            return true;
+         }
+      }, ReferenceStrength.STRONG);
+      assertTrue(subscription.isVeto());
+      eventService.publish("Foo", "data");
+      assertEquals(0, testCounter.eventsHandledCount);
+      assertTrue(subscription.cancel());
+      eventService.publish("Foo", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   public void testCancelRateLimited() {
+      Subscription subscription = eventService.subscribeWithHandle(String.class,
+              new SubscriberForTest(testCounter, false), RateLimit.throttle(60000));
+      eventService.publish("Foo");
+      assertEquals(1, testCounter.eventsHandledCount);
+      assertTrue(subscription.cancel());
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testUnsubscribedOtherwise() {
+      EventSubscriber subscriber = new SubscriberForTest(testCounter, false);
+      Subscription subscription = eventService.subscribeWithHandle(String.class, subscriber, ReferenceStrength.STRONG);
+      eventService.unsubscribe(String.class, subscriber);
+      assertFalse(subscription.cancel());
+
+      //resubscribing weakly replaces the entry with a new WeakReference, so the first handle no longer owns it
+      subscription = eventService.subscribeWithHandle(String.class, subscriber, ReferenceStrength.WEAK);
+      Subscription replacement = eventService.subscribeWithHandle(String.class, subscriber, ReferenceStrength.WEAK);
+      assertFalse(subscription.cancel());
+      assertTrue(replacement.cancel());
+   }
+
+   public void testOverriddenUnsubscribeHookIsCalled() {
+      final int[] unsubscribes = new int[1];
+      eventService = new ThreadSafeEventService(null, false) {
+         protected boolean unsubscribe(Object o, java.util.Map subscriberMap, Object subscriber) {
+            unsubscribes[0]++;
+            return super.unsubscribe(o, subscriberMap, subscriber);
+         }
+      };
+      Subscription subscription = eventService.subscribeWithHandle(String.class,
+              new SubscriberForTest(testCounter, false), ReferenceStrength.STRONG);
+      assertTrue(subscription.cancel());
+      assertEquals(1, unsubscribes[0]);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testInvalidArguments() {
+      try {
+         eventService.subscribeWithHandle((Class) null, new SubscriberForTest(testCounter, false),
+                 ReferenceStrength.STRONG);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         eventService.subscribeWithHandle("Foo", (EventTopicSubscriber) null, ReferenceStrength.STRONG);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+         eventService.subscribeWithHandle("Foo", new TopicSubscriberForTest(testCounter, false),
+                 (ReferenceStrength) null);
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+}
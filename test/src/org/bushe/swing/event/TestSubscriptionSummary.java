@@ -0,0 +1,136 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class TestSubscriptionSummary extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+
+   public TestSubscriptionSummary(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testNoFalseNegatives() {
+      List<Class> classes = new ArrayList<Class>();
+      List<String> topics = new ArrayList<String>();
+      for (int i = 0; i < 2000; i++) {
+         topics.add("Topic" + i);
+      }
+      classes.add(Number.class);
+      classes.add(CharSequence.class);
+      SubscriptionSummary summary = new SubscriptionSummary(0, classes, topics,
+              Collections.singletonList(Pattern.compile("Debug\\..*")), false);
+      for (int i = 0; i < 2000; i++) {
+         assertTrue(summary.mayHaveInterest("Topic" + i));
+      }
+      assertTrue(summary.mayHaveInterest("Debug.Trace"));
+      assertTrue(summary.mayHaveInterest(Integer.class));
+      assertTrue(summary.mayHaveInterest(String.class));
+      assertTrue(summary.mayHaveInterest(StringBuilder.class));
+   }
+
+   public void testRejectsWhatIsNotSubscribed() {
+      List<Class> classes = new ArrayList<Class>();
+      classes.add(Number.class);
+      SubscriptionSummary summary = new SubscriptionSummary(0, classes, Collections.singletonList("Prices"),
+              Collections.singletonList(Pattern.compile("Debug\\..*")), false);
+      assertFalse(summary.mayHaveInterest(String.class));
+      assertFalse(summary.mayHaveInterest("Trades"));
+      assertFalse(summary.mayHaveInterest("Trades"));
+      summary = new SubscriptionSummary(0, classes, Collections.<String>emptyList(),
+              Collections.<Pattern>emptyList(), true);
+      assertTrue(summary.mayHaveInterest(String.class));
+      assertTrue(summary.mayHaveInterest("Trades"));
+   }
+
+   public void testSubscriptionChangesUpdateTheSummary() {
+      EventTopicSubscriber subscriber = new TopicSubscriberForTest(testCounter, false);
+      eventService.publish("Debug.Trace", "ignored");
+      eventService.subscribeStrongly(Pattern.compile("Debug\\..*"), subscriber);
+      eventService.publish("Debug.Trace", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      eventService.unsubscribe(Pattern.compile("Debug\\..*"), subscriber);
+      eventService.publish("Debug.Trace", "data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      eventService.subscribeStrongly("Debug.Trace", subscriber);
+      eventService.publish("Debug.Trace", "data");
+      assertEquals(2, testCounter.eventsHandledCount);
+   }
+
+   public void testInterfaceSubscribers() {
+      eventService.publish("unseen");
+      eventService.subscribeStrongly(Comparable.class, new SubscriberForTest(testCounter, false));
+      eventService.publish("seen");
+      assertEquals(1, testCounter.eventsHandledCount);
+   }
+
+   public void testCacheWithoutSubscribers() {
+      eventService.setCacheSizeForEventClass(Number.class, 1);
+      eventService.setCacheSizeForTopic(Pattern.compile("Cached.*"), 1);
+      eventService.publish(new Integer(1));
+      eventService.publish("Cached.Topic", "data");
+      assertEquals(new Integer(1), eventService.getLastEvent(Integer.class));
+      assertEquals("data", eventService.getLastTopicData("Cached.Topic"));
+      eventService.setDefaultCacheSizePerClassOrTopic(1);
+      eventService.publish("Other", "other");
+      assertEquals("other", eventService.getLastTopicData("Other"));
+   }
+
+   public void testVetoWithoutSubscribers() {
+      final List<Object> vetoed = new ArrayList<Object>();
+      eventService.subscribeVetoListenerStrongly("Topic", new VetoTopicEventListener() {
+         public boolean shouldVeto(String topic, Object data) {
+            vetoed.add(data);
+            return true;
+         }
+      });
+      eventService.publish("Topic", "data");
+      assertEquals(1, vetoed.size());
+   }
+
+   public void testStatusTrackersAreNotRejected() {
+      ObjectEvent event = new ObjectEvent(this, "data");
+      eventService.publish(event);
+      assertEquals(PublicationStatus.Completed, event.getPublicationStatus());
+   }
+
+   public void testSubclassHooksSeeEveryPublication() {
+      final List<Object> statuses = new ArrayList<Object>();
+      ThreadSafeEventService subclass = new ThreadSafeEventService() {
+         protected void setStatus(PublicationStatus status, Object event, String topic, Object eventObj) {
+            statuses.add(status);
+         }
+      };
+      subclass.publish("Nobody", "data");
+      assertTrue(statuses.contains(PublicationStatus.Completed));
+   }
+}
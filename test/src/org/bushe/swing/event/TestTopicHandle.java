@@ -0,0 +1,144 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event;
+
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class TestTopicHandle extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+   private EBTestCounter testCounter = new EBTestCounter();
+
+   public TestTopicHandle(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testResolveIsInterned() {
+      TopicHandle handle = eventService.resolveTopic("Foo");
+      assertSame(handle, eventService.resolveTopic("Foo"));
+      assertNotSame(handle, eventService.resolveTopic("Bar"));
+      assertEquals("Foo", handle.getTopic());
+      assertSame(eventService, handle.getEventService());
+   }
+
+   public void testPublishToTopicAndPatternSubscribers() {
+      TopicHandle handle = eventService.resolveTopic("Foo.Bar");
+      EventTopicSubscriber exact = new TopicSubscriberForTest(testCounter, false);
+      EventTopicSubscriber byPattern = new TopicSubscriberForTest(testCounter, false);
+      eventService.subscribe("Foo.Bar", exact);
+      eventService.subscribe(Pattern.compile("Foo.*"), byPattern);
+      handle.publish("data");
+      assertEquals(2, testCounter.eventsHandledCount);
+      eventService.publish(handle, "data");
+      assertEquals(4, testCounter.eventsHandledCount);
+      //Keep the weakly subscribed subscribers reachable
+      assertNotNull(exact);
+      assertNotNull(byPattern);
+   }
+
+   public void testHandleRefreshesOnSubscriptionChanges() {
+      TopicHandle handle = eventService.resolveTopic("Foo");
+      handle.publish("data");
+      assertEquals(0, testCounter.eventsHandledCount);
+
+      EventTopicSubscriber subscriber = new TopicSubscriberForTest(testCounter, false);
+      eventService.subscribeStrongly("Foo", subscriber);
+      handle.publish("data");
+      assertEquals(1, testCounter.eventsHandledCount);
+
+      eventService.unsubscribe("Foo", subscriber);
+      handle.publish("data");
+      assertEquals(1, testCounter.eventsHandledCount);
+
+      eventService.subscribeStrongly(Pattern.compile("F.*"), subscriber);
+      handle.publish("data");
+      assertEquals(2, testCounter.eventsHandledCount);
+   }
+
+   public void testVeto() {
+      TopicHandle handle = eventService.resolveTopic("Foo");
+      eventService.subscribeStrongly("Foo", new TopicSubscriberForTest(testCounter, false));
+      handle.publish("data");
+      assertEquals(1, testCounter.eventsHandledCount);
+
+      VetoTopicEventListener vetoer = new VetoTopicEventListener() {
+         public boolean shouldVeto(String topic, Object data) {
+            return "veto".equals(data);
+         }
+      };
+      eventService.subscribeVetoListenerStrongly("Foo", vetoer);
+      handle.publish("veto");
+      assertEquals(1, testCounter.eventsHandledCount);
+      handle.publish("data");
+      assertEquals(2, testCounter.eventsHandledCount);
+   }
+
+   public void testCacheSlot() {
+      TopicHandle handle = eventService.resolveTopic("Foo");
+      handle.publish("uncached");
+      assertNull(eventService.getLastTopicData("Foo"));
+
+      eventService.setCacheSizeForTopic("Foo", 2);
+      handle.publish("one");
+      handle.publish("two");
+      handle.publish("three");
+      assertEquals("three", eventService.getLastTopicData("Foo"));
+      assertEquals(2, eventService.getCachedTopicData("Foo").size());
+
+      eventService.clearCache("Foo");
+      assertNull(eventService.getLastTopicData("Foo"));
+      handle.publish("four");
+      assertEquals("four", eventService.getLastTopicData("Foo"));
+
+      //By name and by handle share the same cache
+      eventService.publish("Foo", "five");
+      assertEquals("five", eventService.getLastTopicData("Foo"));
+      assertEquals("four", eventService.getCachedTopicData("Foo").get(1));
+   }
+
+   public void testHandleDoesNotHoldWeakSubscribers() {
+      TopicHandle handle = eventService.resolveTopic("Foo");
+      EventTopicSubscriber subscriber = new TopicSubscriberForTest(testCounter, false);
+      eventService.subscribe("Foo", subscriber);
+      handle.publish("data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      subscriber = null;
+      System.gc();
+      handle.publish("data");
+      assertEquals(1, testCounter.eventsHandledCount);
+      handle.publish("data");
+      assertEquals(0, eventService.getSubscribers("Foo").size());
+   }
+
+   public void testHandleFromAnotherServiceIsRejected() {
+      TopicHandle handle = new ThreadSafeEventService().resolveTopic("Foo");
+      try {
+         eventService.publish(handle, "data");
+         fail("Expected an IllegalArgumentException");
+      } catch (IllegalArgumentException expected) {
+      }
+   }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.annotation;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.EventServiceLocator;
+import org.bushe.swing.event.ThreadSafeEventService;
+
+public class TestUnprocessWithHandles extends TestCase {
+   private static final String SERVICE_NAME = "UnprocessWithHandlesService";
+
+   private CountingEventService eventService;
+
+   public TestUnprocessWithHandles(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new CountingEventService();
+      EventServiceLocator.setEventService(SERVICE_NAME, null);
+      EventServiceLocator.setEventService(SERVICE_NAME, eventService);
+   }
+
+   protected void tearDown() throws Exception {
+      EventServiceLocator.setEventService(SERVICE_NAME, null);
+   }
+
+   public void testUnprocessDoesNotSearchSubscribers() {
+      Handled handled = new Handled();
+      AnnotationProcessor.process(handled);
+      eventService.publish("Foo");
+      eventService.publish("Topic", "data");
+      assertEquals(1, handled.events);
+      assertEquals(1, handled.topicEvents);
+
+      eventService.getSubscribersCount = 0;
+      AnnotationProcessor.unprocess(handled);
+      assertEquals(0, eventService.getSubscribersCount);
+      eventService.publish("Foo");
+      eventService.publish("Topic", "data");
+      assertEquals(1, handled.events);
+      assertEquals(1, handled.topicEvents);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      assertEquals(0, eventService.getVetoSubscribers(Integer.class).size());
+   }
+
+   public void testUnprocessOnlyRemovesTheInstance() {
+      Handled first = new Handled();
+      Handled second = new Handled();
+      AnnotationProcessor.process(first);
+      AnnotationProcessor.process(second);
+      AnnotationProcessor.unprocess(first);
+      eventService.publish("Foo");
+      assertEquals(0, first.events);
+      assertEquals(1, second.events);
+      //unprocessing twice is harmless
+      AnnotationProcessor.unprocess(first);
+      AnnotationProcessor.unprocess(second);
+      eventService.publish("Foo");
+      assertEquals(1, second.events);
+   }
+
+   public static class Handled {
+      int events;
+      int topicEvents;
+
+      @EventSubscriber(eventServiceName = SERVICE_NAME)
+      public void onString(String event) {
+         events++;
+      }
+
+      @EventTopicSubscriber(topic = "Topic", eventServiceName = SERVICE_NAME)
+      public void onTopic(String topic, Object data) {
+         topicEvents++;
+      }
+
+      @VetoSubscriber(eventServiceName = SERVICE_NAME)
+      public boolean vetoInteger(Integer event) {
+         return false;
+      }
+   }
+
+   private static class CountingEventService extends ThreadSafeEventService {
+      int getSubscribersCount;
+
+      public <T> List<T> getSubscribers(Class<T> eventClass) {
+         getSubscribersCount++;
+         return super.getSubscribers(eventClass);
+      }
+
+      public <T> List<T> getSubscribers(String topic) {
+         getSubscribersCount++;
+         return super.getSubscribers(topic);
+      }
+   }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.File;
+
+import org.bushe.swing.event.EventTopicSubscriber;
+import org.bushe.swing.event.ThreadSafeEventService;
+
+/**
+ * The child JVM for {@link TestSharedMemoryBridge}.  Receives "Ping" publications through the ring in the first file
+ * and answers each with a "Pong" with the same payload through the ring in the second file.  Exits on "Exit".
+ */
+public class SharedMemoryChild {
+
+   public static void main(String[] args) throws Exception {
+      final ThreadSafeEventService eventService = new ThreadSafeEventService(null, false);
+      SharedMemorySubscriber pings = new SharedMemorySubscriber(eventService, new File(args[0]),
+              new SerializableEventCodec(), 10000);
+      SharedMemoryPublisher pongs = new SharedMemoryPublisher(eventService, new File(args[1]),
+              new SerializableEventCodec(), 4096, 4);
+      pongs.forward("Pong");
+      final Object exitLock = new Object();
+      eventService.subscribeStrongly("Ping", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+            eventService.publish("Pong", data);
+         }
+      });
+      eventService.subscribeStrongly("Exit", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+            synchronized (exitLock) {
+               exitLock.notifyAll();
+            }
+         }
+      });
+      synchronized (exitLock) {
+         exitLock.wait(60000);
+      }
+      //Exit without closing, as if the process died
+      System.exit(0);
+   }
+}
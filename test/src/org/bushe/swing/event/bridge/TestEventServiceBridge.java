@@ -0,0 +1,186 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.EventSubscriber;
+import org.bushe.swing.event.EventTopicSubscriber;
+import org.bushe.swing.event.ThreadSafeEventService;
+
+public class TestEventServiceBridge extends TestCase {
+
+   private ThreadSafeEventService serviceA;
+   private ThreadSafeEventService serviceB;
+   private EventServiceBridge bridgeA;
+   private EventServiceBridge bridgeB;
+   private Recorder recorderA;
+   private Recorder recorderB;
+
+   public TestEventServiceBridge(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      serviceA = new ThreadSafeEventService(null, false);
+      serviceB = new ThreadSafeEventService(null, false);
+      recorderA = new Recorder();
+      recorderB = new Recorder();
+      serviceA.subscribeStrongly(Pattern.compile(".*"), recorderA);
+      serviceA.subscribeStrongly(Object.class, recorderA);
+      serviceB.subscribeStrongly(Pattern.compile(".*"), recorderB);
+      serviceB.subscribeStrongly(Object.class, recorderB);
+   }
+
+   protected void tearDown() throws Exception {
+      if (bridgeA != null) {
+         bridgeA.close();
+      }
+      if (bridgeB != null) {
+         bridgeB.close();
+      }
+   }
+
+   private void connect(int bufferSize) throws Exception {
+      bridgeA = new EventServiceBridge(serviceA, new SerializableEventCodec(), bufferSize);
+      bridgeB = new EventServiceBridge(serviceB, new SerializableEventCodec(), bufferSize);
+      InetSocketAddress address = bridgeA.listen(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+      bridgeB.connect(address);
+      long end = System.currentTimeMillis() + 5000;
+      while (bridgeA.getPeerCount() == 0 && System.currentTimeMillis() < end) {
+         Thread.sleep(10);
+      }
+      assertEquals(1, bridgeA.getPeerCount());
+      assertEquals(1, bridgeB.getPeerCount());
+   }
+
+   public void testForwardsSelectedPublicationsBothWays() throws Exception {
+      connect(EventServiceBridge.DEFAULT_BUFFER_SIZE);
+      bridgeA.forward("Foo");
+      bridgeA.forward(Integer.class);
+      bridgeB.forward(Pattern.compile("Bar\\..*"));
+
+      serviceA.publish("Foo", "fromA");
+      serviceA.publish("NotForwarded", "fromA");
+      serviceA.publish(new Integer(1));
+      recorderB.waitFor(2);
+      //publications arrive in order, so the unforwarded topic would have been received between these two
+      assertEquals("Foo", recorderB.get(0));
+      assertEquals("fromA", recorderB.getData(0));
+      assertEquals(new Integer(1), recorderB.get(1));
+
+      serviceB.publish("Bar.Baz", "fromB");
+      serviceB.publish("Other", "fromB");
+      recorderA.waitFor(4);
+      assertEquals("Bar.Baz", recorderA.get(3));
+      serviceB.publish("Bar.End", "end");
+      recorderA.waitFor(5);
+      assertEquals("Bar.End", recorderA.get(4));
+      assertEquals(5, recorderB.size());
+   }
+
+   public void testBidirectionalBridgeDoesNotLoop() throws Exception {
+      connect(EventServiceBridge.DEFAULT_BUFFER_SIZE);
+      bridgeA.forward("Foo");
+      bridgeB.forward("Foo");
+      serviceA.publish("Foo", "ping");
+      recorderB.waitFor(1);
+      serviceB.publish("Foo", "pong");
+      recorderA.waitFor(2);
+      Thread.sleep(200);
+      assertEquals(2, recorderA.size());
+      assertEquals(2, recorderB.size());
+      assertEquals("ping", recorderB.getData(0));
+      assertEquals("pong", recorderA.getData(1));
+   }
+
+   public void testBatchedWritesKeepOrderAndLargeFramesGrowBuffers() throws Exception {
+      connect(64);
+      bridgeA.forward(Integer.class);
+      bridgeA.forward("Big");
+      int count = 5000;
+      for (int i = 0; i < count; i++) {
+         serviceA.publish(new Integer(i));
+      }
+      StringBuffer big = new StringBuffer();
+      for (int i = 0; i < 50000; i++) {
+         big.append('x');
+      }
+      serviceA.publish("Big", big.toString());
+      recorderB.waitFor(count + 1);
+      for (int i = 0; i < count; i++) {
+         assertEquals(new Integer(i), recorderB.get(i));
+      }
+      assertEquals(big.toString(), recorderB.getData(count));
+   }
+
+   public void testCloseStopsForwarding() throws Exception {
+      connect(EventServiceBridge.DEFAULT_BUFFER_SIZE);
+      bridgeA.forward("Foo");
+      bridgeA.close();
+      serviceA.publish("Foo", "after close");
+      long end = System.currentTimeMillis() + 5000;
+      while (bridgeB.getPeerCount() > 0 && System.currentTimeMillis() < end) {
+         Thread.sleep(10);
+      }
+      assertEquals(0, bridgeB.getPeerCount());
+      assertEquals(0, recorderB.size());
+   }
+
+   /** Records topics and events, in order. */
+   private static class Recorder implements EventSubscriber, EventTopicSubscriber {
+      private final List received = new ArrayList();
+      private final List data = new ArrayList();
+
+      public synchronized void onEvent(Object event) {
+         received.add(event);
+         data.add(event);
+         notifyAll();
+      }
+
+      public synchronized void onEvent(String topic, Object payload) {
+         received.add(topic);
+         data.add(payload);
+         notifyAll();
+      }
+
+      synchronized int size() {
+         return received.size();
+      }
+
+      synchronized Object get(int i) {
+         return received.get(i);
+      }
+
+      synchronized Object getData(int i) {
+         return data.get(i);
+      }
+
+      synchronized void waitFor(int count) throws InterruptedException {
+         long end = System.currentTimeMillis() + 10000;
+         while (received.size() < count && System.currentTimeMillis() < end) {
+            wait(100);
+         }
+         assertTrue("Expected " + count + " but received " + received, received.size() >= count);
+      }
+   }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.bridge;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.EventSubscriber;
+import org.bushe.swing.event.EventTopicSubscriber;
+import org.bushe.swing.event.ThreadSafeEventService;
+
+public class TestSharedMemoryBridge extends TestCase {
+
+   private List<File> files = new ArrayList<File>();
+
+   public TestSharedMemoryBridge(String name) {
+      super(name);
+   }
+
+   protected void tearDown() throws Exception {
+      for (File file : files) {
+         file.delete();
+      }
+   }
+
+   private File newRingFile() throws IOException {
+      File file = File.createTempFile("eventring", ".shm");
+      file.delete();
+      files.add(file);
+      return file;
+   }
+
+   public void testForwardsInOrderThroughASmallRing() throws Exception {
+      ThreadSafeEventService serviceA = new ThreadSafeEventService(null, false);
+      ThreadSafeEventService serviceB = new ThreadSafeEventService(null, false);
+      File ringFile = newRingFile();
+      SharedMemoryPublisher publisher = new SharedMemoryPublisher(serviceA, ringFile, new SerializableEventCodec(),
+              4096, 4);
+      SharedMemorySubscriber subscriber = new SharedMemorySubscriber(serviceB, ringFile, new SerializableEventCodec());
+      try {
+         publisher.forward(Integer.class);
+         publisher.forward("Foo");
+         assertEquals(1, publisher.getLiveSubscriberCount());
+         assertTrue(subscriber.isPublisherAlive());
+         Recorder recorder = new Recorder();
+         serviceB.subscribeStrongly(Integer.class, recorder);
+         serviceB.subscribeStrongly("Foo", recorder);
+
+         int count = 20000;
+         for (int i = 0; i < count; i++) {
+            serviceA.publish(new Integer(i));
+         }
+         serviceA.publish("NotForwarded", "x");
+         serviceA.publish("Foo", "end");
+         recorder.waitFor(count + 1);
+         for (int i = 0; i < count; i++) {
+            assertEquals(new Integer(i), recorder.get(i));
+         }
+         assertEquals("end", recorder.get(count));
+      } finally {
+         subscriber.close();
+         publisher.close();
+      }
+      assertFalse(subscriber.isPublisherAlive());
+   }
+
+   public void testPingPongWithChildJvm() throws Exception {
+      File pingFile = newRingFile();
+      File pongFile = newRingFile();
+      ThreadSafeEventService eventService = new ThreadSafeEventService(null, false);
+      SharedMemoryPublisher pings = new SharedMemoryPublisher(eventService, pingFile, new SerializableEventCodec(),
+              4096, 4);
+      pings.forward("Ping");
+      pings.forward("Exit");
+      Process child = startChild(SharedMemoryChild.class, new String[]{pingFile.getPath(), pongFile.getPath()});
+      SharedMemorySubscriber pongs = null;
+      try {
+         pongs = new SharedMemorySubscriber(eventService, pongFile, new SerializableEventCodec(), 20000);
+         long end = System.currentTimeMillis() + 20000;
+         while (pings.getLiveSubscriberCount() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+         }
+         assertEquals(1, pings.getLiveSubscriberCount());
+         Recorder recorder = new Recorder();
+         eventService.subscribeStrongly("Pong", recorder);
+         int count = 2000;
+         for (int i = 0; i < count; i++) {
+            eventService.publish("Ping", new Integer(i));
+         }
+         recorder.waitFor(count);
+         for (int i = 0; i < count; i++) {
+            assertEquals(new Integer(i), recorder.get(i));
+         }
+         assertTrue(pongs.isPublisherAlive());
+
+         //The child exits without closing, both sides notice through the heartbeats
+         eventService.publish("Exit", "now");
+         assertEquals(0, child.waitFor());
+         pongs.setLivenessTimeoutMS(300);
+         pings.setLivenessTimeoutMS(300);
+         Thread.sleep(600);
+         assertFalse(pongs.isPublisherAlive());
+         assertEquals(0, pings.getLiveSubscriberCount());
+         //A dead subscriber does not block the publisher even when the ring is full
+         for (int i = 0; i < 1000; i++) {
+            eventService.publish("Ping", new Integer(i));
+         }
+      } finally {
+         child.destroy();
+         if (pongs != null) {
+            pongs.close();
+         }
+         pings.close();
+      }
+   }
+
+   /** Starts a main class in a new JVM with the test classpath, echoing its output. */
+   static Process startChild(Class mainClass, String[] args) throws IOException {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(mainClass.getName());
+      for (int i = 0; i < args.length; i++) {
+         command.add(args[i]);
+      }
+      ProcessBuilder builder = new ProcessBuilder(command);
+      builder.redirectErrorStream(true);
+      final Process process = builder.start();
+      Thread echo = new Thread() {
+         public void run() {
+            try {
+               BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+               String line;
+               while ((line = reader.readLine()) != null) {
+                  System.out.println("child: " + line);
+               }
+            } catch (IOException e) {
+               //the child is gone
+            }
+         }
+      };
+      echo.setDaemon(true);
+      echo.start();
+      return process;
+   }
+
+   private static class Recorder implements EventSubscriber, EventTopicSubscriber {
+      private final List received = new ArrayList();
+
+      public synchronized void onEvent(Object event) {
+         received.add(event);
+         notifyAll();
+      }
+
+      public synchronized void onEvent(String topic, Object data) {
+         received.add(data);
+         notifyAll();
+      }
+
+      synchronized Object get(int i) {
+         return received.get(i);
+      }
+
+      synchronized void waitFor(int count) throws InterruptedException {
+         long end = System.currentTimeMillis() + 20000;
+         while (received.size() < count && System.currentTimeMillis() < end) {
+            wait(100);
+         }
+         assertTrue("Expected " + count + " but received " + received.size(), received.size() >= count);
+      }
+   }
+}
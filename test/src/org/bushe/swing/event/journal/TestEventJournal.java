@@ -0,0 +1,240 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.EBTestCounter;
+import org.bushe.swing.event.EventSubscriber;
+import org.bushe.swing.event.EventTopicSubscriber;
+import org.bushe.swing.event.ThreadSafeEventService;
+import org.bushe.swing.event.TopicSubscriberForTest;
+
+public class TestEventJournal extends TestCase {
+
+   private File directory;
+   private EventJournal journal;
+   private ThreadSafeEventService eventService;
+
+   public TestEventJournal(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      directory = File.createTempFile("eventjournal", "");
+      directory.delete();
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      if (journal != null) {
+         journal.close();
+      }
+      File[] files = directory.listFiles();
+      if (files != null) {
+         for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+         }
+      }
+      directory.delete();
+   }
+
+   private EventJournal openJournal(int segmentSize) throws IOException {
+      journal = new EventJournal(directory, new SerializableJournalSerializer(), segmentSize);
+      journal.journal("Foo");
+      journal.journal(Pattern.compile("Bar\\..*"));
+      journal.journal(Number.class);
+      return journal;
+   }
+
+   private List<JournalEntry> replay(long fromOffset) throws IOException {
+      final List<JournalEntry> entries = new ArrayList<JournalEntry>();
+      journal.replay(fromOffset, new JournalEntryHandler() {
+         public void onEntry(JournalEntry entry) {
+            entries.add(entry);
+         }
+      });
+      return entries;
+   }
+
+   public void testPeriodicForceHappensWhenTheIntervalExpires() throws Exception {
+      openJournal(EventJournal.DEFAULT_SEGMENT_SIZE);
+      journal.setFsyncPolicy(FsyncPolicy.PERIODIC);
+      journal.setFsyncIntervalMS(1000);
+      journal.append(null, "Foo", "first");
+      journal.flush();
+      journal.append(null, "Foo", "second");
+      journal.flush();
+      assertTrue(journal.isForcePending());
+      //No later batch arrives, the writer forces when the interval expires
+      long start = System.currentTimeMillis();
+      while (journal.isForcePending() && System.currentTimeMillis() - start < 5000) {
+         Thread.sleep(20);
+      }
+      assertFalse(journal.isForcePending());
+   }
+
+   public void testSelectedPublicationsAreJournaled() throws Exception {
+      openJournal(EventJournal.DEFAULT_SEGMENT_SIZE);
+      eventService.setEventJournal(journal);
+      eventService.publish("Foo", "one");
+      eventService.publish("Other", "not journaled");
+      eventService.publish("Bar.Baz", "two");
+      eventService.publish(new Integer(3));
+      eventService.publish("not journaled");
+      journal.flush();
+
+      List<JournalEntry> entries = replay(0);
+      assertEquals(3, entries.size());
+      assertEquals(0, entries.get(0).getOffset());
+      assertEquals("Foo", entries.get(0).getTopic());
+      assertEquals("one", entries.get(0).getPayload());
+      assertEquals("Bar.Baz", entries.get(1).getTopic());
+      assertEquals("two", entries.get(1).getPayload());
+      assertNull(entries.get(2).getTopic());
+      assertEquals(new Integer(3), entries.get(2).getEvent());
+      assertEquals(2, entries.get(2).getOffset());
+      assertEquals(3, journal.getCommittedOffset());
+
+      assertEquals(2, replay(1).size());
+      assertEquals(0, replay(3).size());
+   }
+
+   public void testVetoedPublicationsAreNotJournaled() throws Exception {
+      openJournal(EventJournal.DEFAULT_SEGMENT_SIZE);
+      eventService.setEventJournal(journal);
+      eventService.subscribeVetoListenerStrongly("Foo", new org.bushe.swing.event.VetoTopicEventListener() {
+         public boolean shouldVeto(String topic, Object data) {
+            return "veto".equals(data);
+         }
+      });
+      eventService.publish("Foo", "veto");
+      eventService.publish("Foo", "ok");
+      journal.flush();
+      List<JournalEntry> entries = replay(0);
+      assertEquals(1, entries.size());
+      assertEquals("ok", entries.get(0).getPayload());
+   }
+
+   public void testReopenContinuesOffsets() throws Exception {
+      openJournal(EventJournal.DEFAULT_SEGMENT_SIZE);
+      journal.append(null, "Foo", "one");
+      journal.append(null, "Foo", "two");
+      journal.close();
+
+      openJournal(EventJournal.DEFAULT_SEGMENT_SIZE);
+      assertEquals(2, journal.getNextOffset());
+      assertEquals(2, journal.append(null, "Foo", "three"));
+      journal.flush();
+      List<JournalEntry> entries = replay(0);
+      assertEquals(3, entries.size());
+      assertEquals("three", entries.get(2).getPayload());
+   }
+
+   public void testSegmentsRoll() throws Exception {
+      openJournal(512);
+      for (int i = 0; i < 100; i++) {
+         journal.append(null, "Foo", "payload " + i);
+      }
+      journal.flush();
+      assertTrue(directory.listFiles().length > 4);
+      List<JournalEntry> entries = replay(0);
+      assertEquals(100, entries.size());
+      for (int i = 0; i < 100; i++) {
+         assertEquals(i, entries.get(i).getOffset());
+         assertEquals("payload " + i, entries.get(i).getPayload());
+      }
+      entries = replay(57);
+      assertEquals(43, entries.size());
+      assertEquals(57, entries.get(0).getOffset());
+
+      //an entry larger than a segment gets a segment of its own
+      StringBuffer big = new StringBuffer();
+      for (int i = 0; i < 1000; i++) {
+         big.append(i);
+      }
+      journal.append(null, "Foo", big.toString());
+      journal.append(null, "Foo", "after");
+      journal.close();
+      openJournal(512);
+      entries = replay(100);
+      assertEquals(2, entries.size());
+      assertEquals(big.toString(), entries.get(0).getPayload());
+      assertEquals("after", entries.get(1).getPayload());
+   }
+
+   public void testReplayFromTimestamp() throws Exception {
+      openJournal(256);
+      journal.append(null, "Foo", "before");
+      journal.flush();
+      Thread.sleep(20);
+      long time = System.currentTimeMillis();
+      Thread.sleep(20);
+      for (int i = 0; i < 10; i++) {
+         journal.append(null, "Foo", "after " + i);
+      }
+      journal.flush();
+      final List<JournalEntry> entries = new ArrayList<JournalEntry>();
+      long next = journal.replayFromTimestamp(time, new JournalEntryHandler() {
+         public void onEntry(JournalEntry entry) {
+            entries.add(entry);
+         }
+      });
+      assertEquals(10, entries.size());
+      assertEquals("after 0", entries.get(0).getPayload());
+      assertEquals(11, next);
+   }
+
+   public void testReplayToEventServiceIsNotJournaledAgain() throws Exception {
+      openJournal(EventJournal.DEFAULT_SEGMENT_SIZE);
+      eventService.setEventJournal(journal);
+      eventService.publish("Foo", "one");
+      eventService.publish(new Integer(2));
+      journal.flush();
+
+      EBTestCounter counter = new EBTestCounter();
+      EventTopicSubscriber topicSubscriber = new TopicSubscriberForTest(counter, false);
+      final List events = new ArrayList();
+      EventSubscriber eventSubscriber = new EventSubscriber() {
+         public void onEvent(Object event) {
+            events.add(event);
+         }
+      };
+      eventService.subscribeStrongly("Foo", topicSubscriber);
+      eventService.subscribeStrongly(Integer.class, eventSubscriber);
+      assertEquals(2, journal.replay(0, eventService));
+      assertEquals(1, counter.eventsHandledCount);
+      assertEquals(1, events.size());
+      journal.flush();
+      assertEquals(2, journal.getNextOffset());
+   }
+
+   public void testUnserializableEntriesAreSkipped() throws Exception {
+      openJournal(EventJournal.DEFAULT_SEGMENT_SIZE);
+      journal.append(null, "Foo", new Object());
+      journal.append(null, "Foo", "ok");
+      journal.flush();
+      List<JournalEntry> entries = replay(0);
+      assertEquals(1, entries.size());
+      assertEquals(1, entries.get(0).getOffset());
+   }
+}
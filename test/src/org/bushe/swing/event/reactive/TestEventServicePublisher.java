@@ -0,0 +1,297 @@
+/**
+ * Copyright 2007 Bushe Enterprises, Inc., Hopkinton, MA, USA, www.bushe.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bushe.swing.event.reactive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.bushe.swing.event.EventSubscriber;
+import org.bushe.swing.event.EventTopicSubscriber;
+import org.bushe.swing.event.ThreadSafeEventService;
+
+public class TestEventServicePublisher extends TestCase {
+
+   private ThreadSafeEventService eventService = null;
+
+   public TestEventServicePublisher(String name) {
+      super(name);
+   }
+
+   protected void setUp() throws Exception {
+      eventService = new ThreadSafeEventService(null, false);
+   }
+
+   protected void tearDown() throws Exception {
+      eventService = null;
+   }
+
+   public void testDeliversOnlyWhatIsRequested() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+      EventServicePublisher.forClass(eventService, String.class).subscribe(subscriber);
+      eventService.publish("one");
+      eventService.publish("two");
+      eventService.publish("three");
+      assertEquals(0, subscriber.items.size());
+      subscriber.subscription.request(2);
+      assertEquals("[one, two]", subscriber.items.toString());
+      subscriber.subscription.request(2);
+      assertEquals("[one, two, three]", subscriber.items.toString());
+      //outstanding demand is met on the publishing thread
+      eventService.publish("four");
+      eventService.publish("five");
+      assertEquals("[one, two, three, four]", subscriber.items.toString());
+   }
+
+   public void testDropStrategy() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+      EventServicePublisher.forClass(eventService, String.class, 2, OverflowStrategy.DROP).subscribe(subscriber);
+      publishNumbers(5);
+      subscriber.subscription.request(10);
+      assertEquals("[0, 1]", subscriber.items.toString());
+   }
+
+   public void testLatestStrategy() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+      EventServicePublisher.forClass(eventService, String.class, 2, OverflowStrategy.LATEST).subscribe(subscriber);
+      publishNumbers(5);
+      subscriber.subscription.request(10);
+      assertEquals("[3, 4]", subscriber.items.toString());
+   }
+
+   public void testErrorStrategy() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+      EventServicePublisher.forClass(eventService, String.class, 1, OverflowStrategy.ERROR).subscribe(subscriber);
+      publishNumbers(2);
+      assertTrue(subscriber.error instanceof IllegalStateException);
+      assertEquals(0, subscriber.items.size());
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testCancelUnsubscribesImmediately() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+      EventServicePublisher.forClass(eventService, String.class).subscribe(subscriber);
+      assertEquals(1, eventService.getSubscribers(String.class).size());
+      subscriber.subscription.request(Long.MAX_VALUE);
+      eventService.publish("one");
+      subscriber.subscription.cancel();
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      eventService.publish("two");
+      assertEquals("[one]", subscriber.items.toString());
+      subscriber.subscription.cancel();
+   }
+
+   public void testCancelInOnSubscribe() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>() {
+         public void onSubscribe(Subscription subscription) {
+            subscription.cancel();
+         }
+      };
+      EventServicePublisher.forClass(eventService, String.class).subscribe(subscriber);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testNonPositiveRequestFails() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>();
+      EventServicePublisher.forClass(eventService, String.class).subscribe(subscriber);
+      subscriber.subscription.request(0);
+      assertTrue(subscriber.error instanceof IllegalArgumentException);
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testNullSubscriber() {
+      try {
+         EventServicePublisher.forClass(eventService, String.class).subscribe(null);
+         fail("Expected a NullPointerException");
+      } catch (NullPointerException expected) {
+      }
+   }
+
+   public void testTopicAndPatternPublishers() {
+      RecordingSubscriber<Object> byTopic = new RecordingSubscriber<Object>();
+      RecordingSubscriber<Object> byPattern = new RecordingSubscriber<Object>();
+      EventServicePublisher.forTopic(eventService, "Foo.Bar").subscribe(byTopic);
+      EventServicePublisher.forTopicPattern(eventService, Pattern.compile("Foo.*"), 10, OverflowStrategy.DROP)
+              .subscribe(byPattern);
+      byTopic.subscription.request(Long.MAX_VALUE);
+      byPattern.subscription.request(Long.MAX_VALUE);
+      eventService.publish("Foo.Bar", "bar");
+      eventService.publish("Foo.Baz", "baz");
+      assertEquals("[bar]", byTopic.items.toString());
+      assertEquals("[bar, baz]", byPattern.items.toString());
+   }
+
+   public void testRequestFromOnNextIsNotReentrant() {
+      final int[] depth = new int[1];
+      final int[] maxDepth = new int[1];
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>() {
+         public void onNext(String item) {
+            depth[0]++;
+            maxDepth[0] = Math.max(maxDepth[0], depth[0]);
+            super.onNext(item);
+            subscription.request(1);
+            depth[0]--;
+         }
+      };
+      EventServicePublisher.forClass(eventService, String.class).subscribe(subscriber);
+      publishNumbers(5);
+      subscriber.subscription.request(1);
+      assertEquals("[0, 1, 2, 3, 4]", subscriber.items.toString());
+      assertEquals(1, maxDepth[0]);
+   }
+
+   public void testThrowingSubscriberIsCancelled() {
+      RecordingSubscriber<String> subscriber = new RecordingSubscriber<String>() {
+         public void onNext(String item) {
+            super.onNext(item);
+            throw new RuntimeException("Broken subscriber");
+         }
+      };
+      EventServicePublisher.forClass(eventService, String.class).subscribe(subscriber);
+      subscriber.subscription.request(10);
+      eventService.publish("one");
+      eventService.publish("two");
+      assertEquals("[one]", subscriber.items.toString());
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+   }
+
+   public void testConcurrentPublishers() throws InterruptedException {
+      final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+      RecordingSubscriber<Integer> subscriber = new RecordingSubscriber<Integer>() {
+         public void onNext(Integer item) {
+            received.add(item);
+         }
+      };
+      EventServicePublisher.forClass(eventService, Integer.class, 100000, OverflowStrategy.ERROR)
+              .subscribe(subscriber);
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+         threads[t] = new Thread() {
+            public void run() {
+               for (int i = 0; i < 1000; i++) {
+                  eventService.publish(new Integer(i));
+               }
+            }
+         };
+         threads[t].start();
+      }
+      for (int i = 0; i < 4000; i += 100) {
+         subscriber.subscription.request(100);
+      }
+      for (int t = 0; t < threads.length; t++) {
+         threads[t].join();
+      }
+      assertNull(subscriber.error);
+      assertEquals(4000, received.size());
+   }
+
+   public void testSinkRequestsInBatches() {
+      final List<Long> requests = new ArrayList<Long>();
+      EventServiceSink sink = new EventServiceSink(eventService, "Sink", 2);
+      sink.onSubscribe(new Subscription() {
+         public void request(long n) {
+            requests.add(new Long(n));
+         }
+
+         public void cancel() {
+         }
+      });
+      final List<Object> published = new ArrayList<Object>();
+      eventService.subscribeStrongly("Sink", new EventTopicSubscriber() {
+         public void onEvent(String topic, Object data) {
+            published.add(data);
+         }
+      });
+      sink.onNext("a");
+      assertEquals(1, requests.size());
+      sink.onNext("b");
+      assertEquals(2, requests.size());
+      sink.onNext("c");
+      assertEquals("[a, b, c]", published.toString());
+      assertEquals("[2, 2]", requests.toString());
+   }
+
+   public void testSinkRejectsSecondSubscription() {
+      final boolean[] cancelled = new boolean[1];
+      EventServiceSink sink = new EventServiceSink(eventService);
+      sink.onSubscribe(new RecordingSubscription());
+      sink.onSubscribe(new Subscription() {
+         public void request(long n) {
+         }
+
+         public void cancel() {
+            cancelled[0] = true;
+         }
+      });
+      assertTrue(cancelled[0]);
+   }
+
+   public void testPublisherToSinkAcrossEventServices() {
+      ThreadSafeEventService other = new ThreadSafeEventService(null, false);
+      final List<Object> received = new ArrayList<Object>();
+      other.subscribeStrongly(String.class, new EventSubscriber() {
+         public void onEvent(Object event) {
+            received.add(event);
+         }
+      });
+      EventServiceSink sink = new EventServiceSink(other, null, 3);
+      EventServicePublisher.forClass(eventService, String.class).subscribe(sink);
+      publishNumbers(10);
+      assertEquals(10, received.size());
+      sink.cancel();
+      assertEquals(0, eventService.getSubscribers(String.class).size());
+      eventService.publish("after");
+      assertEquals(10, received.size());
+   }
+
+   private void publishNumbers(int count) {
+      for (int i = 0; i < count; i++) {
+         eventService.publish("" + i);
+      }
+   }
+
+   private static class RecordingSubscription implements Subscription {
+      public void request(long n) {
+      }
+
+      public void cancel() {
+      }
+   }
+
+   private static class RecordingSubscriber<T> implements Subscriber<T> {
+      final List<T> items = new ArrayList<T>();
+      Subscription subscription;
+      Throwable error;
+
+      public void onSubscribe(Subscription subscription) {
+         this.subscription = subscription;
+      }
+
+      public void onNext(T item) {
+         items.add(item);
+      }
+
+      public void onError(Throwable throwable) {
+         error = throwable;
+      }
+
+      public void onComplete() {
+      }
+   }
+}